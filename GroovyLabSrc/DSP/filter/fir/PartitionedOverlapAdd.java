@@ -0,0 +1,461 @@
+package DSP.fir;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import DSP.fft.RDFT;
+
+
+
+/**
+  Implements a finite impulse response (FIR) filter for long kernels using partitioned fast convolution.
+
+ The OverlapAdd class transforms each data block together with the whole kernel, so the FFT size is
+  blockSize + kernelLength - 1.  For long kernels (e.g. a 65k-tap equiripple design or a measured room
+  response) this forces large blocks and correspondingly large latency.  This class splits the kernel
+  into partitions, transforms each partition once at construction time, and keeps the transforms of
+  the most recent input blocks in a frequency-domain delay line.  The spectrum of each output block
+  is the sum over partitions of the delayed input spectra multiplied by the partition spectra, so
+  the processing latency is governed by the block size alone, independently of the kernel length.
+
+ Partitions may be uniform (all partitions equal to the block size, the first constructor) or
+  non-uniform (an explicit list of partition sizes, the second constructor).  In the non-uniform case
+  consecutive partitions of equal size form a stage with its own delay line.  A partition of size N
+  starting at kernel offset s is admissible when N is a multiple of the block size and s >= N - blockSize,
+  which guarantees that the contribution of a stage is available before it is due at the output.  The
+  static method nonUniformPartitions() constructs a scheme of this kind in which the partition size
+  doubles every two partitions (Gardner, 1995).  Large partitions reduce the operation count per sample
+  for very long kernels, at the cost of a less even computational load from block to block.
+
+ The multiply-accumulate of the partition products dominates the cost for long kernels.  When an
+  ExecutorService is supplied with setExecutor(), the partitions of each stage are divided into groups
+  that are accumulated concurrently and then summed.  The FFTs themselves are always evaluated on the
+  calling thread.
+
+ The kernel spectra are read-only after construction.  A second constructor creates a "slave" instance
+  that shares the kernel spectra (and the executor) of a "master" instance, but has its own DFT objects,
+  delay lines and output state.  Unlike OverlapAdd slaves, master and slave instances may therefore be
+  used in different threads, e.g. one instance per channel of a multichannel stream filtered with the
+  same kernel.
+
+ Data are processed in consecutive, contiguous blocks of uniform size with filter(), exactly as with
+  OverlapAdd.  The output is identical (to rounding error) to OverlapAdd with the same kernel and block
+  size.  When the end of the stream is reached, the remaining convolution results may be obtained with
+  repeated calls to flush().
+
+ See "Efficient Convolution without Input-Output Delay", Gardner, W. G., J. Audio Eng. Soc., VOL. 43,
+  NO. 3, MARCH 1995, pp. 127-136.
+
+ */
+public class PartitionedOverlapAdd {
+
+  /** Minimum number of partitions assigned to one concurrent task. */
+  private static final int MINPARTITIONSPERTASK = 4;
+
+  private int            kernelLength;
+  private int            blockSize;
+
+  private StageSpectra[] spectra;
+  private Stage[]        stages;
+
+  private double[]       outputRing;
+  private int            ringMask;
+  private int            ringPtr;
+
+  private ExecutorService executor;
+  private int            numTasks;
+
+
+
+  /** Kernel partition spectra for one stage (partitions of equal size) - shared between master and slaves. */
+  private static class StageSpectra {
+
+    int          partitionSize;
+    int          log2nfft;
+    int          nfft;
+    int          offset;
+    double[][]   kernels;
+
+    StageSpectra( double[] H, int offset, int partitionSize, int numPartitions ) {
+
+      this.partitionSize = partitionSize;
+      this.offset        = offset;
+
+      log2nfft = 4;
+      nfft     = 16;
+      while ( nfft < 2*partitionSize ) {
+        log2nfft++;
+        nfft *= 2;
+      }
+
+      RDFT fft       = new RDFT( log2nfft );
+      double[] segment = new double[ nfft ];
+      kernels        = new double[ numPartitions ][ nfft ];
+
+      for ( int p = 0;  p < numPartitions;  p++ ) {
+        Arrays.fill( segment, 0.0 );
+        int start = offset + p*partitionSize;
+        int n     = Math.min( partitionSize, H.length - start );
+        if ( n > 0 ) System.arraycopy( H, start, segment, 0, n );
+        fft.evaluate( segment, kernels[p] );
+      }
+    }
+
+  }
+
+
+
+  /** Per-instance processing state for one stage:  input buffer, frequency-domain delay line and work space. */
+  private class Stage {
+
+    StageSpectra   spec;
+    RDFT           fft;
+    double[]       input;
+    int            inputPtr;
+    double[]       segment;
+    double[][]     fdl;
+    int            fdlPtr;
+    double[][]     accumulators;
+
+    Stage( StageSpectra spec ) {
+      this.spec    = spec;
+      fft          = new RDFT( spec.log2nfft );
+      input        = new double[ spec.partitionSize ];
+      inputPtr     = 0;
+      segment      = new double[ spec.nfft ];
+      fdl          = new double[ spec.kernels.length ][ spec.nfft ];
+      fdlPtr       = 0;
+      accumulators = new double[1][ spec.nfft ];
+    }
+
+
+    /** Appends one block of data and, when a full partition of input is available, convolves it into the output ring. */
+    void process( double[] src, int sptr ) {
+
+      System.arraycopy( src, sptr, input, inputPtr, blockSize );
+      inputPtr += blockSize;
+      if ( inputPtr < spec.partitionSize ) return;
+      inputPtr = 0;
+
+      // transform newest input partition into the head of the delay line
+
+      fdlPtr = ( fdlPtr == 0 ) ? fdl.length - 1 : fdlPtr - 1;
+      Arrays.fill( segment, 0.0 );
+      System.arraycopy( input, 0, segment, 0, spec.partitionSize );
+      fft.evaluate( segment, fdl[ fdlPtr ] );
+
+      // sum of partition products
+
+      final int P      = fdl.length;
+      int tasks        = Math.min( numTasks, P / MINPARTITIONSPERTASK );
+      double[] product;
+
+      if ( executor == null  ||  tasks < 2 ) {
+        product = accumulators[0];
+        Arrays.fill( product, 0.0 );
+        accumulate( 0, P, product );
+      }
+      else {
+        if ( accumulators.length < tasks ) accumulators = new double[ tasks ][ spec.nfft ];
+
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>( tasks );
+        for ( int t = 0;  t < tasks;  t++ ) {
+          final int      p0  = (int) ( (long) P * t / tasks );
+          final int      p1  = (int) ( (long) P * (t+1) / tasks );
+          final double[] acc = accumulators[t];
+          futures.add( executor.submit( new Callable<Object>() {
+            public Object call() {
+              Arrays.fill( acc, 0.0 );
+              accumulate( p0, p1, acc );
+              return null;
+            }
+          } ) );
+        }
+        waitFor( futures );
+
+        product = accumulators[0];
+        for ( int t = 1;  t < tasks;  t++ ) {
+          double[] acc = accumulators[t];
+          for ( int i = 0;  i < product.length;  i++ ) product[i] += acc[i];
+        }
+      }
+
+      fft.evaluateInverse( product, segment );
+
+      // overlap add into output ring, delayed by the stage offset less the stage latency
+
+      int delay = spec.offset - spec.partitionSize + blockSize;
+      int n     = 2*spec.partitionSize - 1;
+      for ( int i = 0;  i < n;  i++ ) {
+        outputRing[ ( ringPtr + delay + i ) & ringMask ] += segment[i];
+      }
+    }
+
+
+    /** Accumulates the products of partitions p0 <= p < p1 with the correspondingly delayed input spectra. */
+    void accumulate( int p0, int p1, double[] acc ) {
+      int P = fdl.length;
+      for ( int p = p0;  p < p1;  p++ ) {
+        dftProductAccumulate( spec.kernels[p], fdl[ ( fdlPtr + p ) % P ], acc );
+      }
+    }
+
+  }
+
+
+
+  /** Constructor for master PartitionedOverlapAdd instance with uniform partitions equal to the block size.
+   * @param H          double[] containing convolutional kernel
+   * @param blockSize  int specifying size of data blocks to be filtered
+   */
+  public PartitionedOverlapAdd( double[] H, int blockSize ) {
+    this( H, blockSize, uniformPartitions( H.length, blockSize ) );
+  }
+
+
+
+  /** Constructor for master PartitionedOverlapAdd instance with an explicit partitioning of the kernel.
+   * @param H               double[] containing convolutional kernel
+   * @param blockSize       int specifying size of data blocks to be filtered
+   * @param partitionSizes  int[] containing the sizes of consecutive kernel partitions.  Each size must be a
+   *                        multiple of blockSize, sizes must not decrease, a partition of size N must start at an
+   *                        offset of at least N - blockSize, and the partitions must cover the kernel.
+   */
+  public PartitionedOverlapAdd( double[] H, int blockSize, int[] partitionSizes ) {
+
+    if ( blockSize < 1 )
+      throw new IllegalArgumentException( "blockSize must be positive" );
+
+    kernelLength   = H.length;
+    this.blockSize = blockSize;
+
+    ArrayList<StageSpectra> list = new ArrayList<StageSpectra>();
+    int offset = 0;
+    int i      = 0;
+    while ( i < partitionSizes.length  &&  offset < H.length ) {
+      int size = partitionSizes[i];
+      if ( size < blockSize  ||  size % blockSize != 0 )
+        throw new IllegalArgumentException( "Partition size " + size + " is not a multiple of blockSize" );
+      if ( offset < size - blockSize )
+        throw new IllegalArgumentException( "Partition of size " + size + " starts too early, at offset " + offset );
+      if ( !list.isEmpty()  &&  size < list.get( list.size()-1 ).partitionSize )
+        throw new IllegalArgumentException( "Partition sizes must not decrease" );
+      int count = 0;
+      while ( i < partitionSizes.length  &&  partitionSizes[i] == size  &&  offset + count*size < H.length ) {
+        count++;
+        i++;
+      }
+      list.add( new StageSpectra( H, offset, size, count ) );
+      offset += count*size;
+    }
+    if ( offset < H.length )
+      throw new IllegalArgumentException( "Partitions do not cover the kernel" );
+
+    spectra = list.toArray( new StageSpectra[ list.size() ] );
+
+    numTasks = Runtime.getRuntime().availableProcessors();
+    allocateState();
+  }
+
+
+
+  /** Constructor for slave PartitionedOverlapAdd instance - this one shares the kernel spectra of the master
+   * @param master     Master PartitionedOverlapAdd instance - slave filters with the same kernel and block size
+   */
+  public PartitionedOverlapAdd( PartitionedOverlapAdd master ) {
+    kernelLength = master.kernelLength;
+    blockSize    = master.blockSize;
+    spectra      = master.spectra;
+    executor     = master.executor;
+    numTasks     = master.numTasks;
+    allocateState();
+  }
+
+
+
+  private void allocateState() {
+
+    stages = new Stage[ spectra.length ];
+    int span = blockSize;
+    for ( int s = 0;  s < spectra.length;  s++ ) {
+      stages[s] = new Stage( spectra[s] );
+      span = Math.max( span, spectra[s].offset + spectra[s].partitionSize + blockSize );
+    }
+
+    int ringSize = 1;
+    while ( ringSize < span ) ringSize *= 2;
+    outputRing = new double[ ringSize ];
+    ringMask   = ringSize - 1;
+    ringPtr    = 0;
+  }
+
+
+
+  /**
+   * Supplies an executor on which partition products are accumulated concurrently.
+   *
+   * @param executor   ExecutorService to use, or null to accumulate on the calling thread
+   * @param numTasks   int specifying the maximum number of concurrent tasks per stage and block
+   */
+  public void setExecutor( ExecutorService executor, int numTasks ) {
+    if ( numTasks < 1 ) throw new IllegalArgumentException( "numTasks must be positive" );
+    this.executor = executor;
+    this.numTasks = numTasks;
+  }
+
+
+
+  /** Filtering operation to produce an incremental convolution result from one block of data
+   * @param src    double[] array containing data block
+   * @param sptr   int specifying point within data array to begin block (usually 0).
+   *               Array length must be at least blocksize + sptr.
+   * @param dst    double[] containing increment of convolution result - array length must be at
+   *                  least dptr + blockSize
+   * @param dptr   Point within destination array where convolution result starts
+   */
+  public void filter( double[] src, int sptr, double[] dst, int dptr ) {
+
+    if ( src.length < sptr + blockSize )
+      throw new IllegalArgumentException( "Data array shorter than sptr + blockSize" );
+
+    for ( int s = 0;  s < stages.length;  s++ ) {
+      stages[s].process( src, sptr );
+    }
+
+    // save incremental result and clear the emitted part of the ring
+
+    for ( int i = 0;  i < blockSize;  i++ ) {
+      int j = ( ringPtr + i ) & ringMask;
+      dst[ dptr + i ] = outputRing[j];
+      outputRing[j]   = 0.0;
+    }
+    ringPtr = ( ringPtr + blockSize ) & ringMask;
+  }
+
+
+
+  /** Flushes state information - i.e. left over convolution results when no further data blocks are available.
+   *  Each call returns the next blockSize samples of the convolution tail, so ceil( (kernelLength-1)/blockSize )
+   *  calls recover the complete tail.
+   * @param dst       double[] where convolution results are returned.  Length of dst must be >= dptr + blockSize.
+   * @param dptr      int specifying point in dst where convolution results begin.
+   */
+  public void flush( double[] dst, int dptr ) {
+    filter( new double[ blockSize ], 0, dst, dptr );
+  }
+
+
+
+  /**
+   * Accessor for the block size.
+   *
+   * @return     int containing the size of the data blocks processed by filter().
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+
+
+  /**
+   * Accessor for the kernel length.
+   *
+   * @return     int containing the number of kernel coefficients.
+   */
+  public int getKernelLength() {
+    return kernelLength;
+  }
+
+
+
+  /**
+   * Constructs a uniform partitioning of a kernel, with every partition equal to the block size.
+   *
+   * @param kernelLength   int containing the number of kernel coefficients.
+   * @param blockSize      int specifying the size of data blocks to be filtered.
+   * @return               int[] containing the partition sizes.
+   */
+  public static int[] uniformPartitions( int kernelLength, int blockSize ) {
+    int n = ( kernelLength + blockSize - 1 ) / blockSize;
+    int[] retval = new int[ Math.max( n, 1 ) ];
+    Arrays.fill( retval, blockSize );
+    return retval;
+  }
+
+
+
+  /**
+   * Constructs a non-uniform partitioning of a kernel in which the partition size doubles after every two
+   * partitions of equal size, as soon as the admissibility constraint allows, up to a maximum size.
+   *
+   * @param kernelLength       int containing the number of kernel coefficients.
+   * @param blockSize          int specifying the size of data blocks to be filtered.
+   * @param maxPartitionSize   int specifying the largest partition size to use.
+   * @return                   int[] containing the partition sizes.
+   */
+  public static int[] nonUniformPartitions( int kernelLength, int blockSize, int maxPartitionSize ) {
+
+    ArrayList<Integer> sizes = new ArrayList<Integer>();
+    int size   = blockSize;
+    int count  = 0;
+    int offset = 0;
+    while ( offset < kernelLength ) {
+      if ( count >= 2  &&  2*size <= maxPartitionSize  &&  offset >= 2*size - blockSize ) {
+        size *= 2;
+        count = 0;
+      }
+      sizes.add( size );
+      offset += size;
+      count++;
+    }
+
+    int[] retval = new int[ sizes.size() ];
+    for ( int i = 0;  i < retval.length;  i++ ) retval[i] = sizes.get(i);
+    return retval;
+  }
+
+
+
+  /**
+   * Accumulates the product of two conjugate symmetric dfts of the same length into a third.
+   *
+   * @param kernel       first DFT, in conjugate symmetric packed form
+   * @param transform    second DFT, in conjugate symmetric packed form
+   * @param acc          DFT to which the product kernel*transform is added
+   */
+  private static void dftProductAccumulate( double[] kernel, double[] transform, double[] acc ) {
+
+    int n    = kernel.length;
+    int half = n/2;
+    acc[0]    += kernel[0]*transform[0];
+    acc[half] += kernel[half]*transform[half];
+
+    for ( int i = 1;  i < half;  i++ ) {
+      int im = n-i;
+      acc[i]  += kernel[i]*transform[i]  - kernel[im]*transform[im];
+      acc[im] += kernel[i]*transform[im] + kernel[im]*transform[i];
+    }
+
+  }
+
+
+
+  private static void waitFor( ArrayList<Future<?>> futures ) {
+    try {
+      for ( Future<?> f : futures ) f.get();
+    }
+    catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( "Interrupted while accumulating partition products", e );
+    }
+    catch ( ExecutionException e ) {
+      throw new IllegalStateException( "Partition product task failed", e.getCause() );
+    }
+  }
+
+}
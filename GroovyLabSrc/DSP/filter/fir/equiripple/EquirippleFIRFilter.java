@@ -7,6 +7,7 @@ import java.util.Random;
 
 import DSP.fft.RDFT;
 import DSP.fir.OverlapAdd;
+import DSP.fir.PartitionedOverlapAdd;
 
 
 /**
@@ -222,6 +223,19 @@ abstract class EquirippleFIRFilter {
   
   
   
+  /**
+   * Method to provide a new PartitionedOverlapAdd instance to implement the filter.  Preferable to
+   * getImplementation() for long filters, since the processing latency depends on the block size only.
+   *
+   * @param blockSize the block size
+   * @return the implementation
+   */
+  public    PartitionedOverlapAdd getPartitionedImplementation( int blockSize ) {
+    return new PartitionedOverlapAdd( getCoefficients(), blockSize );
+  }
+  
+  
+  
   /**
    * Method to filter a fixed-length sequence with this filter.
    *
@@ -0,0 +1,499 @@
+package com.nr.cg;
+
+import static java.lang.Math.*;
+
+import java.util.HashMap;
+import java.util.concurrent.RecursiveAction;
+
+import com.nr.util.Parallel;
+
+/**
+ * Bounding-volume hierarchy over moving circles or spheres in any number of dimensions, held
+ * in flat arrays. It answers the queries of Qotree (the elements colliding with a given one,
+ * or containing a given point) without a fixed outer box or depth limit and without caller
+ * sized result arrays, and finds all colliding pairs at once.
+ *
+ * Sphere i has center c[i*dim..i*dim+dim-1] and radius r[i]; the index i identifies it for
+ * good. The tree is built like KDflat, by median splits of the centers along the widest
+ * dimension, with boxes numbered in preorder (first daughter of box b is b+1) and built by
+ * fork-join tasks on Parallel.forkJoinPool(). The spheres are copied in tree order, so the
+ * spheres of a leaf lie together in memory. Each box keeps the bounding box of its spheres.
+ *
+ * When spheres move, set marks the boxes above them as stale, and refit recomputes just those
+ * boxes, bottom up and in parallel, keeping the tree structure. set may be called from many
+ * threads at once for different spheres, and update moves many spheres in parallel and then
+ * refits. As the spheres drift away from their original grouping the boxes grow; update
+ * rebuilds the tree when their total size exceeds REBUILD times that of a fresh tree.
+ * Queries may run concurrently with each other, but not with set, refit or update.
+ */
+public class BVHflat {
+  static final int LEAF = 4, FORK = 1 << 13, QGRAIN = 256;
+  static final double REBUILD = 2.0;
+  public final int dim, n, leaf, nboxes, depth;
+  private final double[] tc, tr;   // centers and radii in tree order: sphere perm[k] at tc[k*dim..], tr[k]
+  private final int[] perm, rperm;   // sphere at tree position k, and tree position of sphere i
+  private final double[] lo, hi;   // bounds of box b at lo[b*dim..], hi[b*dim..]
+  private final int[] dau2, ptlo, pthi, parent;   // second daughter (0 for a leaf), range of positions, parent (-1 for the root)
+  private final int[] leafof;   // leaf box of each tree position
+  private final boolean[] stale;
+  private final HashMap<Integer,Integer> sizes = new HashMap<Integer,Integer>();
+  private double size0;   // total size of the boxes of a fresh tree
+
+  /**
+   * Tree over the n = r.length spheres with centers c[i*dim..i*dim+dim-1] and radii r[i].
+   * c and r are copied.
+   *
+   * @param dim
+   * @param c
+   * @param r
+   */
+  public BVHflat(final int dim, final double[] c, final double[] r) {
+    this(dim, c, r, LEAF);
+  }
+
+  /**
+   * As above, with at most leaf spheres per leaf box.
+   *
+   * @param dim
+   * @param c
+   * @param r
+   * @param leaf
+   */
+  public BVHflat(final int dim, final double[] c, final double[] r, final int leaf) {
+    if (dim < 1 || leaf < 1) throw new IllegalArgumentException("BVHflat: need dim >= 1 and leaf >= 1");
+    if (r.length == 0 || c.length != r.length*dim)
+      throw new IllegalArgumentException("BVHflat: need one center of dim coordinates per radius");
+    this.dim = dim;
+    this.leaf = leaf;
+    n = r.length;
+    nboxes = count(n);
+    int d=0;
+    for (int np=n;np>leaf;np-=np/2) d++;
+    depth = d;
+    tc = new double[n*dim];
+    tr = new double[n];
+    perm = new int[n];
+    rperm = new int[n];
+    lo = new double[nboxes*dim];
+    hi = new double[nboxes*dim];
+    dau2 = new int[nboxes];
+    ptlo = new int[nboxes];
+    pthi = new int[nboxes];
+    parent = new int[nboxes];
+    leafof = new int[n];
+    stale = new boolean[nboxes];
+    for (int k=0;k<n;k++) perm[k]=k;
+    build(c, r);
+  }
+
+  /**
+   * Tree over the circles or spheres s, which must all have the same dimension.
+   *
+   * @param s
+   */
+  public BVHflat(final Sphcirc[] s) {
+    this(s[0].dim(), centers(s), radii(s), LEAF);
+  }
+
+  private static double[] centers(final Sphcirc[] s) {
+    int dim=s[0].dim();
+    double[] c = new double[s.length*dim];
+    for (int i=0;i<s.length;i++) {
+      if (s[i].dim() != dim) throw new IllegalArgumentException("Need same dim!");
+      System.arraycopy(s[i].center.x,0,c,i*dim,dim);
+    }
+    return c;
+  }
+
+  private static double[] radii(final Sphcirc[] s) {
+    double[] r = new double[s.length];
+    for (int i=0;i<s.length;i++) r[i]=s[i].radius;
+    return r;
+  }
+
+  // Number of boxes in the tree over np spheres, as in KDflat
+  private int count(final int np) {
+    if (np <= leaf) return 1;
+    Integer cnt = sizes.get(np);
+    if (cnt == null) {
+      cnt = 1 + count(np/2) + count(np-np/2);
+      sizes.put(np, cnt);
+    }
+    return cnt;
+  }
+
+  // Builds the tree from spheres c, r given by index, ordering perm, then copies them in tree order
+  private void build(final double[] c, final double[] r) {
+    parent[0]=-1;
+    Parallel.forkJoinPool().invoke(new Build(c, r, 0, 0, n));
+    Parallel.forRange(n, 4096, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int k=from;k<to;k++) {
+          rperm[perm[k]]=k;
+          System.arraycopy(c,perm[k]*dim,tc,k*dim,dim);
+          tr[k]=r[perm[k]];
+        }
+      }
+    });
+    size0=size();
+  }
+
+  // Builds box b over tree positions [pl,ph): splits at the median center along the widest
+  // dimension of the centers, and sets the box to the bounds of the spheres
+  private class Build extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double[] c, r;
+    final int b, pl, ph;
+
+    Build(final double[] c, final double[] r, final int b, final int pl, final int ph) {
+      this.c=c; this.r=r; this.b=b; this.pl=pl; this.ph=ph;
+    }
+
+    protected void compute() {
+      int i,j,d=0,np=ph-pl,kl=np/2;
+      ptlo[b]=pl;
+      pthi[b]=ph-1;
+      stale[b]=false;
+      if (np <= leaf) {
+        dau2[b]=0;
+        for (j=0;j<dim;j++) {
+          lo[b*dim+j]=Double.POSITIVE_INFINITY;
+          hi[b*dim+j]=Double.NEGATIVE_INFINITY;
+        }
+        for (i=pl;i<ph;i++) {
+          leafof[i]=b;
+          int q=perm[i];
+          for (j=0;j<dim;j++) {
+            double v=c[q*dim+j];
+            lo[b*dim+j]=min(lo[b*dim+j],v-r[q]);
+            hi[b*dim+j]=max(hi[b*dim+j],v+r[q]);
+          }
+        }
+        return;
+      }
+      double wmax=-1.;
+      for (j=0;j<dim;j++) {   // widest dimension of the centers
+        double l=Double.POSITIVE_INFINITY,h=Double.NEGATIVE_INFINITY;
+        for (i=pl;i<ph;i++) {
+          double v=c[perm[i]*dim+j];
+          if (v < l) l=v;
+          if (v > h) h=v;
+        }
+        if (h-l > wmax) { wmax=h-l; d=j; }
+      }
+      select(c, pl, ph, pl+kl, d);
+      int d1=b+1, d2=b+1+count(kl);
+      dau2[b]=d2;
+      parent[d1]=parent[d2]=b;
+      Build left=new Build(c,r,d1,pl,pl+kl), right=new Build(c,r,d2,pl+kl,ph);
+      if (np >= FORK) invokeAll(left,right);
+      else {
+        left.compute();
+        right.compute();
+      }
+      union(b);
+    }
+  }
+
+  // Box b as the union of its daughters
+  private void union(final int b) {
+    int d1=b+1,d2=dau2[b];
+    for (int j=0;j<dim;j++) {
+      lo[b*dim+j]=min(lo[d1*dim+j],lo[d2*dim+j]);
+      hi[b*dim+j]=max(hi[d1*dim+j],hi[d2*dim+j]);
+    }
+  }
+
+  // Rearrange perm[pl..ph-1] so that the sphere at position k has the k-th smallest center
+  // coordinate d, as KDflat.select
+  private void select(final double[] x, final int pl, final int ph, final int k, final int d) {
+    int i,ia,ir=ph-1,j,l=pl,mid,t;
+    double a;
+    for (;;) {
+      if (ir <= l+1) {
+        if (ir == l+1 && x[perm[ir]*dim+d] < x[perm[l]*dim+d]) {
+          t=perm[l]; perm[l]=perm[ir]; perm[ir]=t;
+        }
+        return;
+      }
+      mid=(l+ir) >> 1;
+      t=perm[mid]; perm[mid]=perm[l+1]; perm[l+1]=t;
+      if (x[perm[l]*dim+d] > x[perm[ir]*dim+d]) { t=perm[l]; perm[l]=perm[ir]; perm[ir]=t; }
+      if (x[perm[l+1]*dim+d] > x[perm[ir]*dim+d]) { t=perm[l+1]; perm[l+1]=perm[ir]; perm[ir]=t; }
+      if (x[perm[l]*dim+d] > x[perm[l+1]*dim+d]) { t=perm[l]; perm[l]=perm[l+1]; perm[l+1]=t; }
+      i=l+1;
+      j=ir;
+      ia=perm[l+1];
+      a=x[ia*dim+d];
+      for (;;) {
+        do i++; while (x[perm[i]*dim+d] < a);
+        do j--; while (x[perm[j]*dim+d] > a);
+        if (j < i) break;
+        t=perm[i]; perm[i]=perm[j]; perm[j]=t;
+      }
+      perm[l+1]=perm[j];
+      perm[j]=ia;
+      if (j >= k) ir=j-1;
+      if (j <= k) l=i;
+    }
+  }
+
+  /**
+   * Move sphere i to center ci[0..dim-1] and radius ri. The boxes are not changed until
+   * refit is called. Calls for different spheres may run concurrently.
+   *
+   * @param i
+   * @param ci
+   * @param ri
+   */
+  public void set(final int i, final double[] ci, final double ri) {
+    set(i, ci, 0, ri);
+  }
+
+  private void set(final int i, final double[] c, final int co, final double ri) {
+    int k=rperm[i];
+    System.arraycopy(c,co,tc,k*dim,dim);
+    tr[k]=ri;
+    // mark the boxes above; whoever marked the first box found marked, marked those above it
+    for (int b=leafof[k];b >= 0 && !stale[b];b=parent[b]) stale[b]=true;
+  }
+
+  /**
+   * Recompute the boxes above the spheres moved by set since the last refit, keeping the
+   * tree structure.
+   */
+  public void refit() {
+    if (stale[0]) Parallel.forkJoinPool().invoke(new Refit(0));
+  }
+
+  private class Refit extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final int b;
+
+    Refit(final int b) {
+      this.b=b;
+    }
+
+    protected void compute() {
+      stale[b]=false;
+      if (dau2[b] == 0) {
+        for (int j=0;j<dim;j++) {
+          double l=Double.POSITIVE_INFINITY,h=Double.NEGATIVE_INFINITY;
+          for (int k=ptlo[b];k<=pthi[b];k++) {
+            l=min(l,tc[k*dim+j]-tr[k]);
+            h=max(h,tc[k*dim+j]+tr[k]);
+          }
+          lo[b*dim+j]=l;
+          hi[b*dim+j]=h;
+        }
+        return;
+      }
+      int d1=b+1,d2=dau2[b];
+      if (stale[d1] && stale[d2] && pthi[b]-ptlo[b] >= FORK) invokeAll(new Refit(d1),new Refit(d2));
+      else {
+        if (stale[d1]) new Refit(d1).compute();
+        if (stale[d2]) new Refit(d2).compute();
+      }
+      union(b);
+    }
+  }
+
+  /**
+   * Move the spheres ids[0..m-1] to the centers c[p*dim..p*dim+dim-1] and radii r[p],
+   * p = 0..m-1, in parallel, then refit; rebuild instead if the boxes have grown too much.
+   * r may be null to keep the radii. The ids must be distinct.
+   *
+   * @param ids
+   * @param c
+   * @param r
+   */
+  public void update(final int[] ids, final double[] c, final double[] r) {
+    final int m=ids.length;
+    if (c.length < m*dim || (r != null && r.length < m))
+      throw new IllegalArgumentException("BVHflat: need a center and radius for each id");
+    Parallel.forRange(m, 4096, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int p=from;p<to;p++) {
+          int i=ids[p];
+          set(i, c, p*dim, r != null ? r[p] : tr[rperm[i]]);
+        }
+      }
+    });
+    refit();
+    if (size() > REBUILD*size0) rebuild();
+  }
+
+  /**
+   * Move all spheres, sphere i to center c[i*dim..i*dim+dim-1] and radius r[i], as update;
+   * r may be null to keep the radii.
+   *
+   * @param c
+   * @param r
+   */
+  public void update(final double[] c, final double[] r) {
+    if (c.length != n*dim || (r != null && r.length != n))
+      throw new IllegalArgumentException("BVHflat: need a center and radius for each sphere");
+    int[] ids = new int[n];
+    for (int i=0;i<n;i++) ids[i]=i;
+    update(ids, c, r);
+  }
+
+  /**
+   * Rebuild the tree for the current spheres, which keep their indices.
+   */
+  public void rebuild() {
+    refit();
+    final double[] c = new double[n*dim], r = new double[n];
+    Parallel.forRange(n, 4096, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int k=from;k<to;k++) {
+          System.arraycopy(tc,k*dim,c,perm[k]*dim,dim);
+          r[perm[k]]=tr[k];
+        }
+      }
+    });
+    for (int k=0;k<n;k++) perm[k]=k;
+    build(c, r);
+  }
+
+  // Total of the widths of all boxes, a measure of the quality of the tree
+  private double size() {
+    final int nc=Parallel.chunks(nboxes, 1 << 14);
+    final double[] part = new double[nc];
+    Parallel.forChunks(nboxes, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        double s=0.;
+        for (int i=from*dim;i<to*dim;i++) s += hi[i]-lo[i];
+        part[chunk]=s;
+      }
+    });
+    double s=0.;
+    for (double p : part) s += p;
+    return s;
+  }
+
+  /** Center of sphere i, a copy. */
+  public double[] center(final int i) {
+    double[] ci = new double[dim];
+    System.arraycopy(tc,rperm[i]*dim,ci,0,dim);
+    return ci;
+  }
+
+  /** Radius of sphere i. */
+  public double radius(final int i) {
+    return tr[rperm[i]];
+  }
+
+  // Squared distance from q[qo..qo+dim-1] to box b; zero inside the box
+  private double boxdist2(final int b, final double[] q, final int qo) {
+    double dd=0.,t;
+    for (int j=0;j<dim;j++) {
+      if ((t=lo[b*dim+j]-q[qo+j]) > 0.) dd += t*t;
+      else if ((t=q[qo+j]-hi[b*dim+j]) > 0.) dd += t*t;
+    }
+    return dd;
+  }
+
+  // Distance from q[qo..] to the center at tree position k
+  private double dist(final int k, final double[] q, final int qo) {
+    double dd=0.,t;
+    for (int j=0;j<dim;j++) {
+      t=tc[k*dim+j]-q[qo+j];
+      dd += t*t;
+    }
+    return sqrt(dd);
+  }
+
+  // Adds to out the spheres at tree positions above kmin that collide with the sphere of
+  // center q[qo..] and radius rq; with rq < 0, those containing the point q[qo..] instead.
+  // For a pair, the sphere itself is at position kmin and the pairs are added to out
+  private void search(final double[] q, final int qo, final double rq, final int kmin,
+    final int[] stack, final Ilist out, final boolean pairs) {
+    int b,k,sp=0;
+    double rr=max(rq,0.);
+    stack[sp++]=0;
+    while (sp > 0) {
+      b=stack[--sp];
+      if (pthi[b] <= kmin || boxdist2(b,q,qo) > rr*rr) continue;
+      if (dau2[b] != 0) {
+        stack[sp++]=dau2[b];
+        stack[sp++]=b+1;
+      } else {
+        for (k=max(ptlo[b],kmin+1);k<=pthi[b];k++) {
+          if (dist(k,q,qo) > (rq < 0. ? tr[k] : rq+tr[k])) continue;
+          if (pairs) {
+            out.add(min(perm[kmin],perm[k]));
+            out.add(max(perm[kmin],perm[k]));
+          } else out.add(perm[k]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Indices of all spheres that collide with (touch or overlap) the sphere of center
+   * ci[0..dim-1] and radius ri, which needn't be in the tree, as Qotree.qocollides.
+   *
+   * @param ci
+   * @param ri
+   * @return
+   */
+  public int[] collides(final double[] ci, final double ri) {
+    if (ri < 0.0) throw new IllegalArgumentException("radius must be nonnegative");
+    Ilist out = new Ilist();
+    search(ci, 0, ri, -1, new int[depth+2], out, false);
+    return out.toArray();
+  }
+
+  public int[] collides(final Sphcirc s) {
+    if (s.dim() != dim) throw new IllegalArgumentException("Need same dim!");
+    return collides(s.center.x, s.radius);
+  }
+
+  /**
+   * Indices of all spheres that contain the point pt[0..dim-1], as Qotree.qocontainspt.
+   *
+   * @param pt
+   * @return
+   */
+  public int[] containspt(final double[] pt) {
+    Ilist out = new Ilist();
+    search(pt, 0, -1.0, -1, new int[depth+2], out, false);
+    return out.toArray();
+  }
+
+  public int[] containspt(final Point pt) {
+    if (pt.dim() != dim) throw new IllegalArgumentException("Need same dim!");
+    return containspt(pt.x);
+  }
+
+  /**
+   * All pairs of colliding spheres, as a flat array: pair p is spheres out[2*p] < out[2*p+1].
+   * The spheres are split over the threads of com.nr.util.Parallel, and each pair is found
+   * once, from the sphere earlier in tree order; the result does not depend on the number of
+   * threads.
+   *
+   * @return
+   */
+  public int[] pairs() {
+    final int nc=Parallel.chunks(n, QGRAIN);
+    final Ilist[] part = new Ilist[nc];
+    Parallel.forChunks(n, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Ilist out = new Ilist();
+        int[] stack = new int[depth+2];
+        for (int k=from;k<to;k++) search(tc, k*dim, tr[k], k, stack, out, true);
+        part[chunk]=out;
+      }
+    });
+    int tot=0;
+    for (Ilist p : part) tot += p.n;
+    int[] res = new int[tot];
+    tot=0;
+    for (Ilist p : part) {
+      System.arraycopy(p.a,0,res,tot,p.n);
+      tot += p.n;
+    }
+    return res;
+  }
+}
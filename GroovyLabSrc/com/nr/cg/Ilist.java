@@ -0,0 +1,22 @@
+package com.nr.cg;
+
+// Growable list of ints, used to collect query results per thread (BVHflat, Neargrid)
+final class Ilist {
+  int[] a = new int[16];
+  int n;
+
+  void add(final int v) {
+    if (n == a.length) {
+      int[] b = new int[2*n];
+      System.arraycopy(a,0,b,0,n);
+      a=b;
+    }
+    a[n++]=v;
+  }
+
+  int[] toArray() {
+    int[] b = new int[n];
+    System.arraycopy(a,0,b,0,n);
+    return b;
+  }
+}
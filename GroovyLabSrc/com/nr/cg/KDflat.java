@@ -0,0 +1,496 @@
+package com.nr.cg;
+
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.RecursiveAction;
+
+import com.nr.util.Parallel;
+
+/**
+ * KD tree over points in any number of dimensions, held in flat arrays. It answers the
+ * queries of KDtree (nearest, nnearest, locatenear) with the same results, for arbitrary
+ * query points as well as points of the tree.
+ *
+ * The points are given as one array x, point i at x[i*dim..i*dim+dim-1]. Boxes are split at
+ * the median of their widest dimension until they hold at most leaf points, and the tree is
+ * built by fork-join tasks on Parallel.forkJoinPool(). Boxes are numbered in preorder, the
+ * first daughter of box b being b+1, and each box keeps the tight bounds of its points in
+ * lo and hi. The coordinates are copied in tree order, so the points of a leaf lie together
+ * in memory. Searches use squared distances, an explicit stack sized to the depth of the
+ * tree and a max-heap of the k best candidates. The batch methods split the queries over
+ * the threads of com.nr.util.Parallel, each thread reusing one heap and stack for all of
+ * its queries.
+ */
+public class KDflat {
+  static final int LEAF = 8, FORK = 1 << 14, QGRAIN = 64;
+  public final int dim, npts, leaf, nboxes, depth;
+  public final double[] coords;   // coordinates in tree order: point ptindx[k] at coords[k*dim..]
+  public final int[] ptindx, rptindx;   // index of points in tree order, and reverse index
+  public final double[] lo, hi;   // bounds of box b at lo[b*dim..], hi[b*dim..]
+  public final int[] dau2, ptlo, pthi;   // second daughter (0 for a leaf), range of points
+  private final HashMap<Integer,Integer> sizes = new HashMap<Integer,Integer>();
+
+  public KDflat(final int dim, final double[] x) {
+    this(dim, x, LEAF);
+  }
+
+  /**
+   * Build the tree over the n = x.length/dim points of x, with at most leaf points per leaf
+   * box. x is not changed.
+   *
+   * @param dim
+   * @param x
+   * @param leaf
+   */
+  public KDflat(final int dim, final double[] x, final int leaf) {
+    if (dim < 1 || leaf < 1) throw new IllegalArgumentException("KDflat: need dim >= 1 and leaf >= 1");
+    if (x.length == 0 || x.length % dim != 0)
+      throw new IllegalArgumentException("KDflat: x must hold a positive multiple of dim coordinates");
+    this.dim = dim;
+    this.leaf = leaf;
+    npts = x.length/dim;
+    nboxes = count(npts);
+    int d=0;
+    for (int np=npts;np>leaf;np-=np/2) d++;
+    depth = d;
+    ptindx = new int[npts];
+    rptindx = new int[npts];
+    lo = new double[nboxes*dim];
+    hi = new double[nboxes*dim];
+    dau2 = new int[nboxes];
+    ptlo = new int[nboxes];
+    pthi = new int[nboxes];
+    coords = new double[npts*dim];
+    for (int k=0;k<npts;k++) ptindx[k]=k;
+    double[] blo = new double[dim], bhi = new double[dim];
+    bounds(x, blo, bhi);
+    Parallel.forkJoinPool().invoke(new Build(x, 0, 0, npts, blo, bhi));
+    Parallel.forRange(npts, 4096, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int k=from;k<to;k++) {
+          rptindx[ptindx[k]]=k;
+          System.arraycopy(x,ptindx[k]*dim,coords,k*dim,dim);
+        }
+      }
+    });
+  }
+
+  /**
+   * Tree over the points of pts, which must all have the same dimension.
+   *
+   * @param pts
+   */
+  public KDflat(final Point[] pts) {
+    this(pts[0].dim(), flatten(pts), LEAF);
+  }
+
+  private static double[] flatten(final Point[] pts) {
+    int dim=pts[0].dim();
+    double[] x = new double[pts.length*dim];
+    for (int i=0;i<pts.length;i++) {
+      if (pts[i].dim() != dim) throw new IllegalArgumentException("Need same dim!");
+      System.arraycopy(pts[i].x,0,x,i*dim,dim);
+    }
+    return x;
+  }
+
+  // Number of boxes in the tree over np points; memoized, since the point counts on one level
+  // of the tree take at most two values
+  private int count(final int np) {
+    if (np <= leaf) return 1;
+    Integer c = sizes.get(np);
+    if (c == null) {
+      c = 1 + count(np/2) + count(np-np/2);
+      sizes.put(np, c);
+    }
+    return c;
+  }
+
+  // Bounding box of all points, computed in parallel
+  private void bounds(final double[] x, final double[] blo, final double[] bhi) {
+    final int nc = Parallel.chunks(npts, 4096);
+    final double[][] clo = new double[nc][dim], chi = new double[nc][dim];
+    Parallel.forChunks(npts, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        double[] l=clo[chunk], h=chi[chunk];
+        for (int j=0;j<dim;j++) { l[j]=Double.POSITIVE_INFINITY; h[j]=Double.NEGATIVE_INFINITY; }
+        for (int i=from;i<to;i++) {
+          for (int j=0;j<dim;j++) {
+            double v=x[i*dim+j];
+            if (v < l[j]) l[j]=v;
+            if (v > h[j]) h[j]=v;
+          }
+        }
+      }
+    });
+    for (int j=0;j<dim;j++) {
+      blo[j]=clo[0][j];
+      bhi[j]=chi[0][j];
+      for (int c=1;c<nc;c++) {
+        blo[j]=min(blo[j],clo[c][j]);
+        bhi[j]=max(bhi[j],chi[c][j]);
+      }
+    }
+  }
+
+  // Builds box b over tree positions [pl,ph), given bounds that contain its points; the
+  // bounds stored are then tightened to the points themselves
+  private class Build extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double[] x, blo, bhi;
+    final int b, pl, ph;
+
+    Build(final double[] x, final int b, final int pl, final int ph, final double[] blo, final double[] bhi) {
+      this.x=x; this.b=b; this.pl=pl; this.ph=ph; this.blo=blo; this.bhi=bhi;
+    }
+
+    protected void compute() {
+      int i,j,d=0,np=ph-pl,kl=np/2;
+      ptlo[b]=pl;
+      pthi[b]=ph-1;
+      if (np <= leaf) {
+        for (j=0;j<dim;j++) {
+          lo[b*dim+j]=Double.POSITIVE_INFINITY;
+          hi[b*dim+j]=Double.NEGATIVE_INFINITY;
+        }
+        for (i=pl;i<ph;i++) {
+          for (j=0;j<dim;j++) {
+            double v=x[ptindx[i]*dim+j];
+            if (v < lo[b*dim+j]) lo[b*dim+j]=v;
+            if (v > hi[b*dim+j]) hi[b*dim+j]=v;
+          }
+        }
+        return;
+      }
+      for (j=1;j<dim;j++) if (bhi[j]-blo[j] > bhi[d]-blo[d]) d=j;   // widest dimension
+      select(x, pl, ph, pl+kl, d);
+      double split=x[ptindx[pl+kl]*dim+d];
+      double[] lhi=bhi.clone(), rlo=blo.clone();
+      lhi[d]=split;
+      rlo[d]=split;
+      int d1=b+1, d2=b+1+count(kl);
+      dau2[b]=d2;
+      Build left=new Build(x,d1,pl,pl+kl,blo,lhi), right=new Build(x,d2,pl+kl,ph,rlo,bhi);
+      if (np >= FORK) invokeAll(left,right);
+      else {
+        left.compute();
+        right.compute();
+      }
+      for (j=0;j<dim;j++) {
+        lo[b*dim+j]=min(lo[d1*dim+j],lo[d2*dim+j]);
+        hi[b*dim+j]=max(hi[d1*dim+j],hi[d2*dim+j]);
+      }
+    }
+  }
+
+  // Rearrange ptindx[pl..ph-1] so that the point at position k has the k-th smallest
+  // coordinate d, with smaller or equal ones before it and larger or equal ones after
+  private void select(final double[] x, final int pl, final int ph, final int k, final int d) {
+    int i,ia,ir=ph-1,j,l=pl,mid,t;
+    double a;
+    for (;;) {
+      if (ir <= l+1) {
+        if (ir == l+1 && x[ptindx[ir]*dim+d] < x[ptindx[l]*dim+d]) {
+          t=ptindx[l]; ptindx[l]=ptindx[ir]; ptindx[ir]=t;
+        }
+        return;
+      }
+      mid=(l+ir) >> 1;
+      t=ptindx[mid]; ptindx[mid]=ptindx[l+1]; ptindx[l+1]=t;
+      if (x[ptindx[l]*dim+d] > x[ptindx[ir]*dim+d]) { t=ptindx[l]; ptindx[l]=ptindx[ir]; ptindx[ir]=t; }
+      if (x[ptindx[l+1]*dim+d] > x[ptindx[ir]*dim+d]) { t=ptindx[l+1]; ptindx[l+1]=ptindx[ir]; ptindx[ir]=t; }
+      if (x[ptindx[l]*dim+d] > x[ptindx[l+1]*dim+d]) { t=ptindx[l]; ptindx[l]=ptindx[l+1]; ptindx[l+1]=t; }
+      i=l+1;
+      j=ir;
+      ia=ptindx[l+1];
+      a=x[ia*dim+d];
+      for (;;) {
+        do i++; while (x[ptindx[i]*dim+d] < a);
+        do j--; while (x[ptindx[j]*dim+d] > a);
+        if (j < i) break;
+        t=ptindx[i]; ptindx[i]=ptindx[j]; ptindx[j]=t;
+      }
+      ptindx[l+1]=ptindx[j];
+      ptindx[j]=ia;
+      if (j >= k) ir=j-1;
+      if (j <= k) l=i;
+    }
+  }
+
+  // Squared distance from q[qo..qo+dim-1] to box b; zero inside the box
+  private double boxdist2(final int b, final double[] q, final int qo) {
+    double dd=0.,t;
+    for (int j=0;j<dim;j++) {
+      if ((t=lo[b*dim+j]-q[qo+j]) > 0.) dd += t*t;
+      else if ((t=q[qo+j]-hi[b*dim+j]) > 0.) dd += t*t;
+    }
+    return dd;
+  }
+
+  // Squared distance from q[qo..] to the point at tree position k
+  private double dist2(final int k, final double[] q, final int qo) {
+    double dd=0.,t;
+    for (int j=0;j<dim;j++) {
+      t=coords[k*dim+j]-q[qo+j];
+      dd += t*t;
+    }
+    return dd;
+  }
+
+  /**
+   * Search workspace: a max-heap of the best candidates and a box stack. One Search serves
+   * any number of queries on one thread.
+   */
+  private class Search {
+    final double[] hd;
+    final int[] hn, stack = new int[depth+2];
+    final int k;
+
+    Search(final int kk) {
+      k=kk;
+      hd=new double[kk];
+      hn=new int[kk];
+    }
+
+    // The k nearest points to q[qo..], skipping the point with index skip (-1 for none);
+    // the results go to nn[no..no+k-1] and dn[no..no+k-1], by increasing distance
+    void nnearest(final double[] q, final int qo, final int skip, final int[] nn, final double[] dn, final int no) {
+      int b,i,sp=0,d1,d2;
+      double d,e1,e2;
+      for (i=0;i<k;i++) {
+        hd[i]=Double.POSITIVE_INFINITY;
+        hn[i]=-1;
+      }
+      stack[sp++]=0;
+      while (sp > 0) {
+        b=stack[--sp];
+        if (dau2[b] == 0) {
+          for (i=ptlo[b];i<=pthi[b];i++) {
+            if (ptindx[i] == skip) continue;
+            if ((d=dist2(i,q,qo)) < hd[0]) {
+              hd[0]=d;
+              hn[0]=ptindx[i];
+              if (k > 1) sift_down(hd,hn,k);
+            }
+          }
+        } else {   // visit the nearer daughter first
+          d1=b+1;
+          d2=dau2[b];
+          e1=boxdist2(d1,q,qo);
+          e2=boxdist2(d2,q,qo);
+          if (e1 > e2) {
+            i=d1; d1=d2; d2=i;
+            d=e1; e1=e2; e2=d;
+          }
+          if (e2 < hd[0]) stack[sp++]=d2;
+          if (e1 < hd[0]) stack[sp++]=d1;
+        }
+      }
+      for (i=k-1;i>0;i--) {   // heap to increasing order
+        d=hd[0]; hd[0]=hd[i]; hd[i]=d;
+        b=hn[0]; hn[0]=hn[i]; hn[i]=b;
+        sift_down(hd,hn,i);
+      }
+      for (i=0;i<k;i++) {
+        nn[no+i]=hn[i];
+        dn[no+i]=sqrt(hd[i]);
+      }
+    }
+  }
+
+  // Restore the max-heap heap[0..nn-1] after a change of heap[0], carrying ndx along
+  private static void sift_down(final double[] heap, final int[] ndx, final int nn) {
+    int n=nn-1,j,jold,ia;
+    double a;
+    a=heap[0];
+    ia=ndx[0];
+    jold=0;
+    j=1;
+    while (j <= n) {
+      if (j < n && heap[j] < heap[j+1]) j++;
+      if (a >= heap[j]) break;
+      heap[jold]=heap[j];
+      ndx[jold]=ndx[j];
+      jold=j;
+      j=2*j+1;
+    }
+    heap[jold]=a;
+    ndx[jold]=ia;
+  }
+
+  /**
+   * Return the index of the point nearest to pt[0..dim-1].
+   *
+   * @param pt
+   * @return
+   */
+  public int nearest(final double[] pt) {
+    int[] nn = new int[1];
+    new Search(1).nnearest(pt,0,-1,nn,new double[1],0);
+    return nn[0];
+  }
+
+  /**
+   * The k points nearest to pt[0..dim-1], with their indices in nn[0..k-1] and distances in
+   * dn[0..k-1], by increasing distance. Unlike KDtree, the point need not belong to the tree.
+   *
+   * @param pt
+   * @param k
+   * @param nn
+   * @param dn
+   */
+  public void nnearest(final double[] pt, final int k, final int[] nn, final double[] dn) {
+    if (k < 1 || k > npts) throw new IllegalArgumentException("too many neighbors requested");
+    new Search(k).nnearest(pt,0,-1,nn,dn,0);
+  }
+
+  /**
+   * The k points nearest to point jpt of the tree, jpt itself excluded, as KDtree.nnearest;
+   * the results are by increasing distance.
+   *
+   * @param jpt
+   * @param k
+   * @param nn
+   * @param dn
+   */
+  public void nnearest(final int jpt, final int k, final int[] nn, final double[] dn) {
+    if (k < 1 || k > npts-1) throw new IllegalArgumentException("too many neighbors requested");
+    new Search(k).nnearest(coords,rptindx[jpt]*dim,jpt,nn,dn,0);
+  }
+
+  /**
+   * Store in list[] the indices of up to nmax points within a distance r of pt[0..dim-1], and
+   * return their number, as KDtree.locatenear.
+   *
+   * @param pt
+   * @param r
+   * @param list
+   * @param nmax
+   * @return
+   */
+  public int locatenear(final double[] pt, final double r, final int[] list, final int nmax) {
+    if (r < 0.0) throw new IllegalArgumentException("radius must be nonnegative");
+    int b,i,sp=0,nret=0;
+    int[] stack = new int[depth+2];
+    double r2=r*r;
+    stack[sp++]=0;
+    while (sp > 0 && nret < nmax) {
+      b=stack[--sp];
+      if (boxdist2(b,pt,0) > r2) continue;
+      if (dau2[b] != 0) {
+        stack[sp++]=dau2[b];
+        stack[sp++]=b+1;
+      } else {
+        for (i=ptlo[b];i<=pthi[b] && nret < nmax;i++)
+          if (dist2(i,pt,0) <= r2) list[nret++]=ptindx[i];
+      }
+    }
+    return nret;
+  }
+
+  /**
+   * Nearest points to m query points, q holding query i at q[i*dim..]; the index of the point
+   * nearest to query i is returned in nrst[i].
+   *
+   * @param q
+   * @param nrst
+   */
+  public void batchNearest(final double[] q, final int[] nrst) {
+    final int m=q.length/dim;
+    if (nrst.length < m) throw new IllegalArgumentException("batchNearest: output too short");
+    Parallel.forRange(m, QGRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Search s=new Search(1);
+        double[] dn=new double[1];
+        for (int i=from;i<to;i++) s.nnearest(q,i*dim,-1,nrst,dn,i);
+      }
+    });
+  }
+
+  /**
+   * k nearest points to each of m query points, q holding query i at q[i*dim..]. The
+   * neighbors of query i are returned in nn[i*k..i*k+k-1] and their distances in
+   * dn[i*k..i*k+k-1], by increasing distance.
+   *
+   * @param q
+   * @param k
+   * @param nn
+   * @param dn
+   */
+  public void batchNnearest(final double[] q, final int k, final int[] nn, final double[] dn) {
+    final int m=q.length/dim;
+    if (k < 1 || k > npts) throw new IllegalArgumentException("too many neighbors requested");
+    if (nn.length < m*k || dn.length < m*k) throw new IllegalArgumentException("batchNnearest: output too short");
+    Parallel.forRange(m, QGRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Search s=new Search(k);
+        for (int i=from;i<to;i++) s.nnearest(q,i*dim,-1,nn,dn,i*k);
+      }
+    });
+  }
+
+  /**
+   * k nearest neighbors of every point of the tree, each point excluded from its own list:
+   * the neighbors of point j go to nn[j*k..j*k+k-1] and dn[j*k..j*k+k-1], by increasing
+   * distance. The points are processed in tree order, so that successive queries visit
+   * the same boxes.
+   *
+   * @param k
+   * @param nn
+   * @param dn
+   */
+  public void batchNnearest(final int k, final int[] nn, final double[] dn) {
+    if (k < 1 || k > npts-1) throw new IllegalArgumentException("too many neighbors requested");
+    if (nn.length < npts*k || dn.length < npts*k) throw new IllegalArgumentException("batchNnearest: output too short");
+    Parallel.forRange(npts, QGRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Search s=new Search(k);
+        for (int p=from;p<to;p++) s.nnearest(coords,p*dim,ptindx[p],nn,dn,ptindx[p]*k);
+      }
+    });
+  }
+
+  /**
+   * Indices of all points within a distance r of each of m query points, q holding query i
+   * at q[i*dim..].
+   *
+   * @param q
+   * @param r
+   * @return
+   */
+  public int[][] batchLocatenear(final double[] q, final double r) {
+    if (r < 0.0) throw new IllegalArgumentException("radius must be nonnegative");
+    final int m=q.length/dim;
+    final int[][] out=new int[m][];
+    Parallel.forRange(m, QGRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int b,i,sp,nret;
+        int[] stack=new int[depth+2], list=new int[16];
+        double r2=r*r;
+        for (int iq=from;iq<to;iq++) {
+          sp=nret=0;
+          stack[sp++]=0;
+          while (sp > 0) {
+            b=stack[--sp];
+            if (boxdist2(b,q,iq*dim) > r2) continue;
+            if (dau2[b] != 0) {
+              stack[sp++]=dau2[b];
+              stack[sp++]=b+1;
+            } else {
+              for (i=ptlo[b];i<=pthi[b];i++) {
+                if (dist2(i,q,iq*dim) <= r2) {
+                  if (nret == list.length) list=Arrays.copyOf(list,2*nret);
+                  list[nret++]=ptindx[i];
+                }
+              }
+            }
+          }
+          out[iq]=Arrays.copyOf(list,nret);
+        }
+      }
+    });
+    return out;
+  }
+}
@@ -0,0 +1,340 @@
+package com.nr.cg;
+
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+
+import com.nr.util.Parallel;
+
+/**
+ * Fixed-radius neighbor search over points in any number of dimensions, by a uniform grid of
+ * cells of side h/2 or more. It answers the queries of Nearpoints (the points within a given
+ * distance of a given point) and finds all neighbors of all points within distance h at
+ * once, as compact neighbor lists.
+ *
+ * Point i is x[i*dim..i*dim+dim-1]. The cells are numbered in row-major order with the first
+ * coordinate varying fastest, and the points are stored sorted by cell, by a stable counting
+ * sort on the cell numbers, so that the points of a cell, and of a row of neighboring cells,
+ * lie together in memory. Half-width cells bring the volume searched for neighbors closer to
+ * the sphere of radius h at little cost, since each row of cells is searched as one run of
+ * points. The grid covers the bounding box of the points, widened by MARGIN on every side;
+ * if that would take more than MAXCELLS cells per point, the cells are made larger.
+ *
+ * update moves the points: cell numbers are recomputed in parallel, and the points are sorted
+ * again, starting from the current order, only if some changed cell. Points that move only
+ * slightly between steps rarely change cell, and then nothing is sorted. The grid is laid out
+ * anew only when a point leaves it. The query methods may run concurrently with each other,
+ * but not with update.
+ */
+public class Neargrid {
+  static final int GRAIN = 1 << 10;
+  static final double MARGIN = 0.1, MAXCELLS = 2.0;
+  public final int dim, n;
+  public final double h;
+  private double cs;   // side of a cell
+  private final double[] glo;   // lower corner of the grid
+  private final int[] ncell;   // cells along each dimension
+  private int[] cstart;   // points of cell q at sorted positions cstart[q]..cstart[q+1]-1
+  private final double[] sx;   // coordinates in sorted order: point id[k] at sx[k*dim..]
+  private final int[] id, pos, key;   // point at sorted position k, sorted position of point i, cell of position k
+  private final int[] knew;   // scratch for the cells of update
+
+  /** Neighbor lists: the neighbors of point i are nbr[start[i]..start[i+1]-1]. */
+  public static class Neighbors {
+    public final int[] start, nbr;
+
+    Neighbors(final int[] start, final int[] nbr) {
+      this.start = start;
+      this.nbr = nbr;
+    }
+
+    /** Number of neighbors of point i. */
+    public int count(final int i) {
+      return start[i+1]-start[i];
+    }
+  }
+
+  /**
+   * Grid for the n = x.length/dim points of x, for neighbor distance h. x is copied.
+   *
+   * @param dim
+   * @param x
+   * @param h
+   */
+  public Neargrid(final int dim, final double[] x, final double h) {
+    if (dim < 1 || !(h > 0.)) throw new IllegalArgumentException("Neargrid: need dim >= 1 and h > 0");
+    if (x.length == 0 || x.length % dim != 0)
+      throw new IllegalArgumentException("Neargrid: x must hold a positive multiple of dim coordinates");
+    this.dim = dim;
+    this.h = h;
+    n = x.length/dim;
+    glo = new double[dim];
+    ncell = new int[dim];
+    sx = new double[n*dim];
+    id = new int[n];
+    pos = new int[n];
+    key = new int[n];
+    knew = new int[n];
+    for (int i=0;i<n;i++) id[i]=i;
+    layout(x);
+    keys(x, knew);
+    sort(x);
+  }
+
+  /**
+   * Grid for the points pvec, which must all have dimension dim.
+   *
+   * @param dim
+   * @param pvec
+   * @param h
+   */
+  public Neargrid(final int dim, final Point[] pvec, final double h) {
+    this(dim, flatten(dim, pvec), h);
+  }
+
+  private static double[] flatten(final int dim, final Point[] pvec) {
+    double[] x = new double[pvec.length*dim];
+    for (int i=0;i<pvec.length;i++) {
+      if (pvec[i].dim() != dim) throw new IllegalArgumentException("Need same dim!");
+      System.arraycopy(pvec[i].x,0,x,i*dim,dim);
+    }
+    return x;
+  }
+
+  // Lay out the grid over the bounding box of the points of x, widened by MARGIN
+  private void layout(final double[] x) {
+    final int nc = Parallel.chunks(n, 1 << 12);
+    final double[][] clo = new double[nc][dim], chi = new double[nc][dim];
+    Parallel.forChunks(n, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        double[] l=clo[chunk], u=chi[chunk];
+        for (int j=0;j<dim;j++) { l[j]=Double.POSITIVE_INFINITY; u[j]=Double.NEGATIVE_INFINITY; }
+        for (int i=from;i<to;i++) {
+          for (int j=0;j<dim;j++) {
+            double v=x[i*dim+j];
+            if (v < l[j]) l[j]=v;
+            if (v > u[j]) u[j]=v;
+          }
+        }
+      }
+    });
+    double[] ext = new double[dim];
+    for (int j=0;j<dim;j++) {
+      double l=clo[0][j],u=chi[0][j];
+      for (int c=1;c<nc;c++) {
+        l=min(l,clo[c][j]);
+        u=max(u,chi[c][j]);
+      }
+      if (Double.isNaN(l) || Double.isInfinite(l) || Double.isInfinite(u))
+        throw new IllegalArgumentException("Neargrid: coordinates must be finite");
+      glo[j]=l-MARGIN*(u-l);
+      ext[j]=(1.0+2.0*MARGIN)*(u-l);
+    }
+    double cells;
+    cs=h/2;
+    do {
+      cells=1.;
+      for (int j=0;j<dim;j++) {
+        ncell[j]=(int)min(ext[j]/cs,Integer.MAX_VALUE-1)+1;
+        cells *= ncell[j];
+      }
+      if (cells > MAXCELLS*max(n,1024)) cs *= pow(cells/(MAXCELLS*max(n,1024)),1.0/dim)*1.01;
+    } while (cells > MAXCELLS*max(n,1024));
+    cstart = new int[(int)cells+1];
+  }
+
+  // Cell of x[xo..]; -1 if outside the grid
+  private int cell(final double[] x, final int xo) {
+    int q=0,m=1;
+    for (int j=0;j<dim;j++) {
+      double t=(x[xo+j]-glo[j])/cs;
+      if (!(t >= 0.) || t >= ncell[j]) return -1;
+      q += m*(int)t;
+      m *= ncell[j];
+    }
+    return q;
+  }
+
+  // Cells of the points in the current order, k[p] for point id[p]; the number changed from key
+  private int keys(final double[] x, final int[] k) {
+    final int nc = Parallel.chunks(n, GRAIN);
+    final int[] moved = new int[nc];
+    Parallel.forChunks(n, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int m=0;
+        for (int p=from;p<to;p++) {
+          int q=cell(x,id[p]*dim);
+          if (q != key[p]) m++;
+          k[p]=q;
+        }
+        moved[chunk]=m;
+      }
+    });
+    int m=0;
+    for (int c=0;c<nc;c++) m += moved[c];
+    return m;
+  }
+
+  // Stable counting sort of the points from the current order by the cells in knew, then
+  // copy of the coordinates of x in the new order
+  private void sort(final double[] x) {
+    int p,q,ncl=cstart.length-1;
+    Arrays.fill(cstart,0);
+    for (p=0;p<n;p++) cstart[knew[p]+1]++;
+    for (q=0;q<ncl;q++) cstart[q+1] += cstart[q];
+    final int[] order = id.clone();
+    for (p=0;p<n;p++) {
+      int k=cstart[knew[p]]++;
+      id[k]=order[p];
+      key[k]=knew[p];
+    }
+    for (q=ncl;q>0;q--) cstart[q]=cstart[q-1];
+    cstart[0]=0;
+    Parallel.forRange(n, 1 << 12, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int k=from;k<to;k++) {
+          pos[id[k]]=k;
+          System.arraycopy(x,id[k]*dim,sx,k*dim,dim);
+        }
+      }
+    });
+  }
+
+  /**
+   * Move the points to x, point i to x[i*dim..i*dim+dim-1], and return the number of points
+   * that changed cell. x is copied.
+   *
+   * @param x
+   * @return
+   */
+  public int update(final double[] x) {
+    if (x.length != n*dim) throw new IllegalArgumentException("Neargrid: need dim coordinates for each point");
+    int moved=keys(x, knew);
+    if (moved == 0) {
+      Parallel.forRange(n, 1 << 12, new Parallel.Body() {
+        public void run(final int from, final int to, final int chunk) {
+          for (int k=from;k<to;k++) System.arraycopy(x,id[k]*dim,sx,k*dim,dim);
+        }
+      });
+      return 0;
+    }
+    for (int p=0;p<n;p++) {
+      if (knew[p] < 0) {   // a point left the grid
+        layout(x);
+        moved=keys(x, knew);
+        break;
+      }
+    }
+    sort(x);
+    return moved;
+  }
+
+  /** Coordinates of point i, a copy. */
+  public double[] point(final int i) {
+    double[] xi = new double[dim];
+    System.arraycopy(sx,pos[i]*dim,xi,0,dim);
+    return xi;
+  }
+
+  // Adds to out the points within r of q[qo..], skipping sorted position skip (-1 for none).
+  // Rows of cells along the first dimension are contiguous in sorted order, so each row of
+  // the range of cells is one run of positions
+  private void search(final double[] q, final int qo, final double r, final int skip,
+    final int[] clo, final int[] chi, final int[] c, final Ilist out) {
+    int j,k;
+    double r2=r*r;
+    for (j=0;j<dim;j++) {
+      double t=(q[qo+j]-glo[j])/cs;
+      clo[j]=(int)max(0.,floor(t-r/cs));
+      chi[j]=(int)min(ncell[j]-1.,floor(t+r/cs));
+      if (clo[j] > chi[j]) return;   // range misses the grid
+      c[j]=clo[j];
+    }
+    for (;;) {
+      int base=0,m=ncell[0];
+      for (j=1;j<dim;j++) {
+        base += m*c[j];
+        m *= ncell[j];
+      }
+      for (k=cstart[base+clo[0]];k<cstart[base+chi[0]+1];k++) {
+        if (k == skip) continue;
+        double dd=0.,t;
+        for (j=0;j<dim;j++) {
+          t=sx[k*dim+j]-q[qo+j];
+          dd += t*t;
+        }
+        if (dd <= r2) out.add(id[k]);
+      }
+      for (j=1;j<dim;j++) {   // next row
+        if (++c[j] <= chi[j]) break;
+        c[j]=clo[j];
+      }
+      if (j == dim) return;
+    }
+  }
+
+  /**
+   * Indices of the points within distance r of pt[0..dim-1], which needn't be one of the
+   * points, as Nearpoints.locatenear. r may differ from h, though the search is efficient
+   * for r up to about the cell size.
+   *
+   * @param pt
+   * @param r
+   * @return
+   */
+  public int[] locatenear(final double[] pt, final double r) {
+    if (r < 0.0) throw new IllegalArgumentException("radius must be nonnegative");
+    Ilist out = new Ilist();
+    search(pt, 0, r, -1, new int[dim], new int[dim], new int[dim], out);
+    return out.toArray();
+  }
+
+  public int[] locatenear(final Point pt, final double r) {
+    if (pt.dim() != dim) throw new IllegalArgumentException("Need same dim!");
+    return locatenear(pt.x, r);
+  }
+
+  /**
+   * Neighbors within distance h of every point, the point itself excluded. The points are
+   * searched in sorted order, split over the threads of com.nr.util.Parallel; the lists do
+   * not depend on the number of threads.
+   *
+   * @return
+   */
+  public Neighbors neighbors() {
+    final int nc = Parallel.chunks(n, GRAIN);
+    final Ilist[] part = new Ilist[nc];
+    final int[] cnt = new int[n];
+    Parallel.forChunks(n, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Ilist out = new Ilist();
+        int[] clo = new int[dim], chi = new int[dim], c = new int[dim];
+        for (int k=from;k<to;k++) {
+          int m=out.n;
+          search(sx, k*dim, h, k, clo, chi, c, out);
+          cnt[k]=out.n-m;
+        }
+        part[chunk]=out;
+      }
+    });
+    final int[] start = new int[n+1];
+    for (int k=0;k<n;k++) start[id[k]+1]=cnt[k];
+    for (int i=0;i<n;i++) {
+      if (start[i+1] > Integer.MAX_VALUE-start[i])
+        throw new IllegalArgumentException("Neargrid: too many neighbors for one array");
+      start[i+1] += start[i];
+    }
+    final int[] nbr = new int[start[n]];
+    Parallel.forChunks(n, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int[] a=part[chunk].a;
+        for (int k=from,o=0;k<to;k++) {
+          System.arraycopy(a,o,nbr,start[id[k]],cnt[k]);
+          o += cnt[k];
+        }
+        part[chunk]=null;
+      }
+    });
+    return new Neighbors(start, nbr);
+  }
+}
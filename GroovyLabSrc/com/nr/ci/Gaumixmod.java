@@ -2,32 +2,62 @@ package com.nr.ci;
 
 import static com.nr.NRUtil.*;
 import static java.lang.Math.*;
-import com.nr.la.Cholesky;
+
+import com.nr.util.Parallel;
 
 /*
  Solve a Gaussian mixture model from a set of data points and initial guesses of k means
+
+ The data are processed in chunks on the shared pool of com.nr.util.Parallel, and within a
+ chunk in blocks of BLOCK points, so that the triangular solve with each component's Cholesky
+ factor runs over a whole block at once. The factors are computed once per E-step into
+ preallocated storage. emstep() fuses an E-step and an M-step into one pass that accumulates
+ the sufficient statistics of each component directly, without materializing resp; estep()
+ and mstep() are kept for callers that want the responsibilities. The covariance matrices are
+ full (FULL), diagonal (DIAG), or one matrix shared by all components (TIED). Per-chunk sums
+ are reduced in chunk order, so results are reproducible for a fixed number of threads.
  */
 public class Gaumixmod {
+  public static final int FULL = 0, DIAG = 1, TIED = 2;  // covariance types
+  static final int BLOCK = 64, GRAIN = 4096;
   public int nn, kk, mm;  // numbers of data points, components, and dimensions
   public double[][] data, means, resp;  // local copies of x_n's \mu_k's and the p_{nk}'s
   public double[] frac, lndets;  // P(k)'s and log \Sigma_{k}'s
   public double[][][] sig;
   public double loglike;
-  
-  // arguments are the data points (as rows in a matrix) and initial 
+  public final int covtype;
+  public boolean converged;  // set by solve
+  double[][][] chol;     // lower Cholesky factors of sig[k] (FULL), or of the shared sig (TIED)
+  double[][] dinv;       // 1/sqrt of the diagonal of sig[k] (DIAG)
+  double[][] lmean;      // L^{-1} \mu_k (TIED)
+  double[] center;       // data mean and scatter about it (TIED)
+  double[][] scatter;
+  private Chunk[] chunks = new Chunk[0];
+
+  // arguments are the data points (as rows in a matrix) and initial
   // guesses for the means (also as rows in a matrix)
   public Gaumixmod(final double[][] ddata, final double[][] mmeans) {
+    this(ddata, mmeans, FULL);
+  }
+
+  // as above, with covariance type FULL, DIAG or TIED
+  public Gaumixmod(final double[][] ddata, final double[][] mmeans, final int ccovtype) {
     int mmstat = ddata[0].length;
     nn = ddata.length;
     kk = mmeans.length;
     mm = mmstat;
+    if (ccovtype < FULL || ccovtype > TIED) throw new IllegalArgumentException("Gaumixmod: bad covariance type");
+    if (mmeans[0].length != mm) throw new IllegalArgumentException("Gaumixmod: means have wrong dimension");
+    covtype = ccovtype;
     data = buildMatrix(ddata);
     means = buildMatrix(mmeans);
-    resp = new double[nn][kk];
     frac = new double[kk];
     lndets = new double[kk];
     sig = new double[kk][mmstat][mmstat];
-    
+    chol = new double[covtype == TIED ? 1 : covtype == FULL ? kk : 0][mm][mm];
+    dinv = new double[covtype == DIAG ? kk : 0][mm];
+    lmean = new double[covtype == TIED ? kk : 0][mm];
+
     int i,j,k;
     for (k=0;k<kk;k++) {
       frac[k] = 1./kk;
@@ -36,58 +66,365 @@ public class Gaumixmod {
         sig[k][i][i] = 1.0e-10;
       }
     }
+    if (covtype == TIED) scatter();
     /*
      Perform an initial E-step and M-step  User is responsible for calling additional
-     steps until convergence is obtained.
-    */ 
-    estep();   
-    mstep();
+     steps until convergence is obtained (or for calling solve).
+    */
+    emstep();
   }
-  
+
+  /*
+   Computes the responsibilities resp (allocated on first use) for the current parameters.
+   Returns the change of the log-likelihood; when its absolute value is small, we have
+   converged.
+   */
   public double estep() {
-    int k,m,n;
-    double tmp,sum,max,oldloglike;
-    double[] u = new double[mm],v = new double[mm];
-    oldloglike = loglike;
-    for (k=0;k<kk;k++) {  // outer loop for computing the p_{nk}'s
- //  Decompose \sigma_{k} in the outer loop     
-      Cholesky choltmp = new Cholesky(sig[k]);  
-      lndets[k] = choltmp.logdet();
-      for (n=0;n<nn;n++) {
-        for (m=0;m<mm;m++) u[m] = data[n][m]-means[k][m];
-        choltmp.elsolve(u,v);
-        for (sum=0.,m=0; m<mm; m++) sum += SQR(v[m]);
-        resp[n][k] = -0.5*(sum + lndets[k]) + log(frac[k]);
+    final int nchunks = Parallel.chunks(nn, GRAIN);
+    final double oldloglike = loglike;
+    if (resp == null) resp = new double[nn][kk];
+    factor();
+    final Chunk[] ch = chunks(nchunks);
+    Parallel.forChunks(nn, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        Chunk wk = ch[c];
+        int b,k,n0,nb;
+        wk.ll = 0.;
+        for (n0=from; n0<to; n0+=BLOCK) {
+          nb = min(BLOCK, to-n0);
+          wk.load(n0, nb);
+          wk.ll += wk.logprob(nb);
+          for (b=0;b<nb;b++) for (k=0;k<kk;k++) resp[n0+b][k] = wk.r[k][b];
+        }
+      }
+    });
+    loglike = 0.;
+    for (int c=0;c<nchunks;c++) loglike += ch[c].ll;
+    return loglike - oldloglike;
+  }
+
+  /*
+   Re-estimates frac, means and sig from the responsibilities computed by estep(), which must
+   be called first. Components with zero weight keep their means and covariances.
+   */
+  public void mstep() {
+    if (resp == null) throw new IllegalArgumentException("Gaumixmod: must do estep first");
+    final int nchunks = Parallel.chunks(nn, GRAIN);
+    final Chunk[] ch = chunks(nchunks);
+    Parallel.forChunks(nn, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        Chunk wk = ch[c];
+        int b,k,n0,nb;
+        wk.clear();
+        for (n0=from; n0<to; n0+=BLOCK) {
+          nb = min(BLOCK, to-n0);
+          wk.load(n0, nb);
+          for (b=0;b<nb;b++) for (k=0;k<kk;k++) wk.r[k][b] = resp[n0+b][k];
+          wk.accumulate(nb);
+        }
+      }
+    });
+    update(ch, nchunks);
+  }
+
+  /*
+   One fused E-step and M-step: a single pass over the data computes the responsibilities
+   for the current parameters and accumulates the weighted sums from which the new frac,
+   means and sig are set; resp is not used. Returns the change of the log-likelihood, which
+   refers to the parameters before the update, as for estep().
+   */
+  public double emstep() {
+    final int nchunks = Parallel.chunks(nn, GRAIN);
+    final double oldloglike = loglike;
+    factor();
+    final Chunk[] ch = chunks(nchunks);
+    Parallel.forChunks(nn, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        Chunk wk = ch[c];
+        int n0,nb;
+        wk.clear();
+        wk.ll = 0.;
+        for (n0=from; n0<to; n0+=BLOCK) {
+          nb = min(BLOCK, to-n0);
+          wk.load(n0, nb);
+          wk.ll += wk.logprob(nb);
+          wk.accumulate(nb);
+        }
+      }
+    });
+    loglike = 0.;
+    for (int c=0;c<nchunks;c++) loglike += ch[c].ll;
+    update(ch, nchunks);
+    return loglike - oldloglike;
+  }
+
+  /*
+   Returns the responsibilities for the current parameters, computing them by one estep()
+   into resp (allocated on first use); loglike is left as it was. Use this after solve() or
+   emstep(), which do not materialize resp.
+   */
+  public double[][] responsibilities() {
+    final double ll = loglike;
+    estep();
+    loglike = ll;
+    return resp;
+  }
+
+  /*
+   Iterates emstep() until the change of the log-likelihood is less than tol in absolute
+   value, or for at most itmax iterations. Sets converged and returns the number of
+   iterations done.
+   */
+  public int solve(final double tol, final int itmax) {
+    converged = false;
+    for (int iter=1;iter<=itmax;iter++) {
+      if (abs(emstep()) < tol) {
+        converged = true;
+        return iter;
       }
     }
-    loglike = 0;
-    for (n=0;n<nn;n++) {  // Seperate normalization for each n
-      max = -99.9e99;   // Log-sum-exp trick begins here
-      for (k=0;k<kk;k++) if (resp[n][k] > max) max = resp[n][k];
-      for (sum=0.,k=0; k<kk; k++) sum += exp(resp[n][k]-max);
-      tmp = max + log(sum);
-      for (k=0;k<kk;k++) resp[n][k] = exp(resp[n][k] - tmp);
-      loglike +=tmp;
+    return itmax;
+  }
+
+  // Cholesky factors and log determinants of the current covariance matrices
+  private void factor() {
+    int i,j,k,l;
+    double sum;
+    for (k=0;k<kk;k++) {
+      if (covtype == DIAG) {
+        lndets[k] = 0.;
+        for (i=0;i<mm;i++) {
+          if (sig[k][i][i] <= 0.) throw new IllegalArgumentException("Gaumixmod: covariance not positive definite");
+          dinv[k][i] = 1./sqrt(sig[k][i][i]);
+          lndets[k] += log(sig[k][i][i]);
+        }
+        continue;
+      }
+      if (covtype == TIED && k > 0) {
+        lndets[k] = lndets[0];
+        continue;
+      }
+      double[][] el = chol[k];
+      for (i=0;i<mm;i++) {
+        for (j=i;j<mm;j++) {
+          for (sum=sig[k][i][j],l=i-1;l>=0;l--) sum -= el[i][l]*el[j][l];
+          if (i == j) {
+            if (sum <= 0.) throw new IllegalArgumentException("Gaumixmod: covariance not positive definite");
+            el[i][i] = sqrt(sum);
+          } else el[j][i] = sum/el[i][i];
+        }
+      }
+      for (sum=0.,i=0;i<mm;i++) sum += log(el[i][i]);
+      lndets[k] = 2.*sum;
+    }
+    if (covtype == TIED) {
+      double[][] el = chol[0];
+      for (k=0;k<kk;k++) {
+        for (i=0;i<mm;i++) {
+          for (sum=means[k][i],j=0;j<i;j++) sum -= el[i][j]*lmean[k][j];
+          lmean[k][i] = sum/el[i][i];
+        }
+      }
     }
-    return loglike - oldloglike;  // when abs of this is small, then we have converged 
   }
-  
-  public void mstep() {
-    int j,n,k,m;
-    double wgt,sum;
+
+  // Sets frac, means and sig from the statistics of the first nchunks chunks
+  private void update(final Chunk[] ch, final int nchunks) {
+    int c,i,j,k;
+    double w;
+    double[] d = new double[mm];
+    double[][] tied = covtype == TIED ? new double[mm][mm] : null;
+    if (tied != null) for (i=0;i<mm;i++) for (j=0;j<=i;j++) tied[i][j] = scatter[i][j];
     for (k=0;k<kk;k++) {
-      wgt=0.;
-      for (n=0;n<nn;n++) wgt += resp[n][k];
-      frac[k] = wgt/nn;
-      for (m=0;m<mm;m++) {
-        for (sum=0.,n=0; n<nn; n++) sum += resp[n][k]*data[n][m];
-        means[k][m] = sum/wgt;
-        for (j=0;j<mm;j++) {
-          for (sum=0.,n=0; n<nn; n++) {
-            sum += resp[n][k]*
-              (data[n][m]-means[k][m])*(data[n][j]-means[k][j]);
+      for (w=0.,c=0;c<nchunks;c++) w += ch[c].w[k];
+      frac[k] = w/nn;
+      if (w <= 0.) continue;
+      for (i=0;i<mm;i++) {
+        for (d[i]=0.,c=0;c<nchunks;c++) d[i] += ch[c].s1[k][i];
+        d[i] /= w;
+      }
+      if (covtype == FULL) {
+        for (i=0;i<mm;i++) {
+          for (j=0;j<=i;j++) {
+            double sum = 0.;
+            for (c=0;c<nchunks;c++) sum += ch[c].s2[k][i][j];
+            sig[k][i][j] = sig[k][j][i] = sum/w - d[i]*d[j];
+          }
+        }
+      } else if (covtype == DIAG) {
+        for (i=0;i<mm;i++) {
+          double sum = 0.;
+          for (c=0;c<nchunks;c++) sum += ch[c].s2[k][0][i];
+          for (j=0;j<mm;j++) sig[k][i][j] = 0.;
+          sig[k][i][i] = sum/w - d[i]*d[i];
+        }
+      }
+      for (i=0;i<mm;i++) means[k][i] += d[i];
+      if (tied != null) {
+        for (i=0;i<mm;i++) d[i] = means[k][i] - center[i];
+        for (i=0;i<mm;i++) for (j=0;j<=i;j++) tied[i][j] -= w*d[i]*d[j];
+      }
+    }
+    if (tied != null) {
+      for (k=0;k<kk;k++)
+        for (i=0;i<mm;i++) for (j=0;j<=i;j++) sig[k][i][j] = sig[k][j][i] = tied[i][j]/nn;
+    }
+  }
+
+  // Mean of the data and scatter matrix (lower triangle) about it, for TIED
+  private void scatter() {
+    int i,j,n,c;
+    center = new double[mm];
+    scatter = new double[mm][mm];
+    for (n=0;n<nn;n++) for (i=0;i<mm;i++) center[i] += data[n][i];
+    for (i=0;i<mm;i++) center[i] /= nn;
+    final int nchunks = Parallel.chunks(nn, GRAIN);
+    final double[][][] part = new double[nchunks][mm][mm];
+    Parallel.forChunks(nn, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        double[][] s = part[c];
+        double[] d = new double[mm];
+        for (int n=from;n<to;n++) {
+          for (int i=0;i<mm;i++) d[i] = data[n][i] - center[i];
+          for (int i=0;i<mm;i++) for (int j=0;j<=i;j++) s[i][j] += d[i]*d[j];
+        }
+      }
+    });
+    for (c=0;c<nchunks;c++) for (i=0;i<mm;i++) for (j=0;j<=i;j++) scatter[i][j] += part[c][i][j];
+  }
+
+  private Chunk[] chunks(final int n) {
+    if (chunks.length < n) {
+      Chunk[] ch = new Chunk[n];
+      System.arraycopy(chunks, 0, ch, 0, chunks.length);
+      chunks = ch;
+    }
+    for (int c=0;c<n;c++) if (chunks[c] == null) chunks[c] = new Chunk();
+    return chunks;
+  }
+
+  // Per-chunk block buffers (indexed [dimension or component][point in block]) and sums
+  final class Chunk {
+    final double[][] u = new double[mm][BLOCK], v = new double[mm][BLOCK], r = new double[kk][BLOCK];
+    final double[] dist = new double[BLOCK];
+    final double[] w = new double[kk];
+    final double[][] s1 = new double[kk][mm];  // sum of r (x - \mu_k), about the old means
+    final double[][][] s2 = new double[kk][covtype == FULL ? mm : covtype == DIAG ? 1 : 0][mm];
+    double ll;
+
+    void clear() {
+      for (int k=0;k<kk;k++) {
+        w[k] = 0.;
+        for (int i=0;i<mm;i++) s1[k][i] = 0.;
+        for (double[] row : s2[k]) for (int i=0;i<mm;i++) row[i] = 0.;
+      }
+    }
+
+    void load(final int n0, final int nb) {
+      for (int b=0;b<nb;b++) {
+        double[] x = data[n0+b];
+        for (int i=0;i<mm;i++) u[i][b] = x[i];
+      }
+    }
+
+    // Responsibilities of the loaded block into r; returns the block's log-likelihood
+    double logprob(final int nb) {
+      int b,i,k;
+      double sum,max,tmp,ll = 0.;
+      if (covtype == TIED) solve(chol[0], null, nb);  // v = L^{-1} x for all components
+      for (k=0;k<kk;k++) {
+        double[] rk = r[k], mu = means[k];
+        for (b=0;b<nb;b++) dist[b] = 0.;
+        if (covtype == FULL) {
+          solve(chol[k], mu, nb);
+          for (i=0;i<mm;i++) {
+            double[] vi = v[i];
+            for (b=0;b<nb;b++) dist[b] += vi[b]*vi[b];
+          }
+        } else if (covtype == DIAG) {
+          for (i=0;i<mm;i++) {
+            double[] ui = u[i];
+            double mi = mu[i], di = dinv[k][i];
+            for (b=0;b<nb;b++) {
+              tmp = (ui[b]-mi)*di;
+              dist[b] += tmp*tmp;
+            }
+          }
+        } else {
+          for (i=0;i<mm;i++) {
+            double[] vi = v[i];
+            double li = lmean[k][i];
+            for (b=0;b<nb;b++) {
+              tmp = vi[b]-li;
+              dist[b] += tmp*tmp;
+            }
+          }
+        }
+        tmp = log(frac[k]) - 0.5*lndets[k];
+        for (b=0;b<nb;b++) rk[b] = tmp - 0.5*dist[b];
+      }
+      for (b=0;b<nb;b++) {  // Seperate normalization for each n
+        max = -99.9e99;   // Log-sum-exp trick begins here
+        for (k=0;k<kk;k++) if (r[k][b] > max) max = r[k][b];
+        for (sum=0.,k=0; k<kk; k++) sum += exp(r[k][b]-max);
+        tmp = max + log(sum);
+        for (k=0;k<kk;k++) r[k][b] = exp(r[k][b] - tmp);
+        ll += tmp;
+      }
+      return ll;
+    }
+
+    // Forward substitution L v = u - mu for the whole block (mu may be null)
+    void solve(final double[][] el, final double[] mu, final int nb) {
+      int b,i,j;
+      for (i=0;i<mm;i++) {
+        double[] vi = v[i], ui = u[i], li = el[i];
+        double mi = mu == null ? 0. : mu[i];
+        for (b=0;b<nb;b++) vi[b] = ui[b]-mi;
+        for (j=0;j<i;j++) {
+          double lij = li[j];
+          double[] vj = v[j];
+          for (b=0;b<nb;b++) vi[b] -= lij*vj[b];
+        }
+        double inv = 1./li[i];
+        for (b=0;b<nb;b++) vi[b] *= inv;
+      }
+    }
+
+    // Adds the weighted sums of the loaded block with responsibilities r
+    void accumulate(final int nb) {
+      int b,i,j,k;
+      double sum,rb;
+      for (k=0;k<kk;k++) {
+        double[] rk = r[k], mu = means[k];
+        for (sum=0.,b=0;b<nb;b++) sum += rk[b];
+        if (sum == 0.) continue;
+        w[k] += sum;
+        for (i=0;i<mm;i++) {   // v holds x - \mu_k; dist is reused below for r (x_i - \mu_{ki})
+          double[] vi = v[i], ui = u[i];
+          double mi = mu[i];
+          for (sum=0.,b=0;b<nb;b++) sum += rk[b]*(vi[b] = ui[b]-mi);
+          s1[k][i] += sum;
+        }
+        if (covtype == FULL) {
+          for (i=0;i<mm;i++) {
+            double[] vi = v[i], s2i = s2[k][i];
+            for (b=0;b<nb;b++) dist[b] = rk[b]*vi[b];
+            for (j=0;j<=i;j++) {
+              double[] vj = v[j];
+              for (sum=0.,b=0;b<nb;b++) sum += dist[b]*vj[b];
+              s2i[j] += sum;
+            }
+          }
+        } else if (covtype == DIAG) {
+          for (i=0;i<mm;i++) {
+            double[] vi = v[i];
+            for (sum=0.,b=0;b<nb;b++) {
+              rb = vi[b];
+              sum += rk[b]*rb*rb;
+            }
+            s2[k][0][i] += sum;
           }
-          sig[k][m][j] = sum/wgt;
         }
       }
     }
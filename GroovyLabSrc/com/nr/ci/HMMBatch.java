@@ -0,0 +1,497 @@
+package com.nr.ci;
+
+import static com.nr.NRUtil.*;
+import static java.lang.Math.*;
+
+import com.nr.util.Parallel;
+
+/*
+ Hidden Markov model engine for many observation sequences. Holds the same transition matrix a
+ and symbol probability matrix b as HMM, but
+  - runs forward-backward over a batch of sequences on the shared pool of com.nr.util.Parallel
+    and reduces the Baum-Welch statistics of all sequences into one re-estimation;
+  - keeps alpha only at checkpoints every K steps (K about sqrt(T) by default) and recomputes
+    it segment by segment during the backward pass, so a sequence of length T needs O(sqrt(T))
+    stored state vectors instead of O(T);
+  - stores the transition matrix in compressed sparse row form, so each step costs O(nnz)
+    instead of O(M^2) (zero transitions stay zero under Baum-Welch);
+  - decodes batches of sequences with a checkpointed Viterbi algorithm in log space.
+ Alpha and beta are rescaled at every step and the log-likelihood is accumulated from the log
+ of the scale factors, so arbitrarily long sequences neither underflow nor need powers of BIG.
+ The initial state weights pi default to 1 for every state, as in HMM; with those weights
+ loglikelihood agrees with HMM.loglikelihood().
+ Sequences are split into chunks of about equal total length, one per worker, and the
+ statistics are summed per chunk and then in chunk order, so results are reproducible for a
+ fixed number of threads.
+ */
+public class HMMBatch {
+  static final int GRAIN = 4096;   // minimum total length of the sequences handled by one worker
+  public double[][] a, b;  // transition matrix and symbol probability matrix
+  public double[] pi;      // initial state weights
+  public int mstat, ksym;  // number of states and symbols
+  public double[] loglike; // per-sequence log-likelihoods from the last estep or baumwelch
+  public double[] vscore;  // per-sequence log-probabilities of the paths from the last viterbi
+  int[] rowptr, col;       // sparse transition matrix: row i holds col[p], val[p] for rowptr[i] <= p < rowptr[i+1]
+  double[] val, lval;      // transition probabilities and their logs
+  double[][] bt, lbt;      // symbol probabilities and their logs, indexed [symbol][state]
+  double[] lpi;
+  int interval = 0;        // checkpoint interval, 0 for about sqrt(T)
+  double[] xisum, gamsum, gamall;  // Baum-Welch statistics of the last estep
+  double[][] bsum;
+  private Work[] works = new Work[0];
+
+  public HMMBatch(final double[][] aa, final double[][] bb) {
+    this(aa, bb, null);
+  }
+
+  /*
+   The transition matrix aa and the symbol probability matrix bb are checked and normalized as
+   in HMM. ppi gives the initial state weights, or is null for weights of 1.
+   */
+  public HMMBatch(final double[][] aa, final double[][] bb, final double[] ppi) {
+    int i,j,k;
+    double sum;
+    a = buildMatrix(aa);
+    b = buildMatrix(bb);
+    mstat = a.length;
+    ksym = b[0].length;
+    if (a[0].length != mstat) throw new IllegalArgumentException("transition matrix not square");
+    if (b.length != mstat) throw new IllegalArgumentException("symbol prob matrix wrong size");
+    for (i=0; i<mstat; i++) {
+      sum = 0.;
+      for (j=0; j<mstat; j++) sum += a[i][j];
+      if (abs(sum - 1.) > 0.01) throw new IllegalArgumentException("transition matrix not normalized");
+      for (j=0; j<mstat; j++) a[i][j] /= sum;
+    }
+    for (i=0; i<mstat; i++) {
+      sum = 0.;
+      for (k=0; k<ksym; k++) sum += b[i][k];
+      if (abs(sum - 1.) > 0.01) throw new IllegalArgumentException("symbol prob matrix not normalized");
+      for (k=0; k<ksym; k++) b[i][k] /= sum;
+    }
+    if (ppi != null && ppi.length != mstat) throw new IllegalArgumentException("initial weights wrong size");
+    pi = new double[mstat];
+    for (i=0; i<mstat; i++) {
+      pi[i] = ppi == null ? 1. : ppi[i];
+      if (pi[i] < 0.) throw new IllegalArgumentException("negative initial state weight");
+    }
+    update();
+  }
+
+  /*
+   Sets the checkpoint interval K of forward-backward and Viterbi. 0 (the default) uses
+   K = ceil(sqrt(T)) for a sequence of length T; Integer.MAX_VALUE stores every step, which
+   uses O(T) memory but does no recomputation.
+   */
+  public void setCheckpointInterval(final int k) {
+    if (k < 0) throw new IllegalArgumentException("checkpoint interval must be nonnegative");
+    interval = k;
+  }
+
+  /*
+   Rebuilds the sparse and transposed forms of a, b and pi. Must be called after changing a, b
+   or pi directly.
+   */
+  public void update() {
+    int i,j,k,p,nnz=0;
+    for (i=0; i<mstat; i++) for (j=0; j<mstat; j++) if (a[i][j] != 0.) nnz++;
+    rowptr = new int[mstat+1];
+    col = new int[nnz];
+    val = new double[nnz];
+    lval = new double[nnz];
+    for (i=0,p=0; i<mstat; i++) {
+      rowptr[i] = p;
+      for (j=0; j<mstat; j++) {
+        if (a[i][j] != 0.) {
+          col[p] = j;
+          val[p] = a[i][j];
+          lval[p++] = log(a[i][j]);
+        }
+      }
+    }
+    rowptr[mstat] = nnz;
+    bt = new double[ksym][mstat];
+    lbt = new double[ksym][mstat];
+    for (k=0; k<ksym; k++) {
+      for (i=0; i<mstat; i++) {
+        bt[k][i] = b[i][k];
+        lbt[k][i] = log(b[i][k]);
+      }
+    }
+    lpi = new double[mstat];
+    for (i=0; i<mstat; i++) lpi[i] = log(pi[i]);
+  }
+
+  /* Number of nonzero transition probabilities. */
+  public int nonzeros() {
+    return val.length;
+  }
+
+  /*
+   Runs forward-backward on every sequence in obs and accumulates the Baum-Welch statistics.
+   Sets loglike and returns the total log-likelihood. A sequence with zero probability under
+   the model gets a log-likelihood of -infinity and contributes no statistics.
+   */
+  public double estep(final int[][] obs) {
+    final int nseq = obs.length;
+    check(obs);
+    loglike = new double[nseq];
+    final int[] start = split(obs);
+    final int nchunks = start.length-1;
+    final Work[] w = workers(nchunks);
+    Parallel.forChunks(nchunks, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        Work wk = w[c];
+        wk.clear();
+        for (int s=start[c]; s<start[c+1]; s++) loglike[s] = wk.forwardbackward(obs[s], null);
+      }
+    });
+    int i,k,p;
+    xisum = new double[val.length];
+    gamsum = new double[mstat];
+    gamall = new double[mstat];
+    bsum = new double[ksym][mstat];
+    for (int c=0; c<nchunks; c++) {
+      for (p=0; p<val.length; p++) xisum[p] += w[c].xi[p];
+      for (i=0; i<mstat; i++) {
+        gamsum[i] += w[c].gam[i];
+        gamall[i] += w[c].gamall[i];
+      }
+      for (k=0; k<ksym; k++) for (i=0; i<mstat; i++) bsum[k][i] += w[c].bnum[k][i];
+    }
+    double sum = 0.;
+    for (int s=0; s<nseq; s++) sum += loglike[s];
+    return sum;
+  }
+
+  /*
+   One Baum-Welch iteration over the sequences in obs: runs estep and re-estimates a and b
+   from the statistics of all sequences. pi is not changed. Rows of a or b for states that
+   are never visited are left unchanged. Returns the total log-likelihood before the update.
+   */
+  public double baumwelch(final int[][] obs) {
+    int i,j,k,p;
+    double sum;
+    double ll = estep(obs);
+    for (i=0; i<mstat; i++) {
+      if (gamsum[i] > 0.) {
+        sum = 0.;
+        for (p=rowptr[i]; p<rowptr[i+1]; p++) sum += xisum[p];
+        if (sum > 0.) {
+          for (j=0; j<mstat; j++) a[i][j] = 0.;
+          for (p=rowptr[i]; p<rowptr[i+1]; p++) a[i][col[p]] = xisum[p]/sum;
+        }
+      }
+      if (gamall[i] > 0.) {
+        for (k=0; k<ksym; k++) b[i][k] = bsum[k][i]/gamall[i];
+      }
+    }
+    update();
+    return ll;
+  }
+
+  /* Log-likelihood of a single sequence. */
+  public double loglikelihood(final int[] obs) {
+    check(new int[][]{obs});
+    Work wk = new Work();
+    return wk.forward(obs);
+  }
+
+  /*
+   Posterior state probabilities of a single sequence, as the matrix pstate[t][i] of HMM. Uses
+   O(T*M) memory for the result; the computation itself is checkpointed.
+   */
+  public double[][] posterior(final int[] obs) {
+    check(new int[][]{obs});
+    double[][] pstate = new double[obs.length][mstat];
+    Work wk = new Work();
+    if (wk.forwardbackward(obs, pstate) == Double.NEGATIVE_INFINITY)
+      throw new IllegalArgumentException("sequence has zero probability");
+    return pstate;
+  }
+
+  /*
+   Most probable state sequence for every sequence in obs, decoded in parallel. Sets vscore
+   to the log-probability of each path; if a sequence has zero probability, its score is
+   -infinity and its path is meaningless.
+   */
+  public int[][] viterbi(final int[][] obs) {
+    final int nseq = obs.length;
+    check(obs);
+    final int[][] path = new int[nseq][];
+    vscore = new double[nseq];
+    final int[] start = split(obs);
+    final int nchunks = start.length-1;
+    final Work[] w = workers(nchunks);
+    Parallel.forChunks(nchunks, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        for (int s=start[c]; s<start[c+1]; s++) {
+          path[s] = new int[obs[s].length];
+          vscore[s] = w[c].viterbi(obs[s], path[s]);
+        }
+      }
+    });
+    return path;
+  }
+
+  /* Most probable state sequence of a single sequence. */
+  public int[] viterbi(final int[] obs) {
+    return viterbi(new int[][]{obs})[0];
+  }
+
+  private void check(final int[][] obs) {
+    for (int[] o : obs) {
+      if (o.length == 0) throw new IllegalArgumentException("empty observation sequence");
+      for (int t=0; t<o.length; t++)
+        if (o[t] < 0 || o[t] >= ksym) throw new IllegalArgumentException("bad data in obs");
+    }
+  }
+
+  // Splits the sequences into contiguous chunks of about equal total length; chunk c holds
+  // sequences start[c] <= s < start[c+1]
+  private int[] split(final int[][] obs) {
+    int s,c,nseq = obs.length;
+    long total = 0, cum = 0;
+    for (s=0; s<nseq; s++) total += obs[s].length;
+    int nchunks = (int)max(1, min(min(Parallel.threads(), nseq), total/GRAIN));
+    if (Parallel.inWorker()) nchunks = 1;
+    int[] start = new int[nchunks+1];
+    for (s=0,c=1; s<nseq && c<nchunks; s++) {
+      cum += obs[s].length;
+      while (c < nchunks && cum >= total*c/nchunks) start[c++] = s+1;
+    }
+    for (; c<=nchunks; c++) start[c] = nseq;
+    return start;
+  }
+
+  private Work[] workers(final int n) {
+    if (works.length < n) {
+      Work[] w = new Work[n];
+      System.arraycopy(works, 0, w, 0, works.length);
+      works = w;
+    }
+    for (int i=0; i<n; i++) if (works[i] == null) works[i] = new Work();
+    return works;
+  }
+
+  private int interval(final int len) {
+    if (interval > 0) return min(interval, len);
+    return max(1, (int)ceil(sqrt((double)len)));
+  }
+
+  // Per-worker buffers and Baum-Welch accumulators, grown as needed and reused
+  final class Work {
+    double[][] cp = new double[0][], seg = new double[0][];  // checkpoints and current segment
+    double[] cpc = new double[0], segc = new double[0];      // scale factors at the same steps
+    int[][] psi = new int[0][];                               // Viterbi back pointers of a segment
+    double[] beta = new double[mstat], bnext = new double[mstat], tmp = new double[mstat];
+    double[] xi = new double[val.length], gam = new double[mstat], gamall = new double[mstat];
+    double[][] bnum = new double[ksym][mstat];
+
+    void clear() {
+      if (xi.length != val.length) xi = new double[val.length];
+      for (int p=0; p<xi.length; p++) xi[p] = 0.;
+      for (int i=0; i<mstat; i++) gam[i] = gamall[i] = 0.;
+      for (int k=0; k<ksym; k++) for (int i=0; i<mstat; i++) bnum[k][i] = 0.;
+    }
+
+    void reserve(final int nseg, final int kk) {
+      if (cp.length < nseg) {
+        cp = new double[nseg][mstat];
+        cpc = new double[nseg];
+      }
+      if (seg.length < kk) {
+        seg = new double[kk][mstat];
+        segc = new double[kk];
+      }
+    }
+
+    // Scaled forward step: alpha_t from alpha_{t-1}; returns the scale factor c_t
+    double step(final double[] prev, final double[] next, final int o) {
+      int i,j,p;
+      double ai,sum = 0.;
+      double[] bo = bt[o];
+      for (j=0; j<mstat; j++) next[j] = 0.;
+      for (i=0; i<mstat; i++) {
+        ai = prev[i];
+        if (ai == 0.) continue;
+        for (p=rowptr[i]; p<rowptr[i+1]; p++) next[col[p]] += ai*val[p];
+      }
+      for (j=0; j<mstat; j++) sum += (next[j] *= bo[j]);
+      if (sum > 0.) for (j=0; j<mstat; j++) next[j] /= sum;
+      return sum;
+    }
+
+    double start(final double[] alpha, final int o) {
+      double sum = 0.;
+      for (int i=0; i<mstat; i++) sum += (alpha[i] = pi[i]*bt[o][i]);
+      if (sum > 0.) for (int i=0; i<mstat; i++) alpha[i] /= sum;
+      return sum;
+    }
+
+    // Forward pass only, keeping two state vectors; returns the log-likelihood
+    double forward(final int[] obs) {
+      double c,ll;
+      double[] cur = beta, nxt = bnext, sw;
+      if ((c = start(cur, obs[0])) == 0.) return Double.NEGATIVE_INFINITY;
+      ll = log(c);
+      for (int t=1; t<obs.length; t++) {
+        if ((c = step(cur, nxt, obs[t])) == 0.) return Double.NEGATIVE_INFINITY;
+        ll += log(c);
+        sw = cur; cur = nxt; nxt = sw;
+      }
+      return ll;
+    }
+
+    /*
+     Checkpointed forward-backward for one sequence. Accumulates the Baum-Welch statistics and,
+     if pstate is not null, stores the posterior state probabilities in it. Returns the
+     log-likelihood, or -infinity (with nothing accumulated) if the sequence is impossible.
+     */
+    double forwardbackward(final int[] obs, final double[][] pstate) {
+      int i,j,p,s,t,t0,t1,o;
+      final int nobs = obs.length, kk = interval(nobs), nseg = (nobs+kk-1)/kk;
+      double c,ll,sum,cn;
+      double[] ah,bo;
+      reserve(nseg, kk);
+      // Forward pass: alpha of the current segment goes to seg, its first step to cp
+      segc[0] = c = start(seg[0], obs[0]);
+      if (c == 0.) return Double.NEGATIVE_INFINITY;
+      ll = log(c);
+      System.arraycopy(seg[0], 0, cp[0], 0, mstat);
+      cpc[0] = c;
+      for (t=1; t<nobs; t++) {
+        if (t % kk == 0) {
+          System.arraycopy(seg[kk-1], 0, tmp, 0, mstat);
+          c = step(tmp, seg[0], obs[t]);
+        } else c = step(seg[t%kk-1], seg[t%kk], obs[t]);
+        if (c == 0.) return Double.NEGATIVE_INFINITY;
+        segc[t%kk] = c;
+        ll += log(c);
+        if (t % kk == 0) {
+          System.arraycopy(seg[0], 0, cp[t/kk], 0, mstat);
+          cpc[t/kk] = c;
+        }
+      }
+      // Backward pass, one segment at a time from the end; seg already holds the last one
+      for (i=0; i<mstat; i++) beta[i] = 1.;
+      cn = 0.;
+      for (s=nseg-1; s>=0; s--) {
+        t0 = s*kk;
+        t1 = min(nobs, t0+kk);
+        if (s < nseg-1) {
+          System.arraycopy(cp[s], 0, seg[0], 0, mstat);
+          segc[0] = cpc[s];
+          for (t=t0+1; t<t1; t++) segc[t-t0] = step(seg[t-t0-1], seg[t-t0], obs[t]);
+        }
+        for (t=t1-1; t>=t0; t--) {
+          ah = seg[t-t0];
+          if (t < nobs-1) {
+            // bnext holds b_j(o_{t+1}) beta_{t+1}(j) / c_{t+1}
+            bo = bt[obs[t+1]];
+            for (j=0; j<mstat; j++) bnext[j] = bo[j]*beta[j]/cn;
+            for (i=0; i<mstat; i++) {
+              sum = 0.;
+              for (p=rowptr[i]; p<rowptr[i+1]; p++) {
+                double v = val[p]*bnext[col[p]];
+                sum += v;
+                xi[p] += ah[i]*v;
+              }
+              beta[i] = sum;
+            }
+          }
+          o = obs[t];
+          for (i=0; i<mstat; i++) {
+            double g = ah[i]*beta[i];
+            if (t < nobs-1) gam[i] += g;
+            gamall[i] += g;
+            bnum[o][i] += g;
+            if (pstate != null) pstate[t][i] = g;
+          }
+          cn = segc[t-t0];
+        }
+      }
+      if (pstate != null) {
+        for (t=0; t<nobs; t++) {
+          sum = 0.;
+          for (i=0; i<mstat; i++) sum += pstate[t][i];
+          for (i=0; i<mstat; i++) pstate[t][i] /= sum;
+        }
+      }
+      return ll;
+    }
+
+    // Log-space Viterbi step: delta_t from delta_{t-1}, back pointers into ptr; returns the
+    // maximum of delta_t, which is subtracted from it
+    double vstep(final double[] prev, final double[] next, final int[] ptr, final int o) {
+      int i,j,p;
+      double di,v,m = Double.NEGATIVE_INFINITY;
+      double[] lbo = lbt[o];
+      for (j=0; j<mstat; j++) {
+        next[j] = Double.NEGATIVE_INFINITY;
+        ptr[j] = 0;
+      }
+      for (i=0; i<mstat; i++) {
+        di = prev[i];
+        if (di == Double.NEGATIVE_INFINITY) continue;
+        for (p=rowptr[i]; p<rowptr[i+1]; p++) {
+          v = di + lval[p];
+          if (v > next[col[p]]) {
+            next[col[p]] = v;
+            ptr[col[p]] = i;
+          }
+        }
+      }
+      for (j=0; j<mstat; j++) if ((next[j] += lbo[j]) > m) m = next[j];
+      if (m != Double.NEGATIVE_INFINITY) for (j=0; j<mstat; j++) next[j] -= m;
+      return m;
+    }
+
+    double vstart(final double[] delta, final int o) {
+      double m = Double.NEGATIVE_INFINITY;
+      for (int i=0; i<mstat; i++) if ((delta[i] = lpi[i] + lbt[o][i]) > m) m = delta[i];
+      if (m != Double.NEGATIVE_INFINITY) for (int i=0; i<mstat; i++) delta[i] -= m;
+      return m;
+    }
+
+    /*
+     Checkpointed Viterbi for one sequence. Segment s covers the transitions into steps
+     s*K < t <= min(T-1, (s+1)*K); cp[s] holds delta at step s*K and psi the back pointers of
+     the segment being traced. Returns the log-probability of the path.
+     */
+    double viterbi(final int[] obs, final int[] path) {
+      int i,s,t,t0,t1,q;
+      final int nobs = obs.length, ntr = nobs-1, kk = interval(max(1, ntr));
+      final int nseg = (ntr+kk-1)/kk;
+      double score,m;
+      double[] cur = beta, nxt = bnext, sw;
+      reserve(max(1, nseg), 1);
+      if (psi.length < kk || (psi.length > 0 && psi[0].length != mstat)) psi = new int[kk][mstat];
+      score = vstart(cur, obs[0]);
+      for (t=1; t<nobs; t++) {
+        if ((t-1) % kk == 0) System.arraycopy(cur, 0, cp[(t-1)/kk], 0, mstat);
+        m = vstep(cur, nxt, psi[(t-1)%kk], obs[t]);
+        score += m;
+        sw = cur; cur = nxt; nxt = sw;
+      }
+      q = 0;
+      for (i=1; i<mstat; i++) if (cur[i] > cur[q]) q = i;
+      score += cur[q];
+      path[nobs-1] = q;
+      for (s=nseg-1; s>=0; s--) {
+        t0 = s*kk;
+        t1 = min(ntr, t0+kk);
+        if (s < nseg-1) {
+          System.arraycopy(cp[s], 0, tmp, 0, mstat);
+          double[] c0 = tmp, c1 = nxt, cs;
+          for (t=t0+1; t<=t1; t++) {
+            vstep(c0, c1, psi[t-t0-1], obs[t]);
+            cs = c0; c0 = c1; c1 = cs;
+          }
+        }
+        for (t=t1; t>t0; t--) path[t-1] = q = psi[t-t0-1][q];
+      }
+      return score;
+    }
+  }
+}
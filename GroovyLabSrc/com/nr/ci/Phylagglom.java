@@ -22,7 +22,15 @@ public abstract class Phylagglom {
   }
   
   public Phylagglom(final double[][] dist, final int fsr) {
-    n = dist.length;
+    this(dist.length, fsr);
+  }
+
+  public Phylagglom(final Phylodist dist, final int fsr) {
+    this(dist.n, fsr);
+  }
+
+  private Phylagglom(final int nn, final int fsr) {
+    n = nn;
     fsroot = fsr;
     t = new Phylagglomnode[2*n-1];
     for(int i=0;i<t.length;i++)
@@ -31,10 +39,10 @@ public abstract class Phylagglom {
 
   // routine that actually constructs the tree, called by the constructor of a derived class
   public void makethetree(final double[][] dist) {
-    int i, j, k, imin=0, jmin=0, node, ntask; 
+    int i, j, k, imin=0, jmin=0, node; 
     double dd, dmin;
     double[][] d = buildMatrix(dist);  // Matrix d is initialized with dist
-    int[] tp = new int[n], nextp = new int[n], prevp = new int[n], tasklist = new int[2*n+1];
+    int[] tp = new int[n], nextp = new int[n], prevp = new int[n];
     double[] tmp = new double[n];
     for (i=0;i<n;i++) {  // initializations on leaf elements
       // nextp and prevp are for looping on the distance matrix even as it becomes sparse
@@ -94,7 +102,40 @@ public abstract class Phylagglom {
     t[root].rdau = tp[j];
     t[root].modist = t[root].dep = 0.;
     t[root].nel = t[tp[i]].nel + t[tp[j]].nel;
-    
+    traverse();
+  }
+
+  /*
+   Constructs the tree like makethetree(double[][]), for one of the distance functions of the
+   built-in subclasses (Phylagglomfast.NJ, UPGMA, WPGMA or MAXLINK), using the cached row-minimum
+   search of Phylagglomfast. Works on dist in place, which is overwritten, so callers pass a copy.
+   Except in degenerate cases, needs O(n^2) time instead of O(n^3).
+   */
+  void makethetree(final Phylodist dist, final int link) {
+    int i, j;
+    double dij;
+    Phylagglomfast fast = new Phylagglomfast(this, dist, link);
+    int[] last = fast.build();
+    i = last[0]; j = last[1];  // set properties of the root node
+    root = 2*n-2;
+    dij = fast.dist(i,j);
+    int ti = fast.tp[i], tj = fast.tp[j], ni = t[ti].nel, nj = t[tj].nel;
+    t[ti].mo = t[tj].mo = t[root].mo = root;
+    if (link == Phylagglomfast.NJ) {
+      t[ti].modist = dij*(nj - 1 + 1.e-15)/(ni + nj -2 + 2.e-15);
+      t[tj].modist = dij*(ni - 1 + 1.e-15)/(ni + nj -2 + 2.e-15);
+    } else t[ti].modist = t[tj].modist = 0.5*dij;
+    t[root].ldau = ti;
+    t[root].rdau = tj;
+    t[root].modist = t[root].dep = 0.;
+    t[root].nel = ni + nj;
+    traverse();
+  }
+
+  // computes seq and dep for every node, given the finished tree
+  private void traverse() {
+    int i, ntask;
+    int[] tasklist = new int[2*n+1];
     // we now traverse the tree computing seq and dep, hints for where to plot nodes in a two-dimensional representation. See Numerical Recipes book text
     ntask = 0;
     seqmax = depmax = 0.;
@@ -0,0 +1,346 @@
+package com.nr.ci;
+
+import static java.lang.Math.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nr.util.Parallel;
+
+/*
+ Agglomeration engine behind Phylagglom.makethetree(Phylodist, int) for the built-in distance
+ functions. It produces the same merges as the generic makethetree, but works on a packed
+ triangular store and keeps, for each row i of the remaining matrix, the minimum of d[i][j]
+ over the remaining j > i and its first position. After a merge only the rows whose cached
+ minimum involved one of the merged rows are rescanned, so for UPGMA, WPGMA and the linkage
+ methods a merge usually costs O(n) instead of the O(n^2) of a full search.
+ Neighbor joining follows RapidNJ (Simonsen, Mailund and Pedersen 2008): each node keeps the
+ older nodes sorted by their distance to it, and a row is scanned in that order only while
+ d[i][j] - u[i] - max(u) does not exceed the best value of d[i][j] - u[i] - u[j] found so far.
+ Entries for nodes that have since been joined are skipped. The row sums behind u are updated
+ incrementally. Row scans and distance updates run on the shared pool of
+ com.nr.util.Parallel; ties are resolved in the same row-major order as the generic search, so
+ the tree does not depend on the number of threads.
+ */
+final class Phylagglomfast {
+  static final int NJ = 0, UPGMA = 1, WPGMA = 2, MAXLINK = 3;  // distance functions
+  static final int GRAIN = 256;   // minimum number of rows per parallel chunk
+  final Phylagglom p;
+  final int n, link, fsroot;
+  final double[] d;
+  final int[] off;
+  final int[] tp, live, pos;   // tree element of each row; remaining rows in order; position of a row in live
+  final double[] rmval, dnew, r, u;
+  final int[] rmidx;
+  final int[][] srow;  // NJ: rows j of older nodes, sorted by distance; entries before head[i] are stale
+  final int[] head;
+  int nlive;
+
+  Phylagglomfast(final Phylagglom pp, final Phylodist dist, final int llink) {
+    p = pp;
+    n = dist.n;
+    link = llink;
+    fsroot = p.fsroot;
+    d = dist.d;      // merged distances are written into dist
+    off = dist.off;
+    tp = new int[n];
+    live = new int[n];
+    pos = new int[n];
+    rmval = new double[n];
+    rmidx = new int[n];
+    dnew = new double[n];
+    r = link == NJ ? new double[n] : null;
+    u = link == NJ ? new double[n] : null;
+    srow = new int[link == NJ ? n : 0][];
+    head = new int[link == NJ ? n : 0];
+  }
+
+  double dist(final int i, final int j) {
+    return i < j ? d[off[i]+j] : d[off[j]+i];
+  }
+
+  // Recomputes the cached minimum of row i over the remaining j > i
+  void rescan(final int i) {
+    int q,j,jmin = -1,base = off[i];
+    double v,vmin = Double.POSITIVE_INFINITY;
+    if (tp[i] != fsroot) {
+      for (q=pos[i]+1;q<nlive;q++) {
+        j = live[q];
+        if (tp[j] == fsroot) continue;
+        if ((v = d[base+j]) < vmin) {
+          vmin = v;
+          jmin = j;
+        }
+      }
+    }
+    rmval[i] = vmin;
+    rmidx[i] = jmin;
+  }
+
+  // Builds the tree into p.t; returns the two rows left for the root
+  int[] build() {
+    int i,j,k,node;
+    Phylagglomnode[] t = p.t;
+    for (i=0;i<n;i++) {
+      live[i] = pos[i] = tp[i] = i;
+      t[i].ldau = t[i].rdau = -1;
+      t[i].nel = 1;
+    }
+    nlive = n;
+    Parallel.forRange(nlive, GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        double[] key = link == NJ ? new double[n] : null;
+        for (int i=from;i<to;i++) {
+          if (link != NJ) {
+            rescan(i);
+            continue;
+          }
+          double sum = 0.;
+          for (int j=0;j<n;j++) if (j != i) sum += (key[j] = dist(i,j));
+          r[i] = sum;
+          sortrow(i, true, key);
+        }
+      }
+    });
+    final int[] ij = new int[2];
+    for (node = n; node < 2*n-2; node++) {
+      if (link == NJ) searchnj(ij);
+      else search(ij);
+      i = ij[0];
+      j = ij[1];
+      final double dij = dist(i,j);
+      final int ni = t[tp[i]].nel, nj = t[tp[j]].nel;
+      t[tp[i]].mo = t[tp[j]].mo = node;
+      if (link == NJ) {
+        t[tp[i]].modist = 0.5*(dij+u[i]-u[j]);
+        t[tp[j]].modist = 0.5*(dij+u[j]-u[i]);
+      } else t[tp[i]].modist = t[tp[j]].modist = 0.5*dij;
+      t[node].ldau = tp[i];
+      t[node].rdau = tp[j];
+      t[node].nel = ni + nj;
+      merge(i, j, dij, ni, nj);
+      tp[i] = node;
+      for (k=pos[j];k<nlive-1;k++) pos[live[k] = live[k+1]] = k;
+      pos[j] = -1;
+      nlive--;
+      if (link == NJ) {
+        srow[j] = null;
+        sortrow(i, false, dnew);
+      } else update(i, j);
+    }
+    return new int[]{live[0], live[1]};
+  }
+
+  // First pair (in row-major order) with the smallest distance
+  void search(final int[] ij) {
+    final int nchunks = Parallel.chunks(nlive, 4*GRAIN);
+    final int[] best = new int[nchunks];
+    Parallel.forChunks(nlive, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        int b = -1;
+        for (int q=from;q<to;q++) {
+          int i = live[q];
+          if (rmidx[i] >= 0 && (b < 0 || rmval[i] < rmval[b])) b = i;
+        }
+        best[c] = b;
+      }
+    });
+    int b = -1;
+    for (int c=0;c<nchunks;c++)
+      if (best[c] >= 0 && (b < 0 || rmval[best[c]] < rmval[b])) b = best[c];
+    if (b < 0) throw new IllegalArgumentException("Phylagglom: no pair left to join");
+    ij[0] = b;
+    ij[1] = rmidx[b];
+  }
+
+  // Pair minimizing d[i][j] - u[i] - u[j], first in row-major order among ties
+  void searchnj(final int[] ij) {
+    int q,i;
+    double umax = Double.NEGATIVE_INFINITY;
+    for (q=0;q<nlive;q++) {
+      i = live[q];
+      u[i] = r[i]/(nlive-2);
+      if (tp[i] != fsroot && u[i] > umax) umax = u[i];
+    }
+    final double umx = umax;
+    final AtomicLong shared = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    final int nchunks = Parallel.chunks(nlive, GRAIN);
+    final Best[] best = new Best[nchunks];
+    Parallel.forChunks(nlive, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        Best b = new Best();
+        for (int q=from;q<to;q++) {
+          if (b.scan(live[q], umx, shared)) {
+            long old;
+            while (b.q < Double.longBitsToDouble(old = shared.get())
+                && !shared.compareAndSet(old, Double.doubleToLongBits(b.q)));
+          }
+        }
+        best[c] = b;
+      }
+    });
+    Best b = best[0];
+    for (int c=1;c<nchunks;c++) if (best[c].better(b.q, b.i, b.j)) b = best[c];
+    if (b.i < 0) throw new IllegalArgumentException("Phylagglom: no pair left to join");
+    ij[0] = b.i;
+    ij[1] = b.j;
+  }
+
+  // Best neighbor-joining pair (i < j) seen by one chunk
+  final class Best {
+    double q = Double.POSITIVE_INFINITY;
+    int i = -1, j = -1;
+
+    // true if this pair comes before (qq, ii, jj)
+    boolean better(final double qq, final int ii, final int jj) {
+      return i >= 0 && (q < qq || (q == qq && (i < ii || (i == ii && j < jj))));
+    }
+
+    // Scans the sorted row of ii while the bound allows; returns true if it gave a better pair
+    boolean scan(final int ii, final double umax, final AtomicLong shared) {
+      int p,jj,lo,hi;
+      int[] s = srow[ii];
+      double v,dv,bound,ui = u[ii];
+      boolean found = false;
+      if (s == null) return false;
+      while (head[ii] < s.length && !valid(ii, s[head[ii]])) head[ii]++;
+      for (p=head[ii];p<s.length;p++) {
+        jj = s[p];
+        if (!valid(ii, jj)) continue;
+        dv = dist(ii,jj);
+        bound = min(q, Double.longBitsToDouble(shared.get()));
+        if (dv - ui - umax > bound) break;
+        v = dv - ui - u[jj];
+        lo = min(ii,jj);
+        hi = max(ii,jj);
+        if (v < q || (v == q && (lo < i || (lo == i && hi < j)))) {
+          q = v;
+          i = lo;
+          j = hi;
+          found = true;
+        }
+      }
+      return found;
+    }
+  }
+
+  // true if row jj still holds the node that was entered in the sorted row of ii
+  boolean valid(final int ii, final int jj) {
+    return pos[jj] >= 0 && tp[jj] < tp[ii] && tp[jj] != fsroot;
+  }
+
+  /*
+   Sorted row of row i: for a leaf the leaves j < i, for a new node all remaining rows; key[j]
+   holds the distance to j.
+   */
+  void sortrow(final int i, final boolean leaf, final double[] key) {
+    int q,j,cnt = 0,m = leaf ? i : nlive;
+    int[] s = new int[m];
+    if (tp[i] != fsroot) {
+      for (q=0;q<m;q++) {
+        j = leaf ? q : live[q];
+        if (j != i && tp[j] != fsroot) s[cnt++] = j;
+      }
+    }
+    if (cnt < m) {
+      int[] t = new int[cnt];
+      System.arraycopy(s, 0, t, 0, cnt);
+      s = t;
+    }
+    sort(s, key, 0, cnt-1);
+    srow[i] = s;
+    head[i] = 0;
+  }
+
+  // Quicksort of idx[lo..hi] by key[idx], ties by index
+  static void sort(final int[] idx, final double[] key, int lo, int hi) {
+    int i,j,t,pv;
+    while (hi - lo > 16) {
+      int mid = (lo+hi) >>> 1;
+      if (less(idx[mid], idx[lo], key)) {t = idx[mid]; idx[mid] = idx[lo]; idx[lo] = t;}
+      if (less(idx[hi], idx[lo], key)) {t = idx[hi]; idx[hi] = idx[lo]; idx[lo] = t;}
+      if (less(idx[hi], idx[mid], key)) {t = idx[hi]; idx[hi] = idx[mid]; idx[mid] = t;}
+      pv = idx[mid];
+      i = lo; j = hi;
+      while (i <= j) {
+        while (less(idx[i], pv, key)) i++;
+        while (less(pv, idx[j], key)) j--;
+        if (i <= j) {t = idx[i]; idx[i++] = idx[j]; idx[j--] = t;}
+      }
+      if (j - lo < hi - i) {
+        sort(idx, key, lo, j);
+        lo = i;
+      } else {
+        sort(idx, key, i, hi);
+        hi = j;
+      }
+    }
+    for (i=lo+1;i<=hi;i++) {
+      t = idx[i];
+      for (j=i-1;j>=lo && less(t, idx[j], key);j--) idx[j+1] = idx[j];
+      idx[j+1] = t;
+    }
+  }
+
+  static boolean less(final int a, final int b, final double[] key) {
+    return key[a] < key[b] || (key[a] == key[b] && a < b);
+  }
+
+  // Distances of the new node (row i) to the remaining rows, written into row i
+  void merge(final int i, final int j, final double dij, final int ni, final int nj) {
+    final int nchunks = Parallel.chunks(nlive, 4*GRAIN);
+    final double[] rsum = new double[nchunks];
+    Parallel.forChunks(nlive, nchunks, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        double sum = 0.;
+        for (int q=from;q<to;q++) {
+          int k = live[q];
+          if (k == i || k == j) continue;
+          double dik = dist(i,k), djk = dist(j,k), v;
+          switch (link) {
+          case NJ: v = 0.5*(dik + djk - dij); break;
+          case UPGMA: v = (ni*dik + nj*djk) / (ni+nj); break;
+          case WPGMA: v = 0.5*(dik+djk); break;
+          default: v = max(dik,djk);
+          }
+          dnew[k] = v;
+          if (k < i) d[off[k]+i] = v;
+          else d[off[i]+k] = v;
+          if (r != null) {
+            r[k] += v - dik - djk;
+            sum += v;
+          }
+        }
+        rsum[c] = sum;
+      }
+    });
+    if (r != null) {
+      double sum = 0.;
+      for (int c=0;c<nchunks;c++) sum += rsum[c];
+      r[i] = sum;
+    }
+  }
+
+  // Repairs the cached row minima after rows i and j were joined into row i and j removed
+  void update(final int i, final int j) {
+    final boolean icol = tp[i] != fsroot;
+    Parallel.forRange(nlive, GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int c) {
+        for (int q=from;q<to;q++) {
+          int k = live[q];
+          if (k == i || rmidx[k] == j) rescan(k);
+          else if (tp[k] == fsroot) continue;
+          else if (k < i) {
+            double v = dnew[k];
+            if (rmidx[k] == i) {
+              if (icol && v <= rmval[k]) rmval[k] = v;
+              else rescan(k);
+            } else if (icol && (v < rmval[k] || (v == rmval[k] && (rmidx[k] < 0 || i < rmidx[k])))) {
+              rmval[k] = v;
+              rmidx[k] = i;
+            }
+          }
+        }
+      }
+    });
+  }
+}
@@ -10,8 +10,13 @@ public class Phylo_clc extends Phylagglom {
     return max(d[i][k],d[j][k]);}
   public void drootbranchfn(final double[][] d, final int i, final int j, final int ni, final int nj,
     final doubleW bi, final doubleW bj) {bi.val = bj.val = 0.5*d[i][j];}
-  public Phylo_clc(final double[][] dist){
-    super(dist);
-    makethetree(dist);
+  public Phylo_clc(final double[][] dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.MAXLINK);
+  }
+
+  public Phylo_clc(final Phylodist dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.MAXLINK);
   }
 }
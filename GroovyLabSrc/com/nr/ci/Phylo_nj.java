@@ -41,6 +41,16 @@ public class Phylo_nj extends Phylagglom{
   public Phylo_nj(final double[][] dist, final int fsr) {
     super(dist,fsr);
     u = new double[n];
-    makethetree(dist);
+    makethetree(new Phylodist(dist), Phylagglomfast.NJ);
+  }
+
+  public Phylo_nj(final Phylodist dist) {
+    this(dist, -1);
+  }
+
+  public Phylo_nj(final Phylodist dist, final int fsr) {
+    super(dist,fsr);
+    u = new double[n];
+    makethetree(new Phylodist(dist), Phylagglomfast.NJ);
   }
 }
@@ -11,8 +11,13 @@ public class Phylo_slc extends Phylagglom{
   public void drootbranchfn(final double[][] d, final int i, final int j, final int ni, final int nj,
     final doubleW bi, final doubleW bj) {bi.val = bj.val = 0.5*d[i][j];}
   
-  public Phylo_slc(final double[][] dist){
-    super(dist);
-    makethetree(dist);
+  public Phylo_slc(final double[][] dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.MAXLINK);
+  }
+
+  public Phylo_slc(final Phylodist dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.MAXLINK);
   }
 }
@@ -9,8 +9,13 @@ public class Phylo_upgma extends Phylagglom {
     return (ni*d[i][k] + nj*d[j][k]) / (ni+nj);}
   public void drootbranchfn(final double[][] d, final int i, final int j, final int ni, final int nj,
     final doubleW bi, final doubleW bj) {bi.val = bj.val = 0.5*d[i][j];}
-  public Phylo_upgma(final double[][] dist){
-    super(dist);
-    makethetree(dist);
+  public Phylo_upgma(final double[][] dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.UPGMA);
+  }
+
+  public Phylo_upgma(final Phylodist dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.UPGMA);
   }
 }
@@ -11,8 +11,13 @@ public class Phylo_wpgma extends Phylagglom{
   public void drootbranchfn(final double[][] d, final int i, final int j, final int ni, final int nj, final doubleW bi, final doubleW bj) {bi.val = bj.val = 0.5*d[i][j];}
   
   public Phylo_wpgma(final double[][] dist) {
-    super(dist);
-    makethetree(dist);
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.WPGMA);
+  }
+
+  public Phylo_wpgma(final Phylodist dist) {
+    super(dist,-1);
+    makethetree(new Phylodist(dist), Phylagglomfast.WPGMA);
   }
 
 }
@@ -0,0 +1,48 @@
+package com.nr.ci;
+
+/*
+ Symmetric distance matrix with zero diagonal, stored as its packed upper triangle: row i holds
+ the distances to j = i+1..n-1 contiguously, so the store takes n(n-1)/2 doubles, half the
+ memory of a full matrix. The agglomerative tree classes (Phylagglom) accept it in place of a
+ double[][] matrix, which lets large trees be built without ever allocating the full matrix.
+ */
+public class Phylodist {
+  public final int n;
+  final double[] d;
+  final int[] off;   // d[off[i]+j] is the distance between i and j > i
+
+  public Phylodist(final int nn) {
+    n = nn;
+    if ((long)n*(n-1)/2 > Integer.MAX_VALUE-8) throw new IllegalArgumentException("Phylodist: too many points");
+    d = new double[n*(n-1)/2];
+    off = new int[n];
+    for (int i=0;i<n;i++) off[i] = (int)((long)i*(2*n-i-1)/2) - i - 1;
+  }
+
+  // the upper triangle of dist is used
+  public Phylodist(final double[][] dist) {
+    this(dist.length);
+    for (int i=0;i<n;i++) {
+      if (dist[i].length != n) throw new IllegalArgumentException("Phylodist: need square matrix");
+      for (int j=i+1;j<n;j++) d[off[i]+j] = dist[i][j];
+    }
+  }
+
+  public Phylodist(final Phylodist dist) {
+    n = dist.n;
+    d = dist.d.clone();
+    off = dist.off;
+  }
+
+  public double get(final int i, final int j) {
+    if (i < j) return d[off[i]+j];
+    if (i > j) return d[off[j]+i];
+    return 0.;
+  }
+
+  public void set(final int i, final int j, final double val) {
+    if (i < j) d[off[i]+j] = val;
+    else if (i > j) d[off[j]+i] = val;
+    else if (val != 0.) throw new IllegalArgumentException("Phylodist: nonzero diagonal");
+  }
+}
@@ -0,0 +1,291 @@
+package com.nr.fe;
+
+import static java.lang.Math.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import com.nr.UniVarRealValueFun;
+import com.nr.util.Parallel;
+
+/**
+ * Adaptive piecewise Chebyshev approximation of a function on [a,b], for use in place of the
+ * function in hot loops.
+ *
+ * The range is bisected until the Chebyshev fit of order n on each piece (as constructed by
+ * Chebyshev(func,lo,hi,n)) has its last two coefficients below tol times max(1, a bound on the
+ * fit), so tol is an absolute tolerance for |f| < 1 and a relative one above. The coefficients
+ * of all pieces are kept in one flat array, n per piece, and a table of 2^LTAB buckets over
+ * [a,b] gives the piece of x in one step (two or three when pieces are narrower than a
+ * bucket). Evaluation is Clenshaw's recurrence, as in Chebyshev.eval.
+ *
+ * The object implements UniVarRealValueFun and is immutable once built, so it may be shared
+ * by threads; eval on an array splits the array over the threads of com.nr.util.Parallel.
+ * Fitted tables can be saved to a file and read back, and cached(...) does either as needed,
+ * so that the function is fitted once and reused across runs.
+ */
+public class Chebcache implements UniVarRealValueFun {
+  static final int LTAB = 16;   // at most 2^LTAB lookup buckets
+  static final int MAXLEV = 50;   // deepest bisection
+  static final int MAGIC = 0x43484243;   // "CHBC"
+  static final int GRAIN = 1 << 12;
+  public final double a, b, tol;
+  public final int n;
+  private final double[] brk;   // breakpoints brk[0..np], brk[0]=a, brk[np]=b
+  private final double[] coef;   // coefficients of piece k at coef[k*n..k*n+n-1]
+  private final double[] mid, ihw;   // center and inverse half-width of each piece
+  private final int[] look;   // first piece of each bucket
+  private final double bscale;   // buckets per unit of x
+
+  /**
+   * Fit func on [a,b] to tolerance tol with Chebyshev fits of order 16.
+   *
+   * @param func
+   * @param a
+   * @param b
+   * @param tol
+   */
+  public Chebcache(final UniVarRealValueFun func, final double a, final double b, final double tol) {
+    this(func,a,b,tol,16);
+  }
+
+  /**
+   * Fit func on [a,b] to tolerance tol with Chebyshev fits of order n (n >= 3) on each piece.
+   * func is called from the calling thread only.
+   *
+   * @param func
+   * @param a
+   * @param b
+   * @param tol
+   * @param n
+   */
+  public Chebcache(final UniVarRealValueFun func, final double a, final double b, final double tol, final int n) {
+    this(a,b,tol,n,fit(func,a,b,tol,n));
+  }
+
+  private Chebcache(final double a, final double b, final double tol, final int n, final double[][] pieces) {
+    if (!(a < b) || n < 3) throw new IllegalArgumentException("Chebcache: need a < b and n >= 3");
+    this.a = a;
+    this.b = b;
+    this.tol = tol;
+    this.n = n;
+    brk = pieces[0];
+    coef = pieces[1];
+    int k,np=brk.length-1;
+    if (np < 1 || coef.length != np*n || brk[0] != a || brk[np] != b)
+      throw new IllegalArgumentException("Chebcache: inconsistent table");
+    mid = new double[np];
+    ihw = new double[np];
+    double wmin=b-a;
+    for (k=0;k<np;k++) {
+      if (!(brk[k+1] > brk[k])) throw new IllegalArgumentException("Chebcache: breakpoints not increasing");
+      mid[k]=0.5*(brk[k]+brk[k+1]);
+      ihw[k]=2.0/(brk[k+1]-brk[k]);
+      wmin=min(wmin,brk[k+1]-brk[k]);
+    }
+    // buckets no wider than the narrowest piece, so that most hold a single piece
+    int nb=1;
+    while (nb < (1 << LTAB) && (b-a)/nb > wmin*(1.0+1.e-12)) nb <<= 1;
+    look = new int[nb];
+    bscale = nb/(b-a);
+    for (int i=0,j=0;i<nb;i++) {
+      double lo=a+i/bscale;
+      while (j < np-1 && brk[j+1] <= lo) j++;
+      look[i]=j;
+    }
+  }
+
+  // Bisect [a,b] until each piece meets the tolerance; returns {breakpoints, coefficients}
+  private static double[][] fit(final UniVarRealValueFun func, final double a, final double b,
+    final double tol, final int n) {
+    if (!(a < b) || n < 3) throw new IllegalArgumentException("Chebcache: need a < b and n >= 3");
+    ArrayList<Double> br = new ArrayList<Double>();
+    ArrayList<double[]> cs = new ArrayList<double[]>();
+    double[] stlo = new double[MAXLEV+2], sthi = new double[MAXLEV+2];
+    int[] stlev = new int[MAXLEV+2];
+    int sp=0;
+    stlo[0]=a; sthi[0]=b; stlev[0]=0;
+    br.add(a);
+    while (sp >= 0) {   // depth first, left piece first, so pieces come out in order
+      double lo=stlo[sp],hi=sthi[sp];
+      int lev=stlev[sp--];
+      double[] c = new Chebyshev(func,lo,hi,n).getc();
+      double bound=0.5*abs(c[0]),est=abs(c[n-1])+abs(c[n-2]);
+      for (int j=1;j<n;j++) bound += abs(c[j]);
+      if (lev >= 2 && est <= tol*max(1.0,bound)) {
+        cs.add(c);
+        br.add(hi);
+        continue;
+      }
+      if (lev >= MAXLEV) throw new IllegalArgumentException("Chebcache: tolerance not met near x = " + lo);
+      double m=0.5*(lo+hi);
+      sp++; stlo[sp]=m; sthi[sp]=hi; stlev[sp]=lev+1;
+      sp++; stlo[sp]=lo; sthi[sp]=m; stlev[sp]=lev+1;
+    }
+    int np=cs.size();
+    double[] brk = new double[np+1], coef = new double[np*n];
+    for (int k=0;k<=np;k++) brk[k]=br.get(k);
+    brk[np]=b;
+    for (int k=0;k<np;k++) System.arraycopy(cs.get(k),0,coef,k*n,n);
+    return new double[][]{brk,coef};
+  }
+
+  /** Number of pieces. */
+  public int pieces() {
+    return brk.length-1;
+  }
+
+  /** Breakpoints of the pieces, a copy. */
+  public double[] breakpoints() {
+    return brk.clone();
+  }
+
+  private int piece(final double x) {
+    if ((x-a)*(x-b) > 0.0 || x != x) throw new IllegalArgumentException("x not in range in eval");
+    int k=look[min(look.length-1,(int)((x-a)*bscale))],np=brk.length-1;
+    while (k < np-1 && x >= brk[k+1]) k++;
+    while (k > 0 && x < brk[k]) k--;
+    return k;
+  }
+
+  private double clenshaw(final int k, final double x) {
+    double d=0.0,dd=0.0,sv,y,y2;
+    int q=k*n;
+    y2=2.0*(y=(x-mid[k])*ihw[k]);
+    for (int j=n-1;j>0;j--) {
+      sv=d;
+      d=y2*d-dd+coef[q+j];
+      dd=sv;
+    }
+    return y*d-dd+0.5*coef[q];
+  }
+
+  /**
+   * Approximation of the function at x in [a,b].
+   *
+   * @param x
+   * @return
+   */
+  public double get(final double x) {
+    return clenshaw(piece(x),x);
+  }
+
+  public double funk(final double x) {
+    return get(x);
+  }
+
+  /**
+   * Approximations at x[0..m-1], returned in out[0..m-1].
+   *
+   * @param x
+   * @param out
+   */
+  public void eval(final double[] x, final double[] out) {
+    if (out.length < x.length) throw new IllegalArgumentException("Chebcache: out is shorter than x");
+    Parallel.forRange(x.length, GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i]=clenshaw(piece(x[i]),x[i]);
+      }
+    });
+  }
+
+  /**
+   * Writes the fitted table to file. The table is written to a temporary file in the same
+   * directory, which then replaces file by an atomic rename, so that a reader never sees a
+   * partly written table.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void save(final String file) throws IOException {
+    File target = new File(file).getAbsoluteFile();
+    File tmp = File.createTempFile(target.getName()+"-", ".part", target.getParentFile());
+    try {
+      DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        o.writeInt(MAGIC);
+        o.writeDouble(a);
+        o.writeDouble(b);
+        o.writeDouble(tol);
+        o.writeInt(n);
+        o.writeInt(brk.length-1);
+        for (double v : brk) o.writeDouble(v);
+        for (double v : coef) o.writeDouble(v);
+      } finally {
+        o.close();
+      }
+      try {
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      tmp.delete();   // left only if writing failed
+    }
+  }
+
+  /**
+   * Reads a table written by save.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public static Chebcache load(final String file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC) throw new IOException("Chebcache: " + file + " is not a Chebcache table");
+      double a=in.readDouble(),b=in.readDouble(),tol=in.readDouble();
+      int n=in.readInt(),np=in.readInt();
+      if (n < 3 || np < 1 || (long)np*n > Integer.MAX_VALUE)
+        throw new IOException("Chebcache: bad table size in " + file);
+      double[] brk = new double[np+1], coef = new double[np*n];
+      for (int k=0;k<=np;k++) brk[k]=in.readDouble();
+      for (int k=0;k<np*n;k++) coef[k]=in.readDouble();
+      return new Chebcache(a,b,tol,n,new double[][]{brk,coef});
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * The table for func on [a,b] with tolerance tol and order n: read from file if that holds a
+   * table with the same a, b, tol and n, otherwise fitted and written to file. The file does
+   * not record which function was fitted; it is up to the caller to use one file per function.
+   *
+   * @param file
+   * @param func
+   * @param a
+   * @param b
+   * @param tol
+   * @param n
+   * @return
+   * @throws IOException
+   */
+  public static Chebcache cached(final String file, final UniVarRealValueFun func, final double a,
+    final double b, final double tol, final int n) throws IOException {
+    if (new File(file).isFile()) {
+      try {
+        Chebcache c = load(file);
+        if (c.a == a && c.b == b && c.tol == tol && c.n == n) return c;
+      } catch (IOException e) {
+        // unreadable or stale: refit below
+      } catch (IllegalArgumentException e) {
+        // inconsistent table: refit below
+      }
+    }
+    Chebcache c = new Chebcache(func,a,b,tol,n);
+    c.save(file);
+    return c;
+  }
+}
@@ -2,6 +2,7 @@ package com.nr.interp;
 
 import static java.lang.Math.*;
 
+import com.nr.util.Parallel;
 
 /**
  * Abstract base class used by all interpolation routines in this chapter. 
@@ -14,6 +15,7 @@ import static java.lang.Math.*;
  *
  */
 public abstract class Base_interp {
+  static final int GRAIN = 1 << 12;   // queries per parallel chunk in the bulk interp
   int n, mm, jsav, cor, dj;
   double[] xx, yy;
   
@@ -43,6 +45,82 @@ public abstract class Base_interp {
 
   
   public abstract double  rawinterp(int jlo, double x);
+
+  /**
+   * Interpolated values at xs[0..m-1], returned in out[0..m-1]. Unlike interp(x), this leaves
+   * the saved search state alone, and in Poly_interp and Rational_interp the error estimate dy,
+   * so one object of the classes in this package may be used by several threads at once. Each
+   * query is bracketed by hunting from the bracket of the one before, which for sorted xs
+   * amounts to merging xs with the table; large arrays are split over the threads of
+   * com.nr.util.Parallel. The values are those of interp(x), except that Spline_interp uses
+   * the polynomial coefficients of each interval and may differ in the last bits.
+   * 
+   * @param xs
+   * @param out
+   */
+  public void interp(final double[] xs, final double[] out) {
+    if (out.length < xs.length) throw new IllegalArgumentException("interp: out is shorter than xs");
+    if (n < 2 || mm < 2 || mm > n) throw new IllegalArgumentException("interp size error");
+    Parallel.forRange(xs.length, GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        rawinterp(xs,out,from,to);
+      }
+    });
+  }
+
+  /**
+   * Fills out[from..to-1] with the values at xs[from..to-1]; must not modify the object.
+   * Derived classes may replace the call of rawinterp(jlo,x) per point by a faster loop.
+   */
+  void rawinterp(final double[] xs, final double[] out, final int from, final int to) {
+    int jl=-1;
+    for (int i=from;i<to;i++) {
+      jl=bracket(xs[i],jl);
+      out[i]=rawinterp(max(0,min(n-mm,jl-((mm-2)>>1))),xs[i]);
+    }
+  }
+
+  /**
+   * As hunt, starting from jl (or by bisection if jl is out of range), but returns the
+   * bracketing index itself and saves nothing.
+   */
+  int bracket(final double x, final int j) {
+    int jl=j, jm, ju, inc=1;
+    boolean ascnd=(xx[n-1] >= xx[0]);
+    if (jl < 0 || jl > n-1) {
+      jl=0;
+      ju=n-1;
+    } else if (x >= xx[jl] == ascnd) {
+      for (;;) {
+        ju = jl + inc;
+        if (ju >= n-1) { ju = n-1; break;}
+        else if (x < xx[ju] == ascnd) break;
+        else {
+          jl = ju;
+          inc += inc;
+        }
+      }
+    } else {
+      ju = jl;
+      for (;;) {
+        jl = jl - inc;
+        if (jl <= 0) { jl = 0; break;}
+        else if (x >= xx[jl] == ascnd) break;
+        else {
+          ju = jl;
+          inc += inc;
+        }
+      }
+    }
+    while (ju-jl > 1) {
+      jm = (ju+jl) >> 1;
+      if (x >= xx[jm] == ascnd)
+        jl=jm;
+      else
+        ju=jm;
+    }
+    return jl;
+  }
   
   /**
    * Given a value x, return a value j such that x is (insofar as possible)
@@ -1,5 +1,6 @@
 package com.nr.interp;
 
+import com.nr.util.Parallel;
 
 /**
  * interpolation routines for two dimensions
@@ -38,4 +39,35 @@ public class Bilin_interp {
       + (1.-t)*u*y[i][j+1] + t*u*y[i+1][j+1];
     return yy;
   }
+
+  /**
+   * Interpolated values at the points (x1p[k],x2p[k]), k = 0..q-1, returned in out[0..q-1]; the
+   * same values as interp. Each cell search hunts from the cell of the query before, so queries
+   * that move through the grid in small steps (rows of an image warp, say) are cheap. The
+   * object may be used by several threads at once, and large arrays are split over the threads
+   * of com.nr.util.Parallel.
+   * 
+   * @param x1p
+   * @param x2p
+   * @param out
+   */
+  public void interp(final double[] x1p, final double[] x2p, final double[] out) {
+    if (x2p.length != x1p.length || out.length < x1p.length)
+      throw new IllegalArgumentException("Bilin_interp: query arrays differ in size");
+    Parallel.forRange(x1p.length, Base_interp.GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int i=-1,j=-1;
+        double t,u;
+        double[] xa=x1terp.xx,xb=x2terp.xx;
+        for (int k=from;k<to;k++) {
+          i=x1terp.bracket(x1p[k],i);
+          j=x2terp.bracket(x2p[k],j);
+          t = (x1p[k]-xa[i])/(xa[i+1]-xa[i]);
+          u = (x2p[k]-xb[j])/(xb[j+1]-xb[j]);
+          out[k] = (1.-t)*(1.-u)*y[i][j] + t*(1.-u)*y[i+1][j]
+            + (1.-t)*u*y[i][j+1] + t*u*y[i+1][j+1];
+        }
+      }
+    });
+  }
 }
@@ -22,4 +22,15 @@ public class Linear_interp extends Base_interp{
     else return yy[j] + ((x-xx[j])/(xx[j+1]-xx[j]))*(yy[j+1]-yy[j]);
   }
 
+  void rawinterp(final double[] xs, final double[] out, final int from, final int to) {
+    int j=-1;
+    double x;
+    for (int i=from;i<to;i++) {
+      x=xs[i];
+      j=bracket(x,j);
+      if (xx[j]==xx[j+1]) out[i]=yy[j];
+      else out[i]=yy[j] + ((x-xx[j])/(xx[j+1]-xx[j]))*(yy[j+1]-yy[j]);
+    }
+  }
+
 }
@@ -1,5 +1,10 @@
 package com.nr.interp;
 
+import static java.lang.Math.*;
+
+import org.netlib.util.doubleW;
+
+import com.nr.util.Parallel;
 
 /**
  * Object for two-dimensional polynomial interpolation on a matrix. Construct
@@ -42,4 +47,36 @@ public class Poly2D_interp {
     }
     return x1terp.rawinterp(i,x1p);
   }
+
+  /**
+   * Interpolated values at the points (x1p[k],x2p[k]), k = 0..q-1, returned in out[0..q-1]; the
+   * same values as interp. Each cell search hunts from the cell of the query before. The object
+   * may be used by several threads at once, and large arrays are split over the threads of
+   * com.nr.util.Parallel.
+   * 
+   * @param x1p
+   * @param x2p
+   * @param out
+   */
+  public void interp(final double[] x1p, final double[] x2p, final double[] out) {
+    if (x2p.length != x1p.length || out.length < x1p.length)
+      throw new IllegalArgumentException("Poly2D_interp: query arrays differ in size");
+    if (m < mm || n < nn || mm < 2 || nn < 2) throw new IllegalArgumentException("interp size error");
+    Parallel.forRange(x1p.length, Base_interp.GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int i,j,k,il=-1,jl=-1;
+        double[] xa=x1terp.xx,xb=x2terp.xx,v=new double[m];
+        double[] c=new double[max(mm,nn)],d=new double[max(mm,nn)];
+        doubleW dy=new doubleW(0.);
+        for (int l=from;l<to;l++) {
+          il=x1terp.bracket(x1p[l],il);
+          jl=x2terp.bracket(x2p[l],jl);
+          i=max(0,min(m-mm,il-((mm-2)>>1)));
+          j=max(0,min(n-nn,jl-((nn-2)>>1)));
+          for (k=i;k<i+mm;k++) v[k]=Poly_interp.neville(xb,y[k],j,nn,x2p[l],c,d,dy);
+          out[l]=Poly_interp.neville(xa,v,i,mm,x1p[l],c,d,dy);
+        }
+      }
+    });
+  }
 }
@@ -2,6 +2,8 @@ package com.nr.interp;
 
 import static java.lang.Math.*;
 
+import org.netlib.util.doubleW;
+
 /**
  * 
  * Polynomial Interpolation and Extrapolation
@@ -28,11 +30,30 @@ public class Poly_interp extends Base_interp {
    * xx[jl..jl+mm-1].
    */
   public double rawinterp(final int jl, final double x) {
+    doubleW err = new doubleW(0.);
+    double y = neville(xx,yy,jl,mm,x,new double[mm],new double[mm],err);
+    dy = err.val;
+    return y;
+  }
+
+  void rawinterp(final double[] xs, final double[] out, final int from, final int to) {
+    int jl=-1;
+    double[] c = new double[mm];
+    double[] d = new double[mm];
+    doubleW err = new doubleW(0.);
+    for (int i=from;i<to;i++) {
+      jl=bracket(xs[i],jl);
+      out[i]=neville(xx,yy,max(0,min(n-mm,jl-((mm-2)>>1))),mm,xs[i],c,d,err);
+    }
+  }
+
+  // Neville's algorithm on the points xx[jl..jl+mm-1], yy[jl..jl+mm-1], with workspace c and d
+  // of length mm; the error estimate is returned in dyy
+  static double neville(final double[] xx, final double[] yy, final int jl, final int mm,
+    final double x, final double[] c, final double[] d, final doubleW dyy) {
     int i,m,ns=0;
     double y,den,dif,dift,ho,hp,w;
     //double *xa = &xx[jl], *ya = &yy[jl];
-    double[] c = new double[mm];
-    double[] d = new double[mm];
     dif=abs(x-xx[jl+0]);
     for (i=0;i<mm;i++) {
       if ((dift=abs(x-xx[jl+i])) < dif) {
@@ -53,7 +74,7 @@ public class Poly_interp extends Base_interp {
         d[i]=hp*den;
         c[i]=ho*den;
       }
-      y += (dy=(2*(ns+1) < (mm-m) ? c[ns+1] : d[ns--]));
+      y += (dyy.val=(2*(ns+1) < (mm-m) ? c[ns+1] : d[ns--]));
     }
     return y;
   }
@@ -2,6 +2,8 @@ package com.nr.interp;
 
 import static java.lang.Math.*;
 
+import org.netlib.util.doubleW;
+
 /**
  * Rational Function Interpolation and Extrapolation
  * 
@@ -31,17 +33,36 @@ public class Rational_interp extends Base_interp {
    * the subrange xx[jl..jl+mm-1].
    */
   public double rawinterp(final int jl, final double x) {
+    doubleW err = new doubleW(0.);
+    double y = ratint(xx,yy,jl,mm,x,new double[mm],new double[mm],err);
+    dy = err.val;
+    return y;
+  }
+
+  void rawinterp(final double[] xs, final double[] out, final int from, final int to) {
+    int jl=-1;
+    double[] c = new double[mm];
+    double[] d = new double[mm];
+    doubleW err = new doubleW(0.);
+    for (int i=from;i<to;i++) {
+      jl=bracket(xs[i],jl);
+      out[i]=ratint(xx,yy,max(0,min(n-mm,jl-((mm-2)>>1))),mm,xs[i],c,d,err);
+    }
+  }
+
+  // Diagonal rational interpolation on the points xx[jl..jl+mm-1], yy[jl..jl+mm-1], with
+  // workspace c and d of length mm; the error estimate is returned in dyy
+  static double ratint(final double[] xx, final double[] yy, final int jl, final int mm,
+    final double x, final double[] c, final double[] d, final doubleW dyy) {
     final double TINY=1.0e-99;
     int m,i,ns=0;
     double y,w,t,hh,h,dd;
     // const double *xa = &xx[jl], *ya = &yy[jl];
-    double[] c = new double[mm];
-    double[] d = new double[mm];
     hh=abs(x-xx[jl+0]);
     for (i=0;i<mm;i++) {
       h=abs(x-xx[jl+i]);
       if (h == 0.0) {
-        dy=0.0;
+        dyy.val=0.0;
         return yy[jl+i];
       } else if (h < hh) {
         ns=i;
@@ -62,7 +83,7 @@ public class Rational_interp extends Base_interp {
         d[i]=c[i+1]*dd;
         c[i]=t*dd;
       }
-      y += (dy=(2*(ns+1) < (mm-m) ? c[ns+1] : d[ns--]));
+      y += (dyy.val=(2*(ns+1) < (mm-m) ? c[ns+1] : d[ns--]));
     }
     return y;
   }
@@ -4,6 +4,8 @@ import static com.nr.NRUtil.*;
 
 import org.netlib.util.doubleW;
 
+import com.nr.util.Parallel;
+
 /**
  * 
  * Object for two-dimensional cubic spline interpolation on a matrix. Construct
@@ -19,10 +21,12 @@ import org.netlib.util.doubleW;
 public class Spline2D_interp {
   int m,n;
   final double[][] y;
-  final double[] x1;
+  final double[] x1, x2;
   double[] yv;
   Spline_interp[] srp;
   //NRvector<Spline_interp*> srp;
+  double[] patch;   // bicubic c[k][l] of cell (i,j) at 16*(i*(n-1)+j)+4*k+l, built on first use
+  Linear_interp x1terp, x2terp;
 
   public Spline2D_interp(final double[] x1v, final double[] x2v, final double[][] ym) {
     m = x1v.length;
@@ -30,6 +34,7 @@ public class Spline2D_interp {
     y = ym;
     yv = new double[m];
     x1 = x1v;
+    x2 = x2v;
     srp = new Spline_interp[m];
     for (int i=0;i<m;i++) srp[i] = new Spline_interp(x2v,y[i]);
   }
@@ -41,6 +46,85 @@ public class Spline2D_interp {
     return scol.interp(x1p);
   }
 
+  /**
+   * Interpolated values at the points (x1p[k],x2p[k]), k = 0..q-1, returned in out[0..q-1].
+   * The tensor-product spline is a bicubic polynomial on each grid cell; the coefficients of
+   * all cells are computed on the first call (16 values per cell) and each query then costs
+   * one cell search, hunting from the cell of the query before, and one bicubic evaluation.
+   * The values are those of interp up to rounding. The object may be used by several threads
+   * at once, and large arrays are split over the threads of com.nr.util.Parallel.
+   * 
+   * @param x1p
+   * @param x2p
+   * @param out
+   */
+  public void interp(final double[] x1p, final double[] x2p, final double[] out) {
+    if (x2p.length != x1p.length || out.length < x1p.length)
+      throw new IllegalArgumentException("Spline2D_interp: query arrays differ in size");
+    final double[] p = patches();
+    Parallel.forRange(x1p.length, Base_interp.GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int i=-1,j=-1,q,k;
+        double t,u,s;
+        for (int l=from;l<to;l++) {
+          i=x1terp.bracket(x1p[l],i);
+          j=x2terp.bracket(x2p[l],j);
+          t=(x1p[l]-x1[i])/(x1[i+1]-x1[i]);
+          u=(x2p[l]-x2[j])/(x2[j+1]-x2[j]);
+          q=16*(i*(n-1)+j);
+          s=0.0;
+          for (k=12;k>=0;k-=4)
+            s=t*s+((p[q+k+3]*u+p[q+k+2])*u+p[q+k+1])*u+p[q+k];
+          out[l]=s;
+        }
+      }
+    });
+  }
+
+  // Bicubic coefficients of every cell, from the values and spline derivatives at the corners
+  private synchronized double[] patches() {
+    if (patch != null) return patch;
+    int i,j;
+    final double[][] d1 = new double[m][n], d2 = new double[m][], d12 = new double[m][n];
+    double[] col = new double[m], s;
+    for (i=0;i<m;i++) d2[i] = srp[i].slopes();   // d/dx2 along the rows
+    for (j=0;j<n;j++) {   // d/dx1 of the values and of d/dx2, along the columns
+      for (i=0;i<m;i++) col[i]=y[i][j];
+      s = new Spline_interp(x1,col).slopes();
+      for (i=0;i<m;i++) d1[i][j]=s[i];
+      for (i=0;i<m;i++) col[i]=d2[i][j];
+      s = new Spline_interp(x1,col).slopes();
+      for (i=0;i<m;i++) d12[i][j]=s[i];
+    }
+    final double[] p = new double[16*(m-1)*(n-1)];
+    Parallel.forRange(m-1, 1, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        double[] yc=new double[4],y1c=new double[4],y2c=new double[4],y12c=new double[4];
+        double[][] c=new double[4][4];
+        int[] ci={0,1,1,0},cj={0,0,1,1};   // corners counterclockwise from the lower left
+        for (int i=from;i<to;i++) {
+          for (int j=0;j<n-1;j++) {
+            double h1=x1[i+1]-x1[i],h2=x2[j+1]-x2[j];
+            if (h1 == 0.0 || h2 == 0.0) throw new IllegalArgumentException("Bad input in routine bcuint");
+            for (int k=0;k<4;k++) {
+              yc[k]=y[i+ci[k]][j+cj[k]];
+              y1c[k]=d1[i+ci[k]][j+cj[k]];
+              y2c[k]=d2[i+ci[k]][j+cj[k]];
+              y12c[k]=d12[i+ci[k]][j+cj[k]];
+            }
+            bcucof(yc,y1c,y2c,y12c,h1,h2,c);
+            int q=16*(i*(n-1)+j);
+            for (int k=0;k<4;k++)
+              for (int l=0;l<4;l++) p[q+4*k+l]=c[k][l];
+          }
+        }
+      }
+    });
+    x1terp = new Linear_interp(x1,x1);
+    x2terp = new Linear_interp(x2,x2);
+    return patch = p;
+  }
+
   private static int[] wt_d=
     {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
     0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0,
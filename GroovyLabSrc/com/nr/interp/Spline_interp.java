@@ -17,6 +17,7 @@ package com.nr.interp;
  */
 public class Spline_interp extends Base_interp {
   double[] y2;
+  double[] cf;   // y = cf[4k]+t*(cf[4k+1]+t*(cf[4k+2]+t*cf[4k+3])), t = x-xx[k], on interval k
   
   public Spline_interp(final double[] xv, final double[] yv) {
     this( xv, yv, 1.e99, 1.e99);
@@ -25,6 +26,7 @@ public class Spline_interp extends Base_interp {
   public Spline_interp(final double[] xv, final double[] yv, final double yp1, final double ypn) { // double yp1=1.e99, double ypn=1.e99
     super(xv,yv,2);
     y2 = new double[xv.length];
+    cf = new double[4*(xv.length-1)];
     sety2(xv,yv,yp1,ypn);
   }
 
@@ -72,6 +74,13 @@ public class Spline_interp extends Base_interp {
     y2[n-1]=(un-qn*u[n-2])/(qn*y2[n-2]+1.0);
     for (k=n-2;k>=0;k--)
       y2[k]=y2[k]*y2[k+1]+u[k];
+    for (k=0;k<n-1;k++) {   // polynomial form of each interval, for the bulk interp
+      double h=xx[k+1]-xx[k];
+      cf[4*k]=yy[k];
+      cf[4*k+1]=(yy[k+1]-yy[k])/h-h*(2.0*y2[k]+y2[k+1])/6.0;
+      cf[4*k+2]=0.5*y2[k];
+      cf[4*k+3]=(y2[k+1]-y2[k])/(6.0*h);
+    }
   }
   
   /**
@@ -91,5 +100,28 @@ public class Spline_interp extends Base_interp {
       +(b*b*b-b)*y2[khi])*(h*h)/6.0;
     return y;
   }
+
+  /**
+   * First derivatives of the spline at the tabulated points xx[0..n-1].
+   */
+  double[] slopes() {
+    double[] s = new double[n];
+    for (int k=0;k<n-1;k++) s[k]=cf[4*k+1];
+    double h=xx[n-1]-xx[n-2];
+    s[n-1]=(yy[n-1]-yy[n-2])/h+h*(y2[n-2]+2.0*y2[n-1])/6.0;
+    return s;
+  }
+
+  void rawinterp(final double[] xs, final double[] out, final int from, final int to) {
+    int jl=-1,k;
+    double t;
+    for (int i=from;i<to;i++) {
+      jl=bracket(xs[i],jl);
+      if (xx[jl+1] == xx[jl]) throw new IllegalArgumentException("Bad input to routine splint");
+      k=4*jl;
+      t=xs[i]-xx[jl];
+      out[i]=cf[k]+t*(cf[k+1]+t*(cf[k+2]+t*cf[k+3]));
+    }
+  }
   
 }
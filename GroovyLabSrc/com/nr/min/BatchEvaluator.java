@@ -0,0 +1,113 @@
+package com.nr.min;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.nr.RealValueFun;
+import com.nr.util.Parallel;
+
+/**
+ * Concurrent batch evaluation of an objective function, with an evaluation cache and a stop
+ * condition, for the population-based minimizers ParallelAmoeba, CMAES and DiffEvolution.
+ *
+ * A batch of points is evaluated on the shared pool of com.nr.util.Parallel, so the
+ * function must be safe to call from several threads at once. Points evaluated before are
+ * answered from a least-recently-used cache of cacheSize entries (exact equality of
+ * coordinates) without calling the function. The evaluator is exhausted when maxEval
+ * function evaluations have been made or when the time limit has passed; points of a batch
+ * that is submitted after that are given the value +infinity.
+ */
+public class BatchEvaluator {
+  final RealValueFun func;
+  final LinkedHashMap<Key,Double> cache;
+  long maxEval = Long.MAX_VALUE;
+  long deadline = Long.MAX_VALUE;   // System.nanoTime() limit
+  int nfunc;      // Number of function evaluations made.
+  int nhit;       // Number of values found in the cache.
+
+  // Wrapper that gives double[] value semantics as a map key
+  static final class Key {
+    final double[] x;
+    final int hash;
+    Key(final double[] xx) {x = xx; hash = Arrays.hashCode(xx);}
+    public int hashCode() {return hash;}
+    public boolean equals(final Object o) {
+      return o instanceof Key && Arrays.equals(x, ((Key)o).x);
+    }
+  }
+
+  public BatchEvaluator(final RealValueFun funk) {
+    this(funk, 10000);
+  }
+
+  public BatchEvaluator(final RealValueFun funk, final int cacheSize) {
+    func = funk;
+    final int csize = cacheSize;
+    cache = new LinkedHashMap<Key,Double>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(final Map.Entry<Key,Double> eldest) {
+        return size() > csize;
+      }
+    };
+  }
+
+  /** Stop after at most maxeval function evaluations (cache hits are free). */
+  public void setMaxEval(final long maxeval) {maxEval = maxeval;}
+
+  /** Stop once seconds of wall-clock time have elapsed from this call. */
+  public void setTimeLimit(final double seconds) {
+    deadline = System.nanoTime() + (long)(seconds*1.e9);
+  }
+
+  /** True if the evaluation budget or the time limit has been used up. */
+  public boolean exhausted() {
+    return nfunc >= maxEval || System.nanoTime() >= deadline;
+  }
+
+  public int getNfunc() {return nfunc;}
+
+  public int getNhit() {return nhit;}
+
+  /** Evaluates the function at a single point. */
+  public double eval(final double[] x) {
+    double[] y = new double[1];
+    evalAll(new double[][]{x}, 0, 1, y);
+    return y[0];
+  }
+
+  /**
+   * Evaluates the function at the points x[from..to-1], concurrently, and stores the values in
+   * y[from..to-1]. Returns the number of function evaluations made (not found in the cache).
+   */
+  public int evalAll(final double[][] x, final int from, final int to, final double[] y) {
+    int i,m=0;
+    final int[] todo = new int[to-from];
+    for (i=from;i<to;i++) {
+      Double v = cache.get(new Key(x[i]));
+      if (v != null) {
+        y[i] = v;
+        nhit++;
+      } else if (exhausted() || nfunc + m >= maxEval) {
+        y[i] = Double.POSITIVE_INFINITY;
+      } else {
+        todo[m++] = i;
+      }
+    }
+    final int mm = m;
+    final double[][] xs = new double[m][];
+    for (i=0;i<m;i++) xs[i] = x[todo[i]].clone();
+    final double[] ys = new double[m];
+    Parallel.forRange(mm, 1, new Parallel.Body() {
+      public void run(int lo, int hi, int chunk) {
+        for (int k=lo;k<hi;k++) ys[k] = func.funk(xs[k]);
+      }
+    });
+    for (i=0;i<m;i++) {
+      y[todo[i]] = ys[i];
+      cache.put(new Key(xs[i]), ys[i]);
+    }
+    nfunc += m;
+    return m;
+  }
+}
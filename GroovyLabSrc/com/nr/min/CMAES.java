@@ -0,0 +1,190 @@
+package com.nr.min;
+
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.nr.RealValueFun;
+import com.nr.eig.Symmeig;
+import com.nr.ran.Normaldev;
+import com.nr.util.Parallel;
+
+/**
+ * Covariance matrix adaptation evolution strategy, (mu/mu_w,lambda)-CMA-ES, following
+ * Hansen, "The CMA Evolution Strategy: A Tutorial" (2005).
+ *
+ * Each generation samples lambda points from a multivariate normal distribution whose mean,
+ * step size and covariance matrix adapt to the function, and evaluates them as one
+ * concurrent batch through a BatchEvaluator. The search stops, returning the best point
+ * found, when the function values of the generation and the best values of the last few
+ * generations agree to the fractional tolerance ftol (converged is then true), or when the
+ * evaluation budget or the time limit is used up. Results are reproducible for a fixed seed.
+ */
+public class CMAES {
+  final double ftol;
+  long seed = 17;
+  int lambda = 0;       // Population size, 0 for the default 4+3*ln(n).
+  long maxEval = 100000;
+  double timeLimit = 0.;
+  int cacheSize = 10000;
+  int nfunc;            // The number of function evaluations.
+  int ngen;             // The number of generations.
+  boolean converged;
+  double fmin;          // Function value at the minimum.
+  double sigma;         // Final step size.
+
+  public CMAES(final double ftoll) {
+    ftol = ftoll;
+  }
+
+  public void setSeed(final long sseed) {seed = sseed;}
+
+  /** Population size per generation (0 for the default 4 + floor(3 ln n)). */
+  public void setPopulationSize(final int llambda) {lambda = llambda;}
+
+  /** Maximum number of function evaluations (default 100000). */
+  public void setMaxEval(final long maxeval) {maxEval = maxeval;}
+
+  /** Wall-clock limit in seconds for each call of minimize (0 for none). */
+  public void setTimeLimit(final double seconds) {timeLimit = seconds;}
+
+  /** Number of points kept in the evaluation cache. */
+  public void setCacheSize(final int size) {cacheSize = size;}
+
+  public int getNfunc() {return nfunc;}
+
+  public int getNgen() {return ngen;}
+
+  public double getFmin() {return fmin;}
+
+  public boolean isConverged() {return converged;}
+
+  /**
+   * Minimizes func starting from the mean xstart with initial step size sigma0 in every
+   * coordinate. Returns the best point found.
+   */
+  public double[] minimize(final double[] xstart, final double sigma0, final RealValueFun func) {
+    final double TINY=1.0e-10;
+    int i,j,k,g;
+    final int n=xstart.length;
+    final int lam = lambda > 0 ? lambda : 4+(int)floor(3.*log(n));
+    final int mu=lam/2;
+    BatchEvaluator ev = new BatchEvaluator(func,cacheSize);
+    ev.setMaxEval(maxEval);
+    if (timeLimit > 0.) ev.setTimeLimit(timeLimit);
+    Normaldev ran = new Normaldev(0.,1.,seed);
+
+    // Selection and adaptation parameters
+    double[] w = new double[mu];
+    double sw=0.,sw2=0.;
+    for (i=0;i<mu;i++) {w[i]=log(mu+0.5)-log(i+1.); sw += w[i];}
+    for (i=0;i<mu;i++) {w[i] /= sw; sw2 += w[i]*w[i];}
+    final double mueff=1./sw2;
+    final double cc=(4.+mueff/n)/(n+4.+2.*mueff/n);
+    final double cs=(mueff+2.)/(n+mueff+5.);
+    final double c1=2./((n+1.3)*(n+1.3)+mueff);
+    final double cmu=min(1.-c1,2.*(mueff-2.+1./mueff)/((n+2.)*(n+2.)+mueff));
+    final double damps=1.+2.*max(0.,sqrt((mueff-1.)/(n+1.))-1.)+cs;
+    final double chin=sqrt(n)*(1.-1./(4.*n)+1./(21.*n*n));
+
+    double[] xmean=xstart.clone(), xold=new double[n];
+    double[] pc=new double[n], ps=new double[n], dvec=new double[n], tmp=new double[n], z=new double[n];
+    double[][] b=new double[n][n], c=new double[n][n], invsqrtc=new double[n][n];
+    for (i=0;i<n;i++) {b[i][i]=c[i][i]=invsqrtc[i][i]=1.; dvec[i]=1.;}
+    sigma=sigma0;
+    final double[][] arx=new double[lam][n];
+    final double[] fit=new double[lam];
+    Integer[] idx=new Integer[lam];
+    final int nhist=10+(int)ceil(30.*n/lam);
+    double[] hist=new double[nhist];
+    double[] xbest=xstart.clone();
+    fmin=Double.POSITIVE_INFINITY;
+    int eigeneval=0;
+    converged=false;
+
+    for (g=0;;g++) {
+      // Sample and evaluate a generation
+      for (k=0;k<lam;k++) {
+        for (i=0;i<n;i++) z[i]=dvec[i]*ran.dev();
+        for (i=0;i<n;i++) {
+          double s=0.;
+          for (j=0;j<n;j++) s += b[i][j]*z[j];
+          arx[k][i]=xmean[i]+sigma*s;
+        }
+      }
+      ev.evalAll(arx,0,lam,fit);
+      for (k=0;k<lam;k++) idx[k]=k;
+      Arrays.sort(idx, new Comparator<Integer>() {
+        public int compare(Integer p, Integer q) {return Double.compare(fit[p],fit[q]);}
+      });
+      if (fit[idx[0]] < fmin) {
+        fmin=fit[idx[0]];
+        System.arraycopy(arx[idx[0]],0,xbest,0,n);
+      }
+      hist[g%nhist]=fit[idx[0]];
+      if (ev.exhausted()) break;
+
+      // Recombination and evolution paths
+      System.arraycopy(xmean,0,xold,0,n);
+      for (i=0;i<n;i++) {
+        double s=0.;
+        for (k=0;k<mu;k++) s += w[k]*arx[idx[k]][i];
+        xmean[i]=s;
+      }
+      for (i=0;i<n;i++) tmp[i]=(xmean[i]-xold[i])/sigma;
+      double psn=0.;
+      for (i=0;i<n;i++) {
+        double s=0.;
+        for (j=0;j<n;j++) s += invsqrtc[i][j]*tmp[j];
+        ps[i]=(1.-cs)*ps[i]+sqrt(cs*(2.-cs)*mueff)*s;
+        psn += ps[i]*ps[i];
+      }
+      psn=sqrt(psn);
+      int neval=(g+1)*lam;
+      double hsig = psn/sqrt(1.-pow(1.-cs,2.*neval/lam))/chin < 1.4+2./(n+1.) ? 1. : 0.;
+      for (i=0;i<n;i++) pc[i]=(1.-cc)*pc[i]+hsig*sqrt(cc*(2.-cc)*mueff)*tmp[i];
+
+      // Covariance matrix and step size adaptation
+      for (i=0;i<n;i++) {
+        for (j=0;j<=i;j++) {
+          double s=0.;
+          for (k=0;k<mu;k++)
+            s += w[k]*(arx[idx[k]][i]-xold[i])*(arx[idx[k]][j]-xold[j]);
+          s /= sigma*sigma;
+          c[i][j]=(1.-c1-cmu)*c[i][j]+c1*(pc[i]*pc[j]+(1.-hsig)*cc*(2.-cc)*c[i][j])+cmu*s;
+          c[j][i]=c[i][j];
+        }
+      }
+      sigma *= exp((cs/damps)*(psn/chin-1.));
+
+      // Decomposition of c, done often enough to keep it O(n^2) per evaluation
+      if (neval-eigeneval > lam/(c1+cmu)/n/10.) {
+        eigeneval=neval;
+        Symmeig eig=new Symmeig(c);
+        for (i=0;i<n;i++) dvec[i]=sqrt(max(eig.d[i],1.e-300));
+        for (i=0;i<n;i++) for (j=0;j<n;j++) b[i][j]=eig.z[i][j];
+        for (i=0;i<n;i++) {
+          for (j=0;j<=i;j++) {
+            double s=0.;
+            for (k=0;k<n;k++) s += b[i][k]*b[j][k]/dvec[k];
+            invsqrtc[i][j]=invsqrtc[j][i]=s;
+          }
+        }
+      }
+
+      // Convergence: values of the generation and recent best values agree to ftol
+      double flo=fit[idx[0]], fhi=fit[idx[lam-1]];
+      if (g >= nhist) {
+        for (k=0;k<nhist;k++) {flo=min(flo,hist[k]); fhi=max(fhi,hist[k]);}
+        if (2.0*abs(fhi-flo) <= ftol*(abs(fhi)+abs(flo)+TINY)) {
+          converged=true;
+          break;
+        }
+      }
+    }
+    ngen=g+1;
+    nfunc=ev.getNfunc();
+    return xbest;
+  }
+}
@@ -0,0 +1,131 @@
+package com.nr.min;
+
+import static java.lang.Math.*;
+
+import com.nr.RealValueFun;
+import com.nr.ran.Ran;
+
+/**
+ * Differential evolution (Storn and Price, J. Global Optimization 11, 1997), strategy
+ * DE/rand/1/bin or, optionally, DE/best/1/bin.
+ *
+ * A population of np points is initialized uniformly in the box lo..hi. Every generation
+ * forms one trial point per member by differential mutation and binomial crossover, and the
+ * np trial points are evaluated as one concurrent batch through a BatchEvaluator; a trial
+ * replaces its parent if it is not worse. A trial coordinate that leaves the box is redrawn
+ * uniformly between the violated bound and the parent's coordinate. The search stops,
+ * returning the best point found, when the function values of the population agree to the
+ * fractional tolerance ftol (converged is then true), or when the evaluation budget or the
+ * time limit is used up. Results are reproducible for a fixed seed.
+ */
+public class DiffEvolution {
+  final double ftol;
+  long seed = 17;
+  int np = 0;           // Population size, 0 for the default 10*n.
+  double f = 0.8;       // Differential weight.
+  double cr = 0.9;      // Crossover probability.
+  boolean best = false; // Use DE/best/1 instead of DE/rand/1.
+  long maxEval = 100000;
+  double timeLimit = 0.;
+  int cacheSize = 10000;
+  int nfunc;            // The number of function evaluations.
+  int ngen;             // The number of generations.
+  boolean converged;
+  double fmin;          // Function value at the minimum.
+  double[][] pop;       // Final population
+  double[] fpop;        // and its function values.
+
+  public DiffEvolution(final double ftoll) {
+    ftol = ftoll;
+  }
+
+  public void setSeed(final long sseed) {seed = sseed;}
+
+  /** Population size (0 for the default 10*n, at least 4). */
+  public void setPopulationSize(final int nnp) {np = nnp;}
+
+  /** Differential weight F and crossover probability CR. */
+  public void setControl(final double ff, final double ccr) {f = ff; cr = ccr;}
+
+  /** Mutate around the best member (DE/best/1) instead of a random one (DE/rand/1). */
+  public void setBest(final boolean bbest) {best = bbest;}
+
+  /** Maximum number of function evaluations (default 100000). */
+  public void setMaxEval(final long maxeval) {maxEval = maxeval;}
+
+  /** Wall-clock limit in seconds for each call of minimize (0 for none). */
+  public void setTimeLimit(final double seconds) {timeLimit = seconds;}
+
+  /** Number of points kept in the evaluation cache. */
+  public void setCacheSize(final int size) {cacheSize = size;}
+
+  public int getNfunc() {return nfunc;}
+
+  public int getNgen() {return ngen;}
+
+  public double getFmin() {return fmin;}
+
+  public boolean isConverged() {return converged;}
+
+  /** Minimizes func over the box lo[0..n-1]..hi[0..n-1]. Returns the best point found. */
+  public double[] minimize(final double[] lo, final double[] hi, final RealValueFun func) {
+    final double TINY=1.0e-10;
+    int i,j,k,g;
+    final int n=lo.length;
+    if (hi.length != n) throw new IllegalArgumentException("DiffEvolution: bounds of different lengths");
+    final int npop=max(4, np > 0 ? np : 10*n);
+    BatchEvaluator ev = new BatchEvaluator(func,cacheSize);
+    ev.setMaxEval(maxEval);
+    if (timeLimit > 0.) ev.setTimeLimit(timeLimit);
+    Ran ran = new Ran(seed);
+
+    pop = new double[npop][n];
+    fpop = new double[npop];
+    for (k=0;k<npop;k++)
+      for (i=0;i<n;i++) pop[k][i]=lo[i]+ran.doub()*(hi[i]-lo[i]);
+    ev.evalAll(pop,0,npop,fpop);
+    double[][] trial = new double[npop][n];
+    double[] ftrial = new double[npop];
+    int ibest=0;
+    for (k=1;k<npop;k++) if (fpop[k] < fpop[ibest]) ibest=k;
+    converged=false;
+
+    for (g=0;;g++) {
+      double flo=fpop[0], fhi=fpop[0];
+      for (k=1;k<npop;k++) {flo=min(flo,fpop[k]); fhi=max(fhi,fpop[k]);}
+      if (2.0*abs(fhi-flo) <= ftol*(abs(fhi)+abs(flo)+TINY)) converged=true;
+      if (converged || ev.exhausted()) break;
+
+      for (k=0;k<npop;k++) {
+        int r0,r1,r2;
+        do r0=best ? ibest : (int)(ran.doub()*npop); while (!best && r0 == k);
+        do r1=(int)(ran.doub()*npop); while (r1 == k || r1 == r0);
+        do r2=(int)(ran.doub()*npop); while (r2 == k || r2 == r0 || r2 == r1);
+        int jr=(int)(ran.doub()*n);
+        for (j=0;j<n;j++) {
+          double v;
+          if (j == jr || ran.doub() < cr) {
+            v=pop[r0][j]+f*(pop[r1][j]-pop[r2][j]);
+            if (v < lo[j]) v=lo[j]+ran.doub()*(pop[k][j]-lo[j]);
+            else if (v > hi[j]) v=hi[j]-ran.doub()*(hi[j]-pop[k][j]);
+          } else {
+            v=pop[k][j];
+          }
+          trial[k][j]=v;
+        }
+      }
+      ev.evalAll(trial,0,npop,ftrial);
+      for (k=0;k<npop;k++) {
+        if (ftrial[k] <= fpop[k]) {
+          double[] t=pop[k]; pop[k]=trial[k]; trial[k]=t;
+          fpop[k]=ftrial[k];
+          if (fpop[k] < fpop[ibest]) ibest=k;
+        }
+      }
+    }
+    ngen=g;
+    nfunc=ev.getNfunc();
+    fmin=fpop[ibest];
+    return pop[ibest].clone();
+  }
+}
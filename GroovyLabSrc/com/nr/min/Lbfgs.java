@@ -0,0 +1,285 @@
+package com.nr.min;
+
+import static com.nr.NRUtil.*;
+import static java.lang.Math.*;
+
+import com.nr.RealValueFunWithDiff;
+import com.nr.util.Parallel;
+
+/**
+ * Limited-memory BFGS minimization with optional bound constraints.
+ *
+ * Unlike QuasiNewton.dfpmin, which stores a dense n x n inverse Hessian, the inverse Hessian
+ * is represented implicitly by the last m correction pairs and applied with the two-loop
+ * recursion (Nocedal 1980), so memory is O(mn) and each iteration costs O(mn). The step
+ * length satisfies the strong Wolfe conditions (Nocedal and Wright, Algorithms 3.5 and 3.6,
+ * with cubic interpolation); all work vectors are allocated once per call of minimize, and
+ * none in the line search.
+ *
+ * Bounds lo <= x <= hi are handled by an active-set projection in the spirit of L-BFGS-B:
+ * variables at a bound whose gradient points outwards are held fixed, the quasi-Newton
+ * direction is computed in the subspace of the free variables, and the step is found by a
+ * backtracking search along the path projected onto the box, so that any number of
+ * variables may reach their bounds in one iteration. Convergence
+ * is declared when the largest component of the projected gradient is below gtol, or when
+ * the relative decrease of the function in one iteration is below ftol.
+ *
+ * If the function implements PartialGradient its gradient is evaluated in blocks on the
+ * shared pool of com.nr.util.Parallel.
+ */
+public class Lbfgs {
+  final RealValueFunWithDiff func;
+  int m = 10;             // Number of correction pairs kept.
+  double gtol = 1.e-8, ftol = 1.e-14;
+  int itmax = 10000;
+  double[] lo, hi;
+  public int iter;        // Number of iterations made.
+  public int nfunc;       // Number of function (and gradient) evaluations.
+  public double fret;     // Function value at the minimum.
+  // work vectors
+  int n;
+  double[][] s, y;
+  double[] rho, alf, g, d, xt, gt, xlo, glo;
+  boolean[] free;
+
+  public Lbfgs(final RealValueFunWithDiff funcd) {
+    func = funcd;
+  }
+
+  public Lbfgs(final RealValueFunWithDiff funcd, final int mm) {
+    func = funcd;
+    if (mm < 1) throw new IllegalArgumentException("Lbfgs: need at least one correction pair");
+    m = mm;
+  }
+
+  /** Convergence tolerances on the projected gradient and on the relative decrease of f. */
+  public void setTolerances(final double ggtol, final double fftol) {gtol = ggtol; ftol = fftol;}
+
+  public void setItmax(final int iitmax) {itmax = iitmax;}
+
+  /**
+   * Bounds lo[0..n-1] <= x <= hi[0..n-1]; either array may be null, and infinite elements
+   * leave a variable unbounded on that side.
+   */
+  public void setBounds(final double[] llo, final double[] hhi) {lo = llo; hi = hhi;}
+
+  /**
+   * Minimizes the function starting from p[0..n-1], which is replaced by the location of the
+   * minimum (projected onto the bounds first). Returns p.
+   */
+  public double[] minimize(final double[] p) {
+    int i,k;
+    n=p.length;
+    if (s == null || s[0].length != n || s.length != m) {
+      s=new double[m][n];
+      y=new double[m][n];
+      rho=new double[m];
+      alf=new double[m];
+      g=new double[n]; d=new double[n]; xt=new double[n]; gt=new double[n];
+      xlo=new double[n]; glo=new double[n];
+      free=new boolean[n];
+    }
+    for (i=0;i<n;i++) p[i]=clip(p[i],i);
+    nfunc=0;
+    double f=eval(p,g);
+    int head=0, npairs=0;
+    double gamma=1.;
+    for (iter=0;iter<itmax;iter++) {
+      // Active set and projected gradient
+      double pgmax=0.;
+      for (i=0;i<n;i++) {
+        boolean atlo = lo != null && p[i] <= lo[i] && g[i] > 0.;
+        boolean athi = hi != null && p[i] >= hi[i] && g[i] < 0.;
+        free[i] = !(atlo || athi);
+        if (free[i]) pgmax=max(pgmax,abs(g[i]));
+      }
+      if (pgmax <= gtol) break;
+
+      // Two-loop recursion over the free variables
+      for (i=0;i<n;i++) d[i] = free[i] ? -g[i] : 0.;
+      for (k=0;k<npairs;k++) {
+        int j=(head-1-k+m)%m;
+        alf[j]=rho[j]*dotFree(s[j],d);
+        axpyFree(-alf[j],y[j],d);
+      }
+      for (i=0;i<n;i++) d[i] *= gamma;
+      for (k=npairs-1;k>=0;k--) {
+        int j=(head-1-k+m)%m;
+        double b=rho[j]*dotFree(y[j],d);
+        axpyFree(alf[j]-b,s[j],d);
+      }
+      double dg=dotFree(d,g);
+      if (!(dg < 0.)) {    // Not a descent direction: restart from steepest descent
+        npairs=0;
+        gamma=1.;
+        for (i=0;i<n;i++) d[i] = free[i] ? -g[i] : 0.;
+        dg=dotFree(d,g);
+      }
+
+      double a0 = npairs == 0 ? min(1.,1./sqrt(-dg)) : 1.;
+      double fnew = (lo == null && hi == null) ? linesearch(p,f,dg,a0) : projsearch(p,f,a0);
+      if (Double.isNaN(fnew)) {   // No acceptable step
+        if (npairs == 0) break;
+        npairs=0;
+        gamma=1.;
+        continue;
+      }
+
+      // New correction pair from xt, gt; then move
+      double[] sj=s[head], yj=y[head];
+      double sy=0., yy=0.;
+      for (i=0;i<n;i++) {
+        sj[i]=xt[i]-p[i];
+        yj[i]=gt[i]-g[i];
+        sy += sj[i]*yj[i];
+        yy += yj[i]*yj[i];
+      }
+      if (sy > 1.e-10*yy) {   // Skip pairs that would spoil positive definiteness
+        rho[head]=1./sy;
+        gamma=sy/yy;
+        head=(head+1)%m;
+        npairs=min(npairs+1,m);
+      }
+      System.arraycopy(xt,0,p,0,n);
+      System.arraycopy(gt,0,g,0,n);
+      double fold=f;
+      f=fnew;
+      if (fold-f <= ftol*max(max(abs(fold),abs(f)),1.)) break;
+    }
+    fret=f;
+    return p;
+  }
+
+  // Backtracking search along the projected path P(p + a*d) for the bounded case, with the
+  // sufficient decrease condition f <= f0 + C1*g.(xt-p). Several variables may reach their
+  // bounds in one step. On success the accepted point and its gradient are in xt, gt and its
+  // function value is returned; NaN on failure.
+  private double projsearch(final double[] p, final double f0, double a) {
+    final double C1=1.e-4;
+    final int MAXLS=40;
+    for (int ls=0;ls<MAXLS;ls++) {
+      double fa=evalAt(p,a);
+      double gs=0.;
+      for (int i=0;i<n;i++) gs += g[i]*(xt[i]-p[i]);
+      if (gs < 0. && fa <= f0+C1*gs) return fa;
+      if (gs >= 0.) return Double.NaN;   // Projection has removed all descent
+      a *= 0.5;
+    }
+    return Double.NaN;
+  }
+
+  // Strong Wolfe line search along d from p. On success the accepted point and its gradient
+  // are in xt, gt and its function value is returned; NaN on failure.
+  private double linesearch(final double[] p, final double f0, final double dg0, double a) {
+    final double C1=1.e-4, C2=0.9;
+    final int MAXLS=30;
+    if (!(a > 0.)) return Double.NaN;
+    double aprev=0., fprev=f0, dprev=dg0;
+    boolean lovalid=false;   // xlo, glo hold the point at alo (only needed if alo > 0)
+    for (int ls=0;ls<MAXLS;ls++) {
+      double fa=evalAt(p,a);
+      double da=dot(gt,d);
+      if (fa > f0+C1*a*dg0 || (ls > 0 && fa >= fprev))
+        return zoom(p,f0,dg0,aprev,fprev,dprev,lovalid,a,fa,da);
+      if (abs(da) <= -C2*dg0) return fa;
+      if (da >= 0.)
+        return zoom(p,f0,dg0,a,fa,da,false,aprev,fprev,dprev);
+      aprev=a; fprev=fa; dprev=da;
+      System.arraycopy(xt,0,xlo,0,n);
+      System.arraycopy(gt,0,glo,0,n);
+      lovalid=true;
+      a *= 2.;
+    }
+    return Double.NaN;
+  }
+
+  // Zoom phase: the interval between alo and ahi contains acceptable steps, alo having the
+  // lower function value. If lovalid, xlo and glo hold the point at alo; otherwise, if
+  // alo > 0, it is the point now in xt and gt.
+  private double zoom(final double[] p, final double f0, final double dg0,
+      double alo, double flo, double dlo, boolean lovalid,
+      double ahi, double fhi, double dhi) {
+    final double C1=1.e-4, C2=0.9;
+    final int MAXZOOM=30;
+    if (!lovalid && alo > 0.) {   // alo is the point just evaluated
+      System.arraycopy(xt,0,xlo,0,n);
+      System.arraycopy(gt,0,glo,0,n);
+      lovalid=true;
+    }
+    for (int k=0;k<MAXZOOM;k++) {
+      // Cubic interpolation, safeguarded to the middle of the interval
+      double d1=dlo+dhi-3.*(flo-fhi)/(alo-ahi);
+      double disc=d1*d1-dlo*dhi;
+      double a;
+      if (disc >= 0.) {
+        double d2=SIGN(sqrt(disc),ahi-alo);
+        a=ahi-(ahi-alo)*(dhi+d2-d1)/(dhi-dlo+2.*d2);
+      } else a=0.5*(alo+ahi);
+      double lft=min(alo,ahi), rgt=max(alo,ahi), w=rgt-lft;
+      if (!(a > lft+0.1*w && a < rgt-0.1*w)) a=0.5*(alo+ahi);
+      double fa=evalAt(p,a);
+      double da=dot(gt,d);
+      if (fa > f0+C1*a*dg0 || fa >= flo) {
+        ahi=a; fhi=fa; dhi=da;
+      } else {
+        if (abs(da) <= -C2*dg0) return fa;
+        if (da*(ahi-alo) >= 0.) {ahi=alo; fhi=flo; dhi=dlo;}
+        alo=a; flo=fa; dlo=da;
+        System.arraycopy(xt,0,xlo,0,n);
+        System.arraycopy(gt,0,glo,0,n);
+        lovalid=true;
+      }
+      if (abs(ahi-alo) <= 1.e-16*max(abs(alo),1.)) break;
+    }
+    if (alo > 0. && flo < f0) {   // Accept the best sufficient-decrease point found
+      System.arraycopy(xlo,0,xt,0,n);
+      System.arraycopy(glo,0,gt,0,n);
+      return flo;
+    }
+    return Double.NaN;
+  }
+
+  private double evalAt(final double[] p, final double a) {
+    for (int i=0;i<n;i++) xt[i]=clip(p[i]+a*d[i],i);
+    return eval(xt,gt);
+  }
+
+  private double eval(final double[] x, final double[] gg) {
+    nfunc++;
+    double f=func.funk(x);
+    if (func instanceof PartialGradient) {
+      final PartialGradient pg=(PartialGradient)func;
+      Parallel.forRange(n, 1024, new Parallel.Body() {
+        public void run(int from, int to, int chunk) {
+          pg.df(x,gg,from,to);
+        }
+      });
+    } else {
+      func.df(x,gg);
+    }
+    return f;
+  }
+
+  private double clip(final double v, final int i) {
+    double r=v;
+    if (lo != null && r < lo[i]) r=lo[i];
+    if (hi != null && r > hi[i]) r=hi[i];
+    return r;
+  }
+
+  private double dotFree(final double[] a, final double[] b) {
+    double sum=0.;
+    for (int i=0;i<n;i++) if (free[i]) sum += a[i]*b[i];
+    return sum;
+  }
+
+  private void axpyFree(final double c, final double[] a, final double[] b) {
+    for (int i=0;i<n;i++) if (free[i]) b[i] += c*a[i];
+  }
+
+  private double dot(final double[] a, final double[] b) {
+    double sum=0.;
+    for (int i=0;i<n;i++) sum += a[i]*b[i];
+    return sum;
+  }
+}
@@ -0,0 +1,202 @@
+package com.nr.min;
+
+import static com.nr.NRUtil.*;
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.nr.RealValueFun;
+import com.nr.util.Parallel;
+
+/**
+ * Parallel downhill simplex method (Lee and Wiswall, Computational Economics 30, 2007).
+ *
+ * Instead of moving only the highest point of the simplex, each iteration reflects the npar
+ * highest points through the centroid of the remaining ones, and the reflections, and then
+ * the expansions and contractions that follow from them, are evaluated as concurrent
+ * batches through a BatchEvaluator. With npar = 1 the iteration is that of Amoeba. The
+ * interface follows Amoeba; in addition the search stops, returning the best point found,
+ * when the evaluation budget or the time limit is used up (converged is then false).
+ */
+public class ParallelAmoeba {
+  final double ftol;
+  int npar;        // Number of vertices moved per iteration.
+  long maxEval = 5000;
+  double timeLimit = 0.;
+  int cacheSize = 10000;
+  int nfunc;       // The number of function evaluations.
+  int mpts;
+  int ndim;
+  boolean converged;
+  double fmin;     // Function value at the minimum.
+  double[] y;      // Function values at the vertices of the simplex.
+  double[][] p;    // Current simplex
+
+  // The constructor argument ftoll is the fractional convergence tolerance to be
+  // achieved in the function value
+  public ParallelAmoeba(final double ftoll) {
+    ftol = ftoll;
+    npar = Parallel.threads();
+  }
+
+  /** Number of vertices reflected per iteration (at most ndim, default the number of threads). */
+  public void setParallelism(final int nnpar) {
+    if (nnpar < 1) throw new IllegalArgumentException("ParallelAmoeba: parallelism must be positive");
+    npar = nnpar;
+  }
+
+  /** Maximum number of function evaluations (default 5000). */
+  public void setMaxEval(final long maxeval) {maxEval = maxeval;}
+
+  /** Wall-clock limit in seconds for each call of minimize (0 for none). */
+  public void setTimeLimit(final double seconds) {timeLimit = seconds;}
+
+  /** Number of points kept in the evaluation cache. */
+  public void setCacheSize(final int size) {cacheSize = size;}
+
+  public int getNfunc() {return nfunc;}
+
+  public double getFmin() {return fmin;}
+
+  public boolean isConverged() {return converged;}
+
+  public double[] minimize(final double[] point, final double del, final RealValueFun func) {
+    double[] dels = buildVector(point.length,del);
+    return minimize(point,dels,func);
+  }
+
+  public double[] minimize(final double[] point, final double[] dels, final RealValueFun func) {
+    int ndim=point.length;
+    double[][] pp = new double[ndim+1][ndim];
+    for (int i=0;i<ndim+1;i++) {
+      for (int j=0;j<ndim;j++)
+        pp[i][j]=point[j];
+      if (i !=0 ) pp[i][i-1] += dels[i-1];
+    }
+    return minimize(pp,func);
+  }
+
+  // Initial simplex specified by the matrix pp[0..ndim][0..ndim-1]
+  public double[] minimize(final double[][] pp, final RealValueFun func) {
+    final double TINY=1.0e-10;
+    int i,j,k;
+    mpts=pp.length;
+    ndim=pp[0].length;
+    final int np=min(npar,ndim);
+    BatchEvaluator ev = new BatchEvaluator(func,cacheSize);
+    ev.setMaxEval(maxEval);
+    if (timeLimit > 0.) ev.setTimeLimit(timeLimit);
+    p = buildMatrix(pp);
+    y = new double[mpts];
+    ev.evalAll(p,0,mpts,y);
+
+    Integer[] order = new Integer[mpts];
+    double[] cen = new double[ndim];
+    double[][] xr = new double[np][ndim], xn = new double[np][ndim];
+    double[] yr = new double[np], yn = new double[np];
+    boolean[] expand = new boolean[np], inside = new boolean[np];
+    double[][] shr = new double[mpts-1][ndim];
+    double[] yshr = new double[mpts-1];
+    converged=false;
+    for (;;) {
+      for (i=0;i<mpts;i++) order[i]=i;
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {return Double.compare(y[a],y[b]);}
+      });
+      int ilo=order[0], ihi=order[mpts-1];
+      double rtol=2.0*abs(y[ihi]-y[ilo])/(abs(y[ihi])+abs(y[ilo])+TINY);
+      if (rtol < ftol) converged=true;
+      if (converged || ev.exhausted()) break;
+
+      // Centroid of the retained (best mpts-np) vertices
+      int nkeep=mpts-np;
+      for (j=0;j<ndim;j++) {
+        double sum=0.;
+        for (i=0;i<nkeep;i++) sum += p[order[i]][j];
+        cen[j]=sum/nkeep;
+      }
+      double yworstkept=y[order[nkeep-1]];
+
+      // Reflect the np highest points
+      for (k=0;k<np;k++) {
+        double[] ph=p[order[nkeep+k]];
+        for (j=0;j<ndim;j++) xr[k][j]=2.0*cen[j]-ph[j];
+      }
+      ev.evalAll(xr,0,np,yr);
+
+      // Expansions for reflections better than the best point, contractions for those
+      // worse than the worst retained point; evaluated as one batch
+      int nn=0;
+      int[] which = new int[np];
+      for (k=0;k<np;k++) {
+        double[] ph=p[order[nkeep+k]];
+        double yh=y[order[nkeep+k]];
+        if (yr[k] < y[ilo]) {
+          expand[k]=true;
+          for (j=0;j<ndim;j++) xn[nn][j]=cen[j]+2.0*(xr[k][j]-cen[j]);
+          which[nn++]=k;
+        } else if (yr[k] >= yworstkept) {
+          expand[k]=false;
+          inside[k] = yr[k] >= yh;
+          for (j=0;j<ndim;j++)
+            xn[nn][j] = inside[k] ? cen[j]+0.5*(ph[j]-cen[j]) : cen[j]+0.5*(xr[k][j]-cen[j]);
+          which[nn++]=k;
+        }
+      }
+      ev.evalAll(xn,0,nn,yn);
+
+      boolean improved=false;
+      int m=0;
+      for (k=0;k<np;k++) {
+        int ih=order[nkeep+k];
+        double[] xnew=null;
+        double ynew=0.;
+        if (m < nn && which[m] == k) {
+          if (expand[k]) {
+            if (yn[m] < yr[k]) {xnew=xn[m]; ynew=yn[m];}
+            else {xnew=xr[k]; ynew=yr[k];}
+          } else if (inside[k] ? yn[m] < y[ih] : yn[m] <= yr[k]) {
+            xnew=xn[m]; ynew=yn[m];
+          }
+          m++;
+        } else {
+          xnew=xr[k]; ynew=yr[k];
+        }
+        if (xnew != null) {
+          System.arraycopy(xnew,0,p[ih],0,ndim);
+          y[ih]=ynew;
+          improved=true;
+        }
+      }
+
+      if (!improved && !ev.exhausted()) {    // Contract the whole simplex around the lowest point
+        double[] pl=p[ilo];
+        for (i=0,k=0;i<mpts;i++) {
+          if (i != ilo) {
+            for (j=0;j<ndim;j++) shr[k][j]=0.5*(p[i][j]+pl[j]);
+            k++;
+          }
+        }
+        ev.evalAll(shr,0,mpts-1,yshr);
+        boolean cut=ev.exhausted();
+        for (i=0,k=0;i<mpts;i++) {
+          if (i != ilo) {
+            if (!cut || yshr[k] != Double.POSITIVE_INFINITY) {   // skip points beyond the budget
+              System.arraycopy(shr[k],0,p[i],0,ndim);
+              y[i]=yshr[k];
+            }
+            k++;
+          }
+        }
+      }
+    }
+    nfunc=ev.getNfunc();
+    int ilo=0;
+    for (i=1;i<mpts;i++) if (y[i] < y[ilo]) ilo=i;
+    swap(y,0,ilo);
+    double[] t=p[0]; p[0]=p[ilo]; p[ilo]=t;
+    fmin=y[0];
+    return p[0].clone();
+  }
+}
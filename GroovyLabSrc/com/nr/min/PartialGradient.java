@@ -0,0 +1,13 @@
+package com.nr.min;
+
+import com.nr.RealValueFunWithDiff;
+
+/**
+ * Function whose gradient can be computed one block of components at a time. Lbfgs
+ * evaluates the blocks concurrently for such functions. df(x, df, from, to) must set
+ * df[from..to-1] and may be called from several threads at once for disjoint ranges,
+ * always after funk(x) has been called at the same point.
+ */
+public interface PartialGradient extends RealValueFunWithDiff {
+  public void df(final double[] x, final double[] df, final int from, final int to);
+}
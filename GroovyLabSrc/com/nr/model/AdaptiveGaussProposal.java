@@ -0,0 +1,114 @@
+package com.nr.model;
+
+import static java.lang.Math.*;
+
+import com.nr.la.Cholesky;
+import com.nr.ran.Normaldev;
+
+/*
+ Adaptive Metropolis proposal (Haario, Saksman and Tamminen 2001). Candidates are drawn from a
+ Gaussian centred on the current state. Until nstart states have been observed its
+ covariance is diagonal with standard deviations step[0..n-1]; afterwards it is
+ (2.38^2/n)*(C + eps*I), where C is the running covariance of the observed states, and its
+ Cholesky factor is refreshed every ninterval observations. The running mean and covariance
+ are updated in one pass (Welford). The proposal is symmetric.
+ */
+public class AdaptiveGaussProposal implements McmcProposal {
+  final int n, nstart, ninterval;
+  final double[] step;
+  final double scale, eps;
+  long nobs;
+  final double[] mean, dx, z;
+  final double[][] cov;       // sum of outer products of deviations from the mean
+  Cholesky chol;
+  boolean adapting = true;
+
+  public AdaptiveGaussProposal(final double[] sstep) {
+    this(sstep, 1000, 100, 1.e-10);
+  }
+
+  public AdaptiveGaussProposal(final double[] sstep, final int nnstart, final int nninterval,
+      final double eeps) {
+    n = sstep.length;
+    step = sstep.clone();
+    nstart = max(nnstart, n+1);
+    ninterval = max(nninterval, 1);
+    eps = eeps;
+    scale = 2.38*2.38/n;
+    mean = new double[n];
+    dx = new double[n];
+    z = new double[n];
+    cov = new double[n][n];
+  }
+
+  /*
+   Creates independent proposals for every replica of every chain, as needed by McmcSampler.
+   */
+  public static AdaptiveGaussProposal[][] array(final int nchains, final int ntemps,
+      final double[] sstep) {
+    AdaptiveGaussProposal[][] p = new AdaptiveGaussProposal[nchains][ntemps];
+    for (int c=0;c<nchains;c++)
+      for (int r=0;r<ntemps;r++) p[c][r] = new AdaptiveGaussProposal(sstep);
+    return p;
+  }
+
+  public double propose(final double[] from, final double[] to, final Normaldev ran) {
+    int i;
+    if (chol == null) {
+      for (i=0;i<n;i++) to[i] = from[i] + step[i]*ran.dev();
+    } else {
+      for (i=0;i<n;i++) z[i] = ran.dev();
+      chol.elmult(z,dx);
+      for (i=0;i<n;i++) to[i] = from[i] + dx[i];
+    }
+    return 0.;
+  }
+
+  public void observe(final double[] x) {
+    if (!adapting) return;
+    int i,j;
+    nobs++;
+    for (i=0;i<n;i++) {
+      dx[i] = x[i]-mean[i];
+      mean[i] += dx[i]/nobs;
+    }
+    for (i=0;i<n;i++) {
+      double d = x[i]-mean[i];
+      for (j=0;j<=i;j++) cov[i][j] += d*dx[j];
+    }
+    if (nobs >= nstart && (nobs-nstart) % ninterval == 0) refactor();
+  }
+
+  /*
+   Stops (or resumes) adaptation. Samples drawn after adaptation has stopped come from a
+   fixed proposal and hence from an exactly Markovian chain.
+   */
+  public void setAdapting(final boolean adapt) {adapting = adapt;}
+
+  /*
+   Returns the current proposal covariance.
+   */
+  public double[][] covariance() {
+    double[][] c = new double[n][n];
+    for (int i=0;i<n;i++) {
+      for (int j=0;j<=i;j++) {
+        c[i][j] = c[j][i] = chol == null ? (i == j ? step[i]*step[i] : 0.)
+          : scale*(cov[i][j]/(nobs-1) + (i == j ? eps : 0.));
+      }
+    }
+    return c;
+  }
+
+  private void refactor() {
+    double[][] c = new double[n][n];
+    for (int i=0;i<n;i++) {
+      for (int j=0;j<=i;j++) c[i][j] = c[j][i] = scale*cov[i][j]/(nobs-1);
+      c[i][i] += scale*eps;
+    }
+    try {
+      chol = new Cholesky(c);
+    } catch (IllegalArgumentException e) {
+      // Not (yet) positive definite: keep the previous proposal
+    }
+  }
+}
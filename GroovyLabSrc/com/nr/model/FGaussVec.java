@@ -0,0 +1,28 @@
+package com.nr.model;
+import static java.lang.Math.exp;
+
+/*
+ Sum of Gaussians, as FGauss, evaluated for a range of points at once.
+ */
+public class FGaussVec implements MultiFuncdVec {
+
+  public void funk(final double[] x, final int from, final int to, final double[] a,
+      final double[] y, final double[][] dyda) {
+    int i,k,n=to-from,na=a.length;
+    double fac,ex,arg;
+    for (k=0;k<n;k++) y[k]=0.;
+    for (i=0;i<na-1;i+=3) {
+      final double amp=a[i], cen=a[i+1], wid=a[i+2], rwid=1./wid;
+      final double[] d0=dyda[i], d1=dyda[i+1], d2=dyda[i+2];
+      for (k=0;k<n;k++) {
+        arg=(x[from+k]-cen)*rwid;
+        ex=exp(-arg*arg);
+        fac=amp*ex*2.*arg;
+        y[k] += amp*ex;
+        d0[k]=ex;
+        d1[k]=fac*rwid;
+        d2[k]=fac*arg*rwid;
+      }
+    }
+  }
+}
@@ -6,6 +6,8 @@ import static java.lang.Math.*;
 
 import org.netlib.util.doubleW;
 
+import com.nr.util.Parallel;
+
 
 /**
  * Levenberg-Marquardt nonlinear fitting
@@ -20,14 +22,25 @@ import org.netlib.util.doubleW;
  including the ability to hold specified parameters at fixed, specified values. Call constructor
  to bind data vectors and fitting functions and to input an initial parameter guess. Then call
  any combination of hold, free, and fit as often as desired. fit sets the output quantities
- a, covar, alpha, and chisq
+ a, covar, alpha, and chisq.
+
+ The fitting function may be given either point by point (MultiFuncd) or for a range of
+ points at once (MultiFuncdVec). A MultiFuncd is only ever called from the calling thread.
+ For large data sets with a MultiFuncdVec, mrqcof splits the data into chunks that are
+ accumulated concurrently on the shared pool of com.nr.util.Parallel and then summed in
+ chunk order, so results are reproducible for a fixed number of threads; the MultiFuncdVec
+ must then be safe to call from several threads at once on disjoint ranges. Work arrays are
+ kept between calls; reset rebinds new data to the same object (see FitmrqBatch).
  */
 public class Fitmrq {
   static final int NDONE=4, ITMAX=1000;
+  static final int BLOCK=256;      // points per call of a vectorized fitting function
+  static final int PARGRAIN=8192;  // minimum number of points per parallel chunk
   int ndat, ma, mfit;
   double[] x,y,sig;
   final double tol;
   MultiFuncd funcs;
+  MultiFuncdVec vfuncs;
   public boolean[] ia;
   public double[] a;
   public double[][] covar;
@@ -61,6 +74,33 @@ public class Fitmrq {
     for (int i=0;i<ma;i++) ia[i] = true;
   }
 
+  /*
+   Constructors for a vectorized fitting function, otherwise as above.
+   */
+  public Fitmrq(final double[] xx, final double[] yy, final double[] ssig, final double[] aa,
+      final MultiFuncdVec funks) {
+    this(xx, yy, ssig, aa, funks, 1.e-3);
+  }
+
+  public Fitmrq(final double[] xx, final double[] yy, final double[] ssig, final double[] aa,
+      final MultiFuncdVec funks, final double TOL) {
+    this(xx, yy, ssig, aa, (MultiFuncd)null, TOL);
+    vfuncs = funks;
+  }
+
+  /*
+   Binds new data arrays and a new initial guess aa (copied) to this object, keeping the
+   fitting function, the held parameters and the work arrays. aa must have length ma.
+   */
+  public void reset(final double[] xx, final double[] yy, final double[] ssig, final double[] aa) {
+    if (aa.length != ma) throw new IllegalArgumentException("Fitmrq: wrong number of parameters");
+    ndat = xx.length;
+    x = xx;
+    y = yy;
+    sig = ssig;
+    for (int i=0;i<ma;i++) if (ia[i]) a[i]=aa[i];
+  }
+
   /*
    Optional functions for holding a parameter, identified by a value i in the range 0, .., ma-1,
    fized at the value val, or for freeing a parameter that was previously held fixed.
@@ -82,13 +122,16 @@ public class Fitmrq {
   public void fit() {
     int j,k,l,iter,done=0;
     double alamda=.001,ochisq;
-    double[] atry = new double[ma];
-    double[] beta = new double[ma];
-    double[] da = new double[ma];
-    ;
     mfit=0;
     for (j=0;j<ma;j++) if (ia[j]) mfit++;
-    double[][] oneda = new double[mfit][1], temp = new double[mfit][mfit];
+    if (oneda == null || oneda.length != mfit) {
+      atry = new double[ma];
+      beta = new double[ma];
+      da = new double[ma];
+      oneda = new double[mfit][1];
+      temp = new double[mfit][mfit];
+      work = null;
+    }
     mrqcof(a,alpha,beta);    // Initialization
     for (j=0;j<ma;j++) atry[j]=a[j];
     ochisq=chisq;
@@ -131,19 +174,91 @@ public class Fitmrq {
   }
 
 
+  // Work arrays of fit, kept between calls
+  private double[] atry, beta, da;
+  private double[][] oneda, temp;
+  private Workspace[] work;
+  private int[] fidx;   // indices of the free parameters
+
+  // Partial sums and evaluation buffers of one chunk of data in mrqcof
+  private final class Workspace {
+    final double[][] alpha = new double[mfit][mfit];
+    final double[] beta = new double[mfit];
+    double chisq;
+    final double[] dyda = new double[ma];
+    final doubleW ymodW = new doubleW(0);
+    double[] yb, w, wdy;
+    double[][] db;
+
+    Workspace() {
+      if (vfuncs != null) {
+        yb = new double[BLOCK];
+        w = new double[BLOCK];
+        wdy = new double[BLOCK];
+        db = new double[ma][BLOCK];
+      }
+    }
+  }
+
   // Used by fit to evaluate the linearized fitting matrix alpha, and vector beta as in (15.5.8) and
   // to calculate χ^2
   public void mrqcof(final double[] a, final double[][] alpha, final double[] beta) {
-    int i,j,k,l,m;
-    double ymod,wt,sig2i,dy;
-    doubleW ymodW= new doubleW(0);
-    double[] dyda = new double[ma];
+    int c,j,k;
+    int m=0;
+    for (j=0;j<ma;j++) if (ia[j]) m++;
+    if (m != mfit || work != null && work[0].beta.length != mfit) {
+      mfit=m;
+      work=null;
+    }
+    if (fidx == null || fidx.length != mfit) fidx = new int[mfit];
+    for (j=0,k=0;k<ma;k++) if (ia[k]) fidx[j++]=k;
+    final int nchunks = vfuncs != null ? Parallel.chunks(ndat,PARGRAIN) : 1;   // MultiFuncd stays serial
+    if (work == null || work.length < nchunks) {
+      Workspace[] w = new Workspace[nchunks];
+      for (c=0;c<nchunks;c++) w[c] = (work != null && c < work.length) ? work[c] : new Workspace();
+      work = w;
+    }
+    final Workspace[] ws = work;
     for (j=0;j<mfit;j++) {   // Initialize (symmetric) alpha, beta
       for (k=0;k<=j;k++) alpha[j][k]=0.0;
       beta[j]=0.;
     }
-    chisq=0.;
-    for (i=0;i<ndat;i++) {   // Summation loop over all data
+    Parallel.forChunks(ndat, nchunks, new Parallel.Body() {
+      public void run(int from, int to, int chunk) {
+        // The first chunk sums directly into alpha and beta
+        Workspace w = ws[chunk];
+        double[][] al = chunk == 0 ? alpha : w.alpha;
+        double[] be = chunk == 0 ? beta : w.beta;
+        if (chunk > 0) {
+          for (int j=0;j<mfit;j++) {
+            for (int k=0;k<=j;k++) al[j][k]=0.0;
+            be[j]=0.;
+          }
+        }
+        w.chisq = vfuncs != null ? sumBlocks(from,to,a,al,be,w) : sumPoints(from,to,a,al,be,w);
+      }
+    });
+    chisq=ws[0].chisq;
+    for (c=1;c<nchunks;c++) {   // Reduce the chunks in order
+      for (j=0;j<mfit;j++) {
+        for (k=0;k<=j;k++) alpha[j][k] += ws[c].alpha[j][k];
+        beta[j] += ws[c].beta[j];
+      }
+      chisq += ws[c].chisq;
+    }
+    for (j=1;j<mfit;j++)  //  Fill in the symmetric side
+      for (k=0;k<j;k++) alpha[k][j]=alpha[j][k];
+  }
+
+  // Adds the contributions of points from..to-1 to the lower triangle of alpha and to beta,
+  // calling the fitting function point by point, and returns their contribution to χ^2
+  private double sumPoints(final int from, final int to, final double[] a,
+      final double[][] alpha, final double[] beta, final Workspace ws) {
+    int i,j,k,l,m;
+    double ymod,wt,sig2i,dy,chisq=0.;
+    doubleW ymodW=ws.ymodW;
+    double[] dyda=ws.dyda;
+    for (i=from;i<to;i++) {   // Summation loop over all data
       funcs.funk(x[i],a,ymodW,dyda); ymod = ymodW.val;
       sig2i=1.0/(sig[i]*sig[i]);
       dy=y[i]-ymod;
@@ -157,8 +272,42 @@ public class Fitmrq {
       }
       chisq += dy*dy*sig2i;   // And find χ^2
     }
-    for (j=1;j<mfit;j++)  //  Fill in the symmetric side
-      for (k=0;k<j;k++) alpha[k][j]=alpha[j][k];
+    return chisq;
+  }
+
+  // As sumPoints, but evaluates a vectorized fitting function on blocks of BLOCK points and
+  // accumulates each element of alpha and beta over a whole block in one loop
+  private double sumBlocks(final int from, final int to, final double[] a,
+      final double[][] alpha, final double[] beta, final Workspace ws) {
+    int i0,i1,n,t,j,k;
+    double s,sig2i,dy,chisq=0.;
+    final double[] yb=ws.yb, w=ws.w, wdy=ws.wdy;
+    final double[][] db=ws.db;
+    for (i0=from;i0<to;i0=i1) {
+      i1=min(i0+BLOCK,to);
+      n=i1-i0;
+      vfuncs.funk(x,i0,i1,a,yb,db);
+      for (t=0;t<n;t++) {
+        sig2i=1.0/(sig[i0+t]*sig[i0+t]);
+        dy=y[i0+t]-yb[t];
+        w[t]=sig2i;
+        wdy[t]=dy*sig2i;
+        chisq += dy*dy*sig2i;
+      }
+      for (j=0;j<mfit;j++) {
+        final double[] dl=db[fidx[j]];
+        for (k=0;k<=j;k++) {
+          final double[] dm=db[fidx[k]];
+          s=0.;
+          for (t=0;t<n;t++) s += w[t]*dl[t]*dm[t];
+          alpha[j][k] += s;
+        }
+        s=0.;
+        for (t=0;t<n;t++) s += wdy[t]*dl[t];
+        beta[j] += s;
+      }
+    }
+    return chisq;
   }
 
   // Expand in storage the covariance matrix covar, so as to take into account parameters that are being 
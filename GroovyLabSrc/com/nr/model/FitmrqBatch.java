@@ -0,0 +1,128 @@
+package com.nr.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.nr.util.Parallel;
+
+/*
+ Fits many independent data sets with the same fitting function by the Levenberg-Marquardt
+ method (Fitmrq), distributing the data sets over the shared pool of com.nr.util.Parallel.
+ Each worker keeps one Fitmrq object whose work arrays are reused for every data set it
+ takes, and for later calls of fit. Parameters may be held or freed for all data sets
+ before calling fit. After fit, a[p], chisq[p] and covar[p] hold the results for data set
+ p, and converged[p] is false (with chisq[p] NaN) if the fit exceeded Fitmrq.ITMAX
+ iterations. Since the data sets are fitted concurrently, the fitting function, whether
+ MultiFuncd or MultiFuncdVec, must be safe to call from several threads at once.
+ */
+public class FitmrqBatch {
+  final int ma;
+  final double tol;
+  final MultiFuncd funcs;
+  final MultiFuncdVec vfuncs;
+  final boolean[] ia;
+  final double[] held;
+  private Fitmrq[] fitters = new Fitmrq[0];
+  public double[][] a;
+  public double[] chisq;
+  public double[][][] covar;
+  public boolean[] converged;
+
+  public FitmrqBatch(final MultiFuncd funks, final int ma) {
+    this(funks, null, ma, 1.e-3);
+  }
+
+  public FitmrqBatch(final MultiFuncd funks, final int ma, final double TOL) {
+    this(funks, null, ma, TOL);
+  }
+
+  public FitmrqBatch(final MultiFuncdVec funks, final int ma) {
+    this(null, funks, ma, 1.e-3);
+  }
+
+  public FitmrqBatch(final MultiFuncdVec funks, final int ma, final double TOL) {
+    this(null, funks, ma, TOL);
+  }
+
+  private FitmrqBatch(final MultiFuncd funks, final MultiFuncdVec vfunks, final int mma, final double TOL) {
+    ma = mma;
+    tol = TOL;
+    funcs = funks;
+    vfuncs = vfunks;
+    ia = new boolean[ma];
+    held = new double[ma];
+    for (int i=0;i<ma;i++) ia[i] = true;
+  }
+
+  /*
+   Hold parameter i at the value val, or free it, in all subsequent fits.
+   */
+  public void hold(final int i, final double val) {ia[i]=false; held[i]=val;}
+
+  public void free(final int i) {ia[i]=true;}
+
+  /*
+   Fits data set p, given by xx[p], yy[p] and ssig[p], starting from the guess aa[p], for
+   every p. Returns the number of fits that converged.
+   */
+  public int fit(final double[][] xx, final double[][] yy, final double[][] ssig, final double[][] aa) {
+    final int nprob = xx.length;
+    if (yy.length != nprob || ssig.length != nprob || aa.length != nprob)
+      throw new IllegalArgumentException("FitmrqBatch: inconsistent number of data sets");
+    a = new double[nprob][];
+    chisq = new double[nprob];
+    covar = new double[nprob][][];
+    converged = new boolean[nprob];
+    if (nprob == 0) return 0;
+
+    int nworkers = Parallel.chunks(nprob, 1);
+    if (fitters.length < nworkers) {
+      Fitmrq[] f = new Fitmrq[nworkers];
+      System.arraycopy(fitters, 0, f, 0, fitters.length);
+      fitters = f;
+    }
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger nconv = new AtomicInteger();
+    Runnable[] tasks = new Runnable[nworkers];
+    for (int w=0;w<nworkers;w++) {
+      final int ww = w;
+      tasks[w] = new Runnable() {
+        public void run() {
+          int p;
+          while ((p = next.getAndIncrement()) < nprob) {
+            Fitmrq f = fitter(ww, xx[p], yy[p], ssig[p], aa[p]);
+            try {
+              f.fit();
+              converged[p] = true;
+              chisq[p] = f.chisq;
+              nconv.incrementAndGet();
+            } catch (IllegalArgumentException e) {
+              chisq[p] = Double.NaN;
+            }
+            a[p] = f.a.clone();
+            covar[p] = new double[ma][];
+            for (int i=0;i<ma;i++) covar[p][i] = f.covar[i].clone();
+          }
+        }
+      };
+    }
+    Parallel.invokeAll(tasks);
+    return nconv.get();
+  }
+
+  // Returns worker w's Fitmrq bound to the given data, creating it on first use
+  private Fitmrq fitter(final int w, final double[] xx, final double[] yy, final double[] ssig,
+      final double[] aa) {
+    if (aa.length != ma) throw new IllegalArgumentException("FitmrqBatch: wrong number of parameters");
+    Fitmrq f = fitters[w];
+    if (f == null) {
+      f = vfuncs != null ? new Fitmrq(xx,yy,ssig,aa,vfuncs,tol) : new Fitmrq(xx,yy,ssig,aa,funcs,tol);
+      fitters[w] = f;
+    }
+    for (int i=0;i<ma;i++) {
+      if (ia[i]) f.free(i);
+      else f.hold(i,held[i]);
+    }
+    f.reset(xx,yy,ssig,aa);   // sets the free parameters only
+    return f;
+  }
+}
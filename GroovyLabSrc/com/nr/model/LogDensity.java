@@ -0,0 +1,10 @@
+package com.nr.model;
+
+/*
+ Log of an (unnormalized) probability density over a real state vector, as sampled by
+ McmcSampler. Implementations are called concurrently from several chains and must not
+ keep per-call state in fields.
+ */
+public interface LogDensity {
+  public double logp(final double[] x);
+}
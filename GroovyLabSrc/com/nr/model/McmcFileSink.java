@@ -0,0 +1,83 @@
+package com.nr.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/*
+ McmcSink that streams the samples of each chain to its own binary file, prefix + "_" + chain
+ + ".mcmc", instead of keeping them in memory. A record is the step number (long), the log
+ density and the n state components (doubles), in DataOutput format. Since every chain has
+ its own stream no locking is needed while sampling. Call close when sampling is finished.
+ */
+public class McmcFileSink implements McmcSink {
+  final int n;
+  final String prefix;
+  final DataOutputStream[] out;
+
+  public McmcFileSink(final String pprefix, final int nchains, final int nn) throws IOException {
+    prefix = pprefix;
+    n = nn;
+    out = new DataOutputStream[nchains];
+    for (int c=0;c<nchains;c++)
+      out[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName(prefix, c)), 1<<16));
+  }
+
+  public static String fileName(final String prefix, final int chain) {
+    return prefix + "_" + chain + ".mcmc";
+  }
+
+  public void accept(final int chain, final long step, final double[] x, final double logp) {
+    DataOutputStream o = out[chain];
+    try {
+      o.writeLong(step);
+      o.writeDouble(logp);
+      for (int i=0;i<n;i++) o.writeDouble(x[i]);
+    } catch (IOException e) {
+      throw new IllegalStateException("McmcFileSink: cannot write " + fileName(prefix, chain), e);
+    }
+  }
+
+  public void close() throws IOException {
+    IOException first = null;
+    for (DataOutputStream o : out) {
+      try {
+        o.close();
+      } catch (IOException e) {
+        if (first == null) first = e;
+      }
+    }
+    if (first != null) throw first;
+  }
+
+  /*
+   Reads back the states stored for one chain by a McmcFileSink of dimension n, one row per
+   sample.
+   */
+  public static double[][] read(final String prefix, final int chain, final int n) throws IOException {
+    ArrayList<double[]> rows = new ArrayList<double[]>();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName(prefix, chain))));
+    try {
+      while (true) {
+        try {
+          in.readLong();
+        } catch (EOFException e) {
+          break;
+        }
+        in.readDouble();
+        double[] x = new double[n];
+        for (int i=0;i<n;i++) x[i] = in.readDouble();
+        rows.add(x);
+      }
+    } finally {
+      in.close();
+    }
+    return rows.toArray(new double[rows.size()][]);
+  }
+}
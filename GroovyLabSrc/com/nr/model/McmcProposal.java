@@ -0,0 +1,15 @@
+package com.nr.model;
+
+import com.nr.ran.Normaldev;
+
+/*
+ Proposal distribution for the Metropolis-Hastings steps of McmcSampler. Each replica of each
+ chain has its own proposal object, so implementations may keep state (e.g. for adaptation).
+ propose fills to[] with a candidate drawn given from[] and returns the log of the ratio
+ q(from|to)/q(to|from) (0 for a symmetric proposal). observe is called with the state of the
+ replica after every step, accepted or not.
+ */
+public interface McmcProposal {
+  public double propose(final double[] from, final double[] to, final Normaldev ran);
+  public void observe(final double[] x);
+}
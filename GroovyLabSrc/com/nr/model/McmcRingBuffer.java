@@ -0,0 +1,72 @@
+package com.nr.model;
+
+/*
+ McmcSink that keeps the most recent capacity samples of each chain in a flat primitive ring
+ buffer, so memory stays bounded however long the sampler runs. Each chain writes only its
+ own ring, so no locking is needed while sampling; read the buffer after McmcSampler.run
+ has returned.
+ */
+public class McmcRingBuffer implements McmcSink {
+  final int nchains, n, capacity;
+  final double[][] data;      // data[chain][slot*n + i]
+  final double[][] logps;
+  final long[][] steps;
+  final long[] count;
+
+  public McmcRingBuffer(final int nnchains, final int nn, final int ccapacity) {
+    if (ccapacity < 1) throw new IllegalArgumentException("McmcRingBuffer: capacity must be positive");
+    nchains = nnchains;
+    n = nn;
+    capacity = ccapacity;
+    data = new double[nchains][capacity*n];
+    logps = new double[nchains][capacity];
+    steps = new long[nchains][capacity];
+    count = new long[nchains];
+  }
+
+  public void accept(final int chain, final long step, final double[] x, final double logp) {
+    int slot = (int)(count[chain] % capacity);
+    System.arraycopy(x, 0, data[chain], slot*n, n);
+    logps[chain][slot] = logp;
+    steps[chain][slot] = step;
+    count[chain]++;
+  }
+
+  /* Total number of samples received for chain. */
+  public long count(final int chain) {return count[chain];}
+
+  /* Number of samples of chain currently held. */
+  public int size(final int chain) {return (int)Math.min(count[chain], capacity);}
+
+  /*
+   Copies the k-th held sample of chain into x, k=0 being the oldest held sample, and returns
+   its log density.
+   */
+  public double get(final int chain, final int k, final double[] x) {
+    int slot = slot(chain, k);
+    System.arraycopy(data[chain], slot*n, x, 0, n);
+    return logps[chain][slot];
+  }
+
+  /* Step number at which the k-th held sample of chain was drawn. */
+  public long step(final int chain, final int k) {return steps[chain][slot(chain, k)];}
+
+  /* Returns the held samples of chain, oldest first, as a matrix with one row per sample. */
+  public double[][] samples(final int chain) {
+    int m = size(chain);
+    double[][] s = new double[m][n];
+    for (int k=0;k<m;k++) get(chain, k, s[k]);
+    return s;
+  }
+
+  /* Discards all held samples. */
+  public void clear() {
+    for (int c=0;c<nchains;c++) count[c] = 0;
+  }
+
+  private int slot(final int chain, final int k) {
+    int m = size(chain);
+    if (k < 0 || k >= m) throw new IndexOutOfBoundsException("McmcRingBuffer: no sample " + k);
+    return (int)((count[chain] - m + k) % capacity);
+  }
+}
@@ -0,0 +1,262 @@
+package com.nr.model;
+
+import static java.lang.Math.*;
+
+import com.nr.ran.Normaldev;
+import com.nr.util.Parallel;
+
+/*
+ Generic Markov chain Monte Carlo engine with several independent chains and parallel
+ tempering. Unlike Proposal.mcmcstep, which is specific to the change-point State of Plog,
+ the target is any LogDensity over double[] states and the moves come from McmcProposal
+ objects.
+
+ Each of nchains chains holds ntemps replicas at inverse temperatures beta[0..ntemps-1],
+ beta[0]=1 being the target itself and replica r sampling from exp(beta[r]*logp). A step
+ makes one Metropolis-Hastings update of every replica and, every swapInterval steps,
+ attempts exchanges between adjacent temperatures. Chains are independent (each has its own
+ random generator seeded from seed and its chain number) and run concurrently on the shared
+ pool of com.nr.util.Parallel; results for a fixed seed do not depend on the number of
+ threads.
+
+ States of the cold replica are passed to a McmcSink (e.g. McmcRingBuffer or McmcFileSink)
+ every thin-th step rather than being retained. Convergence diagnostics are accumulated on
+ the fly over the cold replicas: the Gelman-Rubin potential scale reduction factor (rhat)
+ from one-pass means and variances of each chain, and the effective sample size (ess) from
+ batch means whose batch size doubles as the run grows, so memory is independent of the run
+ length.
+ */
+public class McmcSampler {
+  static final int MAXBATCH=64;   // batch means are merged in pairs when this many are full
+  final int nchains, ntemps, n;
+  final LogDensity dens;
+  final McmcProposal[][] prop;
+  final double[] beta;
+  final Normaldev[] ran;
+  final double[][][] x;           // x[chain][replica][0..n-1]
+  final double[][] lp;            // untempered log density of x
+  final double[][] xtry;
+  final long[][] nacc, ntry, nswap, nswaptry;
+  final long[] steps;
+  McmcSink sink;
+  int thin=1, swapInterval=1;
+  // diagnostics of the cold replicas
+  final long[] ndiag;
+  final double[][] dmean, dm2;
+  final double[][][] bsum;        // sums of the full batches
+  final double[][] bpart;         // sum of the batch being filled
+  final int[] nb, npart;
+  final long[] bsize;
+
+  public McmcSampler(final LogDensity logp, final McmcProposal[][] proposals, final double[] betas,
+      final double[][] start, final long seed) {
+    int c,r;
+    nchains = proposals.length;
+    ntemps = betas.length;
+    if (nchains < 1 || start.length != nchains)
+      throw new IllegalArgumentException("McmcSampler: need one start state and one proposal row per chain");
+    if (betas[0] != 1.) throw new IllegalArgumentException("McmcSampler: beta[0] must be 1");
+    n = start[0].length;
+    dens = logp;
+    prop = proposals;
+    beta = betas.clone();
+    ran = new Normaldev[nchains];
+    x = new double[nchains][ntemps][];
+    lp = new double[nchains][ntemps];
+    xtry = new double[nchains][n];
+    nacc = new long[nchains][ntemps];
+    ntry = new long[nchains][ntemps];
+    nswap = new long[nchains][ntemps];
+    nswaptry = new long[nchains][ntemps];
+    steps = new long[nchains];
+    ndiag = new long[nchains];
+    dmean = new double[nchains][n];
+    dm2 = new double[nchains][n];
+    bsum = new double[nchains][MAXBATCH][n];
+    bpart = new double[nchains][n];
+    nb = new int[nchains];
+    npart = new int[nchains];
+    bsize = new long[nchains];
+    for (c=0;c<nchains;c++) {
+      if (proposals[c].length != ntemps)
+        throw new IllegalArgumentException("McmcSampler: need one proposal per replica");
+      ran[c] = new Normaldev(0.,1.,seed + 7919L*c);
+      for (r=0;r<ntemps;r++) {
+        x[c][r] = start[c].clone();
+        lp[c][r] = dens.logp(x[c][r]);
+      }
+      bsize[c] = 1;
+    }
+  }
+
+  /*
+   Inverse temperatures 1 = beta[0] > beta[1] > ... > beta[ntemps-1] = 1/tmax, spaced
+   geometrically.
+   */
+  public static double[] geometricLadder(final int ntemps, final double tmax) {
+    double[] b = new double[ntemps];
+    for (int r=0;r<ntemps;r++) b[r] = ntemps == 1 ? 1. : pow(tmax, -r/(double)(ntemps-1));
+    return b;
+  }
+
+  /* Sets the receiver of the cold-replica samples (null for none) and the thinning interval. */
+  public void setSink(final McmcSink ssink, final int tthin) {
+    if (tthin < 1) throw new IllegalArgumentException("McmcSampler: thin must be positive");
+    sink = ssink;
+    thin = tthin;
+  }
+
+  /* Sets the number of steps between replica exchange attempts. */
+  public void setSwapInterval(final int interval) {
+    if (interval < 1) throw new IllegalArgumentException("McmcSampler: swap interval must be positive");
+    swapInterval = interval;
+  }
+
+  /* Advances every chain by nsteps steps. */
+  public void run(final long nsteps) {
+    Parallel.forChunks(nchains, Parallel.chunks(nchains, 1), new Parallel.Body() {
+      public void run(int from, int to, int chunk) {
+        for (int c=from;c<to;c++)
+          for (long s=0;s<nsteps;s++) step(c);
+      }
+    });
+  }
+
+  private void step(final int c) {
+    int r;
+    final Normaldev rn = ran[c];
+    final double[][] xc = x[c];
+    final double[] lpc = lp[c];
+    for (r=0;r<ntemps;r++) {
+      double lq = prop[c][r].propose(xc[r], xtry[c], rn);
+      double lpn = dens.logp(xtry[c]);
+      ntry[c][r]++;
+      if (log(rn.doub()) < beta[r]*(lpn-lpc[r]) + lq) {
+        double[] t = xc[r]; xc[r] = xtry[c]; xtry[c] = t;
+        lpc[r] = lpn;
+        nacc[c][r]++;
+      }
+      prop[c][r].observe(xc[r]);
+    }
+    if (ntemps > 1 && steps[c] % swapInterval == 0) {
+      for (r=0;r<ntemps-1;r++) {
+        nswaptry[c][r]++;
+        if (log(rn.doub()) < (beta[r]-beta[r+1])*(lpc[r+1]-lpc[r])) {
+          double[] t = xc[r]; xc[r] = xc[r+1]; xc[r+1] = t;
+          double l = lpc[r]; lpc[r] = lpc[r+1]; lpc[r+1] = l;
+          nswap[c][r]++;
+        }
+      }
+    }
+    diagnose(c, xc[0]);
+    if (sink != null && (steps[c]+1) % thin == 0) sink.accept(c, steps[c], xc[0], lpc[0]);
+    steps[c]++;
+  }
+
+  private void diagnose(final int c, final double[] xs) {
+    int i,k;
+    long m = ++ndiag[c];
+    final double[] mean = dmean[c], m2 = dm2[c], part = bpart[c];
+    for (i=0;i<n;i++) {
+      double d = xs[i]-mean[i];
+      mean[i] += d/m;
+      m2[i] += d*(xs[i]-mean[i]);
+      part[i] += xs[i];
+    }
+    if (++npart[c] == bsize[c]) {
+      System.arraycopy(part, 0, bsum[c][nb[c]], 0, n);
+      for (i=0;i<n;i++) part[i] = 0.;
+      npart[c] = 0;
+      if (++nb[c] == MAXBATCH) {    // merge pairs of batches and double the batch size
+        for (k=0;k<MAXBATCH/2;k++)
+          for (i=0;i<n;i++) bsum[c][k][i] = bsum[c][2*k][i] + bsum[c][2*k+1][i];
+        nb[c] = MAXBATCH/2;
+        bsize[c] *= 2;
+      }
+    }
+  }
+
+  /* Discards the diagnostics accumulated so far, e.g. at the end of burn-in. */
+  public void resetDiagnostics() {
+    for (int c=0;c<nchains;c++) {
+      ndiag[c] = 0;
+      nb[c] = npart[c] = 0;
+      bsize[c] = 1;
+      for (int i=0;i<n;i++) dmean[c][i] = dm2[c][i] = bpart[c][i] = 0.;
+    }
+  }
+
+  /*
+   Gelman-Rubin potential scale reduction factor of each component, from the cold replicas
+   since the last resetDiagnostics. Values near 1 indicate convergence. Needs at least two
+   chains and two samples per chain.
+   */
+  public double[] rhat() {
+    long m = ndiag[0];
+    if (nchains < 2 || m < 2) throw new IllegalArgumentException("McmcSampler: rhat needs two chains and two samples");
+    double[] rh = new double[n];
+    for (int i=0;i<n;i++) {
+      double w=0., mbar=0., b=0.;
+      for (int c=0;c<nchains;c++) {
+        w += dm2[c][i]/(m-1);
+        mbar += dmean[c][i];
+      }
+      w /= nchains;
+      mbar /= nchains;
+      for (int c=0;c<nchains;c++) b += (dmean[c][i]-mbar)*(dmean[c][i]-mbar);
+      b /= nchains-1;    // this is B/m
+      double vplus = (m-1.)/m*w + b;
+      rh[i] = sqrt(vplus/w);
+    }
+    return rh;
+  }
+
+  /*
+   Effective sample size of each component, summed over chains, estimated by the method of
+   batch means from the cold replicas since the last resetDiagnostics.
+   */
+  public double[] ess() {
+    double[] e = new double[n];
+    for (int c=0;c<nchains;c++) {
+      int k, nbc = nb[c];
+      if (nbc < 2) continue;
+      long used = nbc*bsize[c];
+      for (int i=0;i<n;i++) {
+        double mu=0., sb=0.;
+        for (k=0;k<nbc;k++) mu += bsum[c][k][i];
+        mu /= used;
+        for (k=0;k<nbc;k++) {
+          double d = bsum[c][k][i]/bsize[c] - mu;
+          sb += d*d;
+        }
+        sb /= nbc-1;
+        double s2 = dm2[c][i]/(ndiag[c]-1);
+        e[i] += sb > 0. ? min(used, used*s2/(bsize[c]*sb)) : used;
+      }
+    }
+    return e;
+  }
+
+  /* Current state of the cold replica of chain c (a copy). */
+  public double[] state(final int c) {return x[c][0].clone();}
+
+  /* Log density of the current state of the cold replica of chain c. */
+  public double logp(final int c) {return lp[c][0];}
+
+  /* Number of steps made by each chain. */
+  public long steps() {return steps[0];}
+
+  /* Fraction of accepted Metropolis-Hastings updates at temperature r, over all chains. */
+  public double acceptance(final int r) {
+    long a=0, t=0;
+    for (int c=0;c<nchains;c++) {a += nacc[c][r]; t += ntry[c][r];}
+    return t == 0 ? 0. : a/(double)t;
+  }
+
+  /* Fraction of accepted exchanges between temperatures r and r+1, over all chains. */
+  public double swapAcceptance(final int r) {
+    long a=0, t=0;
+    for (int c=0;c<nchains;c++) {a += nswap[c][r]; t += nswaptry[c][r];}
+    return t == 0 ? 0. : a/(double)t;
+  }
+}
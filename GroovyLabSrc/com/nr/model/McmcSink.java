@@ -0,0 +1,11 @@
+package com.nr.model;
+
+/*
+ Receiver of the samples drawn by McmcSampler. accept is called with the state of the
+ coldest replica of a chain every thin-th step, from the thread running that chain;
+ calls for different chains may be concurrent, calls for one chain are sequential.
+ The array x is reused by the sampler and must be copied if retained.
+ */
+public interface McmcSink {
+  public void accept(final int chain, final long step, final double[] x, final double logp);
+}
@@ -0,0 +1,14 @@
+package com.nr.model;
+
+/*
+ Vectorized counterpart of MultiFuncd. Evaluates the fitting function and its derivatives
+ with respect to the parameters a[0..ma-1] at the points x[from..to-1] in one call. The
+ results are stored from index 0: y[i-from] receives the function value at x[i], and
+ dyda[l][i-from] its derivative with respect to a[l]. Fitmrq may call funk concurrently
+ from several threads on disjoint ranges, so implementations must not share mutable state
+ between calls.
+ */
+public interface MultiFuncdVec {
+  public void funk(final double[] x, final int from, final int to, final double[] a,
+      final double[] y, final double[][] dyda);
+}
@@ -0,0 +1,407 @@
+package com.nr.pde;
+
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+
+import org.netlib.util.doubleW;
+
+import com.nr.util.Parallel;
+
+/**
+ * Full multigrid engine for the model problems of Mglin (the Poisson equation) and Mgfas (the
+ * nonlinear equation (20.6.44), u'' + u^2 = rho), on a square (dim = 2) or cube (dim = 3) of side
+ * 1 with n = 2^j+1 points per side and zero boundary values.
+ *
+ * Grids are flat row-major arrays: the value at (i,j) is u[i*n+j] in 2-D, at (i,j,k) it is
+ * u[(i*n+j)*n+k] in 3-D, so the inner loops run along contiguous memory. All levels are
+ * allocated once, in the constructor and on the first call of mgfas, and reused by every
+ * V-cycle; prolongation adds its result to the fine grid directly. Red-black smoothing,
+ * residuals, restriction and prolongation are split over bands of rows (planes in 3-D) on the
+ * threads of com.nr.util.Parallel; within one colour of a red-black sweep the updates are
+ * independent, so the results do not depend on the number of threads. In 2-D the arithmetic is
+ * that of Mglin and Mgfas, operation for operation.
+ *
+ * In 3-D the smoother uses the 7-point Laplacian, restriction is half weighting (1/2 for the
+ * point, 1/12 for each neighbour) and prolongation is trilinear.
+ */
+public class Multigrid {
+  static final int GRAIN = 1 << 14;   // cells per parallel chunk
+  static final int NPRE = 1, NPOST = 1;
+  static final double ALPHA = 0.33;
+  public final int n, ng, dim;
+  private final int[] side;   // points per side on each level
+  private final double[][] u, f, t;   // solution, right-hand side and workspace on each level
+  private double[][] r, w;   // rho and restricted solution on each level, for mgfas
+
+  /**
+   * Engine for grids of n points per side, n = 2^j + 1, in dim = 2 or 3 dimensions.
+   *
+   * @param n
+   * @param dim
+   */
+  public Multigrid(final int n, final int dim) {
+    if (dim != 2 && dim != 3) throw new IllegalArgumentException("Multigrid: dim must be 2 or 3");
+    int nn=n,g=0;
+    while ((nn >>>= 1) != 0) g++;
+    if (n < 3 || (n-1) != (1 << g)) throw new IllegalArgumentException("n-1 must be a power of 2 in Multigrid.");
+    this.n=n;
+    this.dim=dim;
+    ng=g;
+    side=new int[ng];
+    u=new double[ng][];
+    f=new double[ng][];
+    t=new double[ng][];
+    for (int l=0;l<ng;l++) {
+      side[l]=(1 << (l+1))+1;
+      u[l]=new double[cells(l)];
+      f[l]=new double[cells(l)];
+      t[l]=new double[cells(l)];
+    }
+  }
+
+  private int cells(final int l) {
+    return dim == 2 ? side[l]*side[l] : side[l]*side[l]*side[l];
+  }
+
+  /**
+   * Solve the Poisson problem of Mglin with right-hand side rho[0..n^dim-1], using ncycle V-cycles
+   * at each level. Returns the solution, in an array owned by the engine that the next call
+   * overwrites.
+   *
+   * @param rho
+   * @param ncycle
+   * @return
+   */
+  public double[] mglin(final double[] rho, final int ncycle) {
+    int j,top=ng-1;
+    if (rho.length != cells(top)) throw new IllegalArgumentException("Multigrid: rho must hold n^dim values");
+    System.arraycopy(rho,0,f[top],0,rho.length);
+    for (j=top;j>0;j--) rstrct(j-1,f[j-1],f[j]);   // r.h.s. on all coarse grids
+    slvsml(u[0],f[0]);
+    for (j=1;j<ng;j++) {    // nested iteration
+      interp(j,u[j],u[j-1],false);
+      for (int jcycle=0;jcycle<ncycle;jcycle++) mg(j);
+    }
+    return u[top];
+  }
+
+  /**
+   * Solve the nonlinear problem of Mgfas with right-hand side rho[0..n^dim-1], using up to maxcyc
+   * V-cycles at each level. Returns the solution, in an array owned by the engine that the next
+   * call overwrites.
+   *
+   * @param rho
+   * @param maxcyc
+   * @return
+   */
+  public double[] mgfas(final double[] rho, final int maxcyc) {
+    int j,top=ng-1;
+    if (rho.length != cells(top)) throw new IllegalArgumentException("Multigrid: rho must hold n^dim values");
+    if (r == null) {
+      r=new double[ng][];
+      w=new double[ng][];
+      for (int l=0;l<ng;l++) {
+        r[l]=new double[cells(l)];
+        w[l]=new double[cells(l)];
+      }
+    }
+    System.arraycopy(rho,0,r[top],0,rho.length);
+    for (j=top;j>0;j--) rstrct(j-1,r[j-1],r[j]);
+    slvsm2(u[0],r[0]);
+    doubleW trerr = new doubleW(0);
+    for (j=1;j<ng;j++) {
+      interp(j,u[j],u[j-1],false);
+      for (int jcycle=0;jcycle<maxcyc;jcycle++) {
+        trerr.val=1.0;   // r.h.s. is dummy
+        mgfas(j,trerr);
+        lop(j,t[j],u[j]);   // form residual ||d_h||
+        matsub(t[j],r[j],t[j]);
+        if (anorm2(t[j]) < trerr.val) break;
+      }
+    }
+    return u[top];
+  }
+
+  /**
+   * Mglin-style entry point: on input u[0..n-1][0..n-1] holds the right-hand side, and the
+   * returned array the solution.
+   *
+   * @param u
+   * @param ncycle
+   * @return
+   */
+  public static double[][] mglin(final double[][] u, final int ncycle) {
+    Multigrid m=new Multigrid(u.length,2);
+    return unflatten(m.mglin(flatten(u),ncycle),u.length);
+  }
+
+  /**
+   * Mgfas-style entry point: on input u[0..n-1][0..n-1] holds the right-hand side, and the
+   * returned array the solution.
+   *
+   * @param u
+   * @param maxcyc
+   * @return
+   */
+  public static double[][] mgfas(final double[][] u, final int maxcyc) {
+    Multigrid m=new Multigrid(u.length,2);
+    return unflatten(m.mgfas(flatten(u),maxcyc),u.length);
+  }
+
+  private static double[] flatten(final double[][] a) {
+    int nn=a.length;
+    double[] x=new double[nn*nn];
+    for (int i=0;i<nn;i++) System.arraycopy(a[i],0,x,i*nn,nn);
+    return x;
+  }
+
+  private static double[][] unflatten(final double[] x, final int nn) {
+    double[][] a=new double[nn][nn];
+    for (int i=0;i<nn;i++) System.arraycopy(x,i*nn,a[i],0,nn);
+    return a;
+  }
+
+  // Linear V-cycle at level j, with right-hand side f[j]
+  private void mg(final int j) {
+    if (j == 0) {
+      slvsml(u[0],f[0]);
+      return;
+    }
+    for (int jpre=0;jpre<NPRE;jpre++) relax(j,u[j],f[j],false);
+    resid(j,t[j],u[j],f[j]);
+    rstrct(j-1,f[j-1],t[j]);   // restricted residual is the next r.h.s.
+    Arrays.fill(u[j-1],0.0);   // zero initial guess for the correction
+    mg(j-1);
+    interp(j,u[j],u[j-1],true);
+    for (int jpost=0;jpost<NPOST;jpost++) relax(j,u[j],f[j],false);
+  }
+
+  // FAS V-cycle at level j, as Mgfas.mg: the right-hand side is f[j] + r[j] if trerr is
+  // negative, r[j] otherwise, in which case the truncation error estimate is returned in trerr
+  private void mgfas(final int j, final doubleW trerr) {
+    doubleW dum = new doubleW(-1.0);
+    if (j == 0) {
+      matadd(f[0],r[0],t[0]);
+      slvsm2(u[0],t[0]);
+      return;
+    }
+    for (int jpre=0;jpre<NPRE;jpre++) smooth2(j,trerr.val < 0.0);
+    rstrct(j-1,w[j-1],u[j]);
+    System.arraycopy(w[j-1],0,u[j-1],0,w[j-1].length);
+    lop(j-1,f[j-1],w[j-1]);
+    lop(j,t[j],u[j]);
+    if (trerr.val < 0.0) matsub(t[j],f[j],t[j]);
+    rstrct(j-1,t[j-1],t[j]);
+    matsub(f[j-1],t[j-1],f[j-1]);   // tau
+    if (trerr.val > 0.0) trerr.val=ALPHA*anorm2(f[j-1]);
+    mgfas(j-1,dum);
+    matsub(u[j-1],w[j-1],t[j-1]);
+    interp(j,u[j],t[j-1],true);
+    for (int jpost=0;jpost<NPOST;jpost++) smooth2(j,trerr.val < 0.0);
+  }
+
+  private void smooth2(final int j, final boolean withrhs) {
+    if (withrhs) {
+      matadd(f[j],r[j],t[j]);
+      relax(j,u[j],t[j],true);
+    } else relax(j,u[j],r[j],true);
+  }
+
+  // Bands of rows (2-D) or planes (3-D) i, run in parallel
+  private abstract class Rows implements Parallel.Body {
+    final int nl;
+    Rows(final int nl) { this.nl=nl; }
+    abstract void row(int i);
+    public void run(final int from, final int to, final int chunk) {
+      for (int i=from;i<to;i++) row(i);
+    }
+    void go() {
+      int rowcells = dim == 2 ? nl : nl*nl;
+      Parallel.forRange(nl, max(1,GRAIN/rowcells), this);
+    }
+  }
+
+  // Sum of the neighbours of cell p on a grid of side nl
+  private double nbsum(final double[] a, final int p, final int nl) {
+    if (dim == 2) return a[p+nl]+a[p-nl]+a[p+1]+a[p-1];
+    int s2=nl*nl;
+    return a[p+s2]+a[p-s2]+a[p+nl]+a[p-nl]+a[p+1]+a[p-1];
+  }
+
+  // Red-black Gauss-Seidel sweeps for the linear (fas false) or nonlinear (fas true) problem
+  private void relax(final int l, final double[] uu, final double[] rhs, final boolean fas) {
+    final int nl=side[l];
+    final double h=1.0/(nl-1),h2=h*h,h2i=1.0/h2,foh2=-2*dim*h2i,c=1.0/(2*dim),d=2*dim;
+    for (int pass=0;pass<2;pass++) {   // cells with (i+j[+k]) even, then odd
+      final int colour=pass;
+      new Rows(nl) {
+        void row(final int i) {
+          if (i == 0 || i == nl-1) return;
+          int jlo = dim == 2 ? 0 : 1, jhi = dim == 2 ? 1 : nl-1;
+          for (int j=jlo;j<jhi;j++) {
+            int base = dim == 2 ? i*nl : (i*nl+j)*nl, par = dim == 2 ? i : i+j;
+            for (int k=1+((colour+par+1) & 1);k<nl-1;k+=2) {
+              int p=base+k;
+              if (fas) {
+                double res=h2i*(nbsum(uu,p,nl)-d*uu[p])+uu[p]*uu[p]-rhs[p];
+                uu[p] -= res/(foh2+2.0*uu[p]);
+              } else uu[p]=c*(nbsum(uu,p,nl)-h2*rhs[p]);
+            }
+          }
+        }
+      }.go();
+    }
+  }
+
+  // Interior operator over all interior cells: minus the residual (Mglin.resid) or, with rhs
+  // null, the nonlinear operator (Mgfas.lop); the boundary of out is set to zero
+  private void apply(final int l, final double[] out, final double[] uu, final double[] rhs) {
+    final int nl=side[l];
+    final double h=1.0/(nl-1),h2i=1.0/(h*h),d=2*dim;
+    new Rows(nl) {
+      void row(final int i) {
+        int rowcells = dim == 2 ? nl : nl*nl;
+        if (i == 0 || i == nl-1) {
+          Arrays.fill(out,i*rowcells,(i+1)*rowcells,0.0);
+          return;
+        }
+        for (int j=0;j<(dim == 2 ? 1 : nl);j++) {
+          int base = dim == 2 ? i*nl : (i*nl+j)*nl;
+          out[base]=out[base+nl-1]=0.0;
+          if (dim == 3 && (j == 0 || j == nl-1)) {
+            Arrays.fill(out,base,base+nl,0.0);
+            continue;
+          }
+          for (int k=1;k<nl-1;k++) {
+            int p=base+k;
+            if (rhs != null) out[p] = -h2i*(nbsum(uu,p,nl)-d*uu[p])+rhs[p];
+            else out[p]=h2i*(nbsum(uu,p,nl)-d*uu[p])+uu[p]*uu[p];
+          }
+        }
+      }
+    }.go();
+  }
+
+  private void resid(final int l, final double[] res, final double[] uu, final double[] rhs) {
+    apply(l,res,uu,rhs);
+  }
+
+  private void lop(final int l, final double[] out, final double[] uu) {
+    apply(l,out,uu,null);
+  }
+
+  // Half-weighting restriction from level lc+1 to level lc; boundary values are injected
+  private void rstrct(final int lc, final double[] uc, final double[] uf) {
+    final int nc=side[lc],nf=side[lc+1];
+    new Rows(nc) {
+      void row(final int ic) {
+        for (int jc=0;jc<(dim == 2 ? 1 : nc);jc++) {
+          for (int kc=0;kc<nc;kc++) {
+            int pc,pf;
+            boolean edge;
+            if (dim == 2) {
+              pc=ic*nc+kc;
+              pf=2*ic*nf+2*kc;
+              edge = ic == 0 || ic == nc-1 || kc == 0 || kc == nc-1;
+            } else {
+              pc=(ic*nc+jc)*nc+kc;
+              pf=(2*ic*nf+2*jc)*nf+2*kc;
+              edge = ic == 0 || ic == nc-1 || jc == 0 || jc == nc-1 || kc == 0 || kc == nc-1;
+            }
+            if (edge) uc[pc]=uf[pf];
+            else if (dim == 2) uc[pc]=0.5*uf[pf]+0.125*nbsum(uf,pf,nf);
+            else uc[pc]=0.5*uf[pf]+nbsum(uf,pf,nf)/12.0;
+          }
+        }
+      }
+    }.go();
+  }
+
+  // Bilinear interpolation at fine point (x,y) of the coarse square of side nc at uc[b..]
+  private static double bilin(final double[] uc, final int b, final int nc, final int x, final int y) {
+    int ix=x >> 1,iy=y >> 1,p=b+ix*nc+iy;
+    if ((x & 1) == 0) return (y & 1) == 0 ? uc[p] : 0.5*(uc[p+1]+uc[p]);
+    if ((y & 1) == 0) return 0.5*(uc[p+nc]+uc[p]);
+    return 0.5*(0.5*(uc[p+nc+1]+uc[p+1])+0.5*(uc[p+nc]+uc[p]));
+  }
+
+  // Prolongation from level lf-1 to level lf, stored in uf or, if add, added to it
+  private void interp(final int lf, final double[] uf, final double[] uc, final boolean add) {
+    final int nf=side[lf],nc=side[lf-1];
+    new Rows(nf) {
+      void row(final int x) {
+        double v;
+        if (dim == 2) {
+          for (int y=0;y<nf;y++) {
+            v=bilin(uc,0,nc,x,y);
+            if (add) uf[x*nf+y] += v;
+            else uf[x*nf+y]=v;
+          }
+          return;
+        }
+        int ic=x >> 1,s2=nc*nc;
+        for (int y=0;y<nf;y++) {
+          for (int z=0;z<nf;z++) {
+            v = (x & 1) == 0 ? bilin(uc,ic*s2,nc,y,z)
+              : 0.5*(bilin(uc,(ic+1)*s2,nc,y,z)+bilin(uc,ic*s2,nc,y,z));
+            if (add) uf[(x*nf+y)*nf+z] += v;
+            else uf[(x*nf+y)*nf+z]=v;
+          }
+        }
+      }
+    }.go();
+  }
+
+  // c = a + b, elementwise
+  private static void matadd(final double[] a, final double[] b, final double[] c) {
+    Parallel.forRange(c.length, GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) c[i]=a[i]+b[i];
+      }
+    });
+  }
+
+  // c = a - b, elementwise
+  private static void matsub(final double[] a, final double[] b, final double[] c) {
+    Parallel.forRange(c.length, GRAIN, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) c[i]=a[i]-b[i];
+      }
+    });
+  }
+
+  // Root mean square of a; partial sums are added in chunk order
+  private static double anorm2(final double[] a) {
+    final int nc=Parallel.chunks(a.length,GRAIN);
+    final double[] part=new double[nc];
+    Parallel.forChunks(a.length, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        double sum=0.0;
+        for (int i=from;i<to;i++) sum += a[i]*a[i];
+        part[chunk]=sum;
+      }
+    });
+    double sum=0.0;
+    for (double s : part) sum += s;
+    return sqrt(sum/a.length);
+  }
+
+  // Coarsest grid (h = 1/2, one interior point) for the linear problem
+  private void slvsml(final double[] uu, final double[] rhs) {
+    double h=0.5;
+    int c = dim == 2 ? 4 : 13;
+    Arrays.fill(uu,0.0);
+    uu[c] = -h*h*rhs[c]/(2*dim);
+  }
+
+  // Coarsest grid for the nonlinear problem
+  private void slvsm2(final double[] uu, final double[] rhs) {
+    double h=0.5;
+    int c = dim == 2 ? 4 : 13;
+    Arrays.fill(uu,0.0);
+    double fact=dim/(h*h);
+    double disc=sqrt(fact*fact+rhs[c]);
+    uu[c] = -rhs[c]/(fact+disc);
+  }
+}
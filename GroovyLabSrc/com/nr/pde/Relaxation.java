@@ -9,7 +9,8 @@ public class Relaxation {
    Successive overrelaxation solution of equation (20.5.25) with Chebyshev acceleration.
    a, b, c, d, e, and f are input as the coefficients of the equation, each dimensioned to the grid size[0..jmax-1][0..jmax-1]
    u is input as the initial guess to the solution, usually zero, and returns with the final value.
-   rjac is input as the spectral radius of the Jacobi iteration, or an estimate of it
+   rjac is input as the spectral radius of the Jacobi iteration, or an estimate of it.
+   Stencil.sor runs the same iteration on packed coefficients, in parallel.
    */
   public static void sor(final double[][] a, final double[][] b, final double[][] c, final double[][] d, final double[][] e, final double[][] f, final double[][] u, final double rjac) {
     final int MAXITS=1000;
@@ -42,4 +43,12 @@ public class Relaxation {
     }
     throw new IllegalArgumentException("MAXITS exceeded");
   }
+
+  /*
+   Alternating-direction implicit solution of equation (20.5.25), with the arguments of sor;
+   see Stencil.adi
+   */
+  public static void adi(final double[][] a, final double[][] b, final double[][] c, final double[][] d, final double[][] e, final double[][] f, final double[][] u, final double rjac) {
+    new Stencil(a,b,c,d,e,f).adi(u,rjac);
+  }
 }
@@ -0,0 +1,288 @@
+package com.nr.pde;
+
+import static java.lang.Math.*;
+
+import com.nr.la.Tridag;
+import com.nr.util.Parallel;
+
+/**
+ * Structured-grid engine for the five-point equation (20.5.25) of Relaxation.sor,
+ *
+ * a u[j+1][l] + b u[j-1][l] + c u[j][l+1] + d u[j][l-1] + e u[j][l] = f,
+ *
+ * on a grid of nj by nl points with fixed boundary values. The six coefficients of a point are
+ * stored next to each other, and the solution is a flat row-major array, so a sweep reads one
+ * stream of coefficients instead of six separate matrices.
+ *
+ * sor runs the Chebyshev-accelerated red-black SOR of Relaxation.sor. The interior rows are
+ * split into bands of BAND rows, handled in parallel. Each band advances SWEEPS iterations
+ * (2*SWEEPS half-sweeps) in one pass down its rows, half-sweep s trailing half-sweep s-1 by one
+ * row, so the rows being worked on stay in cache; the band starts from a copy of the grid that
+ * extends 2*SWEEPS rows beyond it, which makes the result the same as that of plain sweeps,
+ * whatever the number of threads.
+ *
+ * adi runs Peaceman-Rachford alternating-direction iteration (section 20.5.3), solving the
+ * lines of each direction in parallel with Tridag.tridag. Column lines are gathered in tiles
+ * of adjacent columns, so the solver reads contiguous pieces of rows.
+ */
+public class Stencil {
+  public static final int BAND = 64;   // rows per band in sor
+  public static final int SWEEPS = 4;   // iterations per pass over a band in sor
+  static final int TILE = 16;   // columns gathered at once in adi
+  static final int MAXITS = 1000;
+  static final double EPS = 1.0e-13;
+  public final int nj, nl;
+  private final double[] coef;   // a, b, c, d, e, f of point j*nl+l at 6*(j*nl+l)
+  private final double anormf;
+
+  /**
+   * Packs the coefficients, each dimensioned [0..nj-1][0..nl-1].
+   *
+   * @param a
+   * @param b
+   * @param c
+   * @param d
+   * @param e
+   * @param f
+   */
+  public Stencil(final double[][] a, final double[][] b, final double[][] c, final double[][] d,
+    final double[][] e, final double[][] f) {
+    nj=a.length;
+    nl=a[0].length;
+    if (nj < 3 || nl < 3) throw new IllegalArgumentException("Stencil: grid must be at least 3 by 3");
+    coef=new double[6*nj*nl];
+    double sum=0.0;
+    for (int j=0;j<nj;j++) {
+      if (b[j].length != nl || c[j].length != nl || d[j].length != nl || e[j].length != nl
+        || f[j].length != nl) throw new IllegalArgumentException("Stencil: coefficient arrays differ in size");
+      for (int l=0;l<nl;l++) {
+        int q=6*(j*nl+l);
+        coef[q]=a[j][l];
+        coef[q+1]=b[j][l];
+        coef[q+2]=c[j][l];
+        coef[q+3]=d[j][l];
+        coef[q+4]=e[j][l];
+        coef[q+5]=f[j][l];
+        if (j > 0 && j < nj-1 && l > 0 && l < nl-1) sum += abs(f[j][l]);
+      }
+    }
+    anormf=sum;
+  }
+
+  private double[] flatten(final double[][] u) {
+    if (u.length != nj || u[0].length != nl) throw new IllegalArgumentException("Stencil: u has the wrong size");
+    double[] x=new double[nj*nl];
+    for (int j=0;j<nj;j++) System.arraycopy(u[j],0,x,j*nl,nl);
+    return x;
+  }
+
+  private void unflatten(final double[] x, final double[][] u) {
+    for (int j=0;j<nj;j++) System.arraycopy(x,j*nl,u[j],0,nl);
+  }
+
+  /**
+   * Chebyshev-accelerated red-black SOR, as Relaxation.sor: u is input as the initial guess and
+   * returns with the solution, rjac is the spectral radius of the Jacobi iteration or an
+   * estimate of it. The iterations are applied in passes of SWEEPS, and convergence is tested
+   * at the end of each pass, from the residuals of all of its iterations. Returns the number of
+   * iterations applied to u, a multiple of SWEEPS.
+   *
+   * @param u
+   * @param rjac
+   * @return
+   */
+  public int sor(final double[][] u, final double rjac) {
+    double[] x=flatten(u);
+    int its=sor(x,rjac);
+    unflatten(x,u);
+    return its;
+  }
+
+  // sor on the flat grid x, which returns with the solution
+  private int sor(final double[] x0, final double rjac) {
+    final int nb=(nj-2+BAND-1)/BAND;
+    double[] x=x0,y=x0.clone();   // boundaries of y are never written
+    double[] om=new double[2*SWEEPS];
+    final double[][] part=new double[nb][SWEEPS];
+    double omega=1.0;
+    for (int it=0;it<MAXITS;it+=SWEEPS) {
+      final int nt=min(SWEEPS,MAXITS-it);
+      for (int s=0;s<2*nt;s++) {
+        om[s]=omega;
+        omega=(it == 0 && s == 0 ? 1.0/(1.0-0.5*rjac*rjac) :
+          1.0/(1.0-0.25*rjac*rjac*omega));
+      }
+      final double[] src=x,dst=y,oms=om;
+      Parallel.forRange(nb, 1, new Parallel.Body() {
+        public void run(final int from, final int to, final int chunk) {
+          double[] buf=new double[min(nj,BAND+4*nt)*nl];
+          for (int k=from;k<to;k++) band(k,nt,oms,src,dst,buf,part[k]);
+        }
+      });
+      x=dst;
+      y=src;
+      boolean done=false;
+      for (int t=0;t<nt && !done;t++) {
+        double anorm=0.0;
+        for (int k=0;k<nb;k++) anorm += part[k][t];
+        done = anorm < EPS*anormf;
+      }
+      if (done) {   // u holds all nt iterations of the pass
+        if (x != x0) System.arraycopy(x,0,x0,0,x.length);
+        return it+nt;
+      }
+    }
+    throw new IllegalArgumentException("MAXITS exceeded");
+  }
+
+  // nt iterations of red-black SOR on the rows of band k, read from src and written to dst;
+  // anorm[t] receives the sum of |residual| over the rows of the band in iteration t
+  private void band(final int k, final int nt, final double[] om, final double[] src,
+    final double[] dst, final double[] buf, final double[] anorm) {
+    int lo=1+k*BAND,hi=min(nj-1,lo+BAND),ns=2*nt;
+    int r0=max(0,lo-ns),r1=min(nj,hi+ns);
+    System.arraycopy(src,r0*nl,buf,0,(r1-r0)*nl);
+    for (int t=0;t<nt;t++) anorm[t]=0.0;
+    // half-sweep s must be right on rows [lo-(ns-1-s),hi+(ns-1-s)); it runs one row behind s-1
+    for (int lead=max(1,lo-(ns-1));lead<min(nj-1,hi+ns-1)+ns-1;lead++) {
+      for (int s=0;s<ns;s++) {
+        int j=lead-s;
+        if (j < max(1,lo-(ns-1-s)) || j >= min(nj-1,hi+(ns-1-s))) continue;
+        boolean own = j >= lo && j < hi;
+        double w=om[s],sum=0.0;
+        int p=(j-r0)*nl,q=6*j*nl;
+        for (int l=1+((j+1+s) & 1);l<nl-1;l+=2) {
+          int i=p+l,m=q+6*l;
+          double resid=coef[m]*buf[i+nl]+coef[m+1]*buf[i-nl]
+            +coef[m+2]*buf[i+1]+coef[m+3]*buf[i-1]
+            +coef[m+4]*buf[i]-coef[m+5];
+          sum += abs(resid);
+          buf[i] -= w*resid/coef[m+4];
+        }
+        if (own) anorm[s >> 1] += sum;
+      }
+    }
+    System.arraycopy(buf,(lo-r0)*nl,dst,lo*nl,(hi-lo)*nl);
+  }
+
+  /**
+   * Peaceman-Rachford ADI iteration: u is input as the initial guess and returns with the
+   * solution, rjac is the spectral radius of the Jacobi iteration or an estimate of it, from
+   * which the cycle of iteration parameters is chosen. The central coefficient e is split
+   * equally between the two directions. Convergence is tested at the end of each cycle of
+   * parameters. Rounding in the solves with small parameters keeps the residual of ADI from
+   * falling much below EPS; when a cycle no longer halves it, the iteration is finished by sor.
+   * Returns the number of double sweeps plus the number of SOR iterations.
+   *
+   * @param u
+   * @param rjac
+   * @return
+   */
+  public int adi(final double[][] u, final double rjac) {
+    if (rjac <= 0.0 || rjac >= 1.0) throw new IllegalArgumentException("Stencil: need 0 < rjac < 1");
+    // eigenvalues of each half of the operator, in units of -e/2, lie in [1-rjac,1+rjac]
+    double alpha=1.0-rjac,beta=1.0+rjac;
+    int m=max(1,(int)ceil(log(beta/alpha)/log(3.0+2.0*sqrt(2.0))));
+    double[] r=new double[m];
+    for (int k=0;k<m;k++) r[k]=alpha*pow(beta/alpha,(k+0.5)/m);   // geometric parameters
+    double[] x=flatten(u),y=x.clone();
+    double res,old=Double.MAX_VALUE;
+    for (int it=0;it<MAXITS;) {
+      for (int k=0;k<m && it<MAXITS;k++,it++) {
+        rowsweep(r[k],x,y);   // implicit along l
+        colsweep(r[k],y,x);   // implicit along j
+      }
+      if ((res=resid(x)) < EPS*anormf) {
+        unflatten(x,u);
+        return it;
+      }
+      if (res > 0.5*old) {   // stalled
+        it += sor(x,rjac);
+        unflatten(x,u);
+        return it;
+      }
+      old=res;
+    }
+    throw new IllegalArgumentException("MAXITS exceeded");
+  }
+
+  // (r w - A1) out = (r w + A2) in - f along each interior row, with w = -e/2, A1 the part
+  // of the operator along l and A2 the part along j
+  private void rowsweep(final double r, final double[] in, final double[] out) {
+    Parallel.forRange(nj-2, max(1,(1 << 14)/nl), new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int n=nl-2;
+        double[] ta=new double[n],tb=new double[n],tc=new double[n],tr=new double[n],tu=new double[n];
+        for (int j=from+1;j<to+1;j++) {
+          for (int l=1;l<nl-1;l++) {
+            int i=j*nl+l,q=6*i;
+            double h=0.5*coef[q+4],rw=-r*h;
+            ta[l-1] = -coef[q+3];
+            tb[l-1]=rw-h;
+            tc[l-1] = -coef[q+2];
+            tr[l-1]=(rw+h)*in[i]+coef[q]*in[i+nl]+coef[q+1]*in[i-nl]-coef[q+5];
+          }
+          tr[0] += coef[6*(j*nl+1)+3]*in[j*nl];
+          tr[n-1] += coef[6*(j*nl+nl-2)+2]*in[j*nl+nl-1];
+          Tridag.tridag(ta,tb,tc,tr,tu);
+          System.arraycopy(tu,0,out,j*nl+1,n);
+        }
+      }
+    });
+  }
+
+  // (r w - A2) out = (r w + A1) in - f along each interior column, TILE columns at a time
+  private void colsweep(final double r, final double[] in, final double[] out) {
+    final int nt=(nl-2+TILE-1)/TILE;
+    Parallel.forRange(nt, max(1,(1 << 14)/(TILE*nj)), new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int n=nj-2;
+        double[][] ta=new double[TILE][n],tb=new double[TILE][n],tc=new double[TILE][n],
+          tr=new double[TILE][n];
+        double[] tu=new double[n];
+        for (int t=from;t<to;t++) {
+          int l0=1+t*TILE,l1=min(nl-1,l0+TILE);
+          for (int j=1;j<nj-1;j++) {   // gather, one piece of a row at a time
+            for (int l=l0;l<l1;l++) {
+              int i=j*nl+l,q=6*i,c=l-l0;
+              double h=0.5*coef[q+4],rw=-r*h;
+              ta[c][j-1] = -coef[q+1];
+              tb[c][j-1]=rw-h;
+              tc[c][j-1] = -coef[q];
+              tr[c][j-1]=(rw+h)*in[i]+coef[q+2]*in[i+1]+coef[q+3]*in[i-1]-coef[q+5];
+            }
+          }
+          for (int l=l0;l<l1;l++) {
+            int c=l-l0;
+            tr[c][0] += coef[6*(nl+l)+1]*in[l];
+            tr[c][n-1] += coef[6*((nj-2)*nl+l)]*in[(nj-1)*nl+l];
+            Tridag.tridag(ta[c],tb[c],tc[c],tr[c],tu);
+            for (int j=1;j<nj-1;j++) out[j*nl+l]=tu[j-1];
+          }
+        }
+      }
+    });
+  }
+
+  // Sum of |residual| over the interior, added in chunk order
+  private double resid(final double[] x) {
+    final int nc=Parallel.chunks(nj-2,max(1,(1 << 14)/nl));
+    final double[] part=new double[nc];
+    Parallel.forChunks(nj-2, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        double sum=0.0;
+        for (int j=from+1;j<to+1;j++) {
+          for (int l=1;l<nl-1;l++) {
+            int i=j*nl+l,q=6*i;
+            sum += abs(coef[q]*x[i+nl]+coef[q+1]*x[i-nl]+coef[q+2]*x[i+1]+coef[q+3]*x[i-1]
+              +coef[q+4]*x[i]-coef[q+5]);
+          }
+        }
+        part[chunk]=sum;
+      }
+    });
+    double sum=0.0;
+    for (double s : part) sum += s;
+    return sum;
+  }
+}
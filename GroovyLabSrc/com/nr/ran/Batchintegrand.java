@@ -0,0 +1,19 @@
+package com.nr.ran;
+
+/**
+ * Integrand evaluated on a batch of points at a time, for the parallel Monte Carlo
+ * integrators VEGASpar and Miserpar. Batches are handed to eval from several threads at
+ * once, each with its own arrays, so implementations must be thread-safe.
+ */
+public interface Batchintegrand {
+  /**
+   * Set f[i] to the integrand at the point x[i], for i = 0..n-1. For VEGASpar, wgt[i] is the
+   * weight VEGAS gives the point (the fxn argument of VEGAS); for Miserpar, wgt is null.
+   *
+   * @param x
+   * @param wgt
+   * @param n
+   * @param f
+   */
+  public void eval(double[][] x, double[] wgt, int n, double[] f);
+}
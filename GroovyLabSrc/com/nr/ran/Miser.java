@@ -18,6 +18,17 @@ public class Miser {
     for (j=0;j<n;j++) pt[j]=regn[j]+(regn[n+j]-regn[j])*ran.doub();
   }
   
+  // point of regn from the quasi-random sequence qrs, or from ran if qrs is null
+  static void ranpt(final double[] pt, final double[] regn, final Sobolseq qrs) {
+    if (qrs == null) {
+      ranpt(pt,regn);
+      return;
+    }
+    int j,n=pt.length;
+    qrs.next(pt);
+    for (j=0;j<n;j++) pt[j]=regn[j]+(regn[n+j]-regn[j])*pt[j];
+  }
+  
   /**
    * Monte Carlo samples a user-supplied ndim-dimensional function func in a
    * rectangular volume specified by regn[0..2*ndim-1], a vector consisting of
@@ -39,6 +50,25 @@ public class Miser {
    */
   public static void miser(final RealValueFun func, final double[] regn, final int npts,
       final double dith, final doubleW ave, final doubleW var) {
+    miser(func,regn,npts,dith,ave,var,null);
+  }
+  
+  /**
+   * As above, but the sample points are taken from the quasi-random sequence qrs, which must
+   * have dimension ndim, instead of from the internal random generator. With a scrambled
+   * qrs, the spread of ave over independent seeds gives an error estimate; var itself is
+   * then only a conservative guide.
+   * 
+   * @param func
+   * @param regn
+   * @param npts
+   * @param dith
+   * @param ave
+   * @param var
+   * @param qrs
+   */
+  public static void miser(final RealValueFun func, final double[] regn, final int npts,
+      final double dith, final doubleW ave, final doubleW var, final Sobolseq qrs) {
     final int MNPT=15, MNBS=60;
     final double PFAC=0.1, TINY=1.0e-30, BIG=1.0e30;
     int j,jb,n,ndim,npre,nptl,nptr;
@@ -48,11 +78,12 @@ public class Miser {
     doubleW varl = new doubleW(0);
 
     ndim=regn.length/2;
+    if (qrs != null && qrs.dim() != ndim) throw new IllegalArgumentException("miser: sequence has wrong dimension");
     double[] pt = new double[ndim];
     if (npts < MNBS) {
       summ=summ2=0.0;
       for (n=0;n<npts;n++) {
-        ranpt(pt,regn);
+        ranpt(pt,regn,qrs);
         fval=func.funk(pt);
         summ += fval;
         summ2 += fval * fval;
@@ -74,7 +105,7 @@ public class Miser {
         fmaxl[j]=fmaxr[j]=(-BIG);
       }
       for (n=0;n<npre;n++) {
-        ranpt(pt,regn);
+        ranpt(pt,regn,qrs);
         fval=func.funk(pt);
         for (j=0;j<ndim;j++) {
           if (pt[j]<=rmid[j]) {
@@ -116,10 +147,10 @@ public class Miser {
         regn_temp[ndim+j]=regn[ndim+j];
       }
       regn_temp[ndim+jb]=rmid[jb];
-      miser(func,regn_temp,nptl,dith,avel,varl);
+      miser(func,regn_temp,nptl,dith,avel,varl,qrs);
       regn_temp[jb]=rmid[jb];
       regn_temp[ndim+jb]=regn[ndim+jb];
-      miser(func,regn_temp,nptr,dith,ave,var);
+      miser(func,regn_temp,nptr,dith,ave,var,qrs);
       ave.val=fracl*avel.val+(1-fracl)*ave.val;
       var.val=fracl*fracl*varl.val+(1-fracl)*(1-fracl)*var.val;
     }
@@ -0,0 +1,190 @@
+package com.nr.ran;
+
+import static com.nr.NRUtil.*;
+import static java.lang.Math.*;
+
+import java.util.concurrent.RecursiveAction;
+
+import org.netlib.util.doubleW;
+
+import com.nr.util.Parallel;
+
+/**
+ * Parallel form of Miser for a Batchintegrand.
+ *
+ * The recursive bisection runs as fork-join tasks: a region with at least FORK points
+ * passes its left half to another thread while it works on the right half. Large
+ * presamples are also split into batches evaluated in parallel. Every region draws its
+ * points from its own generator, seeded from its parent's generator after the parent's
+ * own draws, and the two halves are combined in a fixed order, so the results depend on
+ * the seed only, not on the number of threads or the scheduling. Points are handed to the
+ * integrand in batches of at most BATCH. Apart from the random numbers, the algorithm
+ * and the arguments are those of Miser.miser; the threads are those of a fork-join pool
+ * of Parallel.threads() workers.
+ */
+public class Miserpar {
+  static final int MNPT=15, MNBS=60, FORK=4096, BATCH=1024;
+  static final double PFAC=0.1, TINY=1.0e-30, BIG=1.0e30;
+  private final Batchintegrand func;
+  private final Ranjump master;
+
+  public Miserpar(final Batchintegrand funk, final long seed) {
+    func = funk;
+    master = new Ranjump(seed);
+  }
+
+  /**
+   * Monte Carlo samples the function in the rectangular volume regn[0..2*ndim-1] with a
+   * total of npts points, by recursive stratified sampling; see Miser.miser for the
+   * meaning of dith, ave and var. Successive calls use different random numbers.
+   *
+   * @param regn
+   * @param npts
+   * @param dith
+   * @param ave
+   * @param var
+   */
+  public void miser(final double[] regn, final int npts, final double dith,
+    final doubleW ave, final doubleW var) {
+    if (regn.length < 2 || regn.length % 2 != 0) throw new IllegalArgumentException("miser: regn must hold 2*ndim bounds");
+    if (npts < 1) throw new IllegalArgumentException("miser: need at least one point");
+    Region root = new Region(regn.clone(), npts, dith, master.int64());
+    Parallel.forkJoinPool().invoke(root);
+    ave.val = root.ave;
+    var.val = root.var;
+  }
+
+  // Evaluate the function at pts[from..to-1], splitting large ranges into parallel batches
+  private class Evaluate extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double[][] pts;
+    final double[] f;
+    final int from, to;
+
+    Evaluate(final double[][] p, final double[] ff, final int lo, final int hi) {
+      pts = p; f = ff; from = lo; to = hi;
+    }
+
+    protected void compute() {
+      if (to-from > BATCH) {
+        int mid = from + (((to-from)/BATCH+1)/2)*BATCH;
+        invokeAll(new Evaluate(pts,f,from,mid), new Evaluate(pts,f,mid,to));
+      } else if (from == 0) {
+        func.eval(pts,null,to,f);
+      } else {
+        double[][] p = new double[to-from][];
+        double[] ff = new double[to-from];
+        System.arraycopy(pts,from,p,0,to-from);
+        func.eval(p,null,to-from,ff);
+        System.arraycopy(ff,0,f,from,to-from);
+      }
+    }
+  }
+
+  private class Region extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double[] regn;
+    final int npts;
+    final double dith;
+    final long seed;
+    double ave, var;
+
+    Region(final double[] rg, final int n, final double dth, final long sd) {
+      regn = rg; npts = n; dith = dth; seed = sd;
+    }
+
+    // npts points of regn from ran
+    private double[][] points(final int n, final Ranjump ran) {
+      int i,j,ndim=regn.length/2;
+      double[][] pt = new double[n][ndim];
+      for (i=0;i<n;i++)
+        for (j=0;j<ndim;j++) pt[i][j]=regn[j]+(regn[ndim+j]-regn[j])*ran.doub();
+      return pt;
+    }
+
+    protected void compute() {
+      int i,j,jb,ndim,npre,nptl,nptr;
+      double fracl,fval,rgl,rgm,rgr,s,sigl,siglb,sigr,sigrb,sum,sumb,summ,summ2;
+      Ranjump ran = new Ranjump(seed);
+
+      ndim=regn.length/2;
+      if (npts < MNBS) {
+        double[][] pt = points(npts,ran);
+        double[] f = new double[npts];
+        func.eval(pt,null,npts,f);
+        summ=summ2=0.0;
+        for (i=0;i<npts;i++) {
+          summ += f[i];
+          summ2 += f[i]*f[i];
+        }
+        ave=summ/npts;
+        var=max(TINY,(summ2-summ*summ/npts)/((double)npts*npts));
+        return;
+      }
+      double[] rmid = new double[ndim];
+      npre=max((int)(npts*PFAC),MNPT);
+      double[] fmaxl = new double[ndim];
+      double[] fmaxr = new double[ndim];
+      double[] fminl = new double[ndim];
+      double[] fminr = new double[ndim];
+      for (j=0;j<ndim;j++) {
+        s=SIGN(dith,ran.doub()-0.5);
+        rmid[j]=(0.5+s)*regn[j]+(0.5-s)*regn[ndim+j];
+        fminl[j]=fminr[j]=BIG;
+        fmaxl[j]=fmaxr[j]=(-BIG);
+      }
+      double[][] pt = points(npre,ran);
+      double[] f = new double[npre];
+      if (npre > BATCH) new Evaluate(pt,f,0,npre).invoke();
+      else func.eval(pt,null,npre,f);
+      for (i=0;i<npre;i++) {
+        fval=f[i];
+        for (j=0;j<ndim;j++) {
+          if (pt[i][j]<=rmid[j]) {
+            fminl[j]=min(fminl[j],fval);
+            fmaxl[j]=max(fmaxl[j],fval);
+          } else {
+            fminr[j]=min(fminr[j],fval);
+            fmaxr[j]=max(fmaxr[j],fval);
+          }
+        }
+      }
+      sumb=BIG;
+      jb= -1;
+      siglb=sigrb=1.0;
+      for (j=0;j<ndim;j++) {
+        if (fmaxl[j] > fminl[j] && fmaxr[j] > fminr[j]) {
+          sigl=max(TINY,pow(fmaxl[j]-fminl[j],2.0/3.0));
+          sigr=max(TINY,pow(fmaxr[j]-fminr[j],2.0/3.0));
+          sum=sigl+sigr;
+          if (sum<=sumb) {
+            sumb=sum;
+            jb=j;
+            siglb=sigl;
+            sigrb=sigr;
+          }
+        }
+      }
+      if (jb == -1) jb=min(ndim-1,(int)(ndim*ran.doub()));
+      rgl=regn[jb];
+      rgm=rmid[jb];
+      rgr=regn[ndim+jb];
+      fracl=abs((rgm-rgl)/(rgr-rgl));
+      nptl=(int)(MNPT+(npts-npre-2*MNPT)*fracl*siglb
+        /(fracl*siglb+(1.0-fracl)*sigrb));
+      nptr=npts-npre-nptl;
+      double[] regl = regn.clone(), regr = regn.clone();
+      regl[ndim+jb]=rmid[jb];
+      regr[jb]=rmid[jb];
+      Region left = new Region(regl,nptl,dith,ran.int64());
+      Region right = new Region(regr,nptr,dith,ran.int64());
+      if (npts >= FORK) invokeAll(left,right);
+      else {
+        left.compute();
+        right.compute();
+      }
+      ave=fracl*left.ave+(1-fracl)*right.ave;
+      var=fracl*fracl*left.var+(1-fracl)*(1-fracl)*right.var;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.nr.ran;
+
+/**
+ * Splittable, jumpable generator xoshiro256** (Blackman and Vigna 2018), with period
+ * 2^256-1. The constructor takes a 64-bit seed, expanded into the 256-bit state with
+ * SplitMix64. Calling conventions for single values are the same as Ran. In addition:
+ * jump() advances the state by 2^128 steps and longJump() by 2^192, so that streams obtained
+ * by jumping never overlap in practice; split() returns a generator for the next 2^128
+ * values and moves this one past them; fill() generates whole arrays of values.
+ * Ranstreams hands out numbered streams for reproducible parallel runs.
+ */
+public class Ranjump {
+  private long s0, s1, s2, s3;
+
+  private static final long[] JUMP = {0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL,
+    0xa9582618e03fc9aaL, 0x39abdc4529b1661cL};
+  private static final long[] LONG_JUMP = {0x76e15d3efefdcbbfL, 0xc5004e441c522fb3L,
+    0x77710069854ee241L, 0x39109bb02acbe635L};
+
+  public Ranjump(final long j) {
+    long x = j;
+    s0 = splitmix(x += 0x9e3779b97f4a7c15L);
+    s1 = splitmix(x += 0x9e3779b97f4a7c15L);
+    s2 = splitmix(x += 0x9e3779b97f4a7c15L);
+    s3 = splitmix(x + 0x9e3779b97f4a7c15L);
+  }
+
+  /**
+   * Copy of another generator, in the same state.
+   *
+   * @param r
+   */
+  public Ranjump(final Ranjump r) {
+    s0 = r.s0; s1 = r.s1; s2 = r.s2; s3 = r.s3;
+  }
+
+  private static long splitmix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Return 64-bit random integer.
+   *
+   * @return
+   */
+  public long int64() {
+    final long result = Long.rotateLeft(s1*5, 7)*9;
+    final long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return result;
+  }
+
+  /**
+   * Return random double-precision floating value in the range 0. to 1. (1. excluded), with
+   * 53 random bits.
+   *
+   * @return
+   */
+  public double doub() { return (int64() >>> 11) * 0x1.0p-53; }
+
+  public int int32() { return (int)(int64() >>> 32); }
+
+  public int int32p() { return (int)(int64() >>> 33); }
+
+  public long int64p() { return int64() >>> 1; }
+
+  /**
+   * Fill a[from..to-1] with random doubles as returned by doub().
+   *
+   * @param a
+   * @param from
+   * @param to
+   */
+  public void fill(final double[] a, final int from, final int to) {
+    long x0 = s0, x1 = s1, x2 = s2, x3 = s3, t;
+    for (int i=from;i<to;i++) {
+      a[i] = (Long.rotateLeft(x1*5, 7)*9 >>> 11) * 0x1.0p-53;
+      t = x1 << 17;
+      x2 ^= x0; x3 ^= x1; x1 ^= x2; x0 ^= x3; x2 ^= t;
+      x3 = Long.rotateLeft(x3, 45);
+    }
+    s0 = x0; s1 = x1; s2 = x2; s3 = x3;
+  }
+
+  public void fill(final double[] a) { fill(a, 0, a.length); }
+
+  /**
+   * Fill a[from..to-1] with random 64-bit integers as returned by int64().
+   *
+   * @param a
+   * @param from
+   * @param to
+   */
+  public void fill(final long[] a, final int from, final int to) {
+    long x0 = s0, x1 = s1, x2 = s2, x3 = s3, t;
+    for (int i=from;i<to;i++) {
+      a[i] = Long.rotateLeft(x1*5, 7)*9;
+      t = x1 << 17;
+      x2 ^= x0; x3 ^= x1; x1 ^= x2; x0 ^= x3; x2 ^= t;
+      x3 = Long.rotateLeft(x3, 45);
+    }
+    s0 = x0; s1 = x1; s2 = x2; s3 = x3;
+  }
+
+  public void fill(final long[] a) { fill(a, 0, a.length); }
+
+  /** Advance the generator by 2^128 steps. */
+  public void jump() { jump(JUMP); }
+
+  /** Advance the generator by 2^192 steps. */
+  public void longJump() { jump(LONG_JUMP); }
+
+  private void jump(final long[] poly) {
+    long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+    for (long w : poly) {
+      for (int b=0;b<64;b++) {
+        if ((w & (1L << b)) != 0) {
+          t0 ^= s0; t1 ^= s1; t2 ^= s2; t3 ^= s3;
+        }
+        int64();
+      }
+    }
+    s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+  }
+
+  /**
+   * Return a generator that produces the next 2^128 values of this one, and advance this one
+   * past them by jump().
+   *
+   * @return
+   */
+  public Ranjump split() {
+    Ranjump r = new Ranjump(this);
+    jump();
+    return r;
+  }
+}
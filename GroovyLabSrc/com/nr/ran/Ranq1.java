@@ -39,6 +39,32 @@ public class Ranq1 {
   public int int32p() { return int32() & 0x7FFFFFFF; }
   
   public long int64p() { return int64() & 0x7FFFFFFFFFFFFFFFL; }
+
+  /**
+   * Fill a[from..to-1] with random doubles as returned by doub().
+   * 
+   * @param a
+   * @param from
+   * @param to
+   */
+  public void fill(final double[] a, final int from, final int to) {
+    for (int i=from;i<to;i++) a[i] = doub();
+  }
+  
+  public void fill(final double[] a) { fill(a, 0, a.length); }
+  
+  /**
+   * Fill a[from..to-1] with random 64-bit integers as returned by int64().
+   * 
+   * @param a
+   * @param from
+   * @param to
+   */
+  public void fill(final long[] a, final int from, final int to) {
+    for (int i=from;i<to;i++) a[i] = int64();
+  }
+  
+  public void fill(final long[] a) { fill(a, 0, a.length); }
 }
 
 
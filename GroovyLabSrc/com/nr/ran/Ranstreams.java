@@ -0,0 +1,48 @@
+package com.nr.ran;
+
+import java.util.ArrayList;
+
+/**
+ * Factory of numbered, non-overlapping random streams for parallel Monte Carlo. Stream k is
+ * the Ranjump generator seeded with the master seed and advanced by k long jumps (2^192 steps
+ * each), so it depends only on the seed and k. A parallel routine that gives chunk c of its
+ * work (e.g. chunk c of com.nr.util.Parallel.forChunks) the generator stream(c) gets
+ * results that are reproducible for a fixed seed and chunk count, however the chunks are
+ * scheduled on threads. Stream starts are cached, so stream(k) costs one copy once the
+ * streams up to k have been formed.
+ */
+public class Ranstreams {
+  private final ArrayList<Ranjump> starts = new ArrayList<Ranjump>();
+
+  public Ranstreams(final long seed) {
+    starts.add(new Ranjump(seed));
+  }
+
+  /**
+   * Return a new generator positioned at the start of stream k.
+   *
+   * @param k
+   * @return
+   */
+  public synchronized Ranjump stream(final int k) {
+    if (k < 0) throw new IllegalArgumentException("Ranstreams: negative stream number");
+    while (starts.size() <= k) {
+      Ranjump r = new Ranjump(starts.get(starts.size()-1));
+      r.longJump();
+      starts.add(r);
+    }
+    return new Ranjump(starts.get(k));
+  }
+
+  /**
+   * Return new generators for streams 0..n-1.
+   *
+   * @param n
+   * @return
+   */
+  public Ranjump[] streams(final int n) {
+    Ranjump[] r = new Ranjump[n];
+    for (int k=0;k<n;k++) r[k] = stream(k);
+    return r;
+  }
+}
@@ -5,6 +5,9 @@ import static java.lang.Math.*;
 /**
  * Sobol quasi-random sequence
  * 
+ * At most MAXDIM=6 dimensions, with a single sequence per JVM; Sobolseq provides
+ * independent, higher-dimensional and scrambled sequences.
+ * 
  * Copyright (C) Numerical Recipes Software 1986-2007
  * Java translation Copyright (C) Huang Wen Hui 2012
  *
@@ -31,7 +34,7 @@ public class Sobol {
         iu[j][k] = iv[j*MAXDIM+k];
   }
   
-  public static void sobseq(final int n, final double[] x) {
+  public static synchronized void sobseq(final int n, final double[] x) {
     int j,k,l;
     int i,im,ipp;
 
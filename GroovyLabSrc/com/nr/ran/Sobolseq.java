@@ -0,0 +1,334 @@
+package com.nr.ran;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+import com.nr.util.Parallel;
+
+/**
+ * Sobol quasi-random sequence in any number of dimensions, as an object.
+ *
+ * Points are generated in Gray-code order (Antonov and Saleev) with 52-bit direction numbers,
+ * so up to 2^52 points of full double precision are available. Point n, for n = 0,1,...,
+ * can be reached directly with skipTo(n) at a cost independent of n, which lets the
+ * sequence be split across threads: each thread works on a copy positioned at the start of
+ * its own block of indices. fill() generates a block of points at once, in parallel for
+ * large blocks, with results that do not depend on the number of threads.
+ *
+ * Direction numbers come from a Directions table. The default table uses the primitive
+ * polynomials in the order of Joe and Kuo (by degree, then by coefficient), with their
+ * initial direction numbers for the first 16 dimensions; further dimensions, up to MAXDIM,
+ * take fixed pseudo-random odd initial numbers. The full Joe-Kuo table (file
+ * new-joe-kuo-6.21201) can be read with Directions.read.
+ *
+ * Optional randomization: SHIFT applies a random digital shift, and SCRAMBLE a random linear
+ * matrix scramble (Matousek) followed by a digital shift. Both keep the (t,s)-net
+ * properties of the sequence, and independent seeds give independent replicates from which
+ * an error estimate can be formed.
+ */
+public class Sobolseq {
+  public static final int NONE = 0, SHIFT = 1, SCRAMBLE = 2;
+  public static final int BITS = 52, MAXDIM = 21201;
+  static final int GRAIN = 1024;
+  static final double FAC = 1.0/(1L << BITS);
+
+  private final int dim;
+  private final long[] v;      // v[k*dim+j] is direction number k of dimension j
+  private final long[] shift;
+  private final long[] x;
+  private long n;
+
+  public Sobolseq(final int ndim) {
+    this(ndim, NONE, 0, Directions.defaults());
+  }
+
+  public Sobolseq(final int ndim, final int scramble, final long seed) {
+    this(ndim, scramble, seed, Directions.defaults());
+  }
+
+  /**
+   * Sequence in ndim dimensions with direction numbers from dirs, randomized according to
+   * scramble (NONE, SHIFT or SCRAMBLE) with a generator seeded by seed.
+   *
+   * @param ndim
+   * @param scramble
+   * @param seed
+   * @param dirs
+   */
+  public Sobolseq(final int ndim, final int scramble, final long seed, final Directions dirs) {
+    int j,k,i,s,a;
+    if (ndim < 1) throw new IllegalArgumentException("Sobolseq: dimension must be positive");
+    if (scramble < NONE || scramble > SCRAMBLE) throw new IllegalArgumentException("Sobolseq: unknown scrambling");
+    dirs.ensure(ndim);
+    dim = ndim;
+    v = new long[BITS*dim];
+    shift = new long[dim];
+    x = new long[dim];
+    for (k=0;k<BITS;k++) v[k*dim] = 1L << (BITS-1-k);
+    for (j=1;j<dim;j++) {
+      int[] m;
+      synchronized (dirs) {
+        s = dirs.deg.get(j-1);
+        a = dirs.poly.get(j-1);
+        m = dirs.m.get(j-1);
+      }
+      for (k=0;k<s;k++) v[k*dim+j] = (long)m[k] << (BITS-1-k);
+      for (k=s;k<BITS;k++) {
+        long w = v[(k-s)*dim+j];
+        w ^= w >>> s;
+        for (i=1;i<s;i++)
+          if (((a >>> (s-1-i)) & 1) != 0) w ^= v[(k-i)*dim+j];
+        v[k*dim+j] = w;
+      }
+    }
+    if (scramble != NONE) {
+      Ranjump ran = new Ranjump(seed);
+      final long mask = (1L << BITS) - 1;
+      if (scramble == SCRAMBLE) {
+        long[] lrow = new long[BITS];
+        for (j=0;j<dim;j++) {
+          // row r of a random unit lower triangular matrix acts on digit r (bit BITS-1-r)
+          for (i=0;i<BITS;i++) {
+            long b = 1L << (BITS-1-i);
+            lrow[i] = b | (ran.int64() & mask & ~(b | (b-1)));
+          }
+          for (k=0;k<BITS;k++) {
+            long w = v[k*dim+j], y = 0;
+            for (i=0;i<BITS;i++)
+              if ((Long.bitCount(lrow[i] & w) & 1) != 0) y |= 1L << (BITS-1-i);
+            v[k*dim+j] = y;
+          }
+        }
+      }
+      for (j=0;j<dim;j++) shift[j] = ran.int64() & mask;
+    }
+  }
+
+  /**
+   * Copy of another sequence, positioned at the same point. The direction numbers are
+   * shared.
+   *
+   * @param q
+   */
+  public Sobolseq(final Sobolseq q) {
+    dim = q.dim;
+    v = q.v;
+    shift = q.shift;
+    x = q.x.clone();
+    n = q.n;
+  }
+
+  public int dim() { return dim; }
+
+  /** Index of the point that next() returns next. */
+  public long index() { return n; }
+
+  /**
+   * Position the sequence so that next() returns point number nn.
+   *
+   * @param nn
+   */
+  public void skipTo(final long nn) {
+    if (nn < 0 || nn >= 1L << BITS) throw new IllegalArgumentException("Sobolseq: index out of range");
+    state(nn, x);
+    n = nn;
+  }
+
+  private void state(final long nn, final long[] xx) {
+    long g = nn ^ (nn >>> 1);
+    for (int j=0;j<dim;j++) xx[j] = 0;
+    for (int k=0;g != 0;k++,g >>>= 1) {
+      if ((g & 1) != 0) {
+        int off = k*dim;
+        for (int j=0;j<dim;j++) xx[j] ^= v[off+j];
+      }
+    }
+  }
+
+  // move xx from point nn to point nn+1
+  private void step(final long nn, final long[] xx) {
+    int k = Long.numberOfTrailingZeros(~nn);
+    if (k >= BITS) throw new IllegalArgumentException("Sobolseq: sequence exhausted");
+    int off = k*dim;
+    for (int j=0;j<dim;j++) xx[j] ^= v[off+j];
+  }
+
+  /**
+   * Return the next point in pt[0..dim-1].
+   *
+   * @param pt
+   */
+  public void next(final double[] pt) {
+    for (int j=0;j<dim;j++) pt[j] = (x[j] ^ shift[j])*FAC;
+    step(n, x);
+    n++;
+  }
+
+  /**
+   * Fill pts[from..to-1] with the next to-from points. Large blocks are generated in
+   * parallel.
+   *
+   * @param pts
+   * @param from
+   * @param to
+   */
+  public void fill(final double[][] pts, final int from, final int to) {
+    final long n0 = n;
+    if (to <= from) return;
+    if (n0 + (to-from) > 1L << BITS) throw new IllegalArgumentException("Sobolseq: sequence exhausted");
+    Parallel.forRange(to-from, GRAIN, new Parallel.Body() {
+      public void run(final int lo, final int hi, final int chunk) {
+        long[] xx = new long[dim];
+        state(n0+lo, xx);
+        for (int i=lo;i<hi;i++) {
+          double[] pt = pts[from+i];
+          for (int j=0;j<dim;j++) pt[j] = (xx[j] ^ shift[j])*FAC;
+          if (i < hi-1) step(n0+i, xx);
+        }
+      }
+    });
+    skipTo(n0 + (to-from));
+  }
+
+  public void fill(final double[][] pts) { fill(pts, 0, pts.length); }
+
+  /**
+   * Table of primitive polynomials and initial direction numbers, one entry per dimension
+   * after the first. Entry d-2 describes dimension d (counting from 1) in the notation of
+   * Joe and Kuo: degree s, interior coefficients a of the polynomial
+   * x^s + a_1 x^(s-1) + ... + a_(s-1) x + 1 as an integer with a_1 its highest bit, and
+   * initial numbers m_1..m_s.
+   */
+  public static class Directions {
+    final ArrayList<Integer> deg = new ArrayList<Integer>();
+    final ArrayList<Integer> poly = new ArrayList<Integer>();
+    final ArrayList<int[]> m = new ArrayList<int[]>();
+    private final boolean extend;
+    private int cs = 1, ca = -1;
+    private Ranjump ran;
+
+    private static final int[] JKDEG = {1,2,3,3,4,4,5,5,5,5,5,5,6,6,6};
+    private static final int[] JKPOLY = {0,1,1,2,1,4,2,4,7,11,13,14,1,13,16};
+    private static final int[][] JKM = {{1},{1,3},{1,3,1},{1,1,1},{1,1,3,3},{1,3,5,13},
+      {1,1,5,5,17},{1,1,5,5,5},{1,1,7,11,19},{1,1,5,1,1},{1,1,1,3,11},{1,3,5,5,31},
+      {1,3,3,9,7,49},{1,1,1,15,21,21},{1,3,1,13,27,49}};
+    private static Directions defaults;
+
+    private Directions(final boolean ext) {
+      extend = ext;
+    }
+
+    /** The built-in table, extended on demand up to MAXDIM dimensions. */
+    public static synchronized Directions defaults() {
+      if (defaults == null) defaults = new Directions(true);
+      return defaults;
+    }
+
+    /**
+     * Read a table in the format of Joe and Kuo: a header line, then one line per dimension
+     * d = 2,3,... holding d, s, a and m_1..m_s.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static Directions read(final Reader in) throws IOException {
+      Directions dirs = new Directions(false);
+      BufferedReader br = new BufferedReader(in);
+      String line = br.readLine();
+      while ((line = br.readLine()) != null) {
+        StringTokenizer tok = new StringTokenizer(line);
+        if (!tok.hasMoreTokens()) continue;
+        tok.nextToken();
+        int s = Integer.parseInt(tok.nextToken());
+        int a = Integer.parseInt(tok.nextToken());
+        int[] mm = new int[s];
+        for (int k=0;k<s;k++) {
+          if (!tok.hasMoreTokens()) throw new IllegalArgumentException("Directions: too few m values");
+          mm[k] = Integer.parseInt(tok.nextToken());
+          if ((mm[k] & 1) == 0 || mm[k] >= 1 << (k+1))
+            throw new IllegalArgumentException("Directions: m values must be odd and less than 2^k");
+        }
+        dirs.deg.add(s);
+        dirs.poly.add(a);
+        dirs.m.add(mm);
+      }
+      return dirs;
+    }
+
+    /** Number of dimensions currently described. */
+    public synchronized int size() { return deg.size()+1; }
+
+    synchronized void ensure(final int ndim) {
+      if (ndim <= size()) return;
+      if (!extend || ndim > MAXDIM) throw new IllegalArgumentException("Sobolseq: too many dimensions for direction table");
+      if (ran == null) ran = new Ranjump(5331);
+      while (size() < ndim) {
+        int k = deg.size();
+        nextprimitive();
+        deg.add(cs);
+        poly.add(ca);
+        if (k < JKM.length) {
+          if (JKDEG[k] != cs || JKPOLY[k] != ca) throw new IllegalStateException("Directions: polynomial table out of order");
+          m.add(JKM[k]);
+        } else {
+          int[] mm = new int[cs];
+          for (int i=0;i<cs;i++) mm[i] = (int)(ran.int64() >>> (63-i)) | 1;
+          m.add(mm);
+        }
+      }
+    }
+
+    // advance (cs,ca) to the next primitive polynomial in Joe-Kuo order
+    private void nextprimitive() {
+      for (;;) {
+        if (++ca >= 1 << (cs-1)) {
+          cs++;
+          ca = 0;
+        }
+        if (primitive((1L << cs) | ((long)ca << 1) | 1L, cs)) return;
+      }
+    }
+
+    /**
+     * True if the polynomial over GF(2) with coefficient bits p, of degree s, is primitive,
+     * i.e. x has multiplicative order 2^s-1 modulo p.
+     */
+    static boolean primitive(final long p, final int s) {
+      long ord = (1L << s) - 1, r = ord;
+      if (s == 1) return p == 3;
+      if (powmod(2, ord, p, s) != 1) return false;
+      for (long q=2;q*q<=r;q++) {
+        if (r % q == 0) {
+          if (powmod(2, ord/q, p, s) == 1) return false;
+          while (r % q == 0) r /= q;
+        }
+      }
+      return r == 1 || powmod(2, ord/r, p, s) != 1;
+    }
+
+    private static long mulmod(long a, long b, final long p, final int s) {
+      long r = 0;
+      while (b != 0) {
+        if ((b & 1) != 0) r ^= a;
+        b >>>= 1;
+        a <<= 1;
+        if (((a >>> s) & 1) != 0) a ^= p;
+      }
+      return r;
+    }
+
+    private static long powmod(long a, long e, final long p, final int s) {
+      long r = 1;
+      while (e != 0) {
+        if ((e & 1) != 0) r = mulmod(r, a, p, s);
+        a = mulmod(a, a, p, s);
+        e >>>= 1;
+      }
+      return r;
+    }
+  }
+}
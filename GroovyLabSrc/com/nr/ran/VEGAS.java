@@ -24,11 +24,26 @@ public abstract class VEGAS {
   private double[] dt = new double[MXDIM],dx = new double[MXDIM],r = new double[NDMX],x = new double[MXDIM],xin = new double[NDMX];
   private double[][] d = new double[NDMX][MXDIM],di = new double[NDMX][MXDIM],xi = new double[MXDIM][NDMX];
   private Ran ran_vegas = new Ran(RANSEED);
+  private Sobolseq qrs;
+  private double[] u = new double[MXDIM];
 
   public VEGAS(){
     
   }
   
+  /**
+   * Take the sample points from the quasi-random sequence q, whose dimension must equal
+   * that of the region passed to vegas, instead of from the internal random generator
+   * (null restores the generator). Each sample uses one point of q for its position
+   * within the current grid cell.
+   * 
+   * @param q
+   */
+  public void setSource(final Sobolseq q) {
+    if (q != null && q.dim() > MXDIM) throw new IllegalArgumentException("VEGAS: sequence dimension exceeds MXDIM");
+    qrs = q;
+  }
+  
   public abstract double fxn(final double[] x, final double wgt);
   
   public static void rebin(final double rc, final int nd, final double[] r, final double[] xin,
@@ -78,6 +93,7 @@ public abstract class VEGAS {
     final doubleW chi2a) {
 
     int ndim=regn.length/2;
+    if (qrs != null && qrs.dim() != ndim) throw new IllegalArgumentException("vegas: sequence has wrong dimension");
     if (init <= 0) {
       mds=ndo=1;
       for (j=0;j<ndim;j++) xi[j][0]=1.0;
@@ -145,8 +161,9 @@ public abstract class VEGAS {
         fb=f2b=0.0;
         for (k=0;k<npg;k++) {
           wgt=xjac;
+          if (qrs != null) qrs.next(u);
           for (j=0;j<ndim;j++) {
-            xn=(kg[j]-ran_vegas.doub())*dxg+1.0;
+            xn=(kg[j]-(qrs != null ? u[j] : ran_vegas.doub()))*dxg+1.0;
             ia[j]=max(min((int)(xn),NDMX),1);
             if (ia[j] > 1) {
               xo=xi[j][ia[j]-1]-xi[j][ia[j]-2];
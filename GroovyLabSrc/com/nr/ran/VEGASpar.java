@@ -0,0 +1,230 @@
+package com.nr.ran;
+
+import static com.nr.NRUtil.*;
+import static java.lang.Math.*;
+
+import java.util.ArrayList;
+
+import org.netlib.util.doubleW;
+
+import com.nr.util.Parallel;
+
+/**
+ * Parallel form of VEGAS for a Batchintegrand.
+ *
+ * Each iteration divides the ng^ndim hypercubes of the stratification grid into at most
+ * NBLK contiguous blocks. Every block has its own random stream (stream b of a Ranstreams
+ * built from the seed) and its own grid histograms and sums, and the blocks are merged in
+ * block order after the iteration. The blocks are spread over the threads of
+ * com.nr.util.Parallel, and points are handed to the integrand in batches of about BATCH,
+ * so the results depend on the seed and ncall only, not on the number of threads.
+ * Apart from rounding, the algorithm and the meaning of the arguments are those of VEGAS.
+ */
+public class VEGASpar {
+  static final int NDMX=50, NBLK=256, BATCH=256;
+  static final double ALPH=1.5, TINY=1.0e-30;
+  private final Batchintegrand func;
+  private final Ranstreams streams;
+  private final ArrayList<Ranjump> ran = new ArrayList<Ranjump>();
+  private int ndim,mds,nd,ndo,ng,npg,ncells;
+  private double calls,dv2g,dxg,xnd,xjac,schi,si,swgt;
+  private double[] dx,r,xin,dt;
+  private double[][] xi;
+
+  public VEGASpar(final Batchintegrand funk, final long seed) {
+    func = funk;
+    streams = new Ranstreams(seed);
+  }
+
+  /**
+   * Integrate the function over the rectangular volume regn[0..2*ndim-1]; see VEGAS.vegas
+   * for the meaning of init, ncall, itmx, tgral, sd and chi2a.
+   *
+   * @param regn
+   * @param init
+   * @param ncall
+   * @param itmx
+   * @param tgral
+   * @param sd
+   * @param chi2a
+   */
+  public void vegas(final double[] regn, final int init, final int ncall, final int itmx,
+    final doubleW tgral, final doubleW sd, final doubleW chi2a) {
+    int i,j,k,it,b;
+    double ti,tsi,wgt,xo,xn,rc;
+
+    if (init <= 0 || xi == null || regn.length/2 != ndim) {
+      ndim=regn.length/2;
+      xi=new double[ndim][NDMX];
+      dx=new double[ndim];
+      dt=new double[ndim];
+      r=new double[NDMX];
+      xin=new double[NDMX];
+      mds=ndo=1;
+      for (j=0;j<ndim;j++) xi[j][0]=1.0;
+    }
+    if (init <= 1) si=swgt=schi=0.0;
+    if (init <= 2) {
+      nd=NDMX;
+      ng=1;
+      if (mds != 0) {
+        ng=(int)(pow(ncall/2.0+0.25,1.0/ndim));
+        mds=1;
+        if ((2*ng-NDMX) >= 0) {
+          mds = -1;
+          npg=ng/NDMX+1;
+          nd=ng/npg;
+          ng=npg*nd;
+        }
+      }
+      for (k=1,i=0;i<ndim;i++) k *= ng;
+      ncells=k;
+      npg=max((ncall/k),2);
+      calls=(double)npg*k;
+      dxg=1.0/ng;
+      for (dv2g=1,i=0;i<ndim;i++) dv2g *= dxg;
+      dv2g=SQR(calls*dv2g)/npg/npg/(npg-1.0);
+      xnd=nd;
+      dxg *= xnd;
+      xjac=1.0/calls;
+      for (j=0;j<ndim;j++) {
+        dx[j]=regn[j+ndim]-regn[j];
+        xjac *= dx[j];
+      }
+      if (nd != ndo) {
+        for (i=0;i<max(nd,ndo);i++) r[i]=1.0;
+        for (j=0;j<ndim;j++)
+          VEGAS.rebin(ndo/xnd,nd,r,xin,xi,j);
+        ndo=nd;
+      }
+    }
+    final int nblk=min(NBLK,ncells);
+    while (ran.size() < nblk) ran.add(streams.stream(ran.size()));
+    final Block[] blk=new Block[nblk];
+    for (it=0;it<itmx;it++) {
+      Parallel.forRange(nblk,1,new Parallel.Body() {
+        public void run(final int from, final int to, final int chunk) {
+          for (int bb=from;bb<to;bb++) {
+            if (blk[bb] == null) blk[bb]=new Block();
+            blk[bb].sample(regn,Parallel.chunkStart(ncells,nblk,bb),
+              Parallel.chunkStart(ncells,nblk,bb+1),ran.get(bb));
+          }
+        }
+      });
+      double[][] d=blk[0].d,di=blk[0].di;
+      ti=blk[0].ti;
+      tsi=blk[0].tsi;
+      for (b=1;b<nblk;b++) {
+        ti += blk[b].ti;
+        tsi += blk[b].tsi;
+        for (i=0;i<nd;i++) {
+          for (j=0;j<ndim;j++) {
+            d[i][j] += blk[b].d[i][j];
+            di[i][j] += blk[b].di[i][j];
+          }
+        }
+      }
+      tsi *= dv2g;
+      wgt=1.0/tsi;
+      si += wgt*ti;
+      schi += wgt*ti*ti;
+      swgt += wgt;
+      tgral.val=si/swgt;
+      chi2a.val=(schi-si*tgral.val)/(it+0.0001);
+      if (chi2a.val < 0.0) chi2a.val = 0.0;
+      sd.val=sqrt(1.0/swgt);
+      for (j=0;j<ndim;j++) {
+        xo=d[0][j];
+        xn=d[1][j];
+        d[0][j]=(xo+xn)/2.0;
+        dt[j]=d[0][j];
+        for (i=2;i<nd;i++) {
+          rc=xo+xn;
+          xo=xn;
+          xn=d[i][j];
+          d[i-1][j] = (rc+xn)/3.0;
+          dt[j] += d[i-1][j];
+        }
+        d[nd-1][j]=(xo+xn)/2.0;
+        dt[j] += d[nd-1][j];
+      }
+      for (j=0;j<ndim;j++) {
+        rc=0.0;
+        for (i=0;i<nd;i++) {
+          if (d[i][j] < TINY) d[i][j]=TINY;
+          r[i]=pow((1.0-d[i][j]/dt[j])/
+            (log(dt[j])-log(d[i][j])),ALPH);
+          rc += r[i];
+        }
+        VEGAS.rebin(rc/xnd,nd,r,xin,xi,j);
+      }
+    }
+  }
+
+  // Sums and grid histograms of one block of hypercubes, with the batch buffers
+  private class Block {
+    final double[][] d=new double[NDMX][ndim],di=new double[NDMX][ndim];
+    final int cpb=max(1,BATCH/npg);
+    final double[][] x=new double[cpb*npg][ndim];
+    final double[] w=new double[cpb*npg],f=new double[cpb*npg];
+    final int[] ia=new int[cpb*npg*ndim],kg=new int[ndim];
+    double ti,tsi;
+
+    void sample(final double[] regn, final int c0, final int c1, final Ranjump rn) {
+      int c,cb,i,j,k,m,p;
+      double xn,xo,rc,wgt,fv,f2,fb,f2b;
+      ti=tsi=0.0;
+      for (i=0;i<nd;i++)
+        for (j=0;j<ndim;j++) d[i][j]=di[i][j]=0.0;
+      for (cb=c0;cb<c1;cb+=cpb) {
+        int ce=min(c1,cb+cpb);
+        for (c=cb,p=0;c<ce;c++) {
+          for (m=c,k=ndim-1;k>=0;k--) {
+            kg[k]=m % ng + 1;
+            m /= ng;
+          }
+          for (k=0;k<npg;k++,p++) {
+            wgt=xjac;
+            for (j=0;j<ndim;j++) {
+              xn=(kg[j]-rn.doub())*dxg+1.0;
+              int a=max(min((int)(xn),NDMX),1);
+              ia[p*ndim+j]=a;
+              if (a > 1) {
+                xo=xi[j][a-1]-xi[j][a-2];
+                rc=xi[j][a-2]+(xn-a)*xo;
+              } else {
+                xo=xi[j][a-1];
+                rc=(xn-a)*xo;
+              }
+              x[p][j]=regn[j]+rc*dx[j];
+              wgt *= xo*xnd;
+            }
+            w[p]=wgt;
+          }
+        }
+        func.eval(x,w,p,f);
+        for (c=cb,p=0;c<ce;c++) {
+          fb=f2b=0.0;
+          for (k=0;k<npg;k++,p++) {
+            fv=w[p]*f[p];
+            f2=fv*fv;
+            fb += fv;
+            f2b += f2;
+            for (j=0;j<ndim;j++) {
+              di[ia[p*ndim+j]-1][j] += fv;
+              if (mds >= 0) d[ia[p*ndim+j]-1][j] += f2;
+            }
+          }
+          f2b=sqrt(f2b*npg);
+          f2b=(f2b-fb)*(f2b+fb);
+          if (f2b <= 0.0) f2b=TINY;
+          ti += fb;
+          tsi += f2b;
+          if (mds < 0) {
+            for (j=0;j<ndim;j++) d[ia[(p-1)*ndim+j]-1][j] += f2b;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.nr.ran;
+
+import static java.lang.Math.*;
+
+/**
+ * Normal and exponential deviates by the ziggurat method (Marsaglia and Tsang 2000, in the
+ * form of Doornik 2005), with 128 layers for the normal and 256 for the exponential
+ * distribution. Each attempt uses one 64-bit random integer, split into the layer index (low
+ * bits) and the abscissa (high 53 bits); about 99% of attempts are accepted at the cost of a
+ * multiply and a compare. Random integers are drawn from the Ranjump generator in blocks
+ * into a reused buffer, and the fill methods produce whole arrays of deviates, so no memory
+ * is allocated after construction. Because of the buffering, the generator runs ahead of
+ * the deviates returned.
+ */
+public class Zigguratdev {
+  static final int NC = 128, EC = 256, BUF = 256;
+  static final double NR = 3.442619855899, NV = 9.91256303526217e-3;
+  static final double ER = 7.69711747013104972, EV = 3.949659822581572e-3;
+  static final double[] nx = new double[NC+1], nratio = new double[NC];
+  static final double[] ex = new double[EC+1], eratio = new double[EC];
+
+  static {
+    int i;
+    double f = exp(-0.5*NR*NR);
+    nx[0] = NV/f;
+    nx[1] = NR;
+    nx[NC] = 0.;
+    for (i=2;i<NC;i++) {
+      nx[i] = sqrt(-2.*log(NV/nx[i-1] + f));
+      f = exp(-0.5*nx[i]*nx[i]);
+    }
+    for (i=0;i<NC;i++) nratio[i] = nx[i+1]/nx[i];
+    f = exp(-ER);
+    ex[0] = EV/f;
+    ex[1] = ER;
+    ex[EC] = 0.;
+    for (i=2;i<EC;i++) {
+      ex[i] = -log(EV/ex[i-1] + f);
+      f = exp(-ex[i]);
+    }
+    for (i=0;i<EC;i++) eratio[i] = ex[i+1]/ex[i];
+  }
+
+  final Ranjump ran;
+  final long[] buf = new long[BUF];
+  int p = BUF;
+
+  public Zigguratdev(final long seed) {
+    this(new Ranjump(seed));
+  }
+
+  /**
+   * Deviates drawn from the generator rr, which is advanced as they are used.
+   *
+   * @param rr
+   */
+  public Zigguratdev(final Ranjump rr) {
+    ran = rr;
+  }
+
+  private long bits() {
+    if (p == BUF) {
+      ran.fill(buf);
+      p = 0;
+    }
+    return buf[p++];
+  }
+
+  // uniform in (0,1]
+  private double uniform() {
+    return ((bits() >>> 11) + 1) * 0x1.0p-53;
+  }
+
+  /**
+   * Return a standard normal deviate.
+   *
+   * @return
+   */
+  public double normal() {
+    long b;
+    int i;
+    double u,x;
+    for (;;) {
+      b = bits();
+      u = (b >> 11) * 0x1.0p-52;
+      i = (int)(b & (NC-1));
+      if (abs(u) < nratio[i]) return u*nx[i];
+      if ((x = normalslow(u, i)) == x) return x;
+    }
+  }
+
+  // Bottom layer and wedges; returns NaN if the attempt is rejected
+  private double normalslow(final double u, final int i) {
+    double x,y,f0,f1;
+    if (i == 0) {
+      do {
+        x = log(uniform())/NR;
+        y = log(uniform());
+      } while (-2.*y < x*x);
+      return u < 0 ? x - NR : NR - x;
+    }
+    x = u*nx[i];
+    f0 = exp(-0.5*(nx[i]*nx[i] - x*x));
+    f1 = exp(-0.5*(nx[i+1]*nx[i+1] - x*x));
+    if (f1 + uniform()*(f0 - f1) < 1.) return x;
+    return Double.NaN;
+  }
+
+  /**
+   * Return an exponential deviate with mean 1.
+   *
+   * @return
+   */
+  public double expon() {
+    long b;
+    int i;
+    double u,x;
+    for (;;) {
+      b = bits();
+      u = (b >>> 11) * 0x1.0p-53;
+      i = (int)(b & (EC-1));
+      if (u < eratio[i]) return u*ex[i];
+      if ((x = exponslow(u, i)) == x) return x;
+    }
+  }
+
+  private double exponslow(final double u, final int i) {
+    double x,f0,f1;
+    if (i == 0) return ER - log(uniform());
+    x = u*ex[i];
+    f0 = exp(x - ex[i]);
+    f1 = exp(x - ex[i+1]);
+    if (f1 + uniform()*(f0 - f1) < 1.) return x;
+    return Double.NaN;
+  }
+
+  /**
+   * Fill a[from..to-1] with normal deviates of mean mu and standard deviation sig.
+   *
+   * @param a
+   * @param from
+   * @param to
+   * @param mu
+   * @param sig
+   */
+  public void fillNormal(final double[] a, final int from, final int to, final double mu, final double sig) {
+    int k = from,i;
+    long b;
+    double u,x;
+    while (k < to) {
+      if (p == BUF) {
+        ran.fill(buf);
+        p = 0;
+      }
+      int m = min(BUF-p, to-k);
+      for (int q=0;q<m;q++) {   // fast path over the buffered block
+        b = buf[p++];
+        u = (b >> 11) * 0x1.0p-52;
+        i = (int)(b & (NC-1));
+        if (abs(u) < nratio[i]) a[k++] = mu + sig*u*nx[i];
+        else if ((x = normalslow(u, i)) == x) a[k++] = mu + sig*x;
+        if (p == BUF) break;
+      }
+    }
+  }
+
+  public void fillNormal(final double[] a) { fillNormal(a, 0, a.length, 0., 1.); }
+
+  /**
+   * Fill a[from..to-1] with exponential deviates of mean 1/beta.
+   *
+   * @param a
+   * @param from
+   * @param to
+   * @param beta
+   */
+  public void fillExpon(final double[] a, final int from, final int to, final double beta) {
+    int k = from,i;
+    long b;
+    double u,x,scale = 1./beta;
+    while (k < to) {
+      if (p == BUF) {
+        ran.fill(buf);
+        p = 0;
+      }
+      int m = min(BUF-p, to-k);
+      for (int q=0;q<m;q++) {
+        b = buf[p++];
+        u = (b >>> 11) * 0x1.0p-53;
+        i = (int)(b & (EC-1));
+        if (u < eratio[i]) a[k++] = scale*u*ex[i];
+        else if ((x = exponslow(u, i)) == x) a[k++] = scale*x;
+        if (p == BUF) break;
+      }
+    }
+  }
+
+  public void fillExpon(final double[] a) { fillExpon(a, 0, a.length, 1.); }
+}
@@ -4,6 +4,8 @@ import static java.lang.Math.*;
 
 import static com.nr.NRUtil.*;
 
+import com.nr.util.Parallel;
+
 /**
  * Bessel functions of fractional order
  * Copyright (C) Numerical Recipes Software 1986-2007
@@ -58,6 +60,61 @@ public class Bessel {
     if (nu != nuik || x != xik) besselik(nu,x);
     return ko;
   }
+  
+  /**
+   * Bulk forms of jnu, ynu, inu and knu: out[i] is the function of order nu at x[i]. They
+   * work on private Bessel objects, so they are thread-safe; large arrays are evaluated in
+   * parallel. besseljy and besselik fill both functions of a pair at once.
+   * 
+   * @param nu
+   * @param x
+   * @param out
+   */
+  public static void jnu(final double nu, final double[] x, final double[] out) {
+    besseljy(nu, x, out, null);
+  }
+  
+  public static void ynu(final double nu, final double[] x, final double[] out) {
+    besseljy(nu, x, null, out);
+  }
+  
+  public static void inu(final double nu, final double[] x, final double[] out) {
+    besselik(nu, x, out, null);
+  }
+  
+  public static void knu(final double nu, final double[] x, final double[] out) {
+    besselik(nu, x, null, out);
+  }
+  
+  public static void besseljy(final double nu, final double[] x, final double[] j, final double[] y) {
+    bulk(nu, x, j, y, true);
+  }
+  
+  public static void besselik(final double nu, final double[] x, final double[] i, final double[] k) {
+    bulk(nu, x, i, k, false);
+  }
+  
+  private static void bulk(final double nu, final double[] x, final double[] f, final double[] g,
+    final boolean jy) {
+    if ((f != null && f.length < x.length) || (g != null && g.length < x.length))
+      throw new IllegalArgumentException("bulk: output array shorter than input");
+    Parallel.forRange(x.length, Bulk.GRAIN/16, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Bessel b = new Bessel();
+        for (int i=from;i<to;i++) {
+          if (jy) {
+            b.besseljy(nu,x[i]);
+            if (f != null) f[i] = b.jo;
+            if (g != null) g[i] = b.yo;
+          } else {
+            b.besselik(nu,x[i]);
+            if (f != null) f[i] = b.io;
+            if (g != null) g[i] = b.ko;
+          }
+        }
+      }
+    });
+  }
 
  
 
@@ -3,6 +3,8 @@ import static com.nr.NRUtil.*;
 import static com.nr.sf.Gamma.*;
 import static java.lang.Math.*;
 
+import com.nr.util.Parallel;
+
 /**
  * Object for incomplete beta function. 
  * Gauleg18 provides coefficients for Gauss-Legendre quadrature.
@@ -29,6 +31,45 @@ public class Beta implements Gauleg18{
     else return 1.0-bt*betacf(b,a,1.0-x)/b;
   }
 
+  // betai with ln B(a,b) supplied as lnb, for a,b > 0 and 0 <= x <= 1
+  static double betai(final double a, final double b, final double x, final double lnb) {
+    double bt;
+    if (x == 0.0 || x == 1.0) return x;
+    if (a > SWITCH && b > SWITCH) return betaiapprox(a,b,x);
+    bt=exp(a*log(x)+b*log(1.0-x)-lnb);
+    if (x < (a+1.0)/(a+b+2.0)) return bt*betacf(a,b,x)/a;
+    else return 1.0-bt*betacf(b,a,1.0-x)/b;
+  }
+
+  /**
+   * Set out[i] = betai(a,b,x[i]). Thread-safe; large arrays are evaluated in parallel.
+   * 
+   * @param a
+   * @param b
+   * @param x
+   * @param out
+   */
+  public static void betai(final double a, final double b, final double[] x, final double[] out) {
+    if (a <= 0.0 || b <= 0.0) throw new IllegalArgumentException("Bad a or b in routine betai");
+    for (double xx : x)
+      if (!(xx >= 0.0 && xx <= 1.0)) throw new IllegalArgumentException("Bad x in routine betai");
+    final double lnb = gammln(a)+gammln(b)-gammln(a+b);
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = betai(a,b,x[i],lnb);
+      }
+    });
+  }
+
+  // out[i] = invbetai(p[i],a,b); thread-safe, parallel for large arrays
+  public static void invbetai(final double[] p, final double a, final double b, final double[] out) {
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = invbetai(p[i],a,b);
+      }
+    });
+  }
+
   public static double betacf(final double a, final double b, final double x) {
     int m,m2;
     double aa,c,d,del,h,qab,qam,qap;
@@ -0,0 +1,19 @@
+package com.nr.sf;
+
+import com.nr.util.Parallel;
+
+/*
+ Common part of the array-in/array-out methods of the special functions and distributions.
+ The kernels behind those methods keep no state outside their arguments, so the bulk methods
+ may be called from several threads at once; arrays longer than a few GRAIN elements are
+ split over the threads of com.nr.util.Parallel.
+ */
+final class Bulk {
+  private Bulk(){}
+  static final int GRAIN = 8192;
+
+  static void run(final double[] x, final double[] out, final Parallel.Body body) {
+    if (out.length < x.length) throw new IllegalArgumentException("bulk: output array shorter than input");
+    Parallel.forRange(x.length, GRAIN, body);
+  }
+}
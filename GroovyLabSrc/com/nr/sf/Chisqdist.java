@@ -3,6 +3,8 @@ package com.nr.sf;
 
 import static java.lang.Math.*;
 
+import com.nr.util.Parallel;
+
 
 // χ^2 distribution, derived from the gamma function Gamma
 public class Chisqdist extends Gamma {
@@ -26,6 +28,30 @@ public class Chisqdist extends Gamma {
     return gammp(0.5*nu,0.5*x2);
   }
   
+  // bulk cumulative distribution function, out[i] = cdf(x2[i]); thread-safe, parallel for large arrays
+  public void cdf(final double[] x2, final double[] out) {
+    for (double x : x2)
+      if (!(x >= 0.)) throw new IllegalArgumentException("bad x2 in Chisqdist");
+    final double a = 0.5*nu, lg = gammln(a);
+    Bulk.run(x2, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = gammpq(a,0.5*x2[i],1,lg);
+      }
+    });
+  }
+  
+  // bulk inverse cumulative distribution function
+  public void invcdf(final double[] p, final double[] out) {
+    for (double pp : p)
+      if (!(pp >= 0. && pp < 1.)) throw new IllegalArgumentException("bad p in Chisqdist");
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Gamma g = new Gamma();
+        for (int i=from;i<to;i++) out[i] = 2.*g.invgammp(p[i],0.5*nu);
+      }
+    });
+  }
+  
   // inverse cumulatie distribution function
   public double invcdf(double p) {
     if (p < 0. || p >= 1.) throw new IllegalArgumentException("bad p in Chisqdist");
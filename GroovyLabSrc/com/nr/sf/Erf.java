@@ -3,6 +3,8 @@ package com.nr.sf;
 import static com.nr.NRUtil.*;
 import static java.lang.Math.*;
 
+import com.nr.util.Parallel;
+
 
 /**
  * Error function and related distributions
@@ -64,6 +66,79 @@ public class Erf {
 
   public double inverf(final double p) {return inverfc(1.-p);}
   
+  // erfccheb for z >= 0, without the check
+  static double erfcz(final double z) {
+    int j;
+    double t,ty,tmp,d=0.,dd=0.;
+    t = 2./(2.+z);
+    ty = 4.*t - 2.;
+    for (j=ncof-1;j>0;j--) {
+      tmp = d;
+      d = ty*d - dd + cof[j];
+      dd = tmp;
+    }
+    return t*exp(-z*z + 0.5*(cof[0] + ty*d) - dd);
+  }
+  
+  static double erfck(final double x) {
+    double r = erfcz(abs(x));
+    return x >= 0. ? r : 2.0 - r;
+  }
+  
+  static double inverfck(final double p) {
+    double x,err,t,pp;
+    pp = min(p, 2. - p);
+    t = sqrt(-2.*log(pp/2.));
+    x = -0.70711*((2.30753+t*0.27061)/(1.+t*(0.99229+t*0.04481)) - t);
+    for (int j=0;j<2;j++) {
+      err = erfck(x) - pp;
+      x += err/(1.12837916709551257*exp(-x*x)-x*err);
+    }
+    x = p < 1.0 ? x : -x;
+    return p >= 2.0 ? -100. : p <= 0.0 ? 100. : x;
+  }
+  
+  /**
+   * Set out[i] = erf(x[i]). Thread-safe; large arrays are evaluated in parallel.
+   * 
+   * @param x
+   * @param out
+   */
+  public void erf(final double[] x, final double[] out) {
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) {
+          double r = erfcz(abs(x[i]));
+          out[i] = x[i] >= 0. ? 1.0 - r : r - 1.0;
+        }
+      }
+    });
+  }
+  
+  public void erfc(final double[] x, final double[] out) {
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = erfck(x[i]);
+      }
+    });
+  }
+  
+  public void inverfc(final double[] p, final double[] out) {
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = inverfck(p[i]);
+      }
+    });
+  }
+  
+  public void inverf(final double[] p, final double[] out) {
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = inverfck(1.-p[i]);
+      }
+    });
+  }
+  
   public static double erfcc(final double x) {
     double t,z=abs(x),ans;
     t=2./(2.+z);
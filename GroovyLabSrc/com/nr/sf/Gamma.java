@@ -3,6 +3,8 @@ package com.nr.sf;
 import static com.nr.NRUtil.*;
 import static java.lang.Math.*;
 
+import com.nr.util.Parallel;
+
 
 public class Gamma implements Gauleg18{
   private static final int ASWITCH=100;
@@ -27,8 +29,13 @@ public class Gamma implements Gauleg18{
   }
 
   public double gser(final double a, final double x) {
-    double sum,del,ap;
     gln=gammln(a);
+    return gser(a,x,gln);
+  }
+
+  // gser with ln(gamma(a)) supplied, touching no instance state
+  static double gser(final double a, final double x, final double gln) {
+    double sum,del,ap;
     ap=a;
     del=sum=1.0/a;
     for (;;) {
@@ -42,9 +49,13 @@ public class Gamma implements Gauleg18{
   }
 
   public double gcf(final double a, final double x) {
+    gln=gammln(a);
+    return gcf(a,x,gln);
+  }
+
+  static double gcf(final double a, final double x, final double gln) {
     int i;
     double an,b,c,d,del,h;
-    gln=gammln(a);
     b=x+1.0-a;
     c=1.0/FPMIN;
     d=1.0/b;
@@ -65,10 +76,14 @@ public class Gamma implements Gauleg18{
   }
 
   public double gammpapprox(final double a, final double x, final int psig) {
+    gln = gammln(a);
+    return gammpapprox(a,x,psig,gln);
+  }
+
+  static double gammpapprox(final double a, final double x, final int psig, final double gln) {
     int j;
     double xu,t,sum,ans;
     double a1 = a-1.0, lna1 = log(a1), sqrta1 = sqrt(a1);
-    gln = gammln(a);
     if (x > a1) xu = max(a1 + 11.5*sqrta1, x + 6.0*sqrta1);
     else xu = max(0.,min(a1 - 7.5*sqrta1, x - 5.0*sqrta1));
     sum = 0;
@@ -80,7 +95,53 @@ public class Gamma implements Gauleg18{
     return (psig!=0 ?(x>a1? 1.0-ans:-ans):(x>a1? ans:1.0+ans));
   }
 
-  
+  // gammp (psig=1) or gammq (psig=0) with ln(gamma(a)) supplied, for x >= 0
+  static double gammpq(final double a, final double x, final int psig, final double gln) {
+    if (x == 0.0) return psig != 0 ? 0.0 : 1.0;
+    else if ((int)a >= ASWITCH) return gammpapprox(a,x,psig,gln);
+    double r = x < a+1.0 ? gser(a,x,gln) : gcf(a,x,gln);
+    return (psig != 0) == (x < a+1.0) ? r : 1.0-r;
+  }
+
+  /**
+   * Set out[i] = gammp(a,x[i]). Unlike the scalar form, this method does not use the
+   * instance's state, so it is thread-safe; large arrays are evaluated in parallel.
+   * 
+   * @param a
+   * @param x
+   * @param out
+   */
+  public void gammp(final double a, final double[] x, final double[] out) {
+    gammpq(a, x, out, 1);
+  }
+
+  public void gammq(final double a, final double[] x, final double[] out) {
+    gammpq(a, x, out, 0);
+  }
+
+  private static void gammpq(final double a, final double[] x, final double[] out, final int psig) {
+    if (a <= 0.0) throw new IllegalArgumentException("bad args in gammp");
+    for (double xx : x)
+      if (!(xx >= 0.0)) throw new IllegalArgumentException("bad args in gammp");
+    final double lg = gammln(a);
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = gammpq(a,x[i],psig,lg);
+      }
+    });
+  }
+
+  // out[i] = invgammp(p[i],a); thread-safe, parallel for large arrays
+  public void invgammp(final double[] p, final double a, final double[] out) {
+    if (a <= 0.) throw new IllegalArgumentException("a must be pos in invgammap");
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Gamma g = new Gamma();
+        for (int i=from;i<to;i++) out[i] = g.invgammp(p[i],a);
+      }
+    });
+  }
+
   public double invgammp(final double p, final double a) {
     int j;
     double x,err,t,u,pp,lna1=0,afac=0,a1=a-1;
@@ -146,6 +207,24 @@ public class Gamma implements Gauleg18{
     return tmp+log(2.5066282746310005*ser/x);
   }
   
+  // out[i] = gammln(x[i]); parallel for large arrays
+  public static void gammln(final double[] x, final double[] out) {
+    for (double xx : x)
+      if (!(xx > 0)) throw new IllegalArgumentException("bad arg in gammln");
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) {
+          double xx=x[i],y=xx,tmp,ser;
+          tmp = xx+5.24218750000000000;
+          tmp = (xx+0.5)*log(tmp)-tmp;
+          ser = 0.999999999999997092;
+          for (int j=0;j<14;j++) ser += cof[j]/++y;
+          out[i] = tmp+log(2.5066282746310005*ser/xx);
+        }
+      }
+    });
+  }
+  
   //  Returns the value n! as a floating-point number.
    public static double factrl(final int n) {
     if (n < 0 || n > 170) throw new IllegalArgumentException("factrl out of range");
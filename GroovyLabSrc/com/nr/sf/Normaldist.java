@@ -3,6 +3,8 @@ package com.nr.sf;
 import static com.nr.NRUtil.*;
 import static java.lang.Math.*;
 
+import com.nr.util.Parallel;
+
 // Normal distribution, derived from the error function Erf
 public class Normaldist extends Erf{
   double mu, sig;
@@ -32,4 +34,35 @@ public class Normaldist extends Erf{
     if (p <= 0. || p >= 1.) throw new IllegalArgumentException("bad p in Normaldist");
     return -1.41421356237309505*sig*inverfc(2.*p)+mu;
   }
+  
+  // bulk forms: out[i] = p(x[i]), cdf(x[i]), invcdf(p[i]); thread-safe, parallel for large arrays
+  public void p(final double[] x, final double[] out) {
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        final double c = 0.398942280401432678/sig, s = 1./sig;
+        for (int i=from;i<to;i++) {
+          double z = (x[i]-mu)*s;
+          out[i] = c*exp(-0.5*z*z);
+        }
+      }
+    });
+  }
+  
+  public void cdf(final double[] x, final double[] out) {
+    Bulk.run(x, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = 0.5*erfck(-0.707106781186547524*(x[i]-mu)/sig);
+      }
+    });
+  }
+  
+  public void invcdf(final double[] p, final double[] out) {
+    for (double pp : p)
+      if (!(pp > 0. && pp < 1.)) throw new IllegalArgumentException("bad p in Normaldist");
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) out[i] = -1.41421356237309505*sig*inverfck(2.*p[i])+mu;
+      }
+    });
+  }
 }
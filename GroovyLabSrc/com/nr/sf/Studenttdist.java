@@ -4,6 +4,8 @@ import static java.lang.Math.*;
 import static com.nr.sf.Gamma.*;
 import static com.nr.NRUtil.*;
 
+import com.nr.util.Parallel;
+
 // Student-t distribution derived from the beta function Beta
 public class Studenttdist extends Beta {
   double nu, mu, sig, np, fac;
@@ -37,6 +39,35 @@ public class Studenttdist extends Beta {
     else return p;
   }
   
+  // bulk cumulative distribution function, out[i] = cdf(t[i]); thread-safe, parallel for large arrays
+  public void cdf(final double[] t, final double[] out) {
+    final double a = 0.5*nu, lnb = gammln(a)+gammln(0.5)-gammln(a+0.5);
+    Bulk.run(t, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) {
+          double z = (t[i]-mu)/sig;
+          double p = 0.5*betai(a, 0.5, nu/(nu+z*z), lnb);
+          out[i] = t[i] >= mu ? 1. - p : p;
+        }
+      }
+    });
+  }
+  
+  // bulk inverse cumulative distribution function
+  public void invcdf(final double[] p, final double[] out) {
+    for (double pp : p)
+      if (!(pp > 0. && pp < 1.)) throw new IllegalArgumentException("bad p in Studentdist");
+    Bulk.run(p, out, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int i=from;i<to;i++) {
+          double x = invbetai(2.*min(p[i],1.-p[i]), 0.5*nu, 0.5);
+          x = sig*sqrt(nu*(1.-x)/x);
+          out[i] = p[i] >= 0.5 ? mu+x : mu-x;
+        }
+      }
+    });
+  }
+  
   // inverse cumulative distribution function
   public double invcdf(double p) {
     if (p <= 0. || p >= 1.) throw new IllegalArgumentException("bad p in Studentdist");
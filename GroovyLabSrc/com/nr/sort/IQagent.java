@@ -5,6 +5,7 @@ import java.util.Arrays;
 
 /**
  * Object for estimating arbitrary quantile values from a continuing stream of data values.
+ * Instances cannot be merged; Tdigest summarizes streams that are split across threads.
  * 
  * Copyright (C) Numerical Recipes Software 1986-2007
  * Java translation Copyright (C) Huang Wen Hui 2012
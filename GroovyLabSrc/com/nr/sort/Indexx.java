@@ -1,6 +1,8 @@
 package com.nr.sort;
 import static com.nr.NRUtil.*;
 
+import java.util.Arrays;
+
 public class Indexx {
   private int n;
   
@@ -56,6 +58,8 @@ public class Indexx {
   
   // indexes an array arr[0..nn-1], i.e., resizes and sets indx[0..nn-1] such that arr[indx[j]] 
   // is in ascending order for j = 0, 1,1 .., nn-1. Also sets member value n. The input array arr is not changed. 
+  // Large arrays are indexed by the parallel merge sort of Parsort, applied to a copy of arr
+  // with the indices as companion.
   public void index(final double[] arr, final int nn) {
     final int M=7,NSTACK=64;
     int i,indxt,ir,j,k,jstack=-1,l=0;
@@ -65,6 +69,7 @@ public class Indexx {
     indx = new int[n];
     ir=n-1;
     for (j=0;j<n;j++) indx[j]=j;
+    if (Parsort.parallel(n) && Parsort.sort(Arrays.copyOf(arr,n),n,null,indx)) return;
     for (;;) {
       if (ir-l < M) {
         for (j=l+1;j<=ir;j++) {
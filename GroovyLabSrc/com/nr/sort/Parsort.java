@@ -0,0 +1,183 @@
+package com.nr.sort;
+
+import static java.lang.Math.*;
+import static com.nr.NRUtil.*;
+
+import com.nr.util.Parallel;
+
+/*
+ Parallel merge sort behind Sorter.sort, Sorter.sort2 and Indexx.index. The range [0,n) is split
+ into the chunks of com.nr.util.Parallel, each sorted by the serial quicksort on its own thread,
+ and the sorted runs are merged pairwise, round by round, between the array and one scratch
+ array of the same length (one more for the companion array, if any). Every merge of a round is
+ cut into pieces of about equal output length, the cut points being found by binary search
+ (co-ranking), so that all threads stay busy down to the last round. Keys and companions move
+ together, without the boxing or index indirection a comparator sort would need.
+ */
+final class Parsort {
+  private Parsort(){}
+  static final int GRAIN = 1 << 15;
+
+  /** True if an array of n elements would be sorted in parallel. */
+  static boolean parallel(final int n) {
+    return Parallel.chunks(n, GRAIN) > 1;
+  }
+
+  /**
+   * Sort a[0..n-1], with the companion b[0..n-1] or bi[0..n-1] if not null, in parallel.
+   * Returns false, leaving the arrays alone, if n is too small for more than one chunk.
+   */
+  static boolean sort(final double[] a, final int n, final double[] b, final int[] bi) {
+    final int nrun = Parallel.chunks(n, GRAIN);
+    if (nrun < 2) return false;
+    int[] start = new int[nrun+1];
+    for (int c=0;c<=nrun;c++) start[c]=Parallel.chunkStart(n,nrun,c);
+    Parallel.forChunks(n, nrun, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        if (b != null) Sorter.sort2(a,b,from,to-1);
+        else if (bi != null) sorti(a,bi,from,to-1);
+        else Sorter.sort(a,from,to-1);
+      }
+    });
+    double[] src=a, dst=new double[n], bsrc=b, bdst=(b == null ? null : new double[n]), t;
+    int[] isrc=bi, idst=(bi == null ? null : new int[n]), it;
+    for (int w=1;w<nrun;w*=2) {
+      round(src,dst,bsrc,bdst,isrc,idst,start,w);
+      t=src; src=dst; dst=t;
+      t=bsrc; bsrc=bdst; bdst=t;
+      it=isrc; isrc=idst; idst=it;
+    }
+    if (src != a) {    // result is in the scratch arrays
+      final double[] fs=src, fbs=bsrc;
+      final int[] fis=isrc;
+      Parallel.forChunks(n, nrun, new Parallel.Body() {
+        public void run(final int from, final int to, final int chunk) {
+          System.arraycopy(fs,from,a,from,to-from);
+          if (b != null) System.arraycopy(fbs,from,b,from,to-from);
+          if (bi != null) System.arraycopy(fis,from,bi,from,to-from);
+        }
+      });
+    }
+    return true;
+  }
+
+  // Merge runs c and c+w into one, for c = 0, 2w, 4w, ...; a run without partner is copied
+  private static void round(final double[] s, final double[] d, final double[] bs, final double[] bd,
+    final int[] is, final int[] id, final int[] start, final int w) {
+    int p,k,c0,npair,npiece=0,nrun=start.length-1,n=start[nrun];
+    npair=(nrun+2*w-1)/(2*w);
+    int[] pieces = new int[npair+1];    // pieces of pair p are pieces[p]..pieces[p+1]-1
+    for (p=0;p<npair;p++) {
+      c0=2*w*p;
+      pieces[p]=npiece;
+      npiece += max(1,(int)((long)nrun*(start[min(c0+2*w,nrun)]-start[c0])/n));
+    }
+    pieces[npair]=npiece;
+    final int[] pair = new int[npiece];
+    for (p=0;p<npair;p++) for (k=pieces[p];k<pieces[p+1];k++) pair[k]=p;
+    final int[] fpieces=pieces;
+    Parallel.forChunks(npiece, npiece, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        for (int k=from;k<to;k++) {
+          int p=pair[k],c0=2*w*p,c1=min(c0+w,start.length-1),c2=min(c0+2*w,start.length-1);
+          int a0=start[c0],a1=start[c1],b1=start[c2],len=b1-a0;
+          int np=fpieces[p+1]-fpieces[p],q=k-fpieces[p];
+          merge(s,d,bs,bd,is,id,a0,a1,b1,(int)((long)len*q/np),(int)((long)len*(q+1)/np));
+        }
+      }
+    });
+  }
+
+  // Write output positions a0+o0..a0+o1-1 of the stable merge of s[a0..a1-1] and s[a1..b1-1]
+  private static void merge(final double[] s, final double[] d, final double[] bs, final double[] bd,
+    final int[] is, final int[] id, final int a0, final int a1, final int b1, final int o0, final int o1) {
+    int i=a0+corank(s,a0,a1,b1,o0),j=a1+o0-(i-a0),o=a0+o0,oe=a0+o1,x;
+    while (o < oe) {
+      if (j >= b1 || (i < a1 && s[i] <= s[j])) x=i++;
+      else x=j++;
+      d[o]=s[x];
+      if (bs != null) bd[o]=bs[x];
+      else if (is != null) id[o]=is[x];
+      o++;
+    }
+  }
+
+  // Number of elements of s[a0..a1-1] among the first k outputs of the merge
+  private static int corank(final double[] s, final int a0, final int a1, final int b1, final int k) {
+    int i,lo=max(0,k-(b1-a1)),hi=min(k,a1-a0);
+    while (lo < hi) {
+      i=(lo+hi) >>> 1;
+      if (s[a0+i] <= s[a1+k-i-1]) lo=i+1;   // s[a0+i] comes before s[a1+k-i-1]
+      else hi=i;
+    }
+    return lo;
+  }
+
+  // Quicksort of arr[lo..hi] with the integer companion brr[lo..hi], as Sorter.sort2
+  static void sorti(final double[] arr, final int[] brr, final int lo, final int hi) {
+    final int M=7,NSTACK=64;
+    int i,ir=hi,j,k,jstack=-1,l=lo,b;
+    double a;
+    int[] istack = new int[NSTACK];
+    for (;;) {
+      if (ir-l < M) {
+        for (j=l+1;j<=ir;j++) {
+          a=arr[j];
+          b=brr[j];
+          for (i=j-1;i>=l;i--) {
+            if (arr[i] <= a) break;
+            arr[i+1]=arr[i];
+            brr[i+1]=brr[i];
+          }
+          arr[i+1]=a;
+          brr[i+1]=b;
+        }
+        if (jstack < 0) break;
+        ir=istack[jstack--];
+        l=istack[jstack--];
+      } else {
+        k=(l+ir) >> 1;
+        swap(arr,k,l+1);
+        swap(brr,k,l+1);
+        if (arr[l] > arr[ir]) {
+          swap(arr,l,ir);
+          swap(brr,l,ir);
+        }
+        if (arr[l+1] > arr[ir]) {
+          swap(arr,l+1,ir);
+          swap(brr,l+1,ir);
+        }
+        if (arr[l] > arr[l+1]) {
+          swap(arr,l,l+1);
+          swap(brr,l,l+1);
+        }
+        i=l+1;
+        j=ir;
+        a=arr[l+1];
+        b=brr[l+1];
+        for (;;) {
+          do i++; while (arr[i] < a);
+          do j--; while (arr[j] > a);
+          if (j < i) break;
+          swap(arr,i,j);
+          swap(brr,i,j);
+        }
+        arr[l+1]=arr[j];
+        arr[j]=a;
+        brr[l+1]=brr[j];
+        brr[j]=b;
+        jstack += 2;
+        if (jstack >= NSTACK) throw new IllegalArgumentException("NSTACK too small in sort.");
+        if (ir-i+1 >= j-l) {
+          istack[jstack]=ir;
+          istack[jstack-1]=i;
+          ir=j-1;
+        } else {
+          istack[jstack]=j-1;
+          istack[jstack-1]=l;
+          l=i;
+        }
+      }
+    }
+  }
+}
@@ -3,6 +3,13 @@ package com.nr.sort;
 import static java.lang.Math.*;
 import static com.nr.NRUtil.*;
 
+import java.util.Arrays;
+
+/**
+ * Sorting and selection of double arrays. sort, sort2 and the Indexx class switch to a
+ * parallel merge sort (class Parsort) for arrays of more than a few Parsort.GRAIN elements,
+ * when com.nr.util.Parallel has more than one thread. select is an introselect.
+ */
 public class Sorter {
   private Sorter(){}
   
@@ -15,13 +22,18 @@ public class Sorter {
   // argument m sould be omitted, but if it is set to a positive value, then only the first m elements
   // of arr are sorted
   public static void sort(final double[] arr, final int m){
+    int n=arr.length;
+    if (m>0) n = min(m,n);   // Usew optional argument
+    if (!Parsort.sort(arr,n,null,null)) sort(arr,0,n-1);
+  }
+
+  // Quicksort of arr[lo..hi]
+  static void sort(final double[] arr, final int lo, final int hi){
     // Here M is the size of subarrays sorted by straight insertion and NSTACK is the required auxiliary storage
       final int M=7, NSTACK=64;
-    int i,ir,j,k,jstack=-1,l=0,n=arr.length;
+    int i,ir=hi,j,k,jstack=-1,l=lo;
     double a;
     int[] istack = new int[NSTACK];
-    if (m>0) n = min(m,n);   // Usew optional argument
-    ir=n-1;
     for (;;) {   // Insertion sort when subarray small enough
       if (ir-l < M) {
         for (j=l+1;j<=ir;j++) {
@@ -78,12 +90,18 @@ public class Sorter {
   // Sort an array arr[0..n-1] into ascending order using Quicksort, while making the corresponding
   // rearrangement of the array brr[0..n-1]
   public static void sort2(final double[] arr, final double[] brr) {
+    int n=arr.length;
+    if (brr.length < n) throw new IllegalArgumentException("sort2: companion array too short");
+    if (!Parsort.sort(arr,n,brr,null)) sort2(arr,brr,0,n-1);
+  }
+
+  // Quicksort of arr[lo..hi] with the companion brr[lo..hi]
+  static void sort2(final double[] arr, final double[] brr, final int lo, final int hi) {
     final int M=7,NSTACK=64;
-    int i,ir,j,k,jstack=-1,l=0,n=arr.length;
+    int i,ir=hi,j,k,jstack=-1,l=lo;
     double a;
     double b;
     int[] istack = new int[NSTACK];
-    ir=n-1;
     for (;;) {   // Insertion sort when subaray small enough
       if (ir-l < M) {
         for (j=l+1;j<=ir;j++) {
@@ -151,35 +169,40 @@ public class Sorter {
   // sort an array ra[0..n-1] into ascending numerical order using the Heapsort algorithm.
   // ra is replaced on output by its sorted rearrangement
   public static void hpsort(final double[] ra){
-    int i,n=ra.length;
+    hpsort(ra,0,ra.length-1);
+  }
+
+  // Heapsort of ra[lo..hi]; the heap is rooted at ra[lo]
+  private static void hpsort(final double[] ra, final int lo, final int hi){
+    int i,n=hi-lo+1;
     for (i=n/2-1; i>=0; i--)
           // the index i, which here determines the "left" range of the sift-down, i.e., the element
          // to be sifted down, is decremented from n/2-1 dwn to 0 during the "hiring" (heap creation) phase
-      sift_down(ra,i,n-1);
+      sift_down(ra,lo,i,n-1);
     for (i=n-1; i>0; i--) {
         // Here the "right" range of the sift-down is decremented from n-2 down to 0 during the 
         // "retirement-and-promotion" (heap selection) phase
-      swap(ra,0,i);   // clear a space a the end of the array, and retire
-      sift_down(ra,0,i-1);   // the top of te heap into it
+      swap(ra,lo,lo+i);   // clear a space a the end of the array, and retire
+      sift_down(ra,lo,0,i-1);   // the top of te heap into it
     }
   }
   
-  // carry out the sift-down on element ra(l) to maintain the heap structure. l and r
-  // determine the "left" and "right" range of the sift-down
-  private static void sift_down(final double[]ra, final int l, final int r){
+  // carry out the sift-down on element ra(off+l) to maintain the heap structure. l and r
+  // determine the "left" and "right" range of the sift-down, relative to off
+  private static void sift_down(final double[]ra, final int off, final int l, final int r){
     int j,jold;
     double a;
-    a=ra[l];
+    a=ra[off+l];
     jold=l;
     j=2*l+1;
     while (j <= r) {
-      if (j < r && ra[j] < ra[j+1]) j++;
-      if (a >= ra[j]) break;
-      ra[jold]=ra[j];
+      if (j < r && ra[off+j] < ra[off+j+1]) j++;
+      if (a >= ra[off+j]) break;
+      ra[off+jold]=ra[off+j];
       jold=j;
       j=2*j+1;
     }
-    ra[jold]=a;
+    ra[off+jold]=a;
   }
 
   // sort an array arr[0..n-1] into asending numerical order, by straight insertion. arr is replaced 
@@ -224,43 +247,142 @@ public class Sorter {
   // less than or equal to the one returned. The input array will be rearranged to have this 
   // value in location arr[k], with all smaller elements moved to arr[0..k-1] (in arbitrary order)
   // and all larger elements in arr[k+1..n-1] (also in arbitrary order)
+  // This is an introselect: if the active partition has not been narrowed down after
+  // 2 log2(n) partitioning rounds, it is heapsorted, which bounds the work by O(n log n)
+  // for adversarial inputs while leaving the usual O(n) behaviour unchanged.
   public static double select(final int k, final double[] arr) {
-    int i,ir,j,l,mid,n=arr.length;
+    int n=arr.length;
+    if (k < 0 || k > n-1) throw new IllegalArgumentException("bad input to select");
+    select(arr,k,0,n-1,depthlimit(n));
+    return arr[k];
+  }
+
+  /**
+   * Select several order statistics in one pass of partitioning. On return arr[ks[i]] holds
+   * the value of rank ks[i] for each i, as it would after a full sort, and the elements
+   * between two requested ranks lie between the two values (in arbitrary order). Returns
+   * the selected values, in the order of ks. The work is O(n log m) for m distinct ranks.
+   *
+   * @param ks ranks in [0..n-1], in any order
+   * @param arr
+   * @return
+   */
+  public static double[] select(final int[] ks, final double[] arr) {
+    int i,m=0,n=arr.length;
+    int[] kk = ks.clone();
+    Arrays.sort(kk);
+    for (i=0;i<kk.length;i++) {
+      if (kk[i] < 0 || kk[i] > n-1) throw new IllegalArgumentException("bad input to select");
+      if (m == 0 || kk[i] != kk[m-1]) kk[m++]=kk[i];
+    }
+    select(arr,kk,0,m-1,0,n-1,depthlimit(n));
+    double[] val = new double[ks.length];
+    for (i=0;i<ks.length;i++) val[i]=arr[ks[i]];
+    return val;
+  }
+
+  /**
+   * Sample quantiles of arr for the fractions p[i] in [0,1], interpolated linearly between
+   * the order statistics of rank floor(p(n-1)) and ceil(p(n-1)). arr is rearranged as by
+   * select(int[],double[]).
+   *
+   * @param p
+   * @param arr
+   * @return
+   */
+  public static double[] quantiles(final double[] p, final double[] arr) {
+    int i,n=arr.length;
+    if (n == 0) throw new IllegalArgumentException("quantiles: empty array");
+    int[] ks = new int[2*p.length];
+    for (i=0;i<p.length;i++) {
+      if (!(p[i] >= 0. && p[i] <= 1.)) throw new IllegalArgumentException("quantiles: p outside [0,1]");
+      ks[2*i]=(int)floor(p[i]*(n-1));
+      ks[2*i+1]=(int)ceil(p[i]*(n-1));
+    }
+    double[] v = select(ks,arr), q = new double[p.length];
+    for (i=0;i<p.length;i++) q[i]=v[2*i]+(p[i]*(n-1)-ks[2*i])*(v[2*i+1]-v[2*i]);
+    return q;
+  }
+
+  private static int depthlimit(final int n) {
+    return 2*(32-Integer.numberOfLeadingZeros(max(n,1)));
+  }
+
+  // Partition arr[l..ir], ir > l+1, about the median of arr[l], arr[(l+ir)/2] and arr[ir];
+  // returns the final position j of the partitioning element, with arr[l..j-1] <= arr[j] and
+  // arr[j+1..ir] >= arr[j]
+  private static int partition(final double[] arr, final int l, final int ir) {
+    int i,j,mid;
     double a;
-    l=0;
-    ir=n-1;
-    for (;;) {  
+    mid=(l+ir) >> 1;       // Choose median of left, center, and right elements as partitioning element a.
+    swap(arr,mid,l+1);   // Also, rearrange so that arr[l] <= arr[l+1], arr[ir] >= arr[l+1]
+    if (arr[l] > arr[ir]){
+      swap(arr, l, ir);
+    }
+    if (arr[l+1] > arr[ir]){
+      swap(arr, l+1, ir);
+    }
+    if (arr[l] > arr[l+1]){
+      swap(arr,l,l+1);
+    }
+    i=l+1;     // Initialize pointers for partitioning.
+    j=ir;
+    a=arr[l+1];     // Partitioning element.
+    for (;;) {   // Beginning of innermost loop.
+      do i++; while (arr[i] < a);   // Scan up to find element > a
+      do j--; while (arr[j] > a);   // Scan down to find element < a
+      if (j < i) break;    // Pointers crossed. Partitioning complete
+      swap(arr,i,j);
+    }   // end of innermost loop
+    arr[l+1]=arr[j];    // insert partitioning element
+    arr[j]=a;
+    return j;
+  }
+
+  private static void select(final double[] arr, final int k, int l, int ir, int depth) {
+    int j;
+    for (;;) {
       if (ir <= l+1) {    //  Active partition contains 1 or 2 elements 
         if (ir == l+1 && arr[ir] < arr[l]){    // Case of 2 elements
           swap(arr,l,ir);
         }
-        return arr[k];
-      } else {
-        mid=(l+ir) >> 1;       // Choose median of left, center, and right elements as partitioning element a.
-        swap(arr,mid,l+1);   // Also, rearrange so that arr[l] <= arr[l+1], arr[ir] >= arr[l+1]
-        if (arr[l] > arr[ir]){
-          swap(arr, l, ir);
-        }
-        if (arr[l+1] > arr[ir]){
-          swap(arr, l+1, ir);
-        }
-        if (arr[l] > arr[l+1]){
-          swap(arr,l,l+1);
-        }
-        i=l+1;     // Initialize pointers for partitioning.
-        j=ir;
-        a=arr[l+1];     // Partitioning element.
-        for (;;) {   // Beginning of innermost loop.
-          do i++; while (arr[i] < a);   // Scan up to find element > a
-          do j--; while (arr[j] > a);   // Scan down to find element < a
-          if (j < i) break;    // Pointers crossed. Partitioning complete
-          swap(arr,i,j);
-        }   // end of innermost loop
-        arr[l+1]=arr[j];    // insert partitioning element
-        arr[j]=a;
-        if (j >= k) ir=j-1;   // keep active the partition that contains the kth element
-        if (j <= k) l=i;
+        return;
+      }
+      if (depth-- == 0) {    // Too many rounds: finish by heapsort
+        hpsort(arr,l,ir);
+        return;
+      }
+      j=partition(arr,l,ir);
+      if (j == k) return;
+      if (j > k) ir=j-1;   // keep active the partition that contains the kth element
+      else l=j+1;
+    }
+  }
+
+  // Select the distinct sorted ranks kk[klo..khi] within arr[l..ir]
+  private static void select(final double[] arr, final int[] kk, int klo, final int khi,
+    int l, final int ir, int depth) {
+    int j,m;
+    while (klo <= khi) {
+      if (klo == khi) {
+        select(arr,kk[klo],l,ir,depth);
+        return;
+      }
+      if (ir <= l+1) {
+        if (ir == l+1 && arr[ir] < arr[l]) swap(arr,l,ir);
+        return;
+      }
+      if (depth-- == 0) {
+        hpsort(arr,l,ir);
+        return;
       }
+      j=partition(arr,l,ir);
+      m=Arrays.binarySearch(kk,klo,khi+1,j);   // ranks below j lie on the left
+      if (m < 0) m=-m-1;
+      select(arr,kk,klo,m-1,l,j-1,depth);
+      if (m <= khi && kk[m] == j) m++;
+      klo=m;    // continue with the ranks above j
+      l=j+1;
     }
   }
   
@@ -0,0 +1,234 @@
+package com.nr.sort;
+
+import static java.lang.Math.*;
+
+import java.util.Arrays;
+
+import com.nr.stat.Sketch;
+import com.nr.util.Parallel;
+
+/**
+ * Mergeable estimator of quantiles of a stream, the merging t-digest of Dunning and Ertl.
+ *
+ * The data are summarized by weighted centroids, sorted by mean, whose sizes are limited by
+ * the scale function k(q) = (delta/Z) log(q/(1-q)), Z = 4 log(n/delta) + 24: a centroid
+ * may span at most one unit of k, so centroids near the median hold many values and the
+ * sizes shrink geometrically towards the tails, down to single values. The rank error of a
+ * p-quantile is therefore bounded relative to min(p,1-p). Of the order of delta centroids
+ * are kept. New values are gathered in a buffer and
+ * merged into the centroids in batches. Unlike IQagent, two digests can be merged, so
+ * that the quantiles of streams summarized on different threads can be combined.
+ */
+public class Tdigest implements Sketch<Tdigest> {
+  static final int GRAIN = 16384;
+  final double delta;
+  double[] mean, weight;
+  int nc;
+  final double[] buf;
+  int nb;
+  long n;
+  double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+  public Tdigest() {
+    this(100.);
+  }
+
+  /**
+   * Digest with compression parameter ddelta (typically 100 to 500).
+   *
+   * @param ddelta
+   */
+  public Tdigest(final double ddelta) {
+    if (ddelta < 10.) throw new IllegalArgumentException("Tdigest: compression must be at least 10");
+    delta = ddelta;
+    mean = new double[0];
+    weight = new double[0];
+    buf = new double[(int)(5*delta)];
+  }
+
+  public Tdigest(final Tdigest t) {
+    delta = t.delta;
+    mean = t.mean.clone();
+    weight = t.weight.clone();
+    nc = t.nc;
+    buf = t.buf.clone();
+    nb = t.nb;
+    n = t.n;
+    min = t.min;
+    max = t.max;
+  }
+
+  /**
+   * Digest of data[0..n-1] with compression ddelta, formed in parallel over chunks whose
+   * digests are merged in order.
+   *
+   * @param data
+   * @param ddelta
+   * @return
+   */
+  public static Tdigest of(final double[] data, final double ddelta) {
+    final int ncn = Parallel.chunks(data.length, GRAIN);
+    final Tdigest[] part = new Tdigest[ncn];
+    Parallel.forChunks(data.length, ncn, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Tdigest t = new Tdigest(ddelta);
+        for (int i=from;i<to;i++) t.add(data[i]);
+        part[chunk] = t;
+      }
+    });
+    for (int c=1;c<ncn;c++) part[0].merge(part[c]);
+    return part[0];
+  }
+
+  public void add(final double x) {
+    if (x != x) throw new IllegalArgumentException("Tdigest: cannot add NaN");
+    buf[nb++] = x;
+    if (x < min) min = x;
+    if (x > max) max = x;
+    n++;
+    if (nb == buf.length) compress();
+  }
+
+  public void merge(final Tdigest t) {
+    if (t.n == 0) return;
+    compress();
+    double[] tb = Arrays.copyOf(t.buf, t.nb);
+    Arrays.sort(tb);
+    double[] ones = new double[tb.length];
+    Arrays.fill(ones, 1.);
+    double[][] other = mergesorted(t.mean, t.weight, t.nc, tb, ones, tb.length);
+    double[][] all = mergesorted(mean, weight, nc, other[0], other[1], other[0].length);
+    squeeze(all[0], all[1]);
+    n += t.n;
+    min = min(min, t.min);
+    max = max(max, t.max);
+  }
+
+  public long count() { return n; }
+
+  /** Merge the buffered values into the centroids. */
+  void compress() {
+    if (nb == 0) return;
+    Arrays.sort(buf, 0, nb);
+    double[] ones = new double[nb];
+    Arrays.fill(ones, 1.);
+    double[][] all = mergesorted(mean, weight, nc, buf, ones, nb);
+    nb = 0;
+    squeeze(all[0], all[1]);
+  }
+
+  // merge two lists of (mean,weight) pairs, each sorted by mean
+  private static double[][] mergesorted(final double[] am, final double[] aw, final int na,
+    final double[] bm, final double[] bw, final int nbb) {
+    double[] m = new double[na+nbb], w = new double[na+nbb];
+    int i=0,j=0,k=0;
+    while (i < na || j < nbb) {
+      if (j >= nbb || (i < na && am[i] <= bm[j])) {
+        m[k] = am[i]; w[k++] = aw[i++];
+      } else {
+        m[k] = bm[j]; w[k++] = bw[j++];
+      }
+    }
+    return new double[][]{m, w};
+  }
+
+  // k2 scale function for total weight w, and its inverse
+  private double kscale(final double q, final double w) {
+    double qq = max(1.e-15, min(1.-1.e-15, q));
+    return delta/znorm(w)*log(qq/(1.-qq));
+  }
+
+  private double kinv(final double k, final double w) { return 1./(1.+exp(-k*znorm(w)/delta)); }
+
+  private double znorm(final double w) { return 4.*log(max(w/delta, 1.)) + 24.; }
+
+  // one greedy pass over the sorted list, combining neighbours while k grows by at most 1
+  private void squeeze(final double[] m, final double[] w) {
+    int i,k=0,len=m.length;
+    double total=0.,wsofar=0.,wlimit,cm,cw;
+    if (len == 0) return;
+    for (i=0;i<len;i++) total += w[i];
+    double[] om = new double[len], ow = new double[len];
+    wlimit = total*kinv(kscale(0.,total)+1.,total);
+    cm = m[0];
+    cw = w[0];
+    for (i=1;i<len;i++) {
+      if (wsofar + cw + w[i] <= wlimit) {
+        cw += w[i];
+        cm += (m[i]-cm)*w[i]/cw;
+      } else {
+        om[k] = cm; ow[k++] = cw;
+        wsofar += cw;
+        wlimit = total*kinv(kscale(wsofar/total,total)+1.,total);
+        cm = m[i];
+        cw = w[i];
+      }
+    }
+    om[k] = cm; ow[k++] = cw;
+    mean = Arrays.copyOf(om, k);
+    weight = Arrays.copyOf(ow, k);
+    nc = k;
+  }
+
+  /**
+   * Return estimated p-quantile for the data seen so far.
+   *
+   * @param p
+   * @return
+   */
+  public double quantile(final double p) {
+    int i;
+    double index,wsofar,dw,z1,z2,total=n;
+    if (p < 0. || p > 1.) throw new IllegalArgumentException("Tdigest: p must be in [0,1]");
+    if (n == 0) throw new IllegalArgumentException("Tdigest: no data");
+    compress();
+    if (nc == 1) return mean[0];
+    index = p*total;
+    if (index < 1.) return min;
+    if (weight[0] > 1. && index < weight[0]/2.)
+      return min + (index-1.)/(weight[0]/2.-1.)*(mean[0]-min);
+    if (index > total-1.) return max;
+    if (weight[nc-1] > 1. && total-index <= weight[nc-1]/2.)
+      return max - (total-index-1.)/(weight[nc-1]/2.-1.)*(max-mean[nc-1]);
+    wsofar = weight[0]/2.;
+    for (i=0;i<nc-1;i++) {
+      dw = (weight[i]+weight[i+1])/2.;
+      if (wsofar + dw > index) {
+        z1 = index - wsofar;
+        z2 = wsofar + dw - index;
+        return (mean[i]*z2 + mean[i+1]*z1)/(z1+z2);
+      }
+      wsofar += dw;
+    }
+    return mean[nc-1];
+  }
+
+  /**
+   * Return the estimated fraction of the data not exceeding x.
+   *
+   * @param x
+   * @return
+   */
+  public double cdf(final double x) {
+    int i;
+    double total=n,wsofar;
+    if (n == 0) throw new IllegalArgumentException("Tdigest: no data");
+    compress();
+    if (x < min) return 0.;
+    if (x >= max) return 1.;
+    if (x < mean[0]) {
+      if (mean[0] - min <= 0.) return 0.;
+      return (1. + (x-min)/(mean[0]-min)*(weight[0]/2.-1.))/total;
+    }
+    wsofar = weight[0]/2.;
+    for (i=0;i<nc-1;i++) {
+      if (x < mean[i+1]) {
+        double dw = (weight[i]+weight[i+1])/2.;
+        return (wsofar + dw*(x-mean[i])/(mean[i+1]-mean[i]))/total;
+      }
+      wsofar += (weight[i]+weight[i+1])/2.;
+    }
+    if (max - mean[nc-1] <= 0.) return 1.;
+    return 1. - (1. + (max-x)/(max-mean[nc-1])*(weight[nc-1]/2.-1.))/total;
+  }
+}
@@ -0,0 +1,77 @@
+package com.nr.stat;
+
+import static java.lang.Math.*;
+
+import com.nr.ran.Ranhash;
+
+/**
+ * Estimate of the number of distinct values in a stream by the HyperLogLog algorithm
+ * (Flajolet et al. 2007), with 2^p one-byte registers, 4 <= p <= 18. Values are hashed to 64
+ * bits with Ranhash, so the usual large-range correction is not needed; small counts use
+ * linear counting. The relative standard error is about 1.04/sqrt(2^p). Sketches with the
+ * same p merge by taking the register-wise maximum, which gives exactly the sketch of the
+ * combined stream.
+ */
+public class Hyperloglog implements Sketch<Hyperloglog> {
+  private static final Ranhash hash = new Ranhash();
+  final int p, m;
+  final byte[] reg;
+  long n;
+
+  public Hyperloglog() {
+    this(14);
+  }
+
+  public Hyperloglog(final int pp) {
+    if (pp < 4 || pp > 18) throw new IllegalArgumentException("Hyperloglog: p must be in 4..18");
+    p = pp;
+    m = 1 << p;
+    reg = new byte[m];
+  }
+
+  public Hyperloglog(final Hyperloglog h) {
+    p = h.p;
+    m = h.m;
+    reg = h.reg.clone();
+    n = h.n;
+  }
+
+  /** Assimilate a value; 0. and -0. count as the same value. */
+  public void add(final double x) {
+    add(Double.doubleToLongBits(x == 0. ? 0. : x));
+  }
+
+  public void add(final long v) {
+    long h = hash.int64(v);
+    int j = (int)(h >>> (64-p));
+    int rho = min(Long.numberOfLeadingZeros(h << p), 64-p) + 1;
+    if (rho > reg[j]) reg[j] = (byte)rho;
+    n++;
+  }
+
+  public void merge(final Hyperloglog h) {
+    if (h.p != p) throw new IllegalArgumentException("Hyperloglog: cannot merge sketches of different precision");
+    for (int j=0;j<m;j++) if (h.reg[j] > reg[j]) reg[j] = h.reg[j];
+    n += h.n;
+  }
+
+  public long count() { return n; }
+
+  /**
+   * Return the estimated number of distinct values.
+   *
+   * @return
+   */
+  public double distinct() {
+    int j,zeros=0;
+    double sum=0.,alpha,e;
+    for (j=0;j<m;j++) {
+      sum += 1./(1L << reg[j]);
+      if (reg[j] == 0) zeros++;
+    }
+    alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213/(1.+1.079/m);
+    e = alpha*m*(double)m/sum;
+    if (e <= 2.5*m && zeros > 0) e = m*log((double)m/zeros);
+    return e;
+  }
+}
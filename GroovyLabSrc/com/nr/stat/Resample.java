@@ -0,0 +1,119 @@
+package com.nr.stat;
+
+import com.nr.ran.Ranjump;
+import com.nr.ran.Ranstreams;
+import com.nr.util.Parallel;
+
+/**
+ * Parallel engine for bootstrap and permutation tests. A resample of n observations is given
+ * to the statistic as an array idx[0..n-1] of indices into the original data. Resamples are
+ * generated in blocks of BLOCK, block b drawing its random numbers from stream b of
+ * Ranstreams(seed), and the blocks are spread over the threads of com.nr.util.Parallel, so
+ * that the results depend on the seed but not on the number of threads.
+ *
+ * Bootstrap indices come in ascending order, and a permutation only moves observations
+ * between positions. Sorted orders and ranks computed once from the original data therefore
+ * remain valid for every resample, and statistics built on them (see Stattests.spearperm,
+ * kendlperm and kstwoperm) need no sorting inside the resampling loop.
+ */
+public class Resample {
+  public static final int BLOCK = 64;
+
+  /**
+   * Statistic of a resample. It is called from several threads at once and must not modify
+   * idx.
+   */
+  public interface Statistic {
+    public double eval(int[] idx);
+  }
+
+  private final Ranstreams streams;
+
+  public Resample(final long seed) {
+    streams = new Ranstreams(seed);
+  }
+
+  /**
+   * Values of stat for nrep bootstrap resamples of n observations, each drawn with replacement;
+   * the indices of a resample are in ascending order.
+   *
+   * @param n
+   * @param nrep
+   * @param stat
+   * @return
+   */
+  public double[] bootstrap(final int n, final int nrep, final Statistic stat) {
+    return run(n,nrep,stat,false);
+  }
+
+  /**
+   * Values of stat for nrep random permutations of n observations.
+   *
+   * @param n
+   * @param nrep
+   * @param stat
+   * @return
+   */
+  public double[] permutation(final int n, final int nrep, final Statistic stat) {
+    return run(n,nrep,stat,true);
+  }
+
+  /**
+   * Two-sided p-value of the observed value t0 against the resampled values t, as
+   * (1 + #{|t[r]| >= |t0|})/(nrep + 1), which counts the observed data as one of the resamples.
+   *
+   * @param t0
+   * @param t
+   * @return
+   */
+  public static double pvalue(final double t0, final double[] t) {
+    int k=0;
+    double a=Math.abs(t0);
+    for (double v : t) if (Math.abs(v) >= a) k++;
+    return (k+1.)/(t.length+1.);
+  }
+
+  private double[] run(final int n, final int nrep, final Statistic stat, final boolean perm) {
+    if (n < 1 || nrep < 1) throw new IllegalArgumentException("Resample: need n >= 1 and nrep >= 1");
+    final double[] t = new double[nrep];
+    final int nblk = (nrep+BLOCK-1)/BLOCK;
+    Parallel.forRange(nblk, 1, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        int i,r;
+        int[] idx = new int[n], cnt = (perm ? null : new int[n]);
+        for (int b=from;b<to;b++) {
+          Ranjump ran = streams.stream(b);
+          if (perm) for (i=0;i<n;i++) idx[i]=i;    // each block starts from the identity
+          for (r=b*BLOCK;r<Math.min(nrep,(b+1)*BLOCK);r++) {
+            if (perm) shuffle(ran,idx);
+            else draw(ran,idx,cnt);
+            t[r]=stat.eval(idx);
+          }
+        }
+      }
+    });
+    return t;
+  }
+
+  // Uniform integer in [0,m)
+  private static int below(final Ranjump ran, final int m) {
+    return (int)(((ran.int64() >>> 32)*m) >>> 32);
+  }
+
+  // Fisher-Yates shuffle; a uniform permutation whatever the order of idx on entry
+  private static void shuffle(final Ranjump ran, final int[] idx) {
+    int j,t;
+    for (int i=idx.length-1;i>0;i--) {
+      j=below(ran,i+1);
+      t=idx[i]; idx[i]=idx[j]; idx[j]=t;
+    }
+  }
+
+  // n draws with replacement, delivered in ascending order by counting
+  private static void draw(final Ranjump ran, final int[] idx, final int[] cnt) {
+    int i,j,k=0,n=idx.length;
+    for (i=0;i<n;i++) cnt[i]=0;
+    for (i=0;i<n;i++) cnt[below(ran,n)]++;
+    for (i=0;i<n;i++) for (j=0;j<cnt[i];j++) idx[k++]=i;
+  }
+}
@@ -0,0 +1,21 @@
+package com.nr.stat;
+
+/**
+ * One-pass summary of a stream of values that can be combined with another summary of the
+ * same kind and parameters. Each worker thread or node summarizes its own part of the
+ * stream; merging the summaries gives (up to the approximation of the sketch) the summary of
+ * the whole stream, at a cost that does not depend on the number of values.
+ *
+ * Implementations: Welford (moments), com.nr.sort.Tdigest (quantiles), Hyperloglog
+ * (distinct values).
+ */
+public interface Sketch<T extends Sketch<T>> {
+  /** Assimilate a new value from the stream. */
+  public void add(double x);
+
+  /** Assimilate the summary other, which is left unchanged. */
+  public void merge(T other);
+
+  /** Number of values assimilated, including those of merged summaries. */
+  public long count();
+}
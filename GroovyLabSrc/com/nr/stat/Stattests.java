@@ -8,6 +8,7 @@ import com.nr.UniVarRealValueFun;
 import com.nr.sf.Beta;
 import com.nr.sf.Gamma;
 import com.nr.sf.KSdist;
+import com.nr.sort.Indexx;
 import static com.nr.sf.Erf.*;
 import static com.nr.sort.Sorter.*;
 import static com.nr.stat.Moment.*;
@@ -316,34 +317,77 @@ public class Stattests {
    number of standard deviations from zero as z, and its two-sided p-value
    as prob. Small values of prob indicate a significant correlation (tau positive)
    or anticorrelation (tau negative)
+   The pairs are counted by Knight's method: the data are sorted by data1, ties broken by data2,
+   and the discordant pairs are the exchanges made by a merge sort on data2. This takes
+   O(n log n) operations instead of the O(n^2) of a count over all pairs, with the same result.
    */
   public static void kendl1(final double[] data1, final double[] data2,
       final doubleW tau, final doubleW z, final doubleW prob){
-    int is=0,j,k,n2=0,n1=0,n=data1.length;
-    double svar,aa,a2,a1;
-    for (j=0;j<n-1;j++) {
-      for (k=j+1;k<n;k++) {
-        a1=data1[j]-data1[k];
-        a2=data2[j]-data2[k];
-        aa=a1*a2;
-        if (aa != 0.0) {
-          ++n1;
-          ++n2;
-          if(aa > 0.0)
-            ++is;
-          else
-            --is;
-        } else {
-          if (a1 != 0.0) ++n1;
-          if (a2 != 0.0) ++n2;
-        }
-      }
-    }
-    tau.val=is/(sqrt(n1)*sqrt(n2));
+    int n=data1.length;
+    double svar,n0;
+    double[] x=buildVector(data1),y=buildVector(data2),xtie=new double[1],ytie=new double[1];
+    sort2(x,y);
+    int[] xb=tieruns(x,xtie);
+    n0=0.5*n*(n-1.0);
+    tau.val=knight(y,xb,xtie[0],ytie,new double[n])/(sqrt(n0-xtie[0])*sqrt(n0-ytie[0]));
     svar=(4.0*n+10.0)/(9.0*n*(n-1.0));
     z.val=tau.val/sqrt(svar);
     prob.val=erfcc(abs(z.val)/1.4142136);
   }
+
+  // Starts of the runs of equal values in the sorted array x, terminated by x.length; sets
+  // ties[0] to the number of tied pairs
+  private static int[] tieruns(final double[] x, final double[] ties) {
+    int i,j,nb=0,n=x.length;
+    int[] xb=new int[n+1];
+    ties[0]=0.0;
+    for (i=0;i<n;i=j) {
+      for (j=i+1;j<n && x[j]==x[i];j++);
+      xb[nb++]=i;
+      ties[0] += 0.5*(j-i)*(j-i-1.0);
+    }
+    xb[nb++]=n;
+    return Arrays.copyOf(xb,nb);
+  }
+
+  // Knight's count. y[0..n-1] holds the second variable in the order of the first, whose runs of
+  // ties start at xb[] and make xtie tied pairs. Returns the number of concordant minus
+  // discordant pairs, and sets ytie[0] to the number of pairs tied in y. On output y is sorted;
+  // w[0..n-1] is workspace
+  private static double knight(double[] y, final int[] xb, final double xtie, final double[] ytie,
+      double[] w) {
+    int i,j,k,lo,mid,hi,w2,n=y.length;
+    double jtie=0.0,swaps=0.0,t[];
+    final double[] y0=y;
+    for (k=0;k<xb.length-1;k++) {   // sort y within runs of tied x, and count joint ties
+      if (xb[k+1]-xb[k] < 2) continue;
+      Arrays.sort(y,xb[k],xb[k+1]);
+      for (i=xb[k];i<xb[k+1];i=j) {
+        for (j=i+1;j<xb[k+1] && y[j]==y[i];j++);
+        jtie += 0.5*(j-i)*(j-i-1.0);
+      }
+    }
+    for (w2=1;w2<n;w2*=2) {   // bottom-up merge sort, counting the exchanges
+      for (lo=0;lo<n;lo+=2*w2) {
+        mid=min(lo+w2,n);
+        hi=min(lo+2*w2,n);
+        i=lo; j=mid; k=lo;
+        while (i < mid && j < hi) {
+          if (y[i] <= y[j]) w[k++]=y[i++];
+          else {
+            w[k++]=y[j++];
+            swaps += mid-i;
+          }
+        }
+        while (i < mid) w[k++]=y[i++];
+        while (j < hi) w[k++]=y[j++];
+      }
+      t=y; y=w; w=t;
+    }
+    if (y != y0) System.arraycopy(y,0,y0,0,n);
+    tieruns(y0,ytie);
+    return 0.5*n*(n-1.0)-xtie-ytie[0]+jtie-2.0*swaps;
+  }
   
   
   /*
@@ -476,6 +520,65 @@ public class Stattests {
     fd.val=ff*nd;
   }
   
+  /*
+   quadct for m origins at once: fa[k], fb[k], fc[k] and fd[k] are set to the fractions that
+   quadct(x[k],y[k],xx,yy,...) returns, in O((m+nn) log nn) operations instead of O(m nn). The
+   points are sorted by x once, and the origins are processed in order of x while a binary
+   indexed tree over the ranks of yy counts the points with xx <= x.
+   */
+  public static void quadct(final double[] x, final double[] y, final double[] xx, final double[] yy,
+      final double[] fa, final double[] fb, final double[] fc, final double[] fd) {
+    int i,j,k,m=x.length,nn=xx.length,nle,neq,nx,ny,lo,hi,p=0;
+    double ff=1.0/nn;
+    double[] xs=buildVector(xx),ys=buildVector(yy),ysort=buildVector(yy);
+    int[] tree=new int[nn+1];
+    sort2(xs,ys);
+    sort(ysort);
+    for (i=0;i<nn;i=j) {    // order by y within runs of equal x
+      for (j=i+1;j<nn && xs[j]==xs[i];j++);
+      if (j-i > 1) Arrays.sort(ys,i,j);
+    }
+    int[] order=new Indexx(x).indx;
+    for (int q=0;q<m;q++) {
+      k=order[q];
+      for (;p<nn && xs[p]<=x[k];p++)   // insert the points with xs <= x
+        for (i=lower(ysort,0,nn,ys[p])+1;i<=nn;i+=i&(-i)) tree[i]++;
+      nx=p;
+      ny=upper(ysort,0,nn,y[k]);
+      nle=0;    // points with xx <= x and yy <= y
+      for (i=ny;i>0;i-=i&(-i)) nle += tree[i];
+      lo=lower(xs,0,nn,x[k]);
+      hi=upper(xs,lo,nn,x[k]);
+      neq=upper(ys,lo,hi,y[k])-lower(ys,lo,hi,y[k]);   // points equal to the origin are skipped
+      fa[k]=ff*(nn-nx-ny+nle);
+      fb[k]=ff*(nx-nle);
+      fc[k]=ff*(nle-neq);
+      fd[k]=ff*(ny-nle);
+    }
+  }
+
+  // First index in a[lo..hi-1] with a[i] >= v, for a sorted
+  private static int lower(final double[] a, int lo, int hi, final double v) {
+    int mid;
+    while (lo < hi) {
+      mid=(lo+hi) >>> 1;
+      if (a[mid] < v) lo=mid+1;
+      else hi=mid;
+    }
+    return lo;
+  }
+
+  // First index in a[lo..hi-1] with a[i] > v, for a sorted
+  private static int upper(final double[] a, int lo, int hi, final double v) {
+    int mid;
+    while (lo < hi) {
+      mid=(lo+hi) >>> 1;
+      if (a[mid] <= v) lo=mid+1;
+      else hi=mid;
+    }
+    return lo;
+  }
+
   /* 
    Two-dimensional Kolmogorov-Smirnov test of one sample against a model. Given the x and y 
    coordinates of n1 data points in arrays x1[0..n1-1] and y1[0..n1-1], and given a user supplied function 
@@ -491,10 +594,10 @@ public class Stattests {
     doubleW dumm = new doubleW(0);
     doubleW r1 = new doubleW(0);
     
-    doubleW fa = new doubleW(0);
-    doubleW fb = new doubleW(0);
-    doubleW fc = new doubleW(0);
-    doubleW fd = new doubleW(0);
+    double[] fa = new double[n1];    // quadrant fractions of the data, counted all at once
+    double[] fb = new double[n1];
+    double[] fc = new double[n1];
+    double[] fd = new double[n1];
 
     doubleW ga = new doubleW(0);
     doubleW gb = new doubleW(0);
@@ -502,18 +605,18 @@ public class Stattests {
     doubleW gd = new doubleW(0);
 
     KSdist ks = new KSdist();
+    quadct(x1,y1,x1,y1,fa,fb,fc,fd);
     d1.val=0.0;
     for (j=0;j<n1;j++) {
-      quadct(x1[j],y1[j],x1,y1,fa,fb,fc,fd);
       quadvl.quadvl(x1[j],y1[j],ga,gb,gc,gd);
-      if (fa.val > ga.val) fa.val += 1.0/n1;
-      if (fb.val > gb.val) fb.val += 1.0/n1;
-      if (fc.val > gc.val) fc.val += 1.0/n1;
-      if (fd.val > gd.val) fd.val += 1.0/n1;
-      d1.val=max(d1.val,abs(fa.val-ga.val));
-      d1.val=max(d1.val,abs(fb.val-gb.val));
-      d1.val=max(d1.val,abs(fc.val-gc.val));
-      d1.val=max(d1.val,abs(fd.val-gd.val));
+      if (fa[j] > ga.val) fa[j] += 1.0/n1;
+      if (fb[j] > gb.val) fb[j] += 1.0/n1;
+      if (fc[j] > gc.val) fc[j] += 1.0/n1;
+      if (fd[j] > gd.val) fd[j] += 1.0/n1;
+      d1.val=max(d1.val,abs(fa[j]-ga.val));
+      d1.val=max(d1.val,abs(fb[j]-gb.val));
+      d1.val=max(d1.val,abs(fc[j]-gc.val));
+      d1.val=max(d1.val,abs(fd[j]-gd.val));
     }
     pearsn(x1,y1,r1,dum,dumm);
     sqen=sqrt(n1);
@@ -538,43 +641,44 @@ public class Stattests {
     doubleW r1 = new doubleW(0);
     doubleW r2 = new doubleW(0);
     
-    doubleW fa = new doubleW(0);
-    doubleW fb = new doubleW(0);
-    doubleW fc = new doubleW(0);
-    doubleW fd = new doubleW(0);
+    // quadrant fractions of both samples around the points of each, counted all at once
+    double[] fa = new double[max(n1,n2)];
+    double[] fb = new double[max(n1,n2)];
+    double[] fc = new double[max(n1,n2)];
+    double[] fd = new double[max(n1,n2)];
 
-    doubleW ga = new doubleW(0);
-    doubleW gb = new doubleW(0);
-    doubleW gc = new doubleW(0);
-    doubleW gd = new doubleW(0);
+    double[] ga = new double[max(n1,n2)];
+    double[] gb = new double[max(n1,n2)];
+    double[] gc = new double[max(n1,n2)];
+    double[] gd = new double[max(n1,n2)];
 
     double d1,d2,rr,sqen;
     KSdist ks = new KSdist();
     d1=0.0;
+    quadct(x1,y1,x1,y1,fa,fb,fc,fd);
+    quadct(x1,y1,x2,y2,ga,gb,gc,gd);
     for (j=0;j<n1;j++) {
-      quadct(x1[j],y1[j],x1,y1,fa,fb,fc,fd);
-      quadct(x1[j],y1[j],x2,y2,ga,gb,gc,gd);
-      if (fa.val > ga.val) fa.val += 1.0/n1;
-      if (fb.val > gb.val) fb.val += 1.0/n1;
-      if (fc.val > gc.val) fc.val += 1.0/n1;
-      if (fd.val > gd.val) fd.val += 1.0/n1;
-      d1=max(d1,abs(fa.val-ga.val));
-      d1=max(d1,abs(fb.val-gb.val));
-      d1=max(d1,abs(fc.val-gc.val));
-      d1=max(d1,abs(fd.val-gd.val));
+      if (fa[j] > ga[j]) fa[j] += 1.0/n1;
+      if (fb[j] > gb[j]) fb[j] += 1.0/n1;
+      if (fc[j] > gc[j]) fc[j] += 1.0/n1;
+      if (fd[j] > gd[j]) fd[j] += 1.0/n1;
+      d1=max(d1,abs(fa[j]-ga[j]));
+      d1=max(d1,abs(fb[j]-gb[j]));
+      d1=max(d1,abs(fc[j]-gc[j]));
+      d1=max(d1,abs(fd[j]-gd[j]));
     }
     d2=0.0;
+    quadct(x2,y2,x1,y1,fa,fb,fc,fd);
+    quadct(x2,y2,x2,y2,ga,gb,gc,gd);
     for (j=0;j<n2;j++) {
-      quadct(x2[j],y2[j],x1,y1,fa,fb,fc,fd);
-      quadct(x2[j],y2[j],x2,y2,ga,gb,gc,gd);
-      if (ga.val > fa.val) ga.val += 1.0/n1;
-      if (gb.val > fb.val) gb.val += 1.0/n1;
-      if (gc.val > fc.val) gc.val += 1.0/n1;
-      if (gd.val > fd.val) gd.val += 1.0/n1;
-      d2=max(d2,abs(fa.val-ga.val));
-      d2=max(d2,abs(fb.val-gb.val));
-      d2=max(d2,abs(fc.val-gc.val));
-      d2=max(d2,abs(fd.val-gd.val));
+      if (ga[j] > fa[j]) ga[j] += 1.0/n1;
+      if (gb[j] > fb[j]) gb[j] += 1.0/n1;
+      if (gc[j] > fc[j]) gc[j] += 1.0/n1;
+      if (gd[j] > fd[j]) gd[j] += 1.0/n1;
+      d2=max(d2,abs(fa[j]-ga[j]));
+      d2=max(d2,abs(fb[j]-gb[j]));
+      d2=max(d2,abs(fc[j]-gc[j]));
+      d2=max(d2,abs(fd[j]-gd[j]));
     }
     d.val=0.5*(d1+d2);
     sqen=sqrt(n1*n2/(n1+n2));
@@ -583,4 +687,100 @@ public class Stattests {
     rr=sqrt(1.0-0.5*(r1.val*r1.val+r2.val*r2.val));
     prob.val=ks.qks(d.val*sqen/(1.0+rr*(0.25-0.75/sqen)));
   }
+
+  /*
+   Permutation test of Spearman's rank correlation. Given data1[0..n-1] and data2[0..n-1],
+   returns the two-sided p-value of the sum squared difference of ranks D, found by comparing its
+   deviation from the null-hypothesis mean with that of nperm random pairings of the data (see
+   Resample, which is seeded with seed). The ranks are computed once, so that each permutation
+   costs O(n) operations.
+   */
+  public static double spearperm(final double[] data1, final double[] data2, final int nperm,
+      final long seed) {
+    final int n=data1.length;
+    doubleW sf = new doubleW(0);
+    doubleW sg = new doubleW(0);
+    final double[] r1=ranks(data1,sf),r2=ranks(data2,sg);
+    final double aved=((double)n*n*n-n)/6.0-(sf.val+sg.val)/12.0;
+    Resample.Statistic d = new Resample.Statistic() {
+      public double eval(final int[] idx) {
+        double sum=0.0;
+        for (int j=0;j<n;j++) sum += SQR(r1[j]-r2[idx[j]]);
+        return sum-aved;
+      }
+    };
+    return Resample.pvalue(d.eval(identity(n)),new Resample(seed).permutation(n,nperm,d));
+  }
+
+  /*
+   Permutation test of Kendall's tau. Given data1[0..n-1] and data2[0..n-1], returns the two-sided
+   p-value of tau against nperm random pairings of the data (see Resample, seeded with seed).
+   The data are sorted by data1 once; each permutation then costs one run of Knight's count.
+   */
+  public static double kendlperm(final double[] data1, final double[] data2, final int nperm,
+      final long seed) {
+    final int n=data1.length;
+    final int[] order=new Indexx(data1).indx;
+    double[] x=new double[n],xtie=new double[1];
+    for (int j=0;j<n;j++) x[j]=data1[order[j]];
+    final int[] xb=tieruns(x,xtie);
+    final double xt=xtie[0];
+    Resample.Statistic s = new Resample.Statistic() {
+      public double eval(final int[] idx) {
+        double[] y=new double[n];
+        for (int j=0;j<n;j++) y[j]=data2[idx[order[j]]];
+        return knight(y,xb,xt,new double[1],new double[n]);
+      }
+    };
+    return Resample.pvalue(s.eval(identity(n)),new Resample(seed).permutation(n,nperm,s));
+  }
+
+  /*
+   Permutation version of kstwo. Given data1[0..n1-1] and data2[0..n2-1], returns the p-value of
+   the K-S statistic against nperm random splits of the pooled data into samples of sizes n1 and
+   n2 (see Resample, seeded with seed). The pooled data are sorted once; each permutation then
+   costs O(n1+n2) operations. The arrays are not changed.
+   */
+  public static double kstwoperm(final double[] data1, final double[] data2, final int nperm,
+      final long seed) {
+    final int n1=data1.length,n2=data2.length,n=n1+n2;
+    double[] z=new double[n],dum=new double[1];
+    System.arraycopy(data1,0,z,0,n1);
+    System.arraycopy(data2,0,z,n1,n2);
+    final int[] order=new Indexx(z).indx;
+    double[] zs=new double[n];
+    for (int j=0;j<n;j++) zs[j]=z[order[j]];
+    final int[] zb=tieruns(zs,dum);
+    Resample.Statistic d = new Resample.Statistic() {
+      public double eval(final int[] idx) {
+        int j,k,c1=0;
+        double dt,dmax=0.0;
+        boolean[] in1=new boolean[n];   // the first n1 positions form the first sample
+        for (j=0;j<n1;j++) in1[idx[j]]=true;
+        for (k=0;k<zb.length-1;k++) {
+          for (j=zb[k];j<zb[k+1];j++) if (in1[order[j]]) c1++;
+          if ((dt=abs(c1/(double)n1-(zb[k+1]-c1)/(double)n2)) > dmax) dmax=dt;
+        }
+        return dmax;
+      }
+    };
+    return Resample.pvalue(d.eval(identity(n)),new Resample(seed).permutation(n,nperm,d));
+  }
+
+  // Ranks 1..n of data in its original order, ties given their mean rank; sets s as crank does
+  private static double[] ranks(final double[] data, final doubleW s) {
+    int j,n=data.length;
+    Indexx idx=new Indexx(data);
+    double[] w=buildVector(data),r=new double[n];
+    idx.sort(w);
+    crank(w,s);
+    for (j=0;j<n;j++) r[idx.indx[j]]=w[j];
+    return r;
+  }
+
+  private static int[] identity(final int n) {
+    int[] id=new int[n];
+    for (int j=0;j<n;j++) id[j]=j;
+    return id;
+  }
 }
@@ -0,0 +1,105 @@
+package com.nr.stat;
+
+import static java.lang.Math.*;
+
+import com.nr.util.Parallel;
+
+/**
+ * Mean, variance, skewness and kurtosis of a stream in one pass, by the updates of Welford
+ * (extended to the third and fourth moments) and the pairwise combination of Chan, Golub
+ * and LeVeque (Pebay 2008), which makes the sketch mergeable. The definitions are those of
+ * Moment.moment; the average deviation, which needs the mean in advance, is not available.
+ */
+public class Welford implements Sketch<Welford> {
+  static final int GRAIN = 16384;
+  long n;
+  double mean, m2, m3, m4;
+  double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+  public Welford() {}
+
+  public Welford(final Welford w) {
+    n = w.n; mean = w.mean; m2 = w.m2; m3 = w.m3; m4 = w.m4; min = w.min; max = w.max;
+  }
+
+  /**
+   * Moments of data[0..n-1], formed in parallel over chunks that are merged in order.
+   *
+   * @param data
+   * @return
+   */
+  public static Welford of(final double[] data) {
+    final int nc = Parallel.chunks(data.length, GRAIN);
+    final Welford[] part = new Welford[nc];
+    Parallel.forChunks(data.length, nc, new Parallel.Body() {
+      public void run(final int from, final int to, final int chunk) {
+        Welford w = new Welford();
+        for (int i=from;i<to;i++) w.add(data[i]);
+        part[chunk] = w;
+      }
+    });
+    for (int c=1;c<nc;c++) part[0].merge(part[c]);
+    return part[0];
+  }
+
+  public void add(final double x) {
+    long n1 = n++;
+    double delta = x - mean, dn = delta/n, dn2 = dn*dn, term1 = delta*dn*n1;
+    mean += dn;
+    m4 += term1*dn2*((double)n*n - 3.*n + 3.) + 6.*dn2*m2 - 4.*dn*m3;
+    m3 += term1*dn*(n - 2.) - 3.*dn*m2;
+    m2 += term1;
+    if (x < min) min = x;
+    if (x > max) max = x;
+  }
+
+  public void merge(final Welford b) {
+    if (b.n == 0) return;
+    if (n == 0) {
+      n = b.n; mean = b.mean; m2 = b.m2; m3 = b.m3; m4 = b.m4; min = b.min; max = b.max;
+      return;
+    }
+    double na = n, nb = b.n, nn = na + nb;
+    double delta = b.mean - mean, d2 = delta*delta;
+    double m2n = m2 + b.m2 + d2*na*nb/nn;
+    double m3n = m3 + b.m3 + d2*delta*na*nb*(na - nb)/(nn*nn)
+      + 3.*delta*(na*b.m2 - nb*m2)/nn;
+    double m4n = m4 + b.m4 + d2*d2*na*nb*(na*na - na*nb + nb*nb)/(nn*nn*nn)
+      + 6.*d2*(na*na*b.m2 + nb*nb*m2)/(nn*nn) + 4.*delta*(na*b.m3 - nb*m3)/nn;
+    mean += delta*nb/nn;
+    m2 = m2n;
+    m3 = m3n;
+    m4 = m4n;
+    n += b.n;
+    min = Math.min(min, b.min);
+    max = Math.max(max, b.max);
+  }
+
+  public long count() { return n; }
+
+  public double ave() { return mean; }
+
+  public double min() { return min; }
+
+  public double max() { return max; }
+
+  // unbiased variance, as in Moment.moment
+  public double var() {
+    if (n <= 1) throw new IllegalArgumentException("n must be at least 2 in Welford");
+    return m2/(n-1);
+  }
+
+  public double sdev() { return sqrt(var()); }
+
+  public double skew() {
+    double v = var();
+    if (v == 0.) throw new IllegalArgumentException("No skew/kurtosis when variance = 0 (in Welford)");
+    return m3/(n*v*sqrt(v));
+  }
+
+  public double curt() {
+    double v = var();
+    if (v == 0.) throw new IllegalArgumentException("No skew/kurtosis when variance = 0 (in Welford)");
+    return m4/(n*v*v) - 3.0;
+  }
+}
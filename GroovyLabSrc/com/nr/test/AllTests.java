@@ -35,6 +35,9 @@ import com.nr.test.test_chapter22.*;
   Test_julday.class,
   Test_Amebsa.class,
   Test_Amoeba.class,
+  Test_ParallelAmoeba.class,
+  Test_CMAES.class,
+  Test_DiffEvolution.class,
   Test_Anneal.class,
   Test_Bracketmethod.class,
   Test_Brent.class,
@@ -44,6 +47,7 @@ import com.nr.test.test_chapter22.*;
   Test_Linemethod.class,
   Test_Powell.class,
   Test_dfpmin.class,
+  Test_Lbfgs.class,
   Test_dynpro.class,
   Test_fdfunc.class,
   Test_stringalign.class,
@@ -69,6 +73,7 @@ import com.nr.test.test_chapter22.*;
   Test_Square.class,
   Test_bartlett.class,
   Test_convlv.class,
+  Test_PartitionedOverlapAdd.class,
   Test_correl.class,
   Test_dftint.class,
   Test_evlmem.class,
@@ -88,12 +93,15 @@ import com.nr.test.test_chapter22.*;
   Test_crank.class,
   Test_ftest.class,
   Test_kendl1.class,
+  Test_Resample.class,
   Test_kendl2.class,
   Test_ks2d1s.class,
   Test_ks2d2s.class,
   Test_ksone.class,
   Test_kstwo.class,
   Test_moment.class,
+  Test_Welford.class,
+  Test_Hyperloglog.class,
   Test_pearsn.class,
   Test_quadct.class,
   Test_quadvl.class,
@@ -107,18 +115,23 @@ import com.nr.test.test_chapter22.*;
   Test_Fitlin.class,
   Test_Fitmed.class,
   Test_Fitmrq.class,
+  Test_FitmrqBatch.class,
+  Test_McmcSampler.class,
   Test_Fitsvd.class,
   Test_fleg.class,
   Test_fpoly.class,
   com.nr.test.test_chapter15.Test_mcmc.class,
   Test_Gaumixmod.class,
+  Test_GaumixmodModes.class,
   Test_HMM.class,
+  Test_HMMBatch.class,
   Test_Kmeans.class,
   Test_Phylo_clc.class,
   Test_Phylo_nj.class,
   Test_Phylo_slc.class,
   Test_Phylo_upgma.class,
   Test_Phylo_wpgma.class,
+  Test_Phylodist.class,
   Test_Svm.class,
   Test_markovgen.class,
   Test_newick.class,
@@ -154,8 +167,10 @@ import com.nr.test.test_chapter22.*;
   Test_tridag.class,
   Test_vander.class,
   Test_Mgfas.class,
+  Test_Multigrid.class,
   Test_Mglin.class,
   Test_sor.class,
+  Test_Stencil.class,
   Test_weights.class,
   Test_Box.class,
   Test_Boxnode.class,
@@ -163,8 +178,11 @@ import com.nr.test.test_chapter22.*;
   Test_Convexhull.class,
   Test_Delaunay.class,
   Test_KDtree.class,
+  Test_KDflat.class,
+  Test_BVHflat.class,
   Test_Minspantree.class,
   Test_Nearpoints.class,
+  Test_Neargrid.class,
   Test_Point.class,
   Test_Qotree.class,
   Test_Sphcirc.class,
@@ -197,7 +215,9 @@ import com.nr.test.test_chapter22.*;
   Test_Rat_interp.class,
   Test_Shep_interp.class,
   Test_Spline2D_interp.class,
+  Test_interp2d_bulk.class,
   Test_Spline_interp.class,
+  Test_interp_bulk.class,
   Test_bcuint.class,
   Test_polcoe.class,
   Test_polcof.class,
@@ -224,6 +244,7 @@ import com.nr.test.test_chapter22.*;
   Test_radau.class,
   Test_trapzd.class,
   Test_Chebyshev.class,
+  Test_Chebcache.class,
   Test_Epsalg.class,
   Test_Eulsum.class,
   Test_Levin.class,
@@ -240,6 +261,7 @@ import com.nr.test.test_chapter22.*;
   Test_Bessel.class,
   Test_Bessik.class,
   Test_Bessjy.class,
+  Test_Bulk.class,
   Test_Betadist.class,
   Test_Binomialdist.class,
   Test_Cauchydist.class,
@@ -291,6 +313,7 @@ import com.nr.test.test_chapter22.*;
   Test_Multinormaldev.class,
   Test_Normaldev.class,
   Test_Normaldev_BM.class,
+  Test_Zigguratdev.class,
   Test_Poissondev.class,
   Test_Primpolytest.class,
   Test_Ran.class,
@@ -300,14 +323,19 @@ import com.nr.test.test_chapter22.*;
   Test_Ranlim32.class,
   Test_Ranq1.class,
   Test_Ranq2.class,
+  Test_Ranjump.class,
   Test_hashall.class,
   com.nr.test.test_chapter7.Test_mcmc.class,
   Test_miser.class,
+  Test_Miserpar.class,
   Test_psdes.class,
   Test_sobseq.class,
+  Test_Sobolseq.class,
   Test_vegas.class,
+  Test_VEGASpar.class,
   Test_Heapselect.class,
   Test_IQagent.class,
+  Test_Tdigest.class,
   Test_Indexx.class,
   Test_eclass.class,
   Test_eclazz.class,
@@ -319,6 +347,7 @@ import com.nr.test.test_chapter22.*;
   Test_shell.class,
   Test_sort.class,
   Test_sort2.class,
+  Test_Parsort.class,
   Test_broydn.class,
   Test_laguer.class,
   Test_lnsrch.class,
@@ -0,0 +1,80 @@
+package com.nr.test.test_chapter10;
+
+import static java.lang.Math.abs;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.RealValueFun;
+import com.nr.min.CMAES;
+
+public class Test_CMAES {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,N=10;
+    double[] point=new double[N],min;
+    boolean localflag, globalflag=false;
+
+    // Rosenbrock function, minimum 0 at (1,...,1)
+    RealValueFun rosen = new RealValueFun() {
+      public double funk(double[] x) {
+        double s=0.;
+        for (int k=0;k<x.length-1;k++)
+          s += 100.*(x[k+1]-x[k]*x[k])*(x[k+1]-x[k]*x[k]) + (1.-x[k])*(1.-x[k]);
+        return s;
+      }
+    };
+
+    // Test CMAES
+    System.out.println("Testing CMAES");
+    CMAES cma=new CMAES(1.e-14);
+    for (i=0;i<N;i++) point[i]=-1.0;
+    min=cma.minimize(point,0.5,rosen);
+    localflag = !cma.isConverged() || cma.getFmin() > 1.e-10;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** CMAES: Did not converge to the minimum of the Rosenbrock function");
+    }
+    for (i=0;i<N;i++) {
+      localflag = abs(min[i]-1.0) > 1.e-4;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** CMAES: Minimum not found");
+      }
+    }
+
+    // Same seed, same result
+    CMAES cma2=new CMAES(1.e-14);
+    double[] min2=cma2.minimize(point,0.5,rosen);
+    localflag = cma2.getNfunc() != cma.getNfunc() || min2[0] != min[0];
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** CMAES: Not reproducible for a fixed seed");
+    }
+
+    // Time limit and budget stop the search
+    CMAES cma3=new CMAES(1.e-14);
+    cma3.setMaxEval(200);
+    cma3.minimize(point,0.5,rosen);
+    localflag = cma3.isConverged() || cma3.getNfunc() > 200;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** CMAES: Evaluation budget not respected");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+}
@@ -0,0 +1,74 @@
+package com.nr.test.test_chapter10;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.cos;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.RealValueFun;
+import com.nr.min.DiffEvolution;
+
+public class Test_DiffEvolution {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,N=5;
+    double[] lo=new double[N],hi=new double[N],min;
+    boolean localflag, globalflag=false;
+
+    // Rastrigin function: many local minima, global minimum 0 at the origin
+    RealValueFun rastrigin = new RealValueFun() {
+      public double funk(double[] x) {
+        double s=10.*x.length;
+        for (int k=0;k<x.length;k++) s += x[k]*x[k]-10.*cos(2.*PI*x[k]);
+        return s;
+      }
+    };
+
+    // Test DiffEvolution
+    System.out.println("Testing DiffEvolution");
+    for (i=0;i<N;i++) {lo[i]=-5.12; hi[i]=5.12;}
+    DiffEvolution de=new DiffEvolution(1.e-12);
+    de.setControl(0.5,0.1);
+    de.setMaxEval(200000);
+    min=de.minimize(lo,hi,rastrigin);
+    localflag = !de.isConverged() || de.getFmin() > 1.e-8;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** DiffEvolution: Global minimum of the Rastrigin function not found");
+    }
+    for (i=0;i<N;i++) {
+      localflag = abs(min[i]) > 1.e-4;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** DiffEvolution: Minimum not at the origin");
+      }
+    }
+
+    // The evaluation budget stops the search
+    DiffEvolution de2=new DiffEvolution(1.e-12);
+    de2.setMaxEval(500);
+    de2.minimize(lo,hi,rastrigin);
+    localflag = de2.isConverged() || de2.getNfunc() > 500;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** DiffEvolution: Evaluation budget not respected");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.nr.test.test_chapter10;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.RealValueFunWithDiff;
+import com.nr.min.Lbfgs;
+import com.nr.min.PartialGradient;
+
+public class Test_Lbfgs {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  // Extended Rosenbrock function (independent pairs), minimum 0 at (1,...,1)
+  static class Rosen implements PartialGradient {
+    public double funk(double[] x) {
+      double s=0.;
+      for (int k=0;k<x.length-1;k+=2)
+        s += 100.*(x[k+1]-x[k]*x[k])*(x[k+1]-x[k]*x[k]) + (1.-x[k])*(1.-x[k]);
+      return s;
+    }
+    public void df(double[] x, double[] df) {
+      df(x,df,0,x.length);
+    }
+    public void df(double[] x, double[] df, int from, int to) {
+      for (int k=from;k<to;k++) {
+        if (k%2 == 0) df[k] = -400.*x[k]*(x[k+1]-x[k]*x[k]) - 2.*(1.-x[k]);
+        else df[k] = 200.*(x[k]-x[k-1]*x[k-1]);
+      }
+    }
+  }
+
+  @Test
+  public void test() {
+    int i,N=10000;
+    double[] p=new double[N];
+    boolean localflag, globalflag=false;
+
+    // Test Lbfgs
+    System.out.println("Testing Lbfgs");
+
+    // Unconstrained, large n, with block-wise gradient
+    for (i=0;i<N;i++) p[i] = (i%2 == 0) ? -1.2 : 1.0;
+    Lbfgs lb=new Lbfgs(new Rosen());
+    lb.minimize(p);
+    localflag = lb.fret > 1.e-12;
+    for (i=0;i<N;i++) localflag = localflag || abs(p[i]-1.0) > 1.e-5;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Lbfgs: Minimum of the extended Rosenbrock function not found");
+    }
+
+    // Same problem through the plain RealValueFunWithDiff interface
+    final Rosen r=new Rosen();
+    RealValueFunWithDiff plain=new RealValueFunWithDiff() {
+      public double funk(double[] x) {return r.funk(x);}
+      public void df(double[] x, double[] df) {r.df(x,df);}
+    };
+    double[] q=new double[N];
+    for (i=0;i<N;i++) q[i] = (i%2 == 0) ? -1.2 : 1.0;
+    Lbfgs lb2=new Lbfgs(plain);
+    lb2.minimize(q);
+    localflag = lb2.iter != lb.iter || lb2.fret != lb.fret;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Lbfgs: Block-wise and plain gradients give different iterations");
+    }
+
+    // Bound constraints: quadratic with its unconstrained minimum partly outside the box
+    final int M=200;
+    final double[] c=new double[M];
+    for (i=0;i<M;i++) c[i]=-1.0+3.0*i/(M-1);
+    RealValueFunWithDiff quad=new RealValueFunWithDiff() {
+      public double funk(double[] x) {
+        double s=0.;
+        for (int k=0;k<x.length;k++) s += (k+1)*(x[k]-c[k])*(x[k]-c[k]);
+        return s;
+      }
+      public void df(double[] x, double[] df) {
+        for (int k=0;k<x.length;k++) df[k]=2.*(k+1)*(x[k]-c[k]);
+      }
+    };
+    double[] lo=new double[M],hi=new double[M],x=new double[M];
+    for (i=0;i<M;i++) {lo[i]=0.; hi[i]=1.; x[i]=0.5;}
+    Lbfgs lb3=new Lbfgs(quad,5);
+    lb3.setBounds(lo,hi);
+    lb3.setTolerances(1.e-10,0.);
+    lb3.minimize(x);
+    localflag=false;
+    for (i=0;i<M;i++) localflag = localflag || abs(x[i]-max(0.,min(1.,c[i]))) > 1.e-8;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Lbfgs: Bound-constrained minimum not found");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+}
@@ -0,0 +1,87 @@
+package com.nr.test.test_chapter10;
+
+import static java.lang.Math.abs;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.RealValueFun;
+import com.nr.min.ParallelAmoeba;
+
+public class Test_ParallelAmoeba {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,N=6;
+    double[] point=new double[N],min;
+    boolean localflag, globalflag=false;
+    final AtomicInteger ncall=new AtomicInteger();
+
+    // Shifted quadratic bowl with unequal curvatures
+    RealValueFun bowl = new RealValueFun() {
+      public double funk(double[] x) {
+        ncall.incrementAndGet();
+        double s=0.;
+        for (int k=0;k<x.length;k++) s += (k+1)*(x[k]-0.5*k)*(x[k]-0.5*k);
+        return s;
+      }
+    };
+
+    // Test ParallelAmoeba
+    System.out.println("Testing ParallelAmoeba");
+    for (j=1;j<=3;j++) {
+      ParallelAmoeba amb=new ParallelAmoeba(1.e-14);
+      amb.setParallelism(j);
+      amb.setMaxEval(100000);
+      for (i=0;i<N;i++) point[i]=2.0;
+      ncall.set(0);
+      min=amb.minimize(point,1.0,bowl);
+      localflag = !amb.isConverged();
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** ParallelAmoeba: Did not converge");
+      }
+      for (i=0;i<N;i++) {
+        localflag = abs(min[i]-0.5*i) > 1.e-5;
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** ParallelAmoeba: Minimum not found with parallelism " + j);
+        }
+      }
+      localflag = ncall.get() != amb.getNfunc() || abs(amb.getFmin()-bowl.funk(min)) > 1.e-15;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** ParallelAmoeba: Inconsistent evaluation count or function value");
+      }
+    }
+
+    // The evaluation budget stops the search
+    ParallelAmoeba amb=new ParallelAmoeba(1.e-14);
+    amb.setParallelism(2);
+    amb.setMaxEval(50);
+    for (i=0;i<N;i++) point[i]=2.0;
+    ncall.set(0);
+    amb.minimize(point,1.0,bowl);
+    localflag = amb.isConverged() || ncall.get() > 50;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** ParallelAmoeba: Evaluation budget not respected");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+}
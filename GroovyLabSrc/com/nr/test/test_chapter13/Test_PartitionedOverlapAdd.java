@@ -0,0 +1,85 @@
+package com.nr.test.test_chapter13;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import DSP.fir.PartitionedOverlapAdd;
+
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_PartitionedOverlapAdd {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,L=1000,B=64,N=1000;   // kernel of 16 partitions; N is not a multiple of B
+    double sbeps=1.e-10;
+    boolean localflag, globalflag=false;
+
+    // Test PartitionedOverlapAdd
+    System.out.println("Testing PartitionedOverlapAdd");
+
+    Ran myran=new Ran(17);
+    double[] h=new double[L],x=new double[N];
+    for (i=0;i<L;i++) h[i]=(myran.doub()-0.5)*exp(-i/300.);
+    for (i=0;i<N;i++) x[i]=myran.doub()-0.5;
+
+    // Direct convolution, of length N+L-1
+    double[] y=new double[N+L-1];
+    double ymax=0.;
+    for (i=0;i<N;i++) for (j=0;j<L;j++) y[i+j] += x[i]*h[j];
+    for (i=0;i<y.length;i++) ymax=max(ymax,abs(y[i]));
+
+    int[][] schemes={PartitionedOverlapAdd.uniformPartitions(L,B),
+      PartitionedOverlapAdd.nonUniformPartitions(L,B,4*B)};
+    String[] names={"uniform","non-uniform"};
+    for (int s=0;s<schemes.length;s++) {
+      PartitionedOverlapAdd master=new PartitionedOverlapAdd(h,B,schemes[s]);
+      for (int trial=0;trial<3;trial++) {
+        PartitionedOverlapAdd f;
+        if (trial == 0) f=master;
+        else if (trial == 1) {   // partition products accumulated on a pool
+          f=new PartitionedOverlapAdd(h,B,schemes[s]);
+          f.setExecutor(Parallel.pool(),4);
+        } else f=new PartitionedOverlapAdd(master);   // slave sharing the kernel spectra
+        localflag=false;
+        double[] in=new double[B],out=new double[B];
+        int nout=0,nblk=(N+B-1)/B,nflush=(L-1+B-1)/B;
+        for (int b=0;b<nblk+nflush;b++) {
+          if (b < nblk) {   // the final input block is zero padded
+            int n=min(B,N-b*B);
+            Arrays.fill(in,0.);
+            System.arraycopy(x,b*B,in,0,n);
+            f.filter(in,0,out,0);
+          } else f.flush(out,0);
+          // compare block by block
+          for (i=0;i<B && nout < y.length;i++,nout++)
+            localflag = localflag || abs(out[i]-y[nout]) > sbeps*ymax;
+          for (;i<B;i++) localflag = localflag || abs(out[i]) > sbeps*ymax;
+        }
+        localflag = localflag || nout != y.length;
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** PartitionedOverlapAdd: " + names[s] + " partitions differ from direct convolution, trial " + trial);
+        }
+      }
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
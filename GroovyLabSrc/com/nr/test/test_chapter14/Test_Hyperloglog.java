@@ -0,0 +1,69 @@
+package com.nr.test.test_chapter14;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.ran.Ran;
+import com.nr.stat.Hyperloglog;
+
+public class Test_Hyperloglog {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j;
+    boolean localflag, globalflag=false;
+
+    // Test Hyperloglog
+    System.out.println("Testing Hyperloglog");
+
+    // Distinct counts from 10 to 10^6, each value seen several times
+    int[] nd={10,1000,30000,1000000};
+    for (j=0;j<nd.length;j++) {
+      Hyperloglog h=new Hyperloglog(14);
+      Ran myran=new Ran(17+j);
+      for (i=0;i<3*nd[j];i++) h.add((double)(myran.int32p() % nd[j]));
+      // nearly all values have been seen at least once
+      double expect=nd[j]*(1.-exp(-3.));
+      double err=abs(h.distinct()-expect)/expect;
+      System.out.printf("     %d: estimate %f, expected %f\n", nd[j], h.distinct(), expect);
+      localflag = err > 4.*1.04/sqrt(1 << 14) + 1./expect;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Hyperloglog: estimate of distinct count inaccurate for " + nd[j]);
+      }
+    }
+
+    // Merging sketches of overlapping streams gives the sketch of the union
+    Hyperloglog a=new Hyperloglog(12),b=new Hyperloglog(12),u=new Hyperloglog(12);
+    for (i=0;i<50000;i++) {
+      a.add((long)i);
+      u.add((long)i);
+    }
+    for (i=25000;i<100000;i++) {
+      b.add((long)i);
+      u.add((long)i);
+    }
+    a.merge(b);
+    localflag = a.distinct() != u.distinct() || a.count() != 125000;
+    localflag = localflag || abs(a.distinct()-100000.)/100000. > 4.*1.04/sqrt(1 << 12);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Hyperloglog: merged sketch differs from sketch of the union");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,156 @@
+package com.nr.test.test_chapter14;
+
+import static com.nr.stat.Stattests.*;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ran.Ran;
+import com.nr.stat.Resample;
+import com.nr.util.Parallel;
+
+public class Test_Resample {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,n=600;
+    double sbeps=1.e-12;
+    doubleW tau=new doubleW(0),z=new doubleW(0),prob=new doubleW(0);
+    boolean localflag, globalflag=false;
+
+    // Test Knight's kendl1, the bulk quadct and the permutation and bootstrap tests
+    System.out.println("Testing Resample");
+
+    Ran myran = new Ran(17);
+    double[] x=new double[n],y=new double[n];
+    for (int trial=0;trial<2;trial++) {
+      for (i=0;i<n;i++) {   // trial 1 has many ties
+        x[i] = trial == 0 ? myran.doub() : floor(8.*myran.doub());
+        y[i] = trial == 0 ? x[i]+myran.doub() : floor(6.*myran.doub()+0.5*x[i]);
+      }
+      long is=0,n1=0,n2=0;   // direct count over all pairs
+      for (i=0;i<n;i++) {
+        for (j=i+1;j<n;j++) {
+          double a1=x[i]-x[j],a2=y[i]-y[j];
+          if (a1 != 0.0) n1++;
+          if (a2 != 0.0) n2++;
+          if (a1*a2 > 0.0) is++;
+          else if (a1*a2 < 0.0) is--;
+        }
+      }
+      double[] xc=x.clone(),yc=y.clone();
+      kendl1(x,y,tau,z,prob);
+      localflag = abs(tau.val-is/(sqrt(n1)*sqrt(n2))) > sbeps || !Arrays.equals(x,xc)
+        || !Arrays.equals(y,yc);
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Resample: kendl1 differs from the count over all pairs, trial " + trial);
+      }
+    }
+
+    // The bulk quadct gives the fractions of the scalar one, also with repeated points
+    int m=300;
+    double[] xx=new double[m],yy=new double[m];
+    double[] fa=new double[n],fb=new double[n],fc=new double[n],fd=new double[n];
+    doubleW ga=new doubleW(0),gb=new doubleW(0),gc=new doubleW(0),gd=new doubleW(0);
+    for (i=0;i<m;i++) {
+      xx[i]=floor(20.*myran.doub());
+      yy[i]=floor(20.*myran.doub());
+    }
+    quadct(x,y,xx,yy,fa,fb,fc,fd);
+    localflag = false;
+    for (i=0;i<n;i++) {
+      quadct(x[i],y[i],xx,yy,ga,gb,gc,gd);
+      localflag = localflag || fa[i] != ga.val || fb[i] != gb.val || fc[i] != gc.val || fd[i] != gd.val;
+    }
+    quadct(xx,yy,xx,yy,fa,fb,fc,fd);
+    for (i=0;i<m;i++) {
+      quadct(xx[i],yy[i],xx,yy,ga,gb,gc,gd);
+      localflag = localflag || fa[i] != ga.val || fb[i] != gb.val || fc[i] != gc.val || fd[i] != gd.val;
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Resample: bulk quadct differs from quadct");
+    }
+
+    // Bootstrap indices are sorted, and results do not depend on the number of threads
+    final double[] data=new double[n];
+    for (i=0;i<n;i++) data[i]=myran.doub();
+    Arrays.sort(data);
+    Resample.Statistic mean=new Resample.Statistic() {
+      public double eval(final int[] idx) {
+        double sum=0.;
+        for (int k=1;k<idx.length;k++) if (idx[k] < idx[k-1]) return -1.;
+        for (int k : idx) sum += data[k];
+        return sum/idx.length;
+      }
+    };
+    int nthreads=Parallel.threads();
+    double[][] t=new double[2][];
+    try {
+      for (int k=0;k<2;k++) {
+        Parallel.setThreads(k == 0 ? 1 : 4);
+        t[k]=new Resample(5).bootstrap(n,1000,mean);
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+    double ave=0.,var=0.;
+    for (double v : t[0]) ave += v/t[0].length;
+    for (double v : t[0]) var += (v-ave)*(v-ave)/(t[0].length-1);
+    localflag = !Arrays.equals(t[0],t[1]);
+    for (double v : t[0]) localflag = localflag || v < 0.;
+    // standard error of the mean of n uniforms is 1/sqrt(12 n)
+    localflag = localflag || abs(sqrt(var*12.*n)-1.) > 0.1;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Resample: bootstrap is incorrect");
+    }
+
+    // Permutation tests find the dependence of y on x, and none in independent data
+    double[] u=new double[n];
+    for (i=0;i<n;i++) {
+      x[i]=myran.doub();
+      y[i]=x[i]+3.*myran.doub();
+      u[i]=myran.doub();
+    }
+    double[] p={spearperm(x,y,999,1),kendlperm(x,y,999,1),spearperm(x,u,999,1),kendlperm(x,u,999,1)};
+    kendl1(x,u,tau,z,prob);
+    localflag = p[0] > 0.01 || p[1] > 0.01 || p[2] < 0.01 || p[3] < 0.01;
+    // the permutation p-value of tau is close to the asymptotic one
+    localflag = localflag || abs(p[3]-prob.val) > 0.05;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Resample: permutation tests of correlation are incorrect");
+    }
+
+    double[] d1=new double[400],d2=new double[300];
+    for (i=0;i<d1.length;i++) d1[i]=floor(50.*myran.doub());
+    for (i=0;i<d2.length;i++) d2[i]=floor(50.*myran.doub());
+    double q0=kstwoperm(d1,d2,999,2);
+    for (i=0;i<d2.length;i++) d2[i]=floor(50.*pow(myran.doub(),1.3));
+    double q1=kstwoperm(d1,d2,999,2);
+    localflag = q0 < 0.01 || q1 > 0.01;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Resample: kstwoperm is incorrect");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
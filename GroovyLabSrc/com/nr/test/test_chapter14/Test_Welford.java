@@ -0,0 +1,69 @@
+package com.nr.test.test_chapter14;
+
+import static com.nr.stat.Moment.moment;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ran.Ran;
+import com.nr.stat.Welford;
+
+public class Test_Welford {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,N=100000;
+    double sbeps=1.e-10;
+    doubleW ave=new doubleW(0),adev=new doubleW(0),sdev=new doubleW(0),var=new doubleW(0);
+    doubleW skew=new doubleW(0),curt=new doubleW(0);
+    boolean localflag, globalflag=false;
+
+    // Test Welford
+    System.out.println("Testing Welford");
+
+    // Skewed data far from the origin
+    Ran myran=new Ran(17);
+    double[] data=new double[N];
+    for (i=0;i<N;i++) data[i]=1.e6+exp(2.*myran.doub());
+    moment(data,ave,adev,sdev,var,skew,curt);
+
+    // One pass over the stream, in three pieces that are merged
+    Welford a=new Welford(),b=new Welford(),c=new Welford();
+    for (i=0;i<N;i++) {
+      if (i < 1000) a.add(data[i]);
+      else if (i < 70000) b.add(data[i]);
+      else c.add(data[i]);
+    }
+    a.merge(b);
+    a.merge(c);
+    Welford par=Welford.of(data);
+    Welford[] w={a,par};
+    for (Welford ww : w) {
+      localflag = ww.count() != N;
+      localflag = localflag || abs(ww.ave()-ave.val) > sbeps*ave.val;
+      localflag = localflag || abs(ww.var()-var.val) > 1.e-8*var.val;
+      localflag = localflag || abs(ww.sdev()-sdev.val) > 1.e-8*sdev.val;
+      localflag = localflag || abs(ww.skew()-skew.val) > 1.e-6;
+      localflag = localflag || abs(ww.curt()-curt.val) > 1.e-6;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Welford: moments differ from Moment.moment");
+      }
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,118 @@
+package com.nr.test.test_chapter15;
+
+import static com.nr.NRUtil.SQR;
+import static java.lang.Math.abs;
+import static java.lang.Math.exp;
+import static java.lang.Math.sqrt;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.model.FGauss;
+import com.nr.model.FGaussVec;
+import com.nr.model.Fitmrq;
+import com.nr.model.FitmrqBatch;
+import com.nr.ran.Normaldev;
+
+public class Test_FitmrqBatch {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,p,N=100000,MA=6,NPROB=40,NSMALL=100;
+    double a[]={5.0,2.0,3.0,2.0,5.0,3.0};
+    double guess[]={4.5,2.2,2.8,2.5,4.9,2.8};
+    double SPREAD=0.01;
+    double[] x= new double[N],y= new double[N],sig= new double[N];
+    boolean localflag, globalflag=false;
+
+    // Test Fitmrq on a large data set with scalar and vectorized fitting functions
+    System.out.println("Testing Fitmrq (parallel and vectorized) and FitmrqBatch");
+
+    Normaldev ndev=new Normaldev(0.0,1.0,17);
+    for (i=0;i<N;i++) {
+      x[i]=1.e-4*(i+1);
+      y[i]=0.0;
+      for (j=0;j<MA;j+=3)
+        y[i] += a[j]*exp(-SQR((x[i]-a[j+1])/a[j+2]));
+      y[i] *= (1.0+SPREAD*ndev.dev());
+      sig[i]=SPREAD*y[i];
+    }
+    Fitmrq sfit=new Fitmrq(x,y,sig,guess,new FGauss());
+    sfit.fit();
+    Fitmrq vfit=new Fitmrq(x,y,sig,guess,new FGaussVec());
+    vfit.fit();
+
+    for (j=0;j<MA;j++) {
+      localflag = abs(vfit.a[j]-a[j]) > 3.0*sqrt(vfit.covar[j][j]);
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Fitmrq: Fitted parameters (vectorized) not within estimated uncertainty");
+      }
+      localflag = abs(vfit.a[j]-sfit.a[j]) > 1.e-3*sqrt(sfit.covar[j][j]);
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Fitmrq: Vectorized and scalar fits disagree");
+      }
+    }
+    localflag = abs(vfit.chisq-sfit.chisq) > 1.e-8*sfit.chisq;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Fitmrq: Vectorized and scalar chi-squared disagree");
+    }
+
+    // Test FitmrqBatch against individual fits, with one parameter held
+    double[][] xx=new double[NPROB][NSMALL],yy=new double[NPROB][NSMALL],ss=new double[NPROB][NSMALL];
+    double[][] gg=new double[NPROB][];
+    for (p=0;p<NPROB;p++) {
+      for (i=0;i<NSMALL;i++) {
+        xx[p][i]=0.1*(i+1);
+        yy[p][i]=0.0;
+        for (j=0;j<MA;j+=3)
+          yy[p][i] += a[j]*exp(-SQR((xx[p][i]-a[j+1])/a[j+2]));
+        yy[p][i] *= (1.0+SPREAD*ndev.dev());
+        ss[p][i]=SPREAD*yy[p][i];
+      }
+      gg[p]=guess.clone();
+    }
+    FitmrqBatch batch=new FitmrqBatch(new FGaussVec(),MA);
+    batch.hold(4,5.0);
+    int nconv=batch.fit(xx,yy,ss,gg);
+    localflag = nconv != NPROB;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** FitmrqBatch: Not all fits converged");
+    }
+
+    for (p=0;p<NPROB;p++) {
+      Fitmrq single=new Fitmrq(xx[p],yy[p],ss[p],gg[p],new FGauss());
+      single.hold(4,5.0);
+      single.fit();
+      for (j=0;j<MA;j++) {
+        localflag = abs(batch.a[p][j]-single.a[j]) > 1.e-6*(1.0+abs(single.a[j]));
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** FitmrqBatch: Batch fit differs from individual fit");
+        }
+      }
+      localflag = batch.a[p][4] != 5.0 || batch.covar[p][4][4] != 0.0;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** FitmrqBatch: A held parameter was changed");
+      }
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+}
@@ -0,0 +1,131 @@
+package com.nr.test.test_chapter15;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.exp;
+import static java.lang.Math.log;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.model.AdaptiveGaussProposal;
+import com.nr.model.LogDensity;
+import com.nr.model.McmcFileSink;
+import com.nr.model.McmcRingBuffer;
+import com.nr.model.McmcSampler;
+
+public class Test_McmcSampler {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() throws Exception {
+    int i,k,c,NCHAIN=4,NSTEP=20000,CAP=5000;
+    final double m0=1.0,m1=-2.0,rho=0.8;
+    double s0,s1,s01,f;
+    boolean localflag, globalflag=false;
+
+    // Test McmcSampler
+    System.out.println("Testing McmcSampler");
+
+    // Correlated bivariate normal, sampled with adaptive proposals and no tempering
+    LogDensity gauss = new LogDensity() {
+      public double logp(final double[] x) {
+        double a=x[0]-m0, b=x[1]-m1;
+        return -(a*a-2.*rho*a*b+b*b)/(2.*(1.-rho*rho));
+      }
+    };
+    double[][] start = new double[NCHAIN][];
+    for (c=0;c<NCHAIN;c++) start[c] = new double[]{5.*c-7.,3.-2.*c};
+    McmcSampler mc = new McmcSampler(gauss, AdaptiveGaussProposal.array(NCHAIN,1,new double[]{0.1,0.1}),
+      new double[]{1.},start,17);
+    mc.run(2000);    // Burn-in
+    mc.resetDiagnostics();
+    McmcRingBuffer buf = new McmcRingBuffer(NCHAIN,2,CAP);
+    mc.setSink(buf,2);
+    mc.run(NSTEP);
+
+    double[] rh = mc.rhat(), ess = mc.ess();
+    for (i=0;i<2;i++) {
+      localflag = rh[i] > 1.05;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** McmcSampler: R-hat indicates chains have not converged");
+      }
+      localflag = ess[i] < 2000. || ess[i] > NCHAIN*NSTEP;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** McmcSampler: Implausible effective sample size");
+      }
+    }
+    localflag = buf.count(0) != NSTEP/2 || buf.size(0) != CAP || buf.step(0,CAP-1) != 2000+NSTEP-1;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** McmcSampler: Ring buffer holds wrong samples");
+    }
+
+    double[] xs = new double[2];
+    s0=s1=s01=0.;
+    for (c=0;c<NCHAIN;c++) {
+      for (k=0;k<CAP;k++) {
+        buf.get(c,k,xs);
+        s0 += xs[0]; s1 += xs[1]; s01 += (xs[0]-m0)*(xs[1]-m1);
+      }
+    }
+    f=1./(NCHAIN*CAP);
+    localflag = abs(s0*f-m0) > 0.1 || abs(s1*f-m1) > 0.1 || abs(s01*f-rho) > 0.1;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** McmcSampler: Sample moments differ from target");
+    }
+
+    // Bimodal density: tempering is needed to move between the modes
+    LogDensity bimodal = new LogDensity() {
+      public double logp(final double[] x) {
+        return log(exp(-2.*(x[0]-4.)*(x[0]-4.)) + exp(-2.*(x[0]+4.)*(x[0]+4.)));
+      }
+    };
+    int NTEMP=6;
+    start = new double[NCHAIN][];
+    for (c=0;c<NCHAIN;c++) start[c] = new double[]{4.};
+    mc = new McmcSampler(bimodal, AdaptiveGaussProposal.array(NCHAIN,NTEMP,new double[]{0.5}),
+      McmcSampler.geometricLadder(NTEMP,100.),start,19);
+    File tmp = File.createTempFile("mcmc", "");
+    String prefix = tmp.getPath();
+    McmcFileSink fs = new McmcFileSink(prefix,NCHAIN,1);
+    mc.setSink(fs,1);
+    mc.run(NSTEP);
+    fs.close();
+    int npos=0,ntot=0;
+    for (c=0;c<NCHAIN;c++) {
+      double[][] s = McmcFileSink.read(prefix,c,1);
+      localflag = s.length != NSTEP;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** McmcSampler: File sink lost samples");
+      }
+      for (k=0;k<s.length;k++) if (s[k][0] > 0.) npos++;
+      ntot += s.length;
+      new File(McmcFileSink.fileName(prefix,c)).delete();
+    }
+    tmp.delete();
+    localflag = abs(npos/(double)ntot-0.5) > 0.1 || mc.swapAcceptance(0) < 0.1;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** McmcSampler: Tempered chains do not mix between modes");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+}
@@ -0,0 +1,209 @@
+package com.nr.test.test_chapter16;
+
+import static com.nr.NRUtil.*;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.ci.Gaumixmod;
+import com.nr.la.Cholesky;
+import com.nr.ran.Normaldev;
+
+public class Test_GaumixmodModes {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,k,n,NDIM=3,NMEANS=3,NPT=30000;
+    double d0,d1,d2,err,sbeps=1.e-8;
+    double ffrac[]={0.5,0.3,0.2};
+    double mmeans[]={0.0,0.0,0.0, 2.0,0.0,1.0, -1.0,2.0,0.5};
+    double gguess[]={0.2,0.1,0.0, 1.8,0.2,0.9, -0.8,1.8,0.4};
+    double ssigma[]={0.3,0.2,0.1, 0.1,0.4,0.2, 0.2,0.2,0.3};
+    double[][] means=buildMatrix(NMEANS,NDIM,mmeans),sigma=buildMatrix(NMEANS,NDIM,ssigma);
+    double[][] guess=buildMatrix(NMEANS,NDIM,gguess);
+    double[][] x=new double[NPT][NDIM],y=new double[NPT][NDIM];
+    double c=cos(0.6),s=sin(0.6);
+    boolean localflag, globalflag=false;
+
+    // Test Gaumixmod covariance modes and fused EM
+    System.out.println("Testing Gaumixmod modes");
+
+    // x: axis-aligned clusters; y: clusters sharing one rotated covariance
+    Normaldev ndev=new Normaldev(0.0,1.0,17);
+    for (n=0,k=0;k<NMEANS;k++) {
+      for (j=0;j<(int)(NPT*ffrac[k]);j++,n++) {
+        d0=ndev.dev();
+        d1=ndev.dev();
+        d2=ndev.dev();
+        for (i=0;i<NDIM;i++) x[n][i]=means[k][i]+sigma[k][i]*(i==0 ? d0 : i==1 ? d1 : d2);
+        y[n][0]=means[k][0]+0.3*(c*d0-s*d1);
+        y[n][1]=means[k][1]+0.3*(s*d0+c*d1)+0.1*d2;
+        y[n][2]=means[k][2]+0.2*d2;
+      }
+    }
+
+    // The fused step gives the same parameters as estep and mstep, and as a direct computation
+    Gaumixmod g1=new Gaumixmod(x,guess),g2=new Gaumixmod(x,guess);
+    double[][] rmeans=buildMatrix(g1.means);
+    double[][][] rsig=new double[NMEANS][][];
+    for (k=0;k<NMEANS;k++) rsig[k]=buildMatrix(g1.sig[k]);
+    double[] rfrac=buildVector(g1.frac);
+    double rlog=refstep(x,rmeans,rfrac,rsig);
+    double dl1=g1.emstep();
+    double dl2=g2.estep();
+    g2.mstep();
+    err=abs(dl1-dl2)+abs(g1.loglike-rlog);
+    for (k=0;k<NMEANS;k++) {
+      err=max(err,abs(g1.frac[k]-g2.frac[k])+abs(g1.frac[k]-rfrac[k]));
+      for (i=0;i<NDIM;i++) {
+        err=max(err,abs(g1.means[k][i]-g2.means[k][i])+abs(g1.means[k][i]-rmeans[k][i]));
+        for (j=0;j<NDIM;j++)
+          err=max(err,abs(g1.sig[k][i][j]-g2.sig[k][i][j])+abs(g1.sig[k][i][j]-rsig[k][i][j]));
+      }
+    }
+    localflag = err > sbeps*NPT;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Gaumixmod: fused step differs from estep and mstep");
+    }
+    localflag = false;
+    for (n=0;n<NPT;n++) {
+      double sum=0.;
+      for (k=0;k<NMEANS;k++) sum += g2.resp[n][k];
+      localflag = localflag || abs(sum-1.) > sbeps;
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Gaumixmod: responsibilities not normalized");
+    }
+
+    // The fused step does not materialize resp; responsibilities() gives those of estep()
+    localflag = g1.resp != null;
+    double ll1=g1.loglike;
+    double[][] r1=g1.responsibilities();
+    localflag = localflag || g1.loglike != ll1;
+    g2.estep();
+    for (n=0;n<NPT;n++)
+      for (k=0;k<NMEANS;k++) localflag = localflag || abs(r1[n][k]-g2.resp[n][k]) > sbeps;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Gaumixmod: responsibilities() differs from estep");
+    }
+
+    // Full and diagonal covariances recover the axis-aligned clusters
+    int[] types={Gaumixmod.FULL,Gaumixmod.DIAG};
+    for (int type : types) {
+      Gaumixmod gmix=new Gaumixmod(x,guess,type);
+      gmix.solve(1.e-6,200);
+      localflag = !gmix.converged;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Gaumixmod: solve did not converge, type " + type);
+      }
+      err=0.;
+      for (k=0;k<NMEANS;k++) {
+        err=max(err,abs(gmix.frac[k]-ffrac[k]));
+        for (i=0;i<NDIM;i++) {
+          err=max(err,abs(gmix.means[k][i]-means[k][i]));
+          err=max(err,abs(sqrt(gmix.sig[k][i][i])-sigma[k][i]));
+          for (j=0;j<NDIM;j++) if (j != i) err=max(err,abs(gmix.sig[k][i][j]));
+        }
+      }
+      localflag = err > 0.02;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Gaumixmod: parameters not recovered, type " + type);
+      }
+      if (type == Gaumixmod.DIAG) {
+        for (k=0;k<NMEANS;k++)
+          for (i=0;i<NDIM;i++) for (j=0;j<NDIM;j++) localflag = localflag || (j != i && gmix.sig[k][i][j] != 0.);
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** Gaumixmod: diagonal covariance has off-diagonal elements");
+        }
+      }
+    }
+
+    // Tied covariance recovers the shared rotated covariance
+    double[][] tcov={
+      {0.09,0.,0.},
+      {0.,0.09+0.01,0.02},
+      {0.,0.02,0.04}
+    };
+    Gaumixmod gtied=new Gaumixmod(y,guess,Gaumixmod.TIED);
+    gtied.solve(1.e-6,200);
+    localflag = !gtied.converged;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Gaumixmod: solve did not converge, tied");
+    }
+    err=0.;
+    for (k=0;k<NMEANS;k++) {
+      err=max(err,abs(gtied.frac[k]-ffrac[k]));
+      for (i=0;i<NDIM;i++) {
+        err=max(err,abs(gtied.means[k][i]-means[k][i]));
+        for (j=0;j<NDIM;j++) err=max(err,abs(gtied.sig[k][i][j]-tcov[i][j])+abs(gtied.sig[k][i][j]-gtied.sig[0][i][j]));
+      }
+    }
+    localflag = err > 0.01;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Gaumixmod: tied covariance not recovered");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  // One E-step and M-step computed directly from the formulas; returns the log-likelihood
+  private static double refstep(final double[][] x, final double[][] means, final double[] frac,
+      final double[][][] sig) {
+    int n,k,i,j,nn=x.length,kk=means.length,mm=x[0].length;
+    double[][] resp=new double[nn][kk];
+    double[] u=new double[mm],v=new double[mm];
+    double sum,max,tmp,loglike=0.;
+    for (k=0;k<kk;k++) {
+      Cholesky chol=new Cholesky(sig[k]);
+      double lndet=chol.logdet();
+      for (n=0;n<nn;n++) {
+        for (i=0;i<mm;i++) u[i]=x[n][i]-means[k][i];
+        chol.elsolve(u,v);
+        for (sum=0.,i=0;i<mm;i++) sum += v[i]*v[i];
+        resp[n][k]=-0.5*(sum+lndet)+log(frac[k]);
+      }
+    }
+    for (n=0;n<nn;n++) {
+      for (max=-99.9e99,k=0;k<kk;k++) max=max(max,resp[n][k]);
+      for (sum=0.,k=0;k<kk;k++) sum += exp(resp[n][k]-max);
+      tmp=max+log(sum);
+      for (k=0;k<kk;k++) resp[n][k]=exp(resp[n][k]-tmp);
+      loglike += tmp;
+    }
+    for (k=0;k<kk;k++) {
+      double wgt=0.;
+      for (n=0;n<nn;n++) wgt += resp[n][k];
+      frac[k]=wgt/nn;
+      for (i=0;i<mm;i++) {
+        for (sum=0.,n=0;n<nn;n++) sum += resp[n][k]*x[n][i];
+        means[k][i]=sum/wgt;
+      }
+      for (i=0;i<mm;i++)
+        for (j=0;j<mm;j++) {
+          for (sum=0.,n=0;n<nn;n++) sum += resp[n][k]*(x[n][i]-means[k][i])*(x[n][j]-means[k][j]);
+          sig[k][i][j]=sum/wgt;
+        }
+    }
+    return loglike;
+  }
+}
@@ -0,0 +1,190 @@
+package com.nr.test.test_chapter16;
+
+import static com.nr.NRUtil.buildMatrix;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.ci.HMM;
+import com.nr.ci.HMMBatch;
+import com.nr.ran.Ran;
+
+public class Test_HMMBatch {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,s,t,N=1000,M=5,K=5,NSEQ=40;
+    double sbeps=1.e-10;
+    double aatrans[]={      // Transition matrix
+      0.0,0.7,0.1,0.0,0.2,
+      0.2,0.4,0.0,0.2,0.2,
+      0.0,1.0,0.0,0.0,0.0,
+      0.0,0.3,0.0,0.7,0.0,
+      0.1,0.1,0.0,0.0,0.8
+    };
+    double bb[]={         // Symbol probabilities for each state
+      0.2,0.0,0.0,0.8,0.0,
+      0.2,0.0,0.6,0.2,0.0,
+      0.0,1.0,0.0,0.0,0.0,
+      0.3,0.2,0.4,0.1,0.0,
+      0.5,0.0,0.0,0.0,0.5
+    };
+    double[][] atrans=buildMatrix(M,M,aatrans),b=buildMatrix(M,K,bb);
+    int[][] state=new int[NSEQ][],symbols=new int[NSEQ][];
+    boolean localflag, globalflag=false;
+
+    // Test HMMBatch
+    System.out.println("Testing HMMBatch");
+
+    Ran myran=new Ran(17);
+    for (s=0;s<NSEQ;s++) {
+      int n = s == 0 ? N : 50+myran.int32p()%500;
+      state[s]=new int[n];
+      symbols[s]=new int[n];
+      HMM.markovgen(atrans,state[s],0,17+s);
+      for (i=0;i<n;i++) symbols[s][i]=emit(b[state[s][i]],myran.doub());
+    }
+
+    // Posteriors and likelihood agree with HMM, for several checkpoint intervals
+    HMM hmm=new HMM(atrans,b,symbols[0]);
+    hmm.forwardbackward();
+    HMMBatch batch=new HMMBatch(atrans,b);
+    localflag = batch.nonzeros() != 13;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** HMMBatch: wrong number of nonzero transitions");
+    }
+    int[] intervals={0,1,7,Integer.MAX_VALUE};
+    for (int iv : intervals) {
+      batch.setCheckpointInterval(iv);
+      double[][] pstate=batch.posterior(symbols[0]);
+      double err=0.;
+      for (t=0;t<N;t++)
+        for (i=0;i<M;i++) err=max(err,abs(pstate[t][i]-hmm.pstate[t][i]));
+      localflag = err > sbeps;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** HMMBatch: posterior differs from HMM, interval " + iv);
+      }
+      localflag = abs(batch.loglikelihood(symbols[0])-hmm.loglikelihood()) > sbeps*abs(hmm.loglikelihood());
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** HMMBatch: log-likelihood differs from HMM, interval " + iv);
+      }
+    }
+
+    // One Baum-Welch step on a single sequence gives the transition matrix of HMM
+    batch.setCheckpointInterval(0);
+    batch.baumwelch(new int[][]{symbols[0]});
+    hmm.baumwelch();
+    double err=0.;
+    for (i=0;i<M;i++)
+      for (j=0;j<M;j++) err=max(err,abs(batch.a[i][j]-hmm.a[i][j]));
+    localflag = err > sbeps;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** HMMBatch: Baum-Welch transition matrix differs from HMM");
+    }
+
+    // Batched Baum-Welch never decreases the total likelihood
+    batch=new HMMBatch(atrans,b);
+    double ll,llold=Double.NEGATIVE_INFINITY;
+    for (i=0;i<20;i++) {
+      ll=batch.baumwelch(symbols);
+      localflag = ll < llold - 1.e-8*abs(ll);
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** HMMBatch: Baum-Welch decreased the likelihood");
+      }
+      llold=ll;
+    }
+    double llsum=0.;
+    for (s=0;s<NSEQ;s++) llsum += batch.loglikelihood(symbols[s]);
+    localflag = llsum < llold;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** HMMBatch: likelihood after last Baum-Welch step decreased");
+    }
+
+    // Viterbi: checkpointing does not change the paths, and short paths are optimal
+    batch=new HMMBatch(atrans,b);
+    int[][] path=batch.viterbi(symbols);
+    double[] score=batch.vscore.clone();
+    for (int iv : intervals) {
+      batch.setCheckpointInterval(iv);
+      int[][] p2=batch.viterbi(symbols);
+      localflag = false;
+      for (s=0;s<NSEQ;s++) {
+        for (t=0;t<path[s].length;t++) localflag = localflag || p2[s][t] != path[s][t];
+        localflag = localflag || abs(batch.vscore[s]-score[s]) > sbeps*abs(score[s]);
+      }
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** HMMBatch: Viterbi path depends on checkpoint interval " + iv);
+      }
+    }
+    for (s=0;s<NSEQ;s++) {
+      localflag = abs(pathscore(atrans,b,symbols[s],path[s])-score[s]) > sbeps*abs(score[s]);
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** HMMBatch: Viterbi score does not match its path");
+      }
+    }
+    int ncorrect=0;
+    for (t=0;t<N;t++) if (path[0][t] == state[0][t]) ncorrect++;
+    System.out.printf("Viterbi fraction correct: %f\n", (double)(ncorrect)/N);
+    localflag = (double)(ncorrect)/N < 0.7;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** HMMBatch: Viterbi path was wrong more than 30% of the time");
+    }
+
+    int n=6,best;
+    int[] obs=new int[n],trial=new int[n];
+    localflag = false;
+    for (s=0;s<20;s++) {
+      HMM.markovgen(atrans,trial,0,100+s);
+      for (t=0;t<n;t++) obs[t]=emit(b[trial[t]],myran.doub());
+      double bestscore=Double.NEGATIVE_INFINITY;
+      for (best=0;best<(int)pow(M,n);best++) {
+        for (t=0,j=best;t<n;t++,j/=M) trial[t]=j%M;
+        bestscore=max(bestscore,pathscore(atrans,b,obs,trial));
+      }
+      batch.viterbi(obs);
+      localflag = localflag || abs(batch.vscore[0]-bestscore) > sbeps*abs(bestscore);
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** HMMBatch: Viterbi path is not the most probable one");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  private static int emit(final double[] bi, final double r) {
+    double sum=0.;
+    for (int j=0;j<bi.length;j++) {
+      sum += bi[j];
+      if (r < sum) return j;
+    }
+    return bi.length-1;
+  }
+
+  private static double pathscore(final double[][] a, final double[][] b, final int[] obs, final int[] path) {
+    double sum=log(b[path[0]][obs[0]]);
+    for (int t=1;t<obs.length;t++) sum += log(a[path[t-1]][path[t]]) + log(b[path[t]][obs[t]]);
+    return sum;
+  }
+}
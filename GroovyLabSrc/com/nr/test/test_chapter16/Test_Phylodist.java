@@ -0,0 +1,117 @@
+package com.nr.test.test_chapter16;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ci.Phylagglom;
+import com.nr.ci.Phylo_clc;
+import com.nr.ci.Phylo_nj;
+import com.nr.ci.Phylo_slc;
+import com.nr.ci.Phylo_upgma;
+import com.nr.ci.Phylo_wpgma;
+import com.nr.ci.Phylodist;
+import com.nr.ran.Ran;
+
+public class Test_Phylodist {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,k,n;
+    double sbeps=1.e-10;
+    boolean localflag, globalflag=false;
+
+    // Test Phylodist and the fast agglomeration of the built-in tree classes
+    System.out.println("Testing Phylodist");
+
+    Ran myran=new Ran(17);
+    int[] sizes={150,120};
+    for (int trial=0;trial<2;trial++) {
+      n=sizes[trial];
+      double[][] dist=new double[n][n];
+      double[][] pts=new double[n][3];
+      for (i=0;i<n;i++) for (k=0;k<3;k++) pts[i][k]=myran.doub();
+      for (i=0;i<n;i++) {
+        for (j=0;j<i;j++) {
+          double sum=0.;
+          for (k=0;k<3;k++) sum += abs(pts[i][k]-pts[j][k]);
+          // trial 1 has integer distances, with many ties
+          dist[i][j]=dist[j][i]= trial == 0 ? sum : floor(10.*sum);
+        }
+      }
+
+      Phylodist pd=new Phylodist(dist);
+      localflag = false;
+      for (i=0;i<n;i++) for (j=0;j<n;j++) localflag = localflag || pd.get(i,j) != dist[i][j];
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Phylodist: packed store does not reproduce the matrix");
+      }
+
+      // Each built-in class gives the same tree as the generic full search
+      for (int type=0;type<5;type++) {
+        Phylagglom fast = type == 0 ? new Phylo_nj(dist) : type == 1 ? new Phylo_upgma(dist)
+          : type == 2 ? new Phylo_wpgma(dist) : type == 3 ? new Phylo_slc(dist) : new Phylo_clc(dist);
+        Phylagglom ref=new Reference(dist,fast,-1);
+        localflag = !same(fast,ref,sbeps);
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** Phylodist: tree differs from full search, type " + type + ", trial " + trial);
+        }
+      }
+
+      // The same holds with a forced root, and when built from the packed store
+      int fsr=new Phylo_nj(dist).comancestor(0,7);
+      Phylagglom fast=new Phylo_nj(pd,fsr);
+      Phylagglom ref=new Reference(dist,fast,fsr);
+      localflag = !same(fast,ref,sbeps);
+      for (i=0;i<n;i++) for (j=0;j<n;j++) localflag = localflag || pd.get(i,j) != dist[i][j];
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Phylodist: forced-root tree differs from full search, or store modified, trial " + trial);
+      }
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  private static boolean same(final Phylagglom a, final Phylagglom b, final double eps) {
+    if (a.root != b.root) return false;
+    for (int i=0;i<a.t.length;i++) {
+      if (a.t[i].mo != b.t[i].mo || a.t[i].ldau != b.t[i].ldau || a.t[i].rdau != b.t[i].rdau
+        || a.t[i].nel != b.t[i].nel) return false;
+      if (abs(a.t[i].modist-b.t[i].modist) > eps || abs(a.t[i].seq-b.t[i].seq) > eps) return false;
+    }
+    return true;
+  }
+
+  // Builds the tree with the generic search of Phylagglom, using the functions of proto
+  private static class Reference extends Phylagglom {
+    Phylagglom proto;
+    Reference(final double[][] dist, final Phylagglom p, final int fsr) {
+      super(dist,fsr);
+      proto=p;
+      makethetree(dist);
+    }
+    public void premin(double[][] d, int[] nextp) {proto.premin(d,nextp);}
+    public double dminfn(double[][] d, int i, int j) {return proto.dminfn(d,i,j);}
+    public double dbranchfn(double[][] d, int i, int j) {return proto.dbranchfn(d,i,j);}
+    public double dnewfn(double[][] d, int k, int i, int j, int ni, int nj) {return proto.dnewfn(d,k,i,j,ni,nj);}
+    public void drootbranchfn(double[][] d, int i, int j, int ni, int nj, doubleW bi, doubleW bj) {
+      proto.drootbranchfn(d,i,j,ni,nj,bi,bj);
+    }
+  }
+}
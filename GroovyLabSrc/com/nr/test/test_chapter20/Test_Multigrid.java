@@ -0,0 +1,128 @@
+package com.nr.test.test_chapter20;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.pde.Mgfas;
+import com.nr.pde.Mglin;
+import com.nr.pde.Multigrid;
+import com.nr.util.Parallel;
+
+public class Test_Multigrid {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int JMAX=33,N3=33;
+    int i,j,k;
+    double sbeps=1.e-12;
+    boolean localflag, globalflag=false;
+
+    // Test Multigrid
+    System.out.println("Testing Multigrid");
+
+    // 2-D: same solutions as Mglin and Mgfas
+    double[][] rho=new double[JMAX][JMAX],u1,u2;
+    for (i=0;i<JMAX;i++)
+      for (j=0;j<JMAX;j++)
+        rho[i][j]=1.0/(1+pow(i-JMAX/2.0,2.0)/4.0)/(1+pow(j-JMAX/2.0,2.0)/4.0);
+    u1=new Mglin(copy(rho),2).u;
+    u2=Multigrid.mglin(copy(rho),2);
+    localflag=maxdiff(u1,u2) > sbeps;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Multigrid: mglin differs from Mglin");
+    }
+    u1=new Mgfas(copy(rho),2).u;
+    u2=Multigrid.mgfas(copy(rho),2);
+    localflag=maxdiff(u1,u2) > sbeps;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Multigrid: mgfas differs from Mgfas");
+    }
+
+    // 3-D: the solutions satisfy the 7-point difference equations, whatever the number of threads
+    double[] f=new double[N3*N3*N3],g=new double[N3*N3*N3];
+    for (i=0;i<N3;i++) {
+      for (j=0;j<N3;j++) {
+        for (k=0;k<N3;k++) {
+          f[(i*N3+j)*N3+k]=(i == N3/2 && j == N3/2 && k == N3/2) ? (N3-1.0)*(N3-1.0)*(N3-1.0) : 0.0;
+          g[(i*N3+j)*N3+k]=1.0/(1+pow(i-N3/2.0,2.0)/4.0)/(1+pow(j-N3/2.0,2.0)/4.0)/(1+pow(k-N3/2.0,2.0)/4.0);
+        }
+      }
+    }
+    double[][] lin=new double[2][],fas=new double[2][];
+    int nthreads=Parallel.threads();
+    try {
+      for (int trial=0;trial<2;trial++) {
+        Parallel.setThreads(trial == 0 ? 1 : 4);
+        Multigrid mg=new Multigrid(N3,3);
+        lin[trial]=mg.mglin(f,10).clone();
+        fas[trial]=mg.mgfas(g,20).clone();
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+    localflag = !Arrays.equals(lin[0],lin[1]) || !Arrays.equals(fas[0],fas[1]);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Multigrid: results depend on the number of threads");
+    }
+    double rl=0.,rf=0.,sumsq=0.,scale=0.,diff;
+    for (i=1;i<N3-1;i++) {
+      for (j=1;j<N3-1;j++) {
+        for (k=1;k<N3-1;k++) {
+          int p=(i*N3+j)*N3+k;
+          rl=max(rl,abs(lap(lin[0],p,N3)-f[p]));
+          diff=lap(fas[0],p,N3)+fas[0][p]*fas[0][p]-g[p];
+          rf=max(rf,abs(diff));
+          sumsq += diff*diff;
+          scale=max(scale,abs(f[p]));
+        }
+      }
+    }
+    sumsq=sqrt(sumsq/(N3-2)/(N3-2)/(N3-2));
+    System.out.printf("3-D: mglin max residual = %g, mgfas max difference = %f, rms error = %f\n",
+      rl/scale, rf, sumsq);
+    // mgfas stops at the level of the truncation error, as Mgfas
+    localflag = rl > 1.e-3*scale || sumsq > 1.e-3 || rf > 5.e-2;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Multigrid: 3-D solution does not satisfy the difference equations");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  private static double lap(final double[] u, final int p, final int n) {
+    int s2=n*n;
+    return (u[p+s2]+u[p-s2]+u[p+n]+u[p-n]+u[p+1]+u[p-1]-6.0*u[p])*(n-1.0)*(n-1.0);
+  }
+
+  private static double[][] copy(final double[][] a) {
+    double[][] b=new double[a.length][];
+    for (int i=0;i<a.length;i++) b[i]=a[i].clone();
+    return b;
+  }
+
+  private static double maxdiff(final double[][] a, final double[][] b) {
+    double d=0.;
+    for (int i=0;i<a.length;i++)
+      for (int j=0;j<a.length;j++) d=max(d,abs(a[i][j]-b[i][j]));
+    return d;
+  }
+}
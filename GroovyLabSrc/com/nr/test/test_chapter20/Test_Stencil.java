@@ -0,0 +1,113 @@
+package com.nr.test.test_chapter20;
+
+import static com.nr.NRUtil.SQR;
+import static com.nr.NRUtil.buildMatrix;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.pde.Relaxation;
+import com.nr.pde.Stencil;
+import com.nr.util.Parallel;
+
+public class Test_Stencil {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,JMAX=33,NMAX=97;
+    double rjac,sbeps=1.e-14,PI=acos(-1.0);
+    boolean localflag, globalflag=false;
+
+    // Test Stencil
+    System.out.println("Testing Stencil");
+
+    // Point source of Test_sor: same solution as sor, by both methods
+    int midl=JMAX/2;
+    double[][] a=buildMatrix(JMAX,JMAX,1.0),b=buildMatrix(JMAX,JMAX,1.0),c=buildMatrix(JMAX,JMAX,1.0);
+    double[][] d=buildMatrix(JMAX,JMAX,1.0),e=buildMatrix(JMAX,JMAX,-4.0),f=buildMatrix(JMAX,JMAX,0.0);
+    f[midl][midl]=2000.0/SQR(JMAX-1.0);
+    rjac=cos(PI/JMAX);
+    double[][] u0=buildMatrix(JMAX,JMAX,0.0),u1=buildMatrix(JMAX,JMAX,0.0),u2=buildMatrix(JMAX,JMAX,0.0);
+    Relaxation.sor(a,b,c,d,e,f,u0,rjac);
+    Stencil st=new Stencil(a,b,c,d,e,f);
+    int its=st.sor(u1,rjac);   // whole passes of SWEEPS iterations
+    Relaxation.adi(a,b,c,d,e,f,u2,rjac);
+    localflag = maxdiff(u0,u1) > sbeps || maxdiff(u0,u2) > 1.e-13
+      || maxresid(a,b,c,d,e,f,u1) > sbeps || maxresid(a,b,c,d,e,f,u2) > sbeps
+      || its <= 0 || its % Stencil.SWEEPS != 0;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Stencil: solution differs from that of sor, or wrong iteration count");
+    }
+
+    // Variable coefficients on a grid of several bands; sor results do not depend on the
+    // number of threads
+    a=new double[NMAX][NMAX];
+    b=new double[NMAX][NMAX];
+    c=new double[NMAX][NMAX];
+    d=new double[NMAX][NMAX];
+    e=new double[NMAX][NMAX];
+    f=new double[NMAX][NMAX];
+    for (i=0;i<NMAX;i++) {
+      for (j=0;j<NMAX;j++) {
+        double k=1.0+0.5*sin(0.05*i)*cos(0.03*j);   // diffusion coefficient
+        a[i][j]=b[i][j]=k;
+        c[i][j]=d[i][j]=1.0/k;
+        e[i][j] = -2.0*(k+1.0/k);
+        f[i][j]=sin(0.1*i)*cos(0.07*j)/SQR(NMAX-1.0);
+      }
+    }
+    rjac=cos(PI/NMAX);
+    double[][][] u=new double[3][][];
+    int nthreads=Parallel.threads();
+    try {
+      for (int trial=0;trial<3;trial++) {
+        Parallel.setThreads(trial == 1 ? 4 : 1);
+        st=new Stencil(a,b,c,d,e,f);
+        u[trial]=new double[NMAX][NMAX];
+        if (trial < 2) st.sor(u[trial],rjac);
+        else st.adi(u[trial],rjac);
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+    u0=new double[NMAX][NMAX];
+    Relaxation.sor(a,b,c,d,e,f,u0,rjac);
+    localflag = maxdiff(u[0],u[1]) != 0.0 || maxdiff(u0,u[0]) > sbeps || maxdiff(u0,u[2]) > sbeps;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Stencil: solution with variable coefficients is incorrect");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  private static double maxdiff(final double[][] x, final double[][] y) {
+    double m=0.;
+    for (int i=0;i<x.length;i++)
+      for (int j=0;j<x[i].length;j++) m=max(m,abs(x[i][j]-y[i][j]));
+    return m;
+  }
+
+  private static double maxresid(final double[][] a, final double[][] b, final double[][] c,
+    final double[][] d, final double[][] e, final double[][] f, final double[][] u) {
+    double m=0.;
+    for (int i=1;i<u.length-1;i++)
+      for (int j=1;j<u.length-1;j++)
+        m=max(m,abs(a[i][j]*u[i+1][j]+b[i][j]*u[i-1][j]+c[i][j]*u[i][j+1]+d[i][j]*u[i][j-1]
+          +e[i][j]*u[i][j]-f[i][j]));
+    return m;
+  }
+}
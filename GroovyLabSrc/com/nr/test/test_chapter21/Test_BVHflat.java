@@ -0,0 +1,125 @@
+package com.nr.test.test_chapter21;
+
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.cg.BVHflat;
+import com.nr.cg.Point;
+import com.nr.cg.Qotree;
+import com.nr.cg.Sphcirc;
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_BVHflat {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,N=1000,M=200;
+    boolean localflag, globalflag=false;
+
+    // Test BVHflat
+    System.out.println("Testing BVHflat");
+
+    Ran myran=new Ran(17);
+
+    // Same results as Qotree in 3D
+    Sphcirc[] s=new Sphcirc[N];
+    Qotree qo=new Qotree(3,N,N,5);
+    for (i=0;i<N;i++) {
+      s[i]=new Sphcirc(new Point(0.1+0.8*myran.doub(),0.1+0.8*myran.doub(),0.1+0.8*myran.doub()),0.05*myran.doub());
+      qo.qostore(s[i]);
+    }
+    BVHflat bvh=new BVHflat(s);
+    Sphcirc[] list=new Sphcirc[N];
+    localflag=false;
+    for (i=0;i<M;i++) {
+      Sphcirc q=new Sphcirc(new Point(myran.doub(),myran.doub(),myran.doub()),0.1*myran.doub());
+      int[] c1=bvh.collides(q);
+      localflag = localflag || c1.length != qo.qocollides(q,list,N);
+      for (int k : c1) localflag = localflag || s[k].collides(q) == 0;
+      int[] c2=bvh.containspt(q.center);
+      localflag = localflag || c2.length != qo.qocontainspt(q.center,list,N);
+      for (int k : c2) localflag = localflag || s[k].contains(q.center) == 0;
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** BVHflat: results differ from Qotree");
+    }
+
+    // All pairs in 2D against brute force, while the circles move, for several thread counts
+    int n=3000,dim=2;
+    double[] c=new double[n*dim],r=new double[n];
+    for (i=0;i<n*dim;i++) c[i]=myran.doub();
+    for (i=0;i<n;i++) r[i]=0.01*myran.doub();
+    int nthreads=Parallel.threads();
+    try {
+      for (int trial=0;trial<3;trial++) {
+        Parallel.setThreads(trial == 0 ? 1 : 4);
+        BVHflat tree=new BVHflat(dim,c,r,trial == 2 ? 1 : 4);
+        localflag=false;
+        for (int step=0;step<20;step++) {
+          if (step > 0) {
+            if (step % 2 == 0) {   // everything moves
+              for (i=0;i<n*dim;i++) c[i] += 0.02*(myran.doub()-0.5);
+              tree.update(c,null);
+            } else {   // a few move, and change size
+              int[] ids=new int[50];
+              double[] cc=new double[ids.length*dim],rr=new double[ids.length];
+              for (j=0;j<ids.length;j++) {
+                ids[j]=(int)(myran.doub()*n/ids.length)+j*(n/ids.length);
+                for (int d=0;d<dim;d++) cc[j*dim+d]=c[ids[j]*dim+d]=myran.doub();
+                rr[j]=r[ids[j]]=0.02*myran.doub();
+              }
+              tree.update(ids,cc,rr);
+            }
+          }
+          int[] p=tree.pairs();
+          int np=0;
+          for (i=0;i<n;i++) {
+            for (j=i+1;j<n;j++) {
+              double dx=c[i*dim]-c[j*dim],dy=c[i*dim+1]-c[j*dim+1];
+              if (Math.sqrt(dx*dx+dy*dy) <= r[i]+r[j]) np++;
+            }
+          }
+          localflag = localflag || p.length != 2*np;
+          long[] key=new long[p.length/2];
+          for (i=0;i<key.length;i++) {
+            localflag = localflag || p[2*i] >= p[2*i+1];
+            key[i]=(long)p[2*i]*n+p[2*i+1];
+          }
+          Arrays.sort(key);
+          for (i=1;i<key.length;i++) localflag = localflag || key[i] == key[i-1];
+          for (i=0;i<key.length;i++) {
+            int a=(int)(key[i]/n),b=(int)(key[i]%n);
+            double dx=c[a*dim]-c[b*dim],dy=c[a*dim+1]-c[b*dim+1];
+            localflag = localflag || Math.sqrt(dx*dx+dy*dy) > r[a]+r[b];
+          }
+          double[] ci=tree.center(n/2);
+          localflag = localflag || ci[0] != c[n/2*dim] || tree.radius(n/2) != r[n/2];
+        }
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** BVHflat: pairs of moving circles are incorrect, trial " + trial);
+        }
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,124 @@
+package com.nr.test.test_chapter21;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.cg.KDflat;
+import com.nr.cg.KDtree;
+import com.nr.cg.Point;
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_KDflat {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,k,N=2000,M=100,K=7;
+    double sbeps=1.e-12;
+    boolean localflag, globalflag=false;
+
+    // Test KDflat
+    System.out.println("Testing KDflat");
+
+    Ran myran=new Ran(17);
+
+    // Same results as KDtree in 3D
+    Point[] pts=new Point[N];
+    for (i=0;i<N;i++) pts[i]=new Point(myran.doub(),myran.doub(),myran.doub());
+    KDtree tree=new KDtree(3,pts);
+    KDflat flat=new KDflat(pts);
+    int[] nn1=new int[K],nn2=new int[K],list1=new int[N],list2=new int[N];
+    double[] dn1=new double[K],dn2=new double[K];
+    localflag=false;
+    for (i=0;i<M;i++) {
+      Point y=new Point(myran.doub(),myran.doub(),myran.doub());
+      localflag = localflag || tree.nearest(y) != flat.nearest(y.x);
+      tree.nnearest(i,nn1,dn1,K);
+      flat.nnearest(i,K,nn2,dn2);
+      Arrays.sort(dn1);
+      for (j=0;j<K;j++) localflag = localflag || abs(dn1[j]-dn2[j]) > sbeps || nn2[j] == i;
+      Arrays.sort(nn1);
+      Arrays.sort(nn2);
+      localflag = localflag || !Arrays.equals(nn1,nn2);
+      int n1=tree.locatenear(y,0.1,list1,N),n2=flat.locatenear(y.x,0.1,list2,N);
+      Arrays.sort(list1,0,n1);
+      Arrays.sort(list2,0,n2);
+      localflag = localflag || n1 != n2 || !Arrays.equals(Arrays.copyOf(list1,n1),Arrays.copyOf(list2,n2));
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** KDflat: results differ from KDtree");
+    }
+
+    // Batch queries in 8D against brute force, for several leaf sizes and thread counts
+    int dim=8,n=3000,m=200;
+    double[] x=new double[n*dim],q=new double[m*dim];
+    for (i=0;i<n*dim;i++) x[i]=myran.doub();
+    for (i=0;i<m*dim;i++) q[i]=myran.doub();
+    for (i=0;i<20;i++) System.arraycopy(x,i*dim,x,(n-1-i)*dim,dim);   // repeated points
+    int[] nn=new int[n*K],nnref=null;
+    double[] dn=new double[n*K],d2=new double[n];
+    int nthreads=Parallel.threads();
+    try {
+      for (int trial=0;trial<3;trial++) {
+        Parallel.setThreads(trial == 0 ? 1 : 4);
+        KDflat kd=new KDflat(dim,x,trial == 2 ? 1 : 16);
+        localflag=false;
+        kd.batchNnearest(q,K,nn,dn);
+        int[][] near=kd.batchLocatenear(q,0.6);
+        for (i=0;i<m;i++) {
+          for (j=0;j<n;j++) d2[j]=dist(x,j,q,i,dim);
+          double[] ds=d2.clone();
+          Arrays.sort(ds);
+          for (k=0;k<K;k++) {
+            localflag = localflag || abs(dn[i*K+k]-ds[k]) > sbeps;
+            localflag = localflag || abs(d2[nn[i*K+k]]-dn[i*K+k]) > sbeps;
+          }
+          int cnt=0;
+          for (j=0;j<n;j++) if (d2[j] <= 0.6) cnt++;
+          localflag = localflag || near[i].length != cnt;
+          for (int p : near[i]) localflag = localflag || d2[p] > 0.6;
+        }
+        // all-points neighbors, each point excluded from its own list
+        kd.batchNnearest(K,nn,dn);
+        for (i=0;i<n;i+=37) {
+          for (j=0;j<n;j++) d2[j] = j == i ? Double.POSITIVE_INFINITY : dist(x,j,x,i,dim);
+          double[] ds=d2.clone();
+          Arrays.sort(ds);
+          for (k=0;k<K;k++) localflag = localflag || abs(dn[i*K+k]-ds[k]) > sbeps || nn[i*K+k] == i;
+        }
+        if (nnref == null) nnref=nn.clone();
+        else localflag = localflag || (trial == 1 && !Arrays.equals(nn,nnref));
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** KDflat: batch queries are incorrect, trial " + trial);
+        }
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  private static double dist(final double[] a, final int i, final double[] b, final int j, final int dim) {
+    double sum=0.;
+    for (int k=0;k<dim;k++) sum += (a[i*dim+k]-b[j*dim+k])*(a[i*dim+k]-b[j*dim+k]);
+    return sqrt(sum);
+  }
+}
@@ -0,0 +1,110 @@
+package com.nr.test.test_chapter21;
+
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.cg.Neargrid;
+import com.nr.cg.Nearpoints;
+import com.nr.cg.Point;
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_Neargrid {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,N=1000,M=100;
+    boolean localflag, globalflag=false;
+
+    // Test Neargrid
+    System.out.println("Testing Neargrid");
+
+    Ran myran=new Ran(17);
+
+    // Same results as Nearpoints in 2D
+    Point[] pvec=new Point[N];
+    for (i=0;i<N;i++) pvec[i]=new Point(myran.doub(),myran.doub());
+    Nearpoints qo=new Nearpoints(2,pvec);
+    Neargrid grid=new Neargrid(2,pvec,0.05);
+    Point[] qolist=new Point[N];
+    localflag=false;
+    for (i=0;i<M;i++) {
+      Point pt=new Point(1.2*myran.doub()-0.1,1.2*myran.doub()-0.1);
+      double r=0.15*myran.doub();
+      int[] list=grid.locatenear(pt,r);
+      localflag = localflag || list.length != qo.locatenear(pt,r,qolist,N);
+      for (int k : list) localflag = localflag || Point.dist(pvec[k],pt) > r;
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Neargrid: results differ from Nearpoints");
+    }
+
+    // All neighbors in 3D against brute force, while the points move, for several thread counts
+    int n=2000,dim=3;
+    double h=0.08;
+    double[] x=new double[n*dim];
+    for (i=0;i<n*dim;i++) x[i]=myran.doub();
+    for (i=0;i<10;i++) System.arraycopy(x,i*dim,x,(n-1-i)*dim,dim);   // repeated points
+    int nthreads=Parallel.threads();
+    try {
+      for (int trial=0;trial<2;trial++) {
+        Parallel.setThreads(trial == 0 ? 1 : 4);
+        double[] y=x.clone();
+        Neargrid g=new Neargrid(dim,y,h);
+        localflag=false;
+        for (int step=0;step<6;step++) {
+          if (step > 0) {
+            double amp = step == 5 ? 1.0 : 0.002*step;   // the last step leaves the grid
+            for (i=0;i<n*dim;i++) y[i] += amp*(myran.doub()-0.5);
+            int moved=g.update(y);
+            localflag = localflag || moved < 0 || moved > n;
+          }
+          Neargrid.Neighbors nb=g.neighbors();
+          localflag = localflag || nb.start[0] != 0 || nb.start[n] != nb.nbr.length;
+          for (i=0;i<n;i++) {
+            int cnt=0;
+            for (j=0;j<n;j++) {
+              if (j == i) continue;
+              double dd=0.;
+              for (int d=0;d<dim;d++) dd += (y[i*dim+d]-y[j*dim+d])*(y[i*dim+d]-y[j*dim+d]);
+              if (dd <= h*h) cnt++;
+            }
+            localflag = localflag || nb.count(i) != cnt;
+            int[] li=Arrays.copyOfRange(nb.nbr,nb.start[i],nb.start[i+1]);
+            Arrays.sort(li);
+            for (j=0;j<li.length;j++) {
+              localflag = localflag || li[j] == i || (j > 0 && li[j] == li[j-1]);
+              double dd=0.;
+              for (int d=0;d<dim;d++) dd += (y[i*dim+d]-y[li[j]*dim+d])*(y[i*dim+d]-y[li[j]*dim+d]);
+              localflag = localflag || dd > h*h;
+            }
+          }
+          localflag = localflag || g.point(n/3)[1] != y[n/3*dim+1];
+        }
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** Neargrid: neighbor lists of moving points are incorrect, trial " + trial);
+        }
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
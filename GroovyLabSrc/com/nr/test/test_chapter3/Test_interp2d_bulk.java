@@ -0,0 +1,109 @@
+package com.nr.test.test_chapter3;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.interp.Bilin_interp;
+import com.nr.interp.Poly2D_interp;
+import com.nr.interp.Spline2D_interp;
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_interp2d_bulk {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,M=40,N=30,Q=20000;
+    double sbeps=1.e-12;
+    boolean localflag, globalflag=false;
+
+    // Test the bulk interp of Spline2D_interp, Bilin_interp and Poly2D_interp
+    System.out.println("Testing interp2d_bulk");
+
+    Ran myran=new Ran(17);
+    double[] x1=new double[M],x2=new double[N];
+    double[][] y=new double[M][N];
+    for (i=0;i<M;i++) x1[i]=i+0.5*myran.doub();
+    for (j=0;j<N;j++) x2[N-1-j]=0.5*j+0.2*myran.doub();   // descending
+    for (i=0;i<M;i++)
+      for (j=0;j<N;j++) y[i][j]=sin(0.2*x1[i])*cos(0.3*x2[j])+0.01*x1[i]*x2[j];
+
+    // queries along the rows of a rotated image, and scattered ones, some outside the grid
+    double[][] q1=new double[2][Q],q2=new double[2][Q];
+    for (i=0;i<Q;i++) {
+      double a=(i/200)*2./99.-1.,b=(i%200)*2./199.-1.;
+      q1[0][i]=0.8*a*M/2.+0.2*b*M/2.+M/2.;
+      q2[0][i]=-0.2*a*N/4.+0.8*b*N/4.+N/4.;
+      q1[1][i]=-1.+(M+1.)*myran.doub();
+      q2[1][i]=-0.5+(0.5*N+0.5)*myran.doub();
+    }
+
+    Spline2D_interp sp=new Spline2D_interp(x1,x2,y);
+    Bilin_interp bl=new Bilin_interp(x1,x2,y);
+    Poly2D_interp pl=new Poly2D_interp(x1,x2,y,4,3);
+    double[] out=new double[Q],out4=new double[Q],ref=new double[Q];
+    int nthreads=Parallel.threads();
+    try {
+      for (int k=0;k<3;k++) {
+        for (int t=0;t<2;t++) {
+          for (i=0;i<Q;i++) {
+            ref[i] = k == 0 ? sp.interp(q1[t][i],q2[t][i]) : k == 1 ? bl.interp(q1[t][i],q2[t][i])
+              : pl.interp(q1[t][i],q2[t][i]);
+          }
+          for (int th=0;th<2;th++) {
+            Parallel.setThreads(th == 0 ? 1 : 4);
+            double[] o = th == 0 ? out : out4;
+            if (k == 0) sp.interp(q1[t],q2[t],o);
+            else if (k == 1) bl.interp(q1[t],q2[t],o);
+            else pl.interp(q1[t],q2[t],o);
+          }
+          localflag = !Arrays.equals(out,out4);
+          for (i=0;i<Q;i++) {
+            if (k == 0) localflag = localflag || abs(out[i]-ref[i]) > sbeps*max(1.,abs(ref[i]));
+            else localflag = localflag || out[i] != ref[i];
+          }
+          globalflag = globalflag || localflag;
+          if (localflag) {
+            fail("*** interp2d_bulk: bulk values differ from interp, object " + k + ", queries " + t);
+          }
+        }
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+
+    // Patches reproduce the table at the grid points
+    double[] g1=new double[M*N],g2=new double[M*N],gy=new double[M*N];
+    for (i=0;i<M;i++) {
+      for (j=0;j<N;j++) {
+        g1[i*N+j]=x1[i];
+        g2[i*N+j]=x2[j];
+      }
+    }
+    sp.interp(g1,g2,gy);
+    localflag=false;
+    for (i=0;i<M;i++)
+      for (j=0;j<N;j++) localflag = localflag || abs(gy[i*N+j]-y[i][j]) > sbeps;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** interp2d_bulk: Spline2D_interp patches do not reproduce the table");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
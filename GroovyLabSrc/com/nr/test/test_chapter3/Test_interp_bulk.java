@@ -0,0 +1,124 @@
+package com.nr.test.test_chapter3;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.interp.Base_interp;
+import com.nr.interp.Linear_interp;
+import com.nr.interp.Poly_interp;
+import com.nr.interp.Rational_interp;
+import com.nr.interp.Spline_interp;
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_interp_bulk {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,N=500,M=20000;
+    double sbeps=1.e-13;
+    boolean localflag, globalflag=false;
+
+    // Test the bulk interp of Base_interp
+    System.out.println("Testing interp_bulk");
+
+    Ran myran=new Ran(17);
+    // ascending and descending tables, with a repeated abscissa for Linear_interp
+    double[] x=new double[N],y=new double[N],xd=new double[N],yd=new double[N];
+    for (i=0;i<N;i++) {
+      x[i]=i+0.5*myran.doub();
+      y[i]=sin(0.05*x[i]);
+      xd[N-1-i]=x[i];
+      yd[N-1-i]=y[i];
+    }
+    double[] xl=x.clone();
+    xl[200]=xl[201];
+    // queries: sorted, reversed, random, and beyond the ends of the table
+    double[][] q=new double[3][M];
+    for (i=0;i<M;i++) q[0][i]=-10.+(N+20.)*myran.doub();
+    q[1]=q[0].clone();
+    Arrays.sort(q[1]);
+    for (i=0;i<M;i++) q[2][i]=q[1][M-1-i];
+    q[0][7]=Double.NaN;
+
+    Base_interp[] f={new Linear_interp(x,y),new Linear_interp(xd,yd),new Linear_interp(xl,y),
+      new Poly_interp(x,y,4),new Poly_interp(xd,yd,5),new Rational_interp(x,y,4),new Spline_interp(x,y),
+      new Spline_interp(xd,yd,0.,1.)};
+    double[] out=new double[M],ref=new double[M],out4=new double[M];
+    int nthreads=Parallel.threads();
+    try {
+      for (int k=0;k<f.length;k++) {
+        for (int t=0;t<3;t++) {
+          for (i=0;i<M;i++) ref[i]=f[k].interp(q[t][i]);
+          double dy=errest(f[k]);
+          Parallel.setThreads(1);
+          f[k].interp(q[t],out);
+          Parallel.setThreads(4);
+          f[k].interp(q[t],out4);
+          localflag = !Arrays.equals(out,out4) || Double.compare(dy,errest(f[k])) != 0;   // dy is left alone
+          for (i=0;i<M;i++) {
+            if (k < 6) localflag = localflag || (Double.doubleToLongBits(out[i]) != Double.doubleToLongBits(ref[i]));
+            else localflag = localflag || abs(out[i]-ref[i]) > sbeps*max(1.,abs(ref[i])*50.);
+          }
+          globalflag = globalflag || localflag;
+          if (localflag) {
+            fail("*** interp_bulk: bulk values differ from interp, object " + k + ", queries " + t);
+          }
+        }
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+
+    // One object used by several threads at once
+    final Spline_interp sp=new Spline_interp(x,y);
+    final double[] qq=q[0];
+    final double[][] res=new double[4][M];
+    Thread[] th=new Thread[4];
+    for (i=0;i<4;i++) {
+      final int k=i;
+      th[i]=new Thread() {
+        public void run() {
+          for (int r=0;r<5;r++) sp.interp(qq,res[k]);
+        }
+      };
+      th[i].start();
+    }
+    try {
+      for (i=0;i<4;i++) th[i].join();
+    } catch (InterruptedException ex) {
+      fail("*** interp_bulk: interrupted");
+    }
+    sp.interp(qq,out);
+    localflag=false;
+    for (i=0;i<4;i++) localflag = localflag || !Arrays.equals(res[i],out);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** interp_bulk: concurrent use gives different values");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  // The error estimate dy of the last interp(x), or 0 for classes without one
+  private static double errest(final Base_interp f) {
+    if (f instanceof Poly_interp) return ((Poly_interp)f).dy;
+    if (f instanceof Rational_interp) return ((Rational_interp)f).dy;
+    return 0.;
+  }
+}
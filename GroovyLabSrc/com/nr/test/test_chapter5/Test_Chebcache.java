@@ -0,0 +1,138 @@
+package com.nr.test.test_chapter5;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.UniVarRealValueFun;
+import com.nr.fe.Chebcache;
+import com.nr.ran.Ran;
+import com.nr.util.Parallel;
+
+public class Test_Chebcache {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() throws Exception {
+    int i,M=10000;
+    boolean localflag, globalflag=false;
+
+    // Test Chebcache
+    System.out.println("Testing Chebcache");
+
+    final int[] calls=new int[1];
+    UniVarRealValueFun osc=new UniVarRealValueFun() {
+      public double funk(final double x) {
+        calls[0]++;
+        return 50.*exp(-x)*sin(10.*x);
+      }
+    };
+    UniVarRealValueFun kink=new UniVarRealValueFun() {
+      public double funk(final double x) {
+        return sqrt(abs(x));
+      }
+    };
+    Ran myran=new Ran(17);
+    double[] x=new double[M],y=new double[M],y4=new double[M];
+
+    // Smooth function: relative tolerance, with the default order and with order 8
+    double[] tols={1.e-13,1.e-8};
+    int[] ords={16,8};
+    for (int t=0;t<2;t++) {
+      Chebcache c=new Chebcache(osc,0.,5.,tols[t],ords[t]);
+      double err=0.;
+      for (i=0;i<M;i++) {
+        x[i]=5.*myran.doub();
+        err=max(err,abs(c.get(x[i])-osc.funk(x[i]))/50.);
+      }
+      err=max(err,abs(c.get(5.)-osc.funk(5.))/50.);
+      System.out.printf("Chebcache: order %d, %d pieces, maximum error %g\n", ords[t], c.pieces(), err);
+      localflag = err > 10.*tols[t];
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Chebcache: smooth function not approximated to the tolerance");
+      }
+    }
+
+    // Square-root singularity: pieces shrink toward 0
+    Chebcache c=new Chebcache(kink,-1.,1.,1.e-6);
+    double err=0.,wmin=1.;
+    for (i=0;i<M;i++) {
+      x[i]=2.*myran.doub()-1.;
+      if (i < 100) x[i]=pow(10.,-1.-10.*myran.doub());   // near the singularity
+      err=max(err,abs(c.get(x[i])-kink.funk(x[i])));
+    }
+    double[] brk=c.breakpoints();
+    for (i=0;i<brk.length-1;i++) wmin=min(wmin,brk[i+1]-brk[i]);
+    System.out.printf("Chebcache: sqrt|x|, %d pieces, maximum error %g\n", c.pieces(), err);
+    localflag = err > 1.e-3 || wmin > 1.e-6;
+    for (i=0;i<M;i++)
+      if (abs(x[i]) > 1.e-2) localflag = localflag || abs(c.get(x[i])-kink.funk(x[i])) > 1.e-5;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Chebcache: singular function not approximated");
+    }
+
+    // Arrays: same values as get, whatever the number of threads; out of range is an error
+    int nthreads=Parallel.threads();
+    try {
+      Parallel.setThreads(1);
+      c.eval(x,y);
+      Parallel.setThreads(4);
+      c.eval(x,y4);
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+    localflag = !Arrays.equals(y,y4);
+    for (i=0;i<M;i++) localflag = localflag || y[i] != c.get(x[i]);
+    try {
+      c.get(1.5);
+      localflag = true;
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Chebcache: eval on arrays is incorrect");
+    }
+
+    // Persistence: a saved table is read back identically, and cached fits only once
+    File tmp=File.createTempFile("chebcache","");
+    tmp.delete();
+    String file=tmp.getPath();
+    try {
+      calls[0]=0;
+      Chebcache c1=Chebcache.cached(file,osc,0.,5.,1.e-10,16);
+      int n1=calls[0];
+      Chebcache c2=Chebcache.cached(file,osc,0.,5.,1.e-10,16);
+      localflag = n1 == 0 || calls[0] != n1 || !Arrays.equals(c1.breakpoints(),c2.breakpoints());
+      for (i=0;i<M;i++) localflag = localflag || c1.get(5.*x[i]*x[i]) != c2.get(5.*x[i]*x[i]);
+      Chebcache c3=Chebcache.cached(file,osc,0.,5.,1.e-12,16);   // different tolerance: refit
+      localflag = localflag || calls[0] == n1 || c3.tol != 1.e-12 || Chebcache.load(file).tol != 1.e-12;
+      for (File g : tmp.getAbsoluteFile().getParentFile().listFiles())   // no temporary files left
+        localflag = localflag || (g.getName().startsWith(tmp.getName()+"-") && g.getName().endsWith(".part"));
+    } finally {
+      new File(file).delete();
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Chebcache: saved tables are not reused");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,144 @@
+package com.nr.test.test_chapter6;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.ran.Ran;
+import com.nr.sf.Bessel;
+import com.nr.sf.Beta;
+import com.nr.sf.Chisqdist;
+import com.nr.sf.Erf;
+import com.nr.sf.Gamma;
+import com.nr.sf.Normaldist;
+import com.nr.sf.Studenttdist;
+
+public class Test_Bulk {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,N=40000;
+    double sbeps=1.e-12;
+    double[] x=new double[N],u=new double[N],pos=new double[N],out=new double[N],out2=new double[N];
+    boolean localflag, globalflag=false;
+
+    // Test the bulk methods of com.nr.sf against the scalar ones
+    System.out.println("Testing Bulk");
+
+    Ran myran=new Ran(17);
+    for (i=0;i<N;i++) {
+      x[i]=12.*myran.doub()-6.;
+      u[i]=myran.doub();
+      pos[i]=30.*myran.doub()+1.e-3;
+    }
+
+    Erf erf=new Erf();
+    erf.erf(x,out);
+    localflag=false;
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],erf.erf(x[i]),sbeps);
+    erf.erfc(x,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],erf.erfc(x[i]),sbeps);
+    erf.inverfc(pos,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],erf.inverfc(pos[i]),sbeps);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Bulk: Erf bulk methods differ from scalar ones");
+    }
+
+    Normaldist norm=new Normaldist(0.5,1.7);
+    localflag=false;
+    norm.p(x,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],norm.p(x[i]),sbeps);
+    norm.cdf(x,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],norm.cdf(x[i]),sbeps);
+    norm.invcdf(u,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],norm.invcdf(u[i]),sbeps);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Bulk: Normaldist bulk methods differ from scalar ones");
+    }
+
+    Gamma gam=new Gamma();
+    localflag=false;
+    double[] as={0.3,2.5,12.,150.};
+    for (double a : as) {
+      gam.gammp(a,pos,out);
+      gam.gammq(a,pos,out2);
+      for (i=0;i<N;i++) {
+        localflag = localflag || !close(out[i],gam.gammp(a,pos[i]),sbeps);
+        localflag = localflag || !close(out2[i],gam.gammq(a,pos[i]),sbeps);
+      }
+    }
+    Gamma.gammln(pos,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],Gamma.gammln(pos[i]),sbeps);
+    double[] us=new double[N/10],outs=new double[N/10];
+    System.arraycopy(u,0,us,0,N/10);
+    gam.invgammp(us,2.5,outs);
+    for (i=0;i<N/10;i++) localflag = localflag || !close(outs[i],gam.invgammp(us[i],2.5),sbeps);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Bulk: Gamma bulk methods differ from scalar ones");
+    }
+
+    localflag=false;
+    double[][] abs={{0.5,0.5},{2.,7.},{30.,4.},{4000.,5000.}};
+    for (double[] ab : abs) {
+      Beta.betai(ab[0],ab[1],u,out);
+      for (i=0;i<N;i++) localflag = localflag || !close(out[i],Beta.betai(ab[0],ab[1],u[i]),1.e-10);
+    }
+    Beta.invbetai(us,2.,7.,outs);
+    for (i=0;i<N/10;i++) localflag = localflag || !close(outs[i],Beta.invbetai(us[i],2.,7.),sbeps);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Bulk: Beta bulk methods differ from scalar ones");
+    }
+
+    localflag=false;
+    Studenttdist st=new Studenttdist(4.5,0.2,1.3);
+    st.cdf(x,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],st.cdf(x[i]),1.e-10);
+    st.invcdf(us,outs);
+    for (i=0;i<N/10;i++) localflag = localflag || !close(outs[i],st.invcdf(us[i]),sbeps);
+    Chisqdist chi=new Chisqdist(7.);
+    chi.cdf(pos,out);
+    for (i=0;i<N;i++) localflag = localflag || !close(out[i],chi.cdf(pos[i]),sbeps);
+    chi.invcdf(us,outs);
+    for (i=0;i<N/10;i++) localflag = localflag || !close(outs[i],chi.invcdf(us[i]),sbeps);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Bulk: Studenttdist or Chisqdist bulk methods differ from scalar ones");
+    }
+
+    localflag=false;
+    Bessel bess=new Bessel();
+    Bessel.besseljy(2.3,pos,out,out2);
+    for (i=0;i<N;i++) {
+      localflag = localflag || out[i] != bess.jnu(2.3,pos[i]);
+      localflag = localflag || out2[i] != bess.ynu(2.3,pos[i]);
+    }
+    Bessel.knu(0.7,pos,out);
+    for (i=0;i<N;i++) localflag = localflag || out[i] != bess.knu(0.7,pos[i]);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Bulk: Bessel bulk methods differ from scalar ones");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  private static boolean close(final double a, final double b, final double eps) {
+    return abs(a-b) <= eps*abs(b) + 1.e-300;
+  }
+}
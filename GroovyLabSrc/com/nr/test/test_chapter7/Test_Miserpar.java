@@ -0,0 +1,78 @@
+package com.nr.test.test_chapter7;
+
+import static com.nr.NRUtil.SQR;
+import static java.lang.Math.abs;
+import static java.lang.Math.acos;
+import static java.lang.Math.sqrt;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ran.Miserpar;
+import com.nr.util.Parallel;
+
+public class Test_Miserpar {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i;
+    doubleW ave= new doubleW(0),var= new doubleW(0);
+    double tgral,vol,sd,PI=acos(-1.0),R1=3.0,R2=1.0;
+    double[] regn={0.0,-4.0,-1.0,4.0,4.0,1.0};
+    double[] expect={SQR(PI)*R1*SQR(R2),2.0*PI*SQR(R1)*SQR(R2)*(1+SQR(R2/R1)/4.0),
+      SQR(PI)*R1*SQR(SQR(R2))/4.0};
+    boolean localflag, globalflag=false;
+
+    // Test Miserpar
+    System.out.println("Testing Miserpar");
+
+    vol=1.0;
+    for (i=0;i<3;i++) vol *= (regn[i+3]-regn[i]);
+
+    // Hemitorus weighted by 1, x and z^2
+    for (int type=0;type<3;type++) {
+      Miserpar miser=new Miserpar(new Test_VEGASpar.torus(type),5331);
+      miser.miser(regn,1000000,0.0,ave,var);
+      tgral=ave.val*vol;
+      sd=sqrt(var.val)*vol;
+      localflag = abs(tgral-expect[type]) > 2.0*sd;
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Miserpar: Computation of hemitoroid integral " + type + " is inaccurate");
+      }
+    }
+
+    // The result does not depend on the number of threads
+    int nthreads=Parallel.threads();
+    double[] t=new double[2];
+    try {
+      for (int k=0;k<2;k++) {
+        Parallel.setThreads(k == 0 ? 1 : 4);
+        Miserpar miser=new Miserpar(new Test_VEGASpar.torus(1),17);
+        miser.miser(regn,200000,0.1,ave,var);
+        t[k]=ave.val;
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+    localflag = t[0] != t[1];
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Miserpar: result depends on the number of threads");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
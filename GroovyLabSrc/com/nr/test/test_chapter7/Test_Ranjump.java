@@ -0,0 +1,117 @@
+package com.nr.test.test_chapter7;
+
+import static com.nr.stat.Stattests.chsone;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ran.Ranjump;
+import com.nr.ran.Ranstreams;
+
+public class Test_Ranjump {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,N=100000,M=100;
+    doubleW df = new doubleW(0);
+    doubleW chisq = new doubleW(0);
+    doubleW prob = new doubleW(0);
+    long fingerprint[]={-6308930759610146102L,-5709000892213758719L,-1128237056329518663L,
+      -600203196403556793L,-6155232487733898328L};
+    double[] bins=new double[M],ebins=new double[M],x=new double[1000];
+    long[] l=new long[1000];
+    boolean localflag, globalflag=false;
+
+    // Test Ranjump
+    System.out.println("Testing Ranjump");
+
+    // Check fingerprint of int64() against the published algorithm
+    Ranjump myran=new Ranjump(17);
+    localflag=false;
+    for (i=0;i<5;i++) localflag=localflag || myran.int64() != fingerprint[i];
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Ranjump: int64() does not match fingerprint");
+    }
+
+    // fill() gives the same values as single calls
+    Ranjump a=new Ranjump(23),b=new Ranjump(23);
+    a.fill(x,0,999);
+    a.fill(l);
+    localflag=false;
+    for (i=0;i<999;i++) localflag=localflag || x[i] != b.doub() || x[i] < 0. || x[i] >= 1.;
+    for (i=0;i<1000;i++) localflag=localflag || l[i] != b.int64();
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Ranjump: fill() differs from doub() and int64()");
+    }
+
+    // Jumps commute with steps, and split() hands out the state before the jump
+    a=new Ranjump(5);
+    b=new Ranjump(5);
+    for (i=0;i<37;i++) a.int64();
+    a.jump();
+    b.jump();
+    for (i=0;i<37;i++) b.int64();
+    localflag = a.int64() != b.int64();
+    a.longJump();
+    for (i=0;i<11;i++) b.int64();
+    b.longJump();
+    for (i=0;i<11;i++) a.int64();
+    localflag = localflag || a.int64() != b.int64();
+    Ranjump c=new Ranjump(b),d=b.split();
+    localflag = localflag || d.int64() != c.int64();
+    c.jump();
+    b.int64();
+    localflag = localflag || b.int64() != c.int64();
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Ranjump: jump() or split() inconsistent");
+    }
+
+    // Streams are reproducible and distinct
+    Ranstreams rs=new Ranstreams(99),rs2=new Ranstreams(99);
+    Ranjump[] st=rs.streams(8);
+    localflag=false;
+    for (j=7;j>=0;j--) {
+      Ranjump r=rs2.stream(j);
+      for (i=0;i<10;i++) localflag=localflag || r.int64() != st[j].int64();
+    }
+    for (j=1;j<8;j++) localflag=localflag || rs.stream(j).int64() == rs.stream(0).int64();
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Ranstreams: streams not reproducible or not distinct");
+    }
+
+    // Uniformity of doub() from fill()
+    double[] u=new double[N];
+    myran.fill(u);
+    for (i=0;i<M;i++) {
+      bins[i]=0.;
+      ebins[i]=(double)N/M;
+    }
+    for (i=0;i<N;i++) bins[(int)(u[i]*M)] += 1.;
+    chsone(bins,ebins,df,chisq,prob);
+    System.out.printf("     chisq,fill(): %f  prob: %f\n", chisq.val, prob.val);
+    localflag = (prob.val < 0.05);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Ranjump: fill() does not give a uniform distribution");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,165 @@
+package com.nr.test.test_chapter7;
+
+import static com.nr.NRUtil.SQR;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.RealValueFun;
+import com.nr.ran.Miser;
+import com.nr.ran.Sobolseq;
+import com.nr.ran.VEGAS;
+
+public class Test_Sobolseq {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() throws IOException {
+    int i,j,k,N=1024,DIM=1000;
+    double sum,prod;
+    double[] x=new double[DIM];
+    double[][] pts=new double[N][DIM];
+    double[][] first={{0.,0.},{0.5,0.5},{0.75,0.25},{0.25,0.75},{0.375,0.375},{0.875,0.875}};
+    boolean localflag, globalflag=false;
+
+    // Test Sobolseq
+    System.out.println("Testing Sobolseq");
+
+    // First points of the two-dimensional sequence
+    Sobolseq sob=new Sobolseq(2);
+    localflag=false;
+    for (i=0;i<6;i++) {
+      sob.next(x);
+      localflag = localflag || x[0] != first[i][0] || x[1] != first[i][1];
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Sobolseq: first points are wrong");
+    }
+
+    // Each of the first 2^10 points lies in its own interval of width 2^-10, in every
+    // dimension, with and without randomization
+    for (int scr=Sobolseq.NONE;scr<=Sobolseq.SCRAMBLE;scr++) {
+      sob=new Sobolseq(DIM,scr,17);
+      sob.fill(pts);
+      localflag=false;
+      for (j=0;j<DIM;j++) {
+        boolean[] hit=new boolean[N];
+        for (i=0;i<N;i++) {
+          k=(int)(pts[i][j]*N);
+          localflag = localflag || hit[k];
+          hit[k]=true;
+        }
+      }
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Sobolseq: points do not stratify, scrambling " + scr);
+      }
+    }
+
+    // skipTo, copies and block fill agree with sequential generation
+    sob=new Sobolseq(DIM,Sobolseq.SCRAMBLE,5);
+    Sobolseq sob2=new Sobolseq(sob);
+    sob.skipTo(12345);
+    sob.fill(pts,0,N);
+    localflag = sob.index() != 12345+N;
+    for (i=0;i<12345;i++) sob2.next(x);
+    for (i=0;i<N;i++) {
+      sob2.next(x);
+      for (j=0;j<DIM;j++) localflag = localflag || x[j] != pts[i][j];
+    }
+    Sobolseq sob3=new Sobolseq(sob2);
+    sob2.next(x);
+    sob3.skipTo(12345+N);
+    double[] y=new double[DIM];
+    sob3.next(y);
+    for (j=0;j<DIM;j++) localflag = localflag || x[j] != y[j];
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Sobolseq: skipTo or fill inconsistent with next");
+    }
+
+    // A table read in Joe-Kuo format reproduces the built-in sequence
+    String table="d       s       a       m_i\n2 1 0 1\n3 2 1 1 3\n4 3 1 1 3 1\n5 3 2 1 1 1\n";
+    sob=new Sobolseq(5,Sobolseq.NONE,0,Sobolseq.Directions.read(new StringReader(table)));
+    sob2=new Sobolseq(5);
+    localflag=false;
+    for (i=0;i<100;i++) {
+      sob.next(x);
+      sob2.next(y);
+      for (j=0;j<5;j++) localflag = localflag || x[j] != y[j];
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Sobolseq: Joe-Kuo table differs from built-in directions");
+    }
+
+    // Integration in 1000 dimensions of prod (|4x-2|+a_j)/(1+a_j), a_j=j^2, whose integral is 1
+    int NQ=1 << 14;
+    double[][] q=new double[NQ][];
+    for (i=0;i<NQ;i++) q[i]=new double[DIM];
+    sob=new Sobolseq(DIM);
+    sob.fill(q);
+    sum=0.;
+    for (i=0;i<NQ;i++) {
+      prod=1.;
+      for (j=0;j<DIM;j++) prod *= (abs(4.*q[i][j]-2.)+SQR(j+1))/(1.+SQR(j+1));
+      sum += prod;
+    }
+    System.out.printf("     error, dim %d: %e\n", DIM, abs(sum/NQ-1.));
+    localflag = abs(sum/NQ-1.) > 1.e-3;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Sobolseq: high-dimensional integral inaccurate");
+    }
+
+    // As the point source of miser and vegas
+    RealValueFun func=new RealValueFun() {
+      public double funk(final double[] x) {
+        return 27.*x[0]*x[0]*x[1]*x[1]*x[2]*x[2];
+      }
+    };
+    double[] regn={0.,0.,0.,1.,1.,1.};
+    doubleW ave=new doubleW(0),var=new doubleW(0);
+    Miser.miser(func,regn,100000,0.,ave,var,new Sobolseq(3,Sobolseq.SCRAMBLE,3));
+    System.out.printf("     miser error: %e\n", abs(ave.val-1.));
+    localflag = abs(ave.val-1.) > 2.e-3;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Sobolseq: miser integral inaccurate");
+    }
+
+    doubleW tgral=new doubleW(0),sd=new doubleW(0),chi2a=new doubleW(0);
+    VEGAS vegas=new VEGAS() {
+      public double fxn(final double[] x, final double wgt) {
+        return 27.*x[0]*x[0]*x[1]*x[1]*x[2]*x[2];
+      }
+    };
+    vegas.setSource(new Sobolseq(3,Sobolseq.SHIFT,9));
+    vegas.vegas(regn,0,10000,5,-1,tgral,sd,chi2a);
+    vegas.vegas(regn,1,100000,1,-1,tgral,sd,chi2a);
+    System.out.printf("     vegas error: %e  sd: %e\n", abs(tgral.val-1.), sd.val);
+    localflag = abs(tgral.val-1.) > 2.e-3;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Sobolseq: vegas integral inaccurate");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,102 @@
+package com.nr.test.test_chapter7;
+
+import static com.nr.NRUtil.SQR;
+import static java.lang.Math.abs;
+import static java.lang.Math.acos;
+import static java.lang.Math.sqrt;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ran.Batchintegrand;
+import com.nr.ran.VEGASpar;
+import com.nr.util.Parallel;
+
+public class Test_VEGASpar {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    doubleW tgral= new doubleW(0),sd= new doubleW(0),chi2a= new doubleW(0);
+    double R1=3.0,R2=1,PI=acos(-1.0);
+    double[] regn={0.0,-4.0,-1.0,4.0,4.0,1.0};
+    boolean localflag, globalflag=false;
+
+    // Test VEGASpar
+    System.out.println("Testing VEGASpar");
+
+    // Test #1: Compute volume of hemitorus
+    VEGASpar vegas = new VEGASpar(new torus(0),1);
+    vegas.vegas(regn,0,1000,100,tgral,sd,chi2a);
+    localflag = chi2a.val > 1.2;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** VEGASpar: chi-square for test #1 is too high");
+    }
+
+    vegas.vegas(regn,1,100000,1,tgral,sd,chi2a);
+    localflag = abs(tgral.val-SQR(PI)*R1*SQR(R2)) > 2.0*sd.val;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** VEGASpar: Computation of hemitoroid volume is inaccurate");
+    }
+
+    // Test #2: Weight the integral by x
+    vegas = new VEGASpar(new torus(1),5330);
+    vegas.vegas(regn,0,1000,100,tgral,sd,chi2a);
+    vegas.vegas(regn,1,100000,1,tgral,sd,chi2a);
+    localflag = abs(tgral.val-2.0*PI*SQR(R1)*SQR(R2)*(1+SQR(R2/R1)/4.0)) > 2.0*sd.val;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** VEGASpar: Computation of hemitoroid weighted by x is inaccurate");
+    }
+
+    // Test #3: The result does not depend on the number of threads
+    int nthreads=Parallel.threads();
+    double[] t=new double[2];
+    try {
+      for (int k=0;k<2;k++) {
+        Parallel.setThreads(k == 0 ? 1 : 4);
+        vegas = new VEGASpar(new torus(2),17);
+        vegas.vegas(regn,0,20000,10,tgral,sd,chi2a);
+        t[k]=tgral.val;
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+    localflag = t[0] != t[1];
+    localflag = localflag || abs(t[0]-SQR(PI)*R1*SQR(SQR(R2))/4.0) > 3.0*sd.val;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** VEGASpar: result depends on the number of threads");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+
+  // Hemitorus weighted by 1, x or z^2
+  static class torus implements Batchintegrand {
+    final int type;
+    torus(final int t) {type=t;}
+    public void eval(final double[][] x, final double[] wgt, final int n, final double[] f) {
+      double R1=3.0,R2=1.0;
+      for (int i=0;i<n;i++) {
+        double[] p=x[i];
+        if (SQR(p[2])+SQR(sqrt(SQR(p[0])+SQR(p[1]))-R1) <= R2)
+          f[i] = type == 0 ? 1.0 : type == 1 ? p[0] : SQR(p[2]);
+        else f[i]=0.;
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.nr.test.test_chapter7;
+
+import static com.nr.stat.Stattests.chsone;
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.netlib.util.doubleW;
+
+import com.nr.ran.Zigguratdev;
+import com.nr.sf.Expondist;
+import com.nr.sf.Normaldist;
+
+public class Test_Zigguratdev {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,nbin,N=200000,M=1000;
+    doubleW df = new doubleW(0);
+    doubleW chisq = new doubleW(0);
+    doubleW prob = new doubleW(0);
+    double range=10.0,xl,binsize,mu=1.5,sig=2.0,beta=0.7;
+    double[] x=new double[M],bins=new double[M],ebins=new double[M];
+    double[] dev=new double[N];
+    boolean localflag, globalflag=false;
+
+    // Test Zigguratdev
+    System.out.println("Testing Zigguratdev");
+
+    // fillNormal and fillExpon give the same values as single calls
+    Zigguratdev a=new Zigguratdev(17),b=new Zigguratdev(17);
+    double[] v=new double[1001];
+    a.fillNormal(v,0,777,0.,1.);
+    a.fillExpon(v,777,1001,1.);
+    localflag=false;
+    for (i=0;i<777;i++) localflag=localflag || v[i] != b.normal();
+    for (i=777;i<1001;i++) localflag=localflag || v[i] != b.expon();
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Zigguratdev: fill methods differ from single deviates");
+    }
+
+    // Check statistics of the normal deviates, including the tails
+    Normaldist expect = new Normaldist(mu,sig);
+    a.fillNormal(dev,0,N,mu,sig);
+    xl=mu-sig*range/2.0;
+    binsize=sig*range/M;
+    for (i=0;i<M;i++) {
+      x[i]=xl+binsize*i;
+      ebins[i]=N*(expect.cdf(x[i]+binsize)-expect.cdf(x[i]));
+      bins[i]=0;
+    }
+    for (i=0;i<N;i++) {
+      nbin=(int)(floor((dev[i]-xl)/binsize));
+      if ((nbin >= 0) && (nbin < M)) bins[nbin] += 1;
+    }
+    chsone(bins,ebins,df,chisq,prob);
+    System.out.printf("     chisq,fillNormal(): %f  prob: %f\n", chisq.val, prob.val);
+    localflag = (prob.val < 0.05);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Zigguratdev: fillNormal() does not give a normal distribution");
+    }
+    int ntail=0;
+    for (i=0;i<N;i++) if (abs(dev[i]-mu) > 3.5*sig) ntail++;
+    double etail=N*2.*expect.cdf(mu-3.5*sig);
+    localflag = abs(ntail-etail) > 4.*sqrt(etail);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Zigguratdev: normal tail has the wrong weight");
+    }
+
+    // Check statistics of the exponential deviates
+    Expondist eexpect = new Expondist(beta);
+    a.fillExpon(dev,0,N,beta);
+    binsize=range/beta/M;
+    for (i=0;i<M;i++) {
+      x[i]=binsize*i;
+      ebins[i]=N*(eexpect.cdf(x[i]+binsize)-eexpect.cdf(x[i]));
+      bins[i]=0;
+    }
+    for (i=0;i<N;i++) {
+      nbin=(int)(floor(dev[i]/binsize));
+      if ((nbin >= 0) && (nbin < M)) bins[nbin] += 1;
+    }
+    chsone(bins,ebins,df,chisq,prob);
+    System.out.printf("     chisq,fillExpon(): %f  prob: %f\n", chisq.val, prob.val);
+    localflag = (prob.val < 0.05);
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Zigguratdev: fillExpon() does not give an exponential distribution");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
@@ -0,0 +1,153 @@
+package com.nr.test.test_chapter8;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.ran.Ran;
+import com.nr.sort.Indexx;
+import com.nr.sort.Sorter;
+import com.nr.util.Parallel;
+
+public class Test_Parsort {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,N=300007;
+    double[] x=new double[N],y=new double[N],ref;
+    boolean localflag, globalflag=false;
+
+    // Test the parallel paths of sort, sort2 and Indexx, and introselect
+    System.out.println("Testing Parsort");
+
+    Ran myran = new Ran(17);
+    int nthreads=Parallel.threads();
+    try {
+      Parallel.setThreads(4);
+
+      // sort agrees with a reference sort, also with many ties
+      for (int trial=0;trial<2;trial++) {
+        for (i=0;i<N;i++) x[i] = trial == 0 ? myran.doub() : floor(100.*myran.doub());
+        ref=x.clone();
+        Arrays.sort(ref);
+        Sorter.sort(x);
+        localflag = !Arrays.equals(x,ref);
+        globalflag = globalflag || localflag;
+        if (localflag) {
+          fail("*** Parsort: sort differs from reference, trial " + trial);
+        }
+      }
+
+      // only the first m elements are sorted
+      for (i=0;i<N;i++) x[i]=myran.doub();
+      y=x.clone();
+      Sorter.sort(x,200000);
+      localflag = false;
+      for (i=0;i<200000-1;i++) localflag = localflag || x[i] > x[i+1];
+      for (i=200000;i<N;i++) localflag = localflag || x[i] != y[i];
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Parsort: sort with m is incorrect");
+      }
+
+      // sort2 keeps keys and companions together
+      double[] key=new double[N];
+      for (i=0;i<N;i++) {
+        x[i]=key[i]=floor(1000.*myran.doub());
+        y[i]=i;
+      }
+      Sorter.sort2(x,y);
+      boolean[] seen=new boolean[N];
+      localflag = false;
+      for (i=0;i<N;i++) {
+        int j=(int)y[i];
+        localflag = localflag || seen[j] || key[j] != x[i] || (i > 0 && x[i-1] > x[i]);
+        seen[j]=true;
+      }
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Parsort: sort2 does not carry the companion array");
+      }
+
+      // Indexx gives a permutation that orders the array
+      for (i=0;i<N;i++) x[i]=myran.doub();
+      y=x.clone();
+      Indexx idx=new Indexx(x);
+      Arrays.fill(seen,false);
+      localflag = !Arrays.equals(x,y);
+      for (i=0;i<N;i++) {
+        localflag = localflag || seen[idx.indx[i]] || (i > 0 && x[idx.indx[i-1]] > x[idx.indx[i]]);
+        seen[idx.indx[i]]=true;
+      }
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Parsort: Indexx index is not an ordering permutation");
+      }
+    } finally {
+      Parallel.setThreads(nthreads);
+    }
+
+    // select, also on inputs that defeat median-of-three partitioning
+    int n=100000;
+    double[] a=new double[n];
+    for (int trial=0;trial<3;trial++) {
+      for (i=0;i<n;i++)
+        a[i] = trial == 0 ? myran.doub() : trial == 1 ? 1. : (i < n/2 ? 2*i : 2*(n-i)-1);
+      ref=a.clone();
+      Arrays.sort(ref);
+      localflag = false;
+      for (int k : new int[]{0,17,n/2,n-1}) {
+        double v=Sorter.select(k,a);
+        localflag = localflag || v != ref[k] || a[k] != v;
+        for (i=0;i<k;i++) localflag = localflag || a[i] > v;
+        for (i=k+1;i<n;i++) localflag = localflag || a[i] < v;
+      }
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Parsort: select is incorrect, trial " + trial);
+      }
+
+      // several ranks at once
+      int[] ks={n-1,3,n/4,3,n/2,n/2+1,0};
+      double[] v=Sorter.select(ks,a);
+      localflag = false;
+      for (i=0;i<ks.length;i++) localflag = localflag || v[i] != ref[ks[i]] || a[ks[i]] != v[i];
+      for (int m=0;m<ks.length;m++)
+        for (i=0;i<n;i++) localflag = localflag || (i < ks[m] ? a[i] > v[m] : a[i] < v[m]);
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Parsort: multiple select is incorrect, trial " + trial);
+      }
+
+      double[] p={0.,0.1,0.5,0.999,1.};
+      double[] q=Sorter.quantiles(p,a);
+      localflag = false;
+      for (i=0;i<p.length;i++) {
+        double h=p[i]*(n-1);
+        int lo=(int)floor(h);
+        double e=ref[lo]+(h-lo)*(ref[(int)ceil(h)]-ref[lo]);
+        localflag = localflag || abs(q[i]-e) > 1.e-12*abs(e);
+      }
+      globalflag = globalflag || localflag;
+      if (localflag) {
+        fail("*** Parsort: quantiles are incorrect, trial " + trial);
+      }
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
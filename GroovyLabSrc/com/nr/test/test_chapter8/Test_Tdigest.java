@@ -0,0 +1,92 @@
+package com.nr.test.test_chapter8;
+
+import static java.lang.Math.*;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nr.ran.Normaldev;
+import com.nr.ran.Ran;
+import com.nr.sort.Tdigest;
+
+public class Test_Tdigest {
+
+  @Before
+  public void setUp() throws Exception {
+  }
+
+  @After
+  public void tearDown() throws Exception {
+  }
+
+  @Test
+  public void test() {
+    int i,j,N=200000,M=8;
+    double[] p={1.e-4,1.e-3,0.01,0.1,0.25,0.5,0.75,0.9,0.99,0.999,0.9999};
+    boolean localflag, globalflag=false;
+
+    // Test Tdigest
+    System.out.println("Testing Tdigest");
+
+    // Normal data summarized by M digests that are then merged
+    Normaldev ndev=new Normaldev(0.,1.,17);
+    double[] data=new double[N];
+    Tdigest[] td=new Tdigest[M];
+    for (j=0;j<M;j++) td[j]=new Tdigest(200.);
+    for (i=0;i<N;i++) {
+      data[i]=ndev.dev();
+      td[i%M].add(data[i]);
+    }
+    Tdigest all=new Tdigest(td[0]);
+    for (j=1;j<M;j++) all.merge(td[j]);
+    double[] sorted=data.clone();
+    Arrays.sort(sorted);
+
+    // Rank error relative to min(p,1-p)
+    localflag = all.count() != N;
+    double maxrel=0.;
+    for (i=0;i<p.length;i++) {
+      double q=all.quantile(p[i]);
+      int rank=Arrays.binarySearch(sorted,q);
+      if (rank < 0) rank=-rank-1;
+      double rel=abs((double)rank/N-p[i])/min(p[i],1.-p[i]);
+      maxrel=max(maxrel,rel);
+    }
+    System.out.printf("     max relative rank error: %f\n", maxrel);
+    localflag = localflag || maxrel > 0.1;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Tdigest: quantiles of merged digest inaccurate");
+    }
+
+    // cdf is consistent with quantile, and the parallel digest agrees with the merged one
+    Tdigest par=Tdigest.of(data,200.);
+    localflag = par.count() != N;
+    for (i=0;i<p.length;i++) {
+      localflag = localflag || abs(all.cdf(all.quantile(p[i]))-p[i]) > 0.1*min(p[i],1.-p[i]);
+      localflag = localflag || abs(par.quantile(p[i])-all.quantile(p[i])) > 0.02;
+    }
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Tdigest: cdf or parallel digest inconsistent");
+    }
+
+    // Integer data with perfectly known quartiles, and the extremes
+    Tdigest t2=new Tdigest();
+    Ran myran=new Ran(5);
+    for (i=0;i<100000;i++) t2.add((double)(myran.int32p()%100+1));
+    localflag = t2.quantile(0.) != 1. || t2.quantile(1.) != 100.;
+    for (j=1;j<4;j++) localflag = localflag || abs(t2.quantile(0.25*j)-25.*j) > 1.;
+    globalflag = globalflag || localflag;
+    if (localflag) {
+      fail("*** Tdigest: distribution with known quartiles failed");
+    }
+
+    if (globalflag) System.out.println("Failed\n");
+    else System.out.println("Passed\n");
+  }
+}
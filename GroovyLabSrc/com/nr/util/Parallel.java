@@ -0,0 +1,179 @@
+package com.nr.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared worker pool and data-parallel loop helper for the numerical routines.
+ *
+ * A range [0,n) is split into a fixed number of contiguous chunks, chunk c covering
+ * [n*c/nchunks, n*(c+1)/nchunks). The boundaries depend only on n and nchunks, so a routine
+ * that keeps one partial result per chunk and reduces them in chunk order gets results that
+ * are reproducible for a fixed chunk count, whatever the scheduling.
+ *
+ * Calls made from inside a pool worker run all chunks on the calling thread, so parallel
+ * routines may be nested (e.g. a batch of fits, each of which is itself parallel) without
+ * exhausting the pool.
+ */
+public class Parallel {
+  private Parallel(){}
+
+  /** Body of a chunked loop: processes indices from <= i < to of chunk number chunk. */
+  public interface Body {
+    public void run(int from, int to, int chunk);
+  }
+
+  private static final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+  private static int nthreads = Runtime.getRuntime().availableProcessors();
+  private static ExecutorService pool;
+  private static ForkJoinPool fjpool;
+
+  /** Number of threads in the shared pool. */
+  public static synchronized int threads() {
+    return nthreads;
+  }
+
+  /**
+   * Sets the number of threads of the shared pool. A value of 1 makes all parallel routines
+   * run on the calling thread.
+   */
+  public static synchronized void setThreads(final int n) {
+    if (n < 1) throw new IllegalArgumentException("Parallel: number of threads must be positive");
+    if (n == nthreads) return;
+    nthreads = n;
+    if (pool != null) pool.shutdown();
+    pool = null;
+  }
+
+  /** The shared pool of daemon worker threads, created on first use. */
+  public static synchronized ExecutorService pool() {
+    if (pool == null) {
+      final AtomicInteger count = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(nthreads, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          Thread t = new Thread(new Runnable() {
+            public void run() {
+              worker.set(Boolean.TRUE);
+              r.run();
+            }
+          }, "nr-parallel-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * Fork-join pool of threads() workers for recursive divide-and-conquer routines, created on
+   * first use and replaced when the number of threads changes.
+   */
+  public static synchronized ForkJoinPool forkJoinPool() {
+    if (fjpool == null || fjpool.getParallelism() != nthreads) {
+      if (fjpool != null) fjpool.shutdown();
+      fjpool = new ForkJoinPool(nthreads);
+    }
+    return fjpool;
+  }
+
+  /** True if the current thread is a worker of the shared pool. */
+  public static boolean inWorker() {
+    return worker.get() != null;
+  }
+
+  /**
+   * Number of chunks to use for a range of n elements when each chunk should hold at least
+   * grain elements. Returns 1 inside pool workers.
+   */
+  public static int chunks(final int n, final int grain) {
+    if (inWorker()) return 1;
+    return (int)Math.max(1, Math.min(threads(), (long)n / Math.max(1, grain)));
+  }
+
+  /** Start index of chunk c when [0,n) is split into nchunks chunks. */
+  public static int chunkStart(final int n, final int nchunks, final int c) {
+    return (int)((long)n*c/nchunks);
+  }
+
+  /**
+   * Runs body over [0,n) split into nchunks contiguous chunks. Chunk 0 runs on the calling
+   * thread, the others on the shared pool; returns when all chunks are done. Exceptions thrown
+   * by the body are rethrown on the calling thread.
+   */
+  public static void forChunks(final int n, final int nchunks, final Body body) {
+    if (nchunks <= 1 || inWorker()) {
+      for (int c=0;c<nchunks;c++)
+        body.run(chunkStart(n,nchunks,c), chunkStart(n,nchunks,c+1), c);
+      return;
+    }
+    ExecutorService ex = pool();
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nchunks-1);
+    for (int c=1;c<nchunks;c++) {
+      final int cc = c;
+      futures.add(ex.submit(new Callable<Object>() {
+        public Object call() {
+          body.run(chunkStart(n,nchunks,cc), chunkStart(n,nchunks,cc+1), cc);
+          return null;
+        }
+      }));
+    }
+    RuntimeException first = null;
+    try {
+      body.run(0, chunkStart(n,nchunks,1), 0);
+    } catch (RuntimeException e) {
+      first = e;
+    }
+    RuntimeException rest = join(futures);
+    if (first != null) throw first;
+    if (rest != null) throw rest;
+  }
+
+  /** Convenience form of forChunks that picks the chunk count with chunks(n, grain). */
+  public static void forRange(final int n, final int grain, final Body body) {
+    forChunks(n, chunks(n, grain), body);
+  }
+
+  /**
+   * Runs independent tasks on the shared pool (or inline inside a worker) and waits for all
+   * of them. Exceptions thrown by a task are rethrown on the calling thread.
+   */
+  public static void invokeAll(final Runnable[] tasks) {
+    if (tasks.length <= 1 || inWorker() || threads() == 1) {
+      for (Runnable r : tasks) r.run();
+      return;
+    }
+    ExecutorService ex = pool();
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>(tasks.length);
+    for (Runnable r : tasks) futures.add(ex.submit(r));
+    RuntimeException e = join(futures);
+    if (e != null) throw e;
+  }
+
+  private static RuntimeException join(final ArrayList<Future<?>> futures) {
+    RuntimeException first = null;
+    for (Future<?> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (first == null) first = new IllegalStateException("Parallel: interrupted", e);
+      } catch (ExecutionException e) {
+        if (first == null) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) first = (RuntimeException)cause;
+          else if (cause instanceof Error) throw (Error)cause;
+          else first = new IllegalStateException(cause);
+        }
+      }
+    }
+    return first;
+  }
+}
@@ -3,6 +3,8 @@
  */
 package de.torstennahm.distribution;
 
+import com.nr.util.Parallel;
+
 import de.torstennahm.math.MathTN;
 import de.torstennahm.math.VectorFunction;
 
@@ -25,17 +27,31 @@ import de.torstennahm.math.VectorFunction;
  * Algorithmically, the path is generated by beginning with start and end point and then successively
  * splitting the time interval in two and interpolating the remaining points.
  * <p>
+ * The order in which the points are filled in, with their neighbours and standard deviations,
+ * is computed once by the constructor. Besides <code>evaluate(x)</code>, which returns a new
+ * array, the path can be written into an array supplied by the caller, and
+ * <code>evaluateBatch</code> builds many paths at once from input in structure-of-arrays form,
+ * splitting them over the threads of <code>com.nr.util.Parallel</code>.
+ * <p>
  * According to general <code>Function</code> contract, this class is thread-safe.
+ * Instances are immutable, so no locking is needed.
  * 
  * @author Torsten Nahm
  */
 
 public class BrownianBridge extends VectorFunction {
+	static final int BATCH_GRAIN = 1 << 10;
+	
 	protected final double variance;
 	protected final int steps;
 	protected final int dimension;
 	protected final boolean open;
 	
+	/** Point target[m] is filled in m-th, from its neighbours left[m] and right[m]. */
+	private final int[] target, left, right;
+	private final double[] sigma;
+	private final double endSigma;
+	
 	/**
 	 * Constructs the function.
 	 *  
@@ -51,6 +67,22 @@ public class BrownianBridge extends VectorFunction {
 		this.steps = steps;
 		this.open = open;
 		dimension = open ? steps : steps - 1;
+		
+		target = new int[steps - 1];
+		left = new int[steps - 1];
+		right = new int[steps - 1];
+		sigma = new double[steps - 1];
+		endSigma = Math.sqrt(variance);
+		int m = 0;
+		for (int j = steps / 2; j >= 1; j /= 2) {
+			double var = Math.sqrt(variance / steps * j * 0.5);
+			for (int k = j; k < steps; k += 2 * j) {
+				target[m] = k;
+				left[m] = k - j;
+				right[m] = k + j;
+				sigma[m++] = var;
+			}
+		}
 	}
 		
 	@Override
@@ -80,22 +112,77 @@ public class BrownianBridge extends VectorFunction {
 		checkArgument(x);
 		
 		double[] path = new double[steps + 1];
-		int i = 0;
+		evaluate(x, 0, path);
+		return path;
+	}
+	
+	/**
+	 * Produces the discretized Brownian path into <code>path</code>, without allocating.
+	 * 
+	 * @param x gaussian noise, of which <code>x[offset..offset+n-1]</code> is used,
+	 * <i>n</i> being the input dimension
+	 * @param offset index of the first input value in <code>x</code>
+	 * @param path array of length at least <i>steps+1</i> receiving the path
+	 */
+	public void evaluate(double[] x, int offset, double[] path) {
+		int i = offset;
 		path[0] = 0.0;
-		if (open) {
-			path[steps] = Math.sqrt(variance) * x[i++];
-		} else {
-			path[steps] = path[0];
+		path[steps] = open ? endSigma * x[i++] : 0.0;
+		for (int m = 0; m < target.length; m++) {
+			path[target[m]] = 0.5 * (path[left[m]] + path[right[m]]) + sigma[m] * x[i++];
 		}
-			 
-		for (int j = steps / 2; j >= 1; j /= 2) {
-			double var = Math.sqrt(variance / steps * j * 0.5);
-			for (int k = j; k < steps; k += 2 * j) {
-				path[k] = 0.5 * (path[k - j] + path[k + j]) + var * x[i++];
-			}
+	}
+	
+	/**
+	 * Produces <code>count</code> paths at once, in structure-of-arrays form: input value
+	 * <i>d</i> of path <i>p</i> is <code>in[(inRow + d) * count + p]</code>, and the position
+	 * of path <i>p</i> after step <i>t</i> is written to <code>out[t * count + p]</code>.
+	 * Each point is filled in for all paths before the next one, so the inner loops run over
+	 * contiguous memory. The paths are the same as those of <code>evaluate</code>.
+	 * 
+	 * @param in gaussian noise, <code>(inRow + inputDimension()) * count</code> values at least
+	 * @param inRow row of <code>in</code> holding the first input value of each path
+	 * @param out array of length at least <code>(steps + 1) * count</code> receiving the paths
+	 * @param count number of paths
+	 */
+	public void evaluateBatch(final double[] in, final int inRow, final double[] out, final int count) {
+		if (in.length < (long) (inRow + dimension) * count || out.length < (long) (steps + 1) * count) {
+			throw new IllegalArgumentException("Arrays too short for " + count + " paths");
 		}
-		
-		return path;
+		Parallel.forRange(count, BATCH_GRAIN, new Parallel.Body() {
+			public void run(int from, int to, int chunk) {
+				int row = inRow;
+				int end = steps * count;
+				for (int p = from; p < to; p++) {
+					out[p] = 0.0;
+				}
+				if (open) {
+					int q = row++ * count;
+					for (int p = from; p < to; p++) {
+						out[end + p] = endSigma * in[q + p];
+					}
+				} else {
+					for (int p = from; p < to; p++) {
+						out[end + p] = 0.0;
+					}
+				}
+				for (int m = 0; m < target.length; m++) {
+					int t = target[m] * count, l = left[m] * count, r = right[m] * count;
+					int q = row++ * count;
+					double s = sigma[m];
+					for (int p = from; p < to; p++) {
+						out[t + p] = 0.5 * (out[l + p] + out[r + p]) + s * in[q + p];
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Same as <code>evaluateBatch(in, 0, out, count)</code>.
+	 */
+	public void evaluateBatch(double[] in, double[] out, int count) {
+		evaluateBatch(in, 0, out, count);
 	}
 	
 	@Override
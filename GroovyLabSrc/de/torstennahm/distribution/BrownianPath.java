@@ -4,7 +4,6 @@
 package de.torstennahm.distribution;
 
 import de.torstennahm.math.VectorFunction;
-import de.torstennahm.util.Util;
 
 /**
  * Creates Brownian paths from Gassian input using the the Brownian bridge
@@ -12,6 +11,12 @@ import de.torstennahm.util.Util;
  * This class is built on top of the <code>BrownianBridge</code> and <code>BrownianPath</code>
  * classes, and offers additional functionality.
  * In particular, it allows open, closed and trace paths.
+ * <p>
+ * The settings are held in an immutable snapshot, together with the bridge or walk that
+ * generates the paths. The setters replace the snapshot, and evaluation reads it once,
+ * so paths are generated without locking, and each path is consistent with one set of
+ * settings even when they are changed concurrently. Besides <code>evaluate(x)</code>, paths
+ * can be written into a caller's array, or built many at once with <code>evaluateBatch</code>.
  * 
  * @author Torsten Nahm
  * 
@@ -21,14 +26,49 @@ public class BrownianPath extends VectorFunction {
 	static public final int BRIDGE = 0, WALK = 1;
 	static private final int FIXED_AT_START = 0, FIXED_AT_END = 1, FIXED = 2, TRACE = 3;
 	
-	private int steps = 2;
-	private int generatorType = BRIDGE;
-	private int type = FIXED_AT_START;
-	private double variance = 1.0;
-	private double start = 0.0, end;
+	/** Immutable settings, with the generator they call for. */
+	static private final class State {
+		final int steps, generatorType, type, endDimensions;
+		final double variance, start, end;
+		final BrownianBridge bridge;
+		final BrownianWalk walk;
+		final String error;
+		
+		State(int steps, int generatorType, int type, double variance, double start, double end, int endDimensions) {
+			this.steps = steps;
+			this.generatorType = generatorType;
+			this.type = type;
+			this.variance = variance;
+			this.start = start;
+			this.end = end;
+			this.endDimensions = endDimensions;
+			
+			boolean open = type == FIXED_AT_START || type == FIXED_AT_END;
+			BrownianBridge b = null;
+			BrownianWalk w = null;
+			String e = null;
+			if (generatorType == BRIDGE) {
+				try {
+					b = new BrownianBridge(variance, steps, open);
+				} catch (IllegalArgumentException ex) {
+					e = ex.getMessage();
+				}
+			} else if (generatorType == WALK) {
+				if (open) {
+					w = new BrownianWalk(variance, steps);
+				} else {
+					e = "Type WALK is not compatible with a closed path";
+				}
+			} else {
+				e = "Invalid type";
+			}
+			bridge = b;
+			walk = w;
+			error = e;
+		}
+	}
 	
-	private int endDimensions;
-	private VectorFunction pathFunction;
+	private volatile State state = new State(2, BRIDGE, FIXED_AT_START, 1.0, 0.0, 0.0, 0);
 	
 	/**
 	 * Set to number of steps to the given value. The output dimension of the function
@@ -37,8 +77,8 @@ public class BrownianPath extends VectorFunction {
 	 * @param steps number of steps
 	 */
 	public synchronized void setSteps(int steps) {
-		this.steps = steps;
-		pathFunction = null;
+		State s = state;
+		state = new State(steps, s.generatorType, s.type, s.variance, s.start, s.end, s.endDimensions);
 	}
 	
 	/**
@@ -50,8 +90,8 @@ public class BrownianPath extends VectorFunction {
 	 * @param type 
 	 */
 	public synchronized void setType(int type) {
-		generatorType = type;
-		pathFunction = null;
+		State s = state;
+		state = new State(s.steps, type, s.type, s.variance, s.start, s.end, s.endDimensions);
 	}
 	
 	/**
@@ -60,109 +100,170 @@ public class BrownianPath extends VectorFunction {
 	 * @param variance
 	 */
 	public synchronized void makeFixedAtStart(double start, double variance) {
-		type = FIXED_AT_START;
-		this.start = start;
-		this.variance = variance;
-		endDimensions = 1;
-		pathFunction = null;
+		State s = state;
+		state = new State(s.steps, s.generatorType, FIXED_AT_START, variance, start, s.end, 1);
 	}
 	
 	public synchronized void makeFixedAtEnd(double end, double variance) {
-		type = FIXED_AT_END;
-		this.end = end;
-		this.variance = variance;
-		endDimensions = 1;
-		pathFunction = null;
+		State s = state;
+		state = new State(s.steps, s.generatorType, FIXED_AT_END, variance, s.start, end, 1);
 	}
 	
 	public synchronized void makeFixed(double start, double end, double variance) {
-		type = FIXED;
-		this.start = start;
-		this.end = end;
-		this.variance = variance;
-		endDimensions = 0;
-		pathFunction = null;
+		State s = state;
+		state = new State(s.steps, s.generatorType, FIXED, variance, start, end, 0);
 	}
 	
 	public synchronized void makeForTrace(double variance) {
-		type = TRACE;
-		this.variance = variance;
-		endDimensions = 1;
-		pathFunction = null;
+		State s = state;
+		state = new State(s.steps, s.generatorType, TRACE, variance, s.start, s.end, 1);
 	}
 	
 	@Override
-	public synchronized int inputDimension() {
-		return steps - 1 + endDimensions;
+	public int inputDimension() {
+		State s = state;
+		return s.steps - 1 + s.endDimensions;
 	}
 	
 	@Override
-	public synchronized int outputDimension() {
-		return steps + 1;
+	public int outputDimension() {
+		return state.steps + 1;
 	}
 	
 	@Override
-	public synchronized double[] evaluate(double[] x) {
-		checkArgument(x);
+	public double[] evaluate(double[] x) {
+		State s = state;
+		checkArgument(s, x);
 		
-		double[] path;
+		double[] path = new double[s.steps + 1];
+		evaluate(s, x, path);
+		return path;
+	}
+	
+	/**
+	 * Produces the path for the input <code>x</code> into <code>path</code>, without
+	 * allocating.
+	 * 
+	 * @param x input of length <code>inputDimension()</code>
+	 * @param path array of length at least <code>outputDimension()</code> receiving the path
+	 */
+	public void evaluate(double[] x, double[] path) {
+		State s = state;
+		checkArgument(s, x);
+		evaluate(s, x, path);
+	}
+	
+	/**
+	 * As <code>checkArgument(x)</code>, but against the given snapshot, so that a concurrent
+	 * setter cannot change the dimension between the check and the evaluation.
+	 */
+	private static void checkArgument(State s, double[] x) {
+		if (x.length != s.steps - 1 + s.endDimensions) {
+			throw new IllegalArgumentException("Argument has dimension " + x.length + ", expected " + (s.steps - 1 + s.endDimensions));
+		}
+	}
+	
+	private static void evaluate(State s, double[] x, double[] path) {
+		if (s.error != null) {
+			throw new IllegalArgumentException(s.error);
+		}
 		
-		if (pathFunction == null) {
-			makePathFunction();
+		int offset = s.type == TRACE ? 1 : 0;
+		if (s.bridge != null) {
+			s.bridge.evaluate(x, offset, path);
+		} else {
+			s.walk.evaluate(x, offset, path);
 		}
 		
-		if (type == TRACE) {
-			double[] xx = new double[x.length - 1];
-			System.arraycopy(x, 1, xx, 0, xx.length);
-			path = pathFunction.evaluate(xx);
-			shiftPath(path, x[0], x[0]);
+		if (s.type == TRACE) {
+			shiftPath(path, s.steps, x[0], x[0]);
+		} else if (s.type == FIXED_AT_START) {
+			shiftPath(path, s.steps, s.start, s.start);
+		} else if (s.type == FIXED_AT_END) {
+			for (int i = 0, j = s.steps; i < j; i++, j--) {
+				double t = path[i];
+				path[i] = path[j];
+				path[j] = t;
+			}
+			shiftPath(path, s.steps, s.end, s.end);
+		} else if (s.type == FIXED) {
+			shiftPath(path, s.steps, s.start, s.end);
 		} else {
-			path = pathFunction.evaluate(x);
-			if (type == FIXED_AT_START) {
-				shiftPath(path, start, start);
-			} else if (type == FIXED_AT_END) {
-				path = Util.reverseArray(path);
-				shiftPath(path, end, end);
-			} else if (type == FIXED) {
-				double[] xx = new double[x.length];
-				System.arraycopy(x, 0, xx, 0, xx.length);
-				shiftPath(path, start, end);
-			} else {
-				throw new IllegalStateException("Illegal type");
+			throw new IllegalStateException("Illegal type");
+		}
+	}
+	
+	/**
+	 * Produces <code>count</code> paths at once, in structure-of-arrays form: input value
+	 * <i>d</i> of path <i>p</i> is <code>in[d * count + p]</code>, and the position of path
+	 * <i>p</i> after step <i>t</i> is written to <code>out[t * count + p]</code>.
+	 * The paths are the same as those of <code>evaluate</code>, and are split over the
+	 * threads of <code>com.nr.util.Parallel</code>.
+	 * 
+	 * @param in input, <code>inputDimension() * count</code> values at least
+	 * @param out array of length at least <code>outputDimension() * count</code>
+	 * @param count number of paths
+	 */
+	public void evaluateBatch(double[] in, double[] out, int count) {
+		State s = state;
+		if (s.error != null) {
+			throw new IllegalArgumentException(s.error);
+		}
+		
+		int n = s.steps;
+		int offset = s.type == TRACE ? 1 : 0;
+		if (s.bridge != null) {
+			s.bridge.evaluateBatch(in, offset, out, count);
+		} else {
+			s.walk.evaluateBatch(in, offset, out, count);
+		}
+		
+		if (s.type == FIXED_AT_END) {
+			for (int i = 0, j = n; i < j; i++, j--) {
+				int qi = i * count, qj = j * count;
+				for (int p = 0; p < count; p++) {
+					double t = out[qi + p];
+					out[qi + p] = out[qj + p];
+					out[qj + p] = t;
+				}
 			}
 		}
 		
-		return path;
+		if (s.type == TRACE) {
+			for (int i = 0; i <= n; i++) {
+				int q = i * count;
+				for (int p = 0; p < count; p++) {
+					out[q + p] += in[p];
+				}
+			}
+		} else {
+			double start = s.type == FIXED_AT_END ? s.end : s.start;
+			double end = s.type == FIXED_AT_START ? s.start : s.end;
+			double slope = (end - start) / n;
+			double shift = start;
+			for (int i = 0; i <= n; i++) {
+				int q = i * count;
+				for (int p = 0; p < count; p++) {
+					out[q + p] += shift;
+				}
+				shift += slope;
+			}
+		}
 	}
 	
-	private void shiftPath(double[] path, double start, double end) {
+	private static void shiftPath(double[] path, int steps, double start, double end) {
 		double slope = (end - start) / steps;
 		double shift = start;
 		
-		for (int i = 0; i < path.length; i++) {
+		for (int i = 0; i <= steps; i++) {
 			path[i] += shift;
 			shift += slope;
 		}
 	}
 	
-	private void makePathFunction() {
-		boolean open = type == FIXED_AT_START || type == FIXED_AT_END;
-		
-		if (generatorType == BRIDGE) {
-			pathFunction = new BrownianBridge(variance, steps, open);
-		} else if (generatorType == WALK) {
-			if (open) {
-				pathFunction = new BrownianWalk(variance, steps);
-			} else {
-				throw new IllegalArgumentException("Type WALK is not compatible with a closed path");
-			}
-		} else {
-			throw new IllegalArgumentException("Invalid type");
-		}
-	}
-	
 	@Override
-	public synchronized String toString() {
-		return "Brownian Path(type=" + type + ",steps=" + steps + ",v=" + variance + ",x=" + start + ",y=" + end + ")";
+	public String toString() {
+		State s = state;
+		return "Brownian Path(type=" + s.type + ",steps=" + s.steps + ",v=" + s.variance + ",x=" + s.start + ",y=" + s.end + ")";
 	}
 }
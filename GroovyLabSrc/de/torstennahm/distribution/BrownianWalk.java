@@ -3,6 +3,8 @@
  */
 package de.torstennahm.distribution;
 
+import com.nr.util.Parallel;
+
 import de.torstennahm.math.VectorFunction;
 
 /**
@@ -20,7 +22,11 @@ import de.torstennahm.math.VectorFunction;
  * Algorithmically, the path is generated by beginning with the first point and successively
  * adding random normal increments with the specified unit variance.
  * <p>
+ * As for <code>BrownianBridge</code>, paths can also be written into a caller's array, or
+ * built many at once in structure-of-arrays form with <code>evaluateBatch</code>.
+ * <p>
  * According to general <code>Function</code> contract, this class is thread-safe.
+ * Instances are immutable, so no locking is needed.
  * 
  * @author Torsten Nahm
  */
@@ -68,15 +74,60 @@ public class BrownianWalk extends VectorFunction  {
 	public double[] evaluate(double[] x) {
 		checkArgument(x);
 		double[] path = new double[steps + 1];
+		evaluate(x, 0, path);
+		return path;
+	}
+	
+	/**
+	 * Produces the discretized Brownian path into <code>path</code>, without allocating.
+	 * 
+	 * @param x gaussian noise, of which <code>x[offset..offset+steps-1]</code> is used
+	 * @param offset index of the first input value in <code>x</code>
+	 * @param path array of length at least <i>steps+1</i> receiving the path
+	 */
+	public void evaluate(double[] x, int offset, double[] path) {
 		double y = 0.0;
 
 		path[0] = y;
 		for (int i = 0; i < steps; i++) {
-			y += sigmaPerStep * x[i];
+			y += sigmaPerStep * x[offset + i];
 			path[i + 1] = y;
 		}
+	}
+	
+	/**
+	 * Produces <code>count</code> paths at once, in the structure-of-arrays form described
+	 * for <code>BrownianBridge.evaluateBatch</code>.
+	 * 
+	 * @param in gaussian noise, <code>(inRow + steps) * count</code> values at least
+	 * @param inRow row of <code>in</code> holding the first input value of each path
+	 * @param out array of length at least <code>(steps + 1) * count</code> receiving the paths
+	 * @param count number of paths
+	 */
+	public void evaluateBatch(final double[] in, final int inRow, final double[] out, final int count) {
+		if (in.length < (long) (inRow + steps) * count || out.length < (long) (steps + 1) * count) {
+			throw new IllegalArgumentException("Arrays too short for " + count + " paths");
+		}
+		Parallel.forRange(count, BrownianBridge.BATCH_GRAIN, new Parallel.Body() {
+			public void run(int from, int to, int chunk) {
+				for (int p = from; p < to; p++) {
+					out[p] = 0.0;
+				}
+				for (int i = 0; i < steps; i++) {
+					int q = (inRow + i) * count, t = i * count;
+					for (int p = from; p < to; p++) {
+						out[t + count + p] = out[t + p] + sigmaPerStep * in[q + p];
+					}
+				}
+			}
+		});
+	}
 	
-		return path;
+	/**
+	 * Same as <code>evaluateBatch(in, 0, out, count)</code>.
+	 */
+	public void evaluateBatch(double[] in, double[] out, int count) {
+		evaluateBatch(in, 0, out, count);
 	}
 	
 	@Override
@@ -0,0 +1,148 @@
+/*
+ * Created on Oct 19, 2026
+ */
+package de.torstennahm.distribution;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.nr.util.Parallel;
+
+/**
+ * Tests that the batched path generators give the same paths as path-by-path evaluation.
+ */
+public class JUnitTest extends TestCase {
+	private static final double EPS = 1e-12;
+	private static final int COUNT = 2500;		// more than one parallel chunk
+
+	/**
+	 * Tests <code>BrownianBridge.evaluateBatch</code> for open and closed bridges.
+	 */
+	public void testBridgeBatch() {
+		int[] steps = { 1, 2, 8, 16 };
+		for (int t = 0; t < 2; t++) {
+			for (int i = 0; i < steps.length; i++) {
+				BrownianBridge b = new BrownianBridge(0.7, steps[i], t == 0);
+				checkBatch(b, b.inputDimension(), b.outputDimension(), 0);
+			}
+		}
+	}
+
+	/**
+	 * Tests <code>BrownianWalk.evaluateBatch</code>.
+	 */
+	public void testWalkBatch() {
+		int[] steps = { 1, 5, 16 };
+		for (int i = 0; i < steps.length; i++) {
+			BrownianWalk w = new BrownianWalk(1.3, steps[i]);
+			checkBatch(w, w.inputDimension(), w.outputDimension(), 0);
+		}
+	}
+
+	/**
+	 * Tests <code>BrownianPath.evaluateBatch</code> for every path type with a bridge,
+	 * and for the open path types with a walk.
+	 */
+	public void testPathBatch() {
+		for (int g = 0; g < 2; g++) {
+			for (int type = 0; type < 4; type++) {
+				if (g == 1 && type >= 2) {
+					continue;		// closed paths need a bridge
+				}
+				BrownianPath p = new BrownianPath();
+				p.setType(g == 0 ? BrownianPath.BRIDGE : BrownianPath.WALK);
+				p.setSteps(8);
+				if (type == 0) {
+					p.makeFixedAtStart(0.3, 0.9);
+				} else if (type == 1) {
+					p.makeFixedAtEnd(-0.2, 0.9);
+				} else if (type == 2) {
+					p.makeFixed(0.3, -0.2, 0.9);
+				} else {
+					p.makeForTrace(0.9);
+				}
+				checkBatch(p, p.inputDimension(), p.outputDimension(), 0);
+				checkBatch(p, p.inputDimension(), p.outputDimension(), 1);
+			}
+		}
+	}
+
+	/**
+	 * Tests that an argument of the wrong dimension is rejected.
+	 */
+	public void testDimension() {
+		BrownianPath p = new BrownianPath();
+		p.setSteps(4);
+		p.makeFixedAtStart(0.0, 1.0);
+		try {
+			p.evaluate(new double[p.inputDimension() + 1], new double[p.outputDimension()]);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Compares the batch of <code>COUNT</code> paths with paths evaluated one by one,
+	 * using one and four threads.
+	 *
+	 * @param mode 0 to use <code>evaluate(x)</code>, 1 to use <code>evaluate(x, path)</code>
+	 * for the single paths (only for <code>BrownianPath</code>)
+	 */
+	private void checkBatch(Object f, int inDim, int outDim, int mode) {
+		Random random = new Random(17);
+		double[] in = new double[inDim * COUNT];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = random.nextGaussian();
+		}
+
+		int threads = Parallel.threads();
+		try {
+			for (int t = 0; t < 2; t++) {
+				Parallel.setThreads(t == 0 ? 1 : 4);
+				double[] out = new double[outDim * COUNT];
+				batch(f, in, out);
+				for (int p = 0; p < COUNT; p++) {
+					double[] x = new double[inDim];
+					for (int d = 0; d < inDim; d++) {
+						x[d] = in[d * COUNT + p];
+					}
+					double[] path;
+					if (mode == 1) {
+						path = new double[outDim];
+						((BrownianPath) f).evaluate(x, path);
+					} else {
+						path = single(f, x);
+					}
+					assertEquals(outDim, path.length);
+					for (int s = 0; s < outDim; s++) {
+						assertEquals(path[s], out[s * COUNT + p], EPS);
+					}
+				}
+			}
+		} finally {
+			Parallel.setThreads(threads);
+		}
+	}
+
+	private static void batch(Object f, double[] in, double[] out) {
+		if (f instanceof BrownianBridge) {
+			((BrownianBridge) f).evaluateBatch(in, out, COUNT);
+		} else if (f instanceof BrownianWalk) {
+			((BrownianWalk) f).evaluateBatch(in, out, COUNT);
+		} else {
+			((BrownianPath) f).evaluateBatch(in, out, COUNT);
+		}
+	}
+
+	private static double[] single(Object f, double[] x) {
+		if (f instanceof BrownianBridge) {
+			return ((BrownianBridge) f).evaluate(x);
+		} else if (f instanceof BrownianWalk) {
+			return ((BrownianWalk) f).evaluate(x);
+		} else {
+			return ((BrownianPath) f).evaluate(x);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Created on Oct 19, 2026
+ */
+package de.torstennahm.integrate;
+
+import com.nr.ran.Sobolseq;
+
+import de.torstennahm.series.Series;
+
+/**
+ * Generates a Sobol series, optionally randomized.
+ * 
+ * @see com.nr.ran.Sobolseq
+ */
+public class SobolGenerator implements PointsGenerator {
+	private final int scramble;
+	private final long seed;
+	
+	/**
+	 * Construct the generator for the plain Sobol series.
+	 */
+	public SobolGenerator() {
+		this(Sobolseq.NONE, 0);
+	}
+	
+	/**
+	 * Construct the generator.
+	 * 
+	 * @param scramble randomization as defined in <code>com.nr.ran.Sobolseq</code>
+	 * @param seed seed of the randomization
+	 */
+	public SobolGenerator(int scramble, long seed) {
+		this.scramble = scramble;
+		this.seed = seed;
+	}
+	
+	public Series<double[]> makeSeries(int dimension) {
+		final Sobolseq sobol = new Sobolseq(dimension, scramble, seed);
+		
+		return new Series<double[]>() {
+			public boolean hasNext() {
+				return true;
+			}
+			
+			public double[] next() {
+				double[] x = new double[sobol.dim()];
+				sobol.next(x);
+				return x;
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -10,6 +10,7 @@ import org.codehaus.groovy.syntax.SyntaxException
 
 import javax.tools.*
 import java.lang.reflect.*
+import java.util.concurrent.*
 import java.util.regex.*
 import groovy.io.FileType
 
@@ -33,6 +34,8 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
   }
 
   private SourceUnit _sourceUnit;
+  // Compilations started for annotated methods not yet visited: class name and Future of the result
+  private Map<MethodNode, Map> _started = new IdentityHashMap<MethodNode, Map>()
 
   protected void init(ASTNode[] nodes, SourceUnit sourceUnit) {
      super.init(nodes, sourceUnit)
@@ -44,17 +47,6 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
         MethodNode annotatedMethod = astNodes[1]
         ClassNode declaringClass = annotatedMethod.declaringClass
 
-        //
-        // Obtain the source for the method from the AST and create a new class for it.
-        //
-        Map<String,String> newClassDefinition = createNewClassDefinition(annotatedMethod, sourceUnit)
-        String newClassName = newClassDefinition.className
-        JavaFileObject newClassFileObject = getJavaFileObject(newClassName, newClassDefinition.classDefinition)
-        //println "${newClassDefinition.classDefinition}"
-
-        //
-        // Compile the new class and save it to disk.
-        //
         CompileUnit compileUnit = declaringClass.module.unit
         GroovyClassLoader loader = compileUnit.classLoader
         CompilerConfiguration config = compileUnit.config
@@ -64,8 +56,36 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
         }
         def rootLoader = loader.rootLoader
         String classpath = rootLoader?.URLs.collect({it.toString().replaceAll("^file:/","")}).join(";")
-        DiagnosticListener listener = new CompilationListener(annotatedMethod)
-        compile(newClassFileObject, classpath, classOutputDir, listener)
+
+        //
+        // Obtain the source for the method from the AST, create a new class for it, and compile it
+        // to disk. At the first annotated method of a class this is started for all of its annotated
+        // methods, so that they compile in parallel on the pool of CompiledClassCache. A class compiled
+        // before with the same source and classpath is copied from the cache instead.
+        //
+        Map started = _started.remove(annotatedMethod)
+        if (started == null) {
+            startCompilations(declaringClass, sourceUnit, classpath, classOutputDir)
+            started = _started.remove(annotatedMethod)
+            if (started == null) {
+                started = startCompilation(annotatedMethod, sourceUnit, classpath, classOutputDir)
+            }
+        }
+        String newClassName = started.className
+        CompiledClassCache.Result result
+        try {
+            result = started.result.get()
+        }
+        catch (ExecutionException e) {
+            addError("Compilation of ${newClassName} failed: ${e.cause}", annotatedMethod)
+            return
+        }
+        if (result.success) {
+            println(result.cached ? "${newClassName} taken from the compiled-class cache." : "${newClassName} successfully compiled.")
+        }
+        else {
+            println(result.messages)
+        }
 
         //
         // Remove any old compiled classes that are hanging around.
@@ -82,9 +102,21 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
 
     }
 
-   private static JavaFileObject getJavaFileObject(String className, String content) {
-       return new InMemoryJavaFileObject(className, content)
-   } 
+    // Only the methods of classNode: the transformation is instantiated anew for each class
+    private void startCompilations(ClassNode classNode, SourceUnit sourceUnit, String classpath, String classOutputDir) {
+        for (MethodNode methodNode in classNode.methods) {
+            if (methodNode.annotations.any({it.classNode.name == CompileJava.name})) {
+                _started[methodNode] = startCompilation(methodNode, sourceUnit, classpath, classOutputDir)
+            }
+        }
+    }
+
+    private Map startCompilation(MethodNode methodNode, SourceUnit sourceUnit, String classpath, String classOutputDir) {
+        Map<String,String> newClassDefinition = createNewClassDefinition(methodNode, sourceUnit, classpath)
+        Future result = CompiledClassCache.defaultCache().submit(newClassDefinition.key, newClassDefinition.className,
+                newClassDefinition.classDefinition, classpath, new File(classOutputDir))
+        return [className:newClassDefinition.className, result:result]
+    }
 
     private static String convertMethodToSource(MethodNode node, SourceUnit sourceUnit) {
 	ReaderSource sourceFileReader = sourceUnit.getSource()
@@ -115,7 +147,7 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
     }
 
 
-    private Map<String, String> createNewClassDefinition(MethodNode methodNode, SourceUnit sourceUnit) {
+    private Map<String, String> createNewClassDefinition(MethodNode methodNode, SourceUnit sourceUnit, String classpath) {
        ClassNode declaringClass = methodNode.declaringClass
        ModuleNode moduleNode = declaringClass.module
 
@@ -125,7 +157,6 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
 
        String packageName = methodNode.declaringClass.packageName
        String className = methodNode.declaringClass.nameWithoutPackage 
-       String newClassName = "${className}_${System.currentTimeMillis()}"
        String methodText = convertMethodToSource(methodNode, sourceUnit)
 
        int modifiers = methodNode.modifiers
@@ -145,7 +176,14 @@ public class CompileJavaTransformation extends AbstractASTTransformation impleme
        methodText = methodText.replaceFirst("static", "")
 
        String packageStatement = (packageName)?"package ${packageName};":""
-       
+
+       //
+       // The class is named by a hash of everything its compiled form depends on, which is also
+       // its key in the compiled-class cache.
+       //
+       String key = CompiledClassCache.key(packageStatement, importStatements.toString(), className, methodText,
+               classpath, System.getProperty("java.version"))
+       String newClassName = "${className}_${key.substring(0, 16)}"
 
        String newClassDefinition = """
 ${packageStatement};
@@ -154,8 +192,8 @@ public class ${newClassName} {
 public static $methodText
 }
 """
-       String fullyQualifiedNewClassName = (packageName)?(packageName + "."):""  + newClassName;
-       return [className:fullyQualifiedNewClassName, classDefinition:newClassDefinition]
+       String fullyQualifiedNewClassName = ((packageName)?(packageName + "."):"") + newClassName;
+       return [className:fullyQualifiedNewClassName, classDefinition:newClassDefinition, key:key]
     }
 
    private static String getImportStatement(ImportNode node) {
@@ -173,27 +211,6 @@ public static $methodText
    }
 
 
-   private static void compile(JavaFileObject file, String classpath, String classOutputDir, DiagnosticListener listener) {
-       JavaCompiler compiler = ToolProvider.getSystemJavaCompiler()
-       StandardJavaFileManager fileManager = compiler.getStandardFileManager(listener, Locale.ENGLISH, null)
-       Iterable options = ["-d", classOutputDir]
-       if(classpath) {
-           options += ["-classpath", classpath]
-       }
-       //println "options=${options}"
-//       JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, listener, options, null, [file])
-       Writer writer = new StringWriter()
-       JavaCompiler.CompilationTask task = compiler.getTask(writer, fileManager, null, options, null, [file])
-       Boolean result = task.call()
-       if (result == true) {
-           println("${file.name} successfully compiled.")
-       }
-       else {
-//           println(listener.report())
-           println(writer.toString())
-       }
-   }
-
    //
    // This method is for testing purposed to ensure the new class can be located and the method can be executed.
    //
@@ -231,19 +248,19 @@ public static $methodText
      }
 
      //
-     // Remove old compiled files.
+     // Remove old compiled files. Classes in use are copied again from the compiled-class cache,
+     // which renews their time stamp, each time their script is compiled.
      //
      private static int MAX_AGE = 8*60*60*100 // 8 hours
      private static void removeOldCompiledClasses(String classOutputDir, MethodNode methodNode) {
         String className = methodNode.declaringClass.nameWithoutPackage
-        Pattern classNamePattern = ~/${className}_(\d+)\.class/
+        Pattern classNamePattern = ~/${className}_[0-9a-f]+(\$.*)?\.class/
         File dir = new File(classOutputDir)
         long currentTime = System.currentTimeMillis() 
         dir.eachFileRecurse(FileType.FILES, {
             Matcher matches = (it.name =~ classNamePattern)
-            if(matches) {
-              Long ts = new Long(matches[0][1])
-              if(currentTime - ts > MAX_AGE) {
+            if(matches.matches()) {
+              if(currentTime - it.lastModified() > MAX_AGE) {
                   it.delete()
               }
             }
@@ -0,0 +1,366 @@
+package expandRunTime;
+
+import javax.tools.*;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content-addressed store of the classes compiled for <code>@CompileJava</code> methods.
+ *
+ * An entry is a directory named by the key, holding the class files of one compilation
+ * laid out by package. Entries are built in a private temporary directory and published
+ * by an atomic rename, so that several JVMs may share the store: a reader sees either a
+ * complete entry or none. Class files are copied to the output directory the same way.
+ * Hits refresh the time stamp of the entry; least recently used entries are removed once
+ * the store grows beyond its size limit, or when they are older than the age limit, by
+ * whichever JVM holds the store's lock file at the time.
+ *
+ * Compilations may be submitted to a shared pool of daemon threads, so that the methods
+ * of a script compile in parallel. A submission for a key that is still being compiled to
+ * the same output directory shares that compilation.
+ */
+public class CompiledClassCache {
+   public static final long DEFAULT_MAX_BYTES = 256L << 20;
+   public static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;   // 30 days
+   static final long STALE_AGE = 60L * 60 * 1000;   // leftovers of crashed JVMs, 1 hour
+   static final int EVICT_EVERY = 32;   // stores between evictions
+   static final String TMP = "tmp-", DEL = "del-";
+
+   private static CompiledClassCache defaultCache;
+   private static ExecutorService pool;
+
+   private final File root;
+   private final long maxBytes, maxAge;
+   private final AtomicInteger stores = new AtomicInteger();
+   private final ConcurrentMap<String, Future<Result>> running = new ConcurrentHashMap<String, Future<Result>>();
+
+   /** Result of a compilation: whether it succeeded, whether it came from the store, and javac's output. */
+   public static class Result {
+      public final boolean success, cached;
+      public final String messages;
+
+      Result(boolean success, boolean cached, String messages) {
+         this.success = success;
+         this.cached = cached;
+         this.messages = messages;
+      }
+   }
+
+   public CompiledClassCache(File root) {
+      this(root, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE);
+   }
+
+   public CompiledClassCache(File root, long maxBytes, long maxAge) {
+      if (maxBytes <= 0 || maxAge <= 0) {
+         throw new IllegalArgumentException("Cache limits must be positive");
+      }
+      this.root = root;
+      this.maxBytes = maxBytes;
+      this.maxAge = maxAge;
+   }
+
+   /**
+    * The store in the directory given by the system property <code>groovylab.compileCache</code>,
+    * by default <code>.groovylab/compiledClasses</code> in the user's home directory.
+    */
+   public static synchronized CompiledClassCache defaultCache() {
+      if (defaultCache == null) {
+         String dir = System.getProperty("groovylab.compileCache");
+         if (dir == null) {
+            dir = new File(new File(System.getProperty("user.home"), ".groovylab"), "compiledClasses").getPath();
+         }
+         defaultCache = new CompiledClassCache(new File(dir));
+      }
+      return defaultCache;
+   }
+
+   /** Pool of daemon threads, one per processor, on which submitted compilations run. */
+   public static synchronized ExecutorService pool() {
+      if (pool == null) {
+         pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "CompileJava-" + count.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      return pool;
+   }
+
+   public File getRoot() {
+      return root;
+   }
+
+   /**
+    * Key for the given parts, for instance the class source and the class path: the
+    * hexadecimal SHA-256 digest of their UTF-8 encodings, each followed by a zero byte.
+    */
+   public static String key(String... parts) {
+      MessageDigest md;
+      try {
+         md = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+      Charset utf8 = Charset.forName("UTF-8");
+      for (String p : parts) {
+         md.update(String.valueOf(p).getBytes(utf8));
+         md.update((byte) 0);
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+         sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Copies the classes stored under key to outputDir.
+    *
+    * @return false if there is no such entry, or it was evicted while being copied
+    */
+   public boolean restore(String key, File outputDir) {
+      File entry = new File(root, key);
+      if (!entry.isDirectory()) {
+         return false;
+      }
+      try {
+         copyTree(entry, outputDir);
+      } catch (IOException e) {
+         return false;
+      }
+      entry.setLastModified(System.currentTimeMillis());
+      return true;
+   }
+
+   /**
+    * Makes the classes of source available in outputDir, taken from the store if key is
+    * present, and otherwise compiled with javac and stored under key.
+    *
+    * @param key key of the compilation, which must cover everything the output depends on
+    * @param className fully qualified name of the class in source
+    * @param source Java source of the class
+    * @param classpath class path for javac, or null
+    * @param outputDir root of the class output directory
+    */
+   public Result compile(String key, String className, String source, String classpath, File outputDir) throws IOException {
+      if (restore(key, outputDir)) {
+         return new Result(true, true, "");
+      }
+
+      root.mkdirs();
+      File tmp = Files.createTempDirectory(root.toPath(), TMP).toFile();
+      try {
+         StringWriter writer = new StringWriter();
+         boolean success = javac(className, source, classpath, tmp, writer);
+         if (!success) {
+            return new Result(false, false, writer.toString());
+         }
+         copyTree(tmp, outputDir);
+         try {
+            Files.move(tmp.toPath(), new File(root, key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+         } catch (IOException e) {
+            // another JVM stored the same key first; its entry is identical
+         }
+         if (stores.incrementAndGet() % EVICT_EVERY == 1) {
+            evict();
+         }
+         return new Result(true, false, writer.toString());
+      } finally {
+         if (tmp.exists()) {
+            deleteTree(tmp);
+         }
+      }
+   }
+
+   /** Runs compile on the pool, or returns the running compilation of key to outputDir. */
+   public Future<Result> submit(final String key, final String className, final String source,
+         final String classpath, final File outputDir) {
+      final String id = key + File.pathSeparator + outputDir.getAbsolutePath();
+      FutureTask<Result> task = new FutureTask<Result>(new Callable<Result>() {
+         public Result call() throws IOException {
+            return compile(key, className, source, classpath, outputDir);
+         }
+      }) {
+         protected void done() {
+            running.remove(id, this);
+         }
+      };
+      Future<Result> other = running.putIfAbsent(id, task);
+      if (other != null) {
+         return other;
+      }
+      pool().execute(task);
+      return task;
+   }
+
+   private static boolean javac(String className, String source, String classpath, File outputDir, Writer writer) throws IOException {
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      if (compiler == null) {
+         throw new IllegalStateException("No Java compiler available; a JDK is required for @CompileJava");
+      }
+      StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, Locale.ENGLISH, null);
+      try {
+         List<String> options = new ArrayList<String>(Arrays.asList("-d", outputDir.getPath()));
+         if (classpath != null && classpath.length() > 0) {
+            options.add("-classpath");
+            options.add(classpath);
+         }
+         JavaFileObject file = new InMemoryJavaFileObject(className, source);
+         return compiler.getTask(writer, fileManager, null, options, null, Collections.singletonList(file)).call();
+      } catch (Exception e) {
+         writer.write(String.valueOf(e));
+         return false;
+      } finally {
+         try {
+            fileManager.close();
+         } catch (IOException e) {
+            // nothing left to release
+         }
+      }
+   }
+
+   /**
+    * Removes entries older than the age limit, then the least recently used ones until the
+    * store fits its size limit, as well as temporary directories left by crashed JVMs.
+    * Does nothing if another JVM is evicting at the same time.
+    */
+   public void evict() {
+      File[] files = root.listFiles();
+      if (files == null) {
+         return;
+      }
+      RandomAccessFile lockFile = null;
+      try {
+         lockFile = new RandomAccessFile(new File(root, ".lock"), "rw");
+         FileChannel channel = lockFile.getChannel();
+         FileLock lock;
+         try {
+            lock = channel.tryLock();
+         } catch (OverlappingFileLockException e) {
+            lock = null;   // held by another thread of this JVM
+         }
+         if (lock == null) {
+            return;
+         }
+         try {
+            long now = System.currentTimeMillis(), total = 0;
+            List<File> entries = new ArrayList<File>();
+            final Map<File, Long> used = new HashMap<File, Long>();
+            for (File f : files) {
+               if (!f.isDirectory()) {
+                  continue;
+               }
+               String name = f.getName();
+               if (name.startsWith(TMP) || name.startsWith(DEL)) {
+                  if (now - f.lastModified() > STALE_AGE) {
+                     deleteTree(f);
+                  }
+                  continue;
+               }
+               used.put(f, f.lastModified());
+               entries.add(f);
+            }
+            Collections.sort(entries, new Comparator<File>() {
+               public int compare(File a, File b) {
+                  return used.get(b).compareTo(used.get(a));
+               }
+            });
+            for (File f : entries) {   // most recently used first
+               long bytes = size(f);
+               if (now - used.get(f) > maxAge || total + bytes > maxBytes) {
+                  remove(f);
+               } else {
+                  total += bytes;
+               }
+            }
+         } finally {
+            lock.release();
+         }
+      } catch (IOException e) {
+         // the store is only a cache; leave it as it is
+      } finally {
+         if (lockFile != null) {
+            try {
+               lockFile.close();
+            } catch (IOException e) {
+               // nothing left to release
+            }
+         }
+      }
+   }
+
+   // Renames the entry out of sight before deleting it, so that no reader sees it half deleted
+   private void remove(File entry) throws IOException {
+      File gone = new File(root, DEL + entry.getName() + "-" + UUID.randomUUID());
+      try {
+         Files.move(entry.toPath(), gone.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         return;   // removed or in use elsewhere
+      }
+      deleteTree(gone);
+   }
+
+   private static long size(File f) {
+      if (f.isFile()) {
+         return f.length();
+      }
+      long total = 0;
+      File[] files = f.listFiles();
+      if (files != null) {
+         for (File g : files) {
+            total += size(g);
+         }
+      }
+      return total;
+   }
+
+   // Copies the files below from into the same place below to, replacing each file atomically
+   private static void copyTree(File from, File to) throws IOException {
+      File[] files = from.listFiles();
+      if (files == null) {
+         throw new IOException("Cannot read " + from);
+      }
+      to.mkdirs();
+      for (File f : files) {
+         File target = new File(to, f.getName());
+         if (f.isDirectory()) {
+            copyTree(f, target);
+         } else {
+            File tmp = File.createTempFile(TMP, ".part", to);
+            try {
+               Files.copy(f.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+               try {
+                  Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+               } catch (AtomicMoveNotSupportedException e) {
+                  Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+               }
+            } finally {
+               tmp.delete();
+            }
+         }
+      }
+   }
+
+   private static void deleteTree(File f) {
+      File[] files = f.listFiles();
+      if (files != null) {
+         for (File g : files) {
+            deleteTree(g);
+         }
+      }
+      f.delete();
+   }
+}
@@ -0,0 +1,133 @@
+package expandRunTime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the store of compiled classes behind <code>@CompileJava</code>.
+ */
+public class JUnitTest extends TestCase {
+   private File dir;
+   private CompiledClassCache cache;
+
+   protected void setUp() throws IOException {
+      dir = Files.createTempDirectory("compiledClassCache").toFile();
+      cache = new CompiledClassCache(new File(dir, "store"));
+   }
+
+   protected void tearDown() {
+      delete(dir);
+   }
+
+   /**
+    * Compiling the same source again takes the classes from the store.
+    */
+   public void testHit() throws IOException {
+      String source = source("Hit", 1);
+      String key = CompiledClassCache.key(source, null);
+      File out1 = new File(dir, "out1"), out2 = new File(dir, "out2");
+
+      CompiledClassCache.Result r = cache.compile(key, "Hit", source, null, out1);
+      assertTrue(r.messages, r.success);
+      assertFalse(r.cached);
+      assertTrue(new File(out1, "Hit.class").isFile());
+
+      r = cache.compile(key, "Hit", source, null, out2);
+      assertTrue(r.success);
+      assertTrue(r.cached);
+      assertTrue(new File(out2, "Hit.class").isFile());
+      assertEquals(1, entries());
+   }
+
+   /**
+    * A changed source has a different key, and is compiled anew.
+    */
+   public void testSourceChange() throws IOException {
+      String source1 = source("Changed", 1), source2 = source("Changed", 2);
+      String key1 = CompiledClassCache.key(source1, null), key2 = CompiledClassCache.key(source2, null);
+      assertFalse(key1.equals(key2));
+      File out = new File(dir, "out");
+
+      assertFalse(cache.compile(key1, "Changed", source1, null, out).cached);
+      byte[] class1 = Files.readAllBytes(new File(out, "Changed.class").toPath());
+      CompiledClassCache.Result r = cache.compile(key2, "Changed", source2, null, out);
+      assertTrue(r.success);
+      assertFalse(r.cached);
+      byte[] class2 = Files.readAllBytes(new File(out, "Changed.class").toPath());
+      assertFalse(Arrays.equals(class1, class2));
+      assertEquals(2, entries());
+
+      assertTrue(cache.compile(key1, "Changed", source1, null, out).cached);
+      assertTrue(Arrays.equals(class1, Files.readAllBytes(new File(out, "Changed.class").toPath())));
+   }
+
+   /**
+    * A failed compilation reports javac's messages and stores nothing.
+    */
+   public void testFailure() throws IOException {
+      String source = "public class Broken { int f() { return; } }";
+      CompiledClassCache.Result r = cache.compile(CompiledClassCache.key(source, null), "Broken", source, null,
+            new File(dir, "out"));
+      assertFalse(r.success);
+      assertTrue(r.messages.length() > 0);
+      assertEquals(0, entries());
+   }
+
+   /**
+    * Concurrent submissions of the same and of different sources, to the same and to
+    * different output directories, all succeed and store each source once.
+    */
+   public void testConcurrent() throws Exception {
+      List<Future<CompiledClassCache.Result>> results = new ArrayList<Future<CompiledClassCache.Result>>();
+      List<File> classes = new ArrayList<File>();
+      for (int i = 0; i < 16; i++) {
+         String name = "Concurrent" + (i % 4);
+         String source = source(name, i % 4);
+         File out = new File(dir, "out" + (i % 2));
+         results.add(cache.submit(CompiledClassCache.key(source, null), name, source, null, out));
+         classes.add(new File(out, name + ".class"));
+      }
+      for (int i = 0; i < results.size(); i++) {
+         CompiledClassCache.Result r = results.get(i).get();
+         assertTrue(r.messages, r.success);
+         assertTrue(classes.get(i).isFile());
+      }
+      assertEquals(4, entries());
+   }
+
+   private static String source(String name, int value) {
+      return "public class " + name + " { public static int f() { return " + value + "; } }";
+   }
+
+   // Number of entries in the store
+   private int entries() {
+      int n = 0;
+      File[] files = cache.getRoot().listFiles();
+      if (files != null) {
+         for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory() && !name.startsWith(CompiledClassCache.TMP) && !name.startsWith(CompiledClassCache.DEL)) {
+               n++;
+            }
+         }
+      }
+      return n;
+   }
+
+   private static void delete(File f) {
+      File[] files = f.listFiles();
+      if (files != null) {
+         for (File g : files) {
+            delete(g);
+         }
+      }
+      f.delete();
+   }
+}